@@ -17,6 +17,8 @@
 package com.callmewill.launcher2;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import com.callmewill.launcher2.cache.IconCache;
@@ -25,7 +27,6 @@ import com.callmewill.launcher2.entity.ApplicationInfo;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 
@@ -47,6 +48,12 @@ public class AllAppsList {
     /** The list of apps that have been modified since the last notify() call. */
     public ArrayList<ApplicationInfo> modified = new ArrayList<ApplicationInfo>();
 
+    // Indexes over data, so that lookups don't have to scan the whole list
+    private HashMap<ComponentName, ApplicationInfo> mComponentIndex =
+            new HashMap<ComponentName, ApplicationInfo>(DEFAULT_APPLICATIONS_NUMBER);
+    private HashMap<String, ArrayList<ApplicationInfo>> mPackageIndex =
+            new HashMap<String, ArrayList<ApplicationInfo>>(DEFAULT_APPLICATIONS_NUMBER);
+
     private IconCache mIconCache;
 
     /**
@@ -63,15 +70,26 @@ public class AllAppsList {
      * If the app is already in the list, doesn't add it.
      */
     public void add(ApplicationInfo info) {
-        if (findActivity(data, info.componentName)) {
+        if (mComponentIndex.containsKey(info.componentName)) {
             return;
         }
         data.add(info);
         added.add(info);
+
+        mComponentIndex.put(info.componentName, info);
+        final String packageName = info.componentName.getPackageName();
+        ArrayList<ApplicationInfo> apps = mPackageIndex.get(packageName);
+        if (apps == null) {
+            apps = new ArrayList<ApplicationInfo>(1);
+            mPackageIndex.put(packageName, apps);
+        }
+        apps.add(info);
     }
     
     public void clear() {
         data.clear();
+        mComponentIndex.clear();
+        mPackageIndex.clear();
         // TODO: do we clear these too?
         added.clear();
         removed.clear();
@@ -103,17 +121,12 @@ public class AllAppsList {
      * Remove the apps for the given apk identified by packageName.
      */
     public void removePackage(String packageName) {
-        final List<ApplicationInfo> data = this.data;
-        for (int i = data.size() - 1; i >= 0; i--) {
-            ApplicationInfo info = data.get(i);
-            final ComponentName component = info.intent.getComponent();
-            if (packageName.equals(component.getPackageName())) {
-                removed.add(info);
-                data.remove(i);
-            }
+        final ArrayList<ApplicationInfo> apps = mPackageIndex.get(packageName);
+        if (apps != null) {
+            removed.addAll(apps);
+            removeAll(new ArrayList<ApplicationInfo>(apps));
         }
-        // This is more aggressive than it needs to be.
-        mIconCache.flush();
+        mIconCache.removePackage(packageName);
     }
 
     /**
@@ -121,19 +134,25 @@ public class AllAppsList {
      */
     public void updatePackage(Context context, String packageName) {
         final List<ResolveInfo> matches = findActivitiesForPackage(context, packageName);
+        final ArrayList<ApplicationInfo> apps = mPackageIndex.get(packageName);
         if (matches.size() > 0) {
             // Find disabled/removed activities and remove them from data and add them
             // to the removed list.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final ApplicationInfo applicationInfo = data.get(i);
-                final ComponentName component = applicationInfo.intent.getComponent();
-                if (packageName.equals(component.getPackageName())) {
-                    if (!findActivity(matches, component)) {
+            if (apps != null) {
+                final HashSet<String> classNames = new HashSet<String>(matches.size());
+                for (ResolveInfo info : matches) {
+                    classNames.add(info.activityInfo.name);
+                }
+                final ArrayList<ApplicationInfo> gone = new ArrayList<ApplicationInfo>();
+                for (ApplicationInfo applicationInfo : apps) {
+                    final ComponentName component = applicationInfo.componentName;
+                    if (!classNames.contains(component.getClassName())) {
                         removed.add(applicationInfo);
                         mIconCache.remove(component);
-                        data.remove(i);
+                        gone.add(applicationInfo);
                     }
                 }
+                removeAll(gone);
             }
 
             // Find enabled activities and add them to the adapter
@@ -152,15 +171,50 @@ public class AllAppsList {
                     modified.add(applicationInfo);
                 }
             }
-        } else {
+        } else if (apps != null) {
             // Remove all data for this package.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final ApplicationInfo applicationInfo = data.get(i);
-                final ComponentName component = applicationInfo.intent.getComponent();
-                if (packageName.equals(component.getPackageName())) {
-                    removed.add(applicationInfo);
-                    mIconCache.remove(component);
-                    data.remove(i);
+            for (ApplicationInfo applicationInfo : apps) {
+                removed.add(applicationInfo);
+                mIconCache.remove(applicationInfo.componentName);
+            }
+            removeAll(new ArrayList<ApplicationInfo>(apps));
+        }
+    }
+
+    /**
+     * Removes <em>apps</em> from data and the indexes, in one pass over data.
+     */
+    private void removeAll(ArrayList<ApplicationInfo> apps) {
+        if (apps.isEmpty()) {
+            return;
+        }
+        final ArrayList<ApplicationInfo> data = this.data;
+        if (apps.size() == 1) {
+            // Most packages have a single activity, which needs no set
+            data.remove(apps.get(0));
+        } else {
+            final HashSet<ApplicationInfo> gone = new HashSet<ApplicationInfo>(apps);
+            final int N = data.size();
+            int kept = 0;
+            for (int i = 0; i < N; i++) {
+                final ApplicationInfo info = data.get(i);
+                if (!gone.contains(info)) {
+                    data.set(kept++, info);
+                }
+            }
+            for (int i = N - 1; i >= kept; i--) {
+                data.remove(i);
+            }
+        }
+
+        for (ApplicationInfo info : apps) {
+            mComponentIndex.remove(info.componentName);
+            final String packageName = info.componentName.getPackageName();
+            final ArrayList<ApplicationInfo> packageApps = mPackageIndex.get(packageName);
+            if (packageApps != null) {
+                packageApps.remove(info);
+                if (packageApps.isEmpty()) {
+                    mPackageIndex.remove(packageName);
                 }
             }
         }
@@ -180,45 +234,10 @@ public class AllAppsList {
         return apps != null ? apps : new ArrayList<ResolveInfo>();
     }
 
-    /**
-     * Returns whether <em>apps</em> contains <em>component</em>.
-     */
-    private static boolean findActivity(List<ResolveInfo> apps, ComponentName component) {
-        final String className = component.getClassName();
-        for (ResolveInfo info : apps) {
-            final ActivityInfo activityInfo = info.activityInfo;
-            if (activityInfo.name.equals(className)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Returns whether <em>apps</em> contains <em>component</em>.
-     */
-    private static boolean findActivity(ArrayList<ApplicationInfo> apps, ComponentName component) {
-        final int N = apps.size();
-        for (int i=0; i<N; i++) {
-            final ApplicationInfo info = apps.get(i);
-            if (info.componentName.equals(component)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * Find an ApplicationInfo object for the given packageName and className.
      */
     private ApplicationInfo findApplicationInfoLocked(String packageName, String className) {
-        for (ApplicationInfo info: data) {
-            final ComponentName component = info.intent.getComponent();
-            if (packageName.equals(component.getPackageName())
-                    && className.equals(component.getClassName())) {
-                return info;
-            }
-        }
-        return null;
+        return mComponentIndex.get(new ComponentName(packageName, className));
     }
 }
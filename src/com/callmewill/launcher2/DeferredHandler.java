@@ -16,11 +16,13 @@
 
 package com.callmewill.launcher2;
 
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.MessageQueue;
-import android.util.Pair;
+import android.util.Log;
+import android.view.Choreographer;
 import java.util.LinkedList;
 import java.util.ListIterator;
 
@@ -29,36 +31,80 @@ import java.util.ListIterator;
  * be actually enqued on the handler until after the last one has run, to keep from
  * starving the thread.
  *
- * This class is fifo.
+ * Each turn (one vsync on Jelly Bean and later, one message before that) runs as many
+ * queued items as fit in the frame budget of the item at the head of the queue, going
+ * by how long items of that priority have taken so far.  Higher priorities get a
+ * bigger share of the frame, but never more than half of it: the rest is left for
+ * input, animation and drawing the frame itself.
+ *
+ * This class is fifo, whatever the priorities: bind runnables depend on the order
+ * they were posted in.
  */
 public class DeferredHandler {
-    private LinkedList<Pair<Runnable, Integer>> mQueue = new LinkedList<Pair<Runnable, Integer>>();
+    private static final String TAG = "Launcher.DeferredHandler";
+    // Logs every turn that went over its budget, with a count of them so far
+    private static final boolean DEBUG_OVERRUNS = false;
+
+    /** Current page: fill it in as fast as possible. */
+    public static final int PRIORITY_HIGH = 2;
+    public static final int PRIORITY_DEFAULT = 1;
+    /** Off-screen pages and widgets: leave most of the frame to input and animation. */
+    public static final int PRIORITY_LOW = 0;
+
+    // Per-turn budget for each priority, in nanoseconds; at most half a 60fps frame
+    private static final long[] FRAME_BUDGET_NANOS = {
+        3000000L, 5000000L, 8000000L
+    };
+
+    private static class Entry {
+        final Runnable runnable;
+        final int type;
+        final int priority;
+
+        Entry(Runnable runnable, int type, int priority) {
+            this.runnable = runnable;
+            this.type = type;
+            this.priority = priority;
+        }
+    }
+
+    private LinkedList<Entry> mQueue = new LinkedList<Entry>();
     private MessageQueue mMessageQueue = Looper.myQueue();
     private Impl mHandler = new Impl();
+    private FrameScheduler mFrameScheduler;
+    // Whether a turn has been asked for (or is running); guarded by mQueue
+    private boolean mScheduled;
+    // Running average of how long an item of each priority takes; only touched on the
+    // looper thread
+    private long[] mAverageNanos = new long[FRAME_BUDGET_NANOS.length];
+    // Turns run, and how many of them went over their budget; only with DEBUG_OVERRUNS
+    private int mTurns;
+    private int mOverruns;
 
     private class Impl extends Handler implements MessageQueue.IdleHandler {
         public void handleMessage(Message msg) {
-            Pair<Runnable, Integer> p;
-            Runnable r;
-            synchronized (mQueue) {
-                if (mQueue.size() == 0) {
-                    return;
-                }
-                p = mQueue.removeFirst();
-                r = p.first;
-            }
-            r.run();
-            synchronized (mQueue) {
-                scheduleNextLocked();
-            }
+            runQueue();
         }
 
         public boolean queueIdle() {
-            handleMessage(null);
+            runQueue();
             return false;
         }
     }
 
+    /** Turns on vsync, so that a batch runs right before the frame it shows up in. */
+    private class FrameScheduler implements Choreographer.FrameCallback {
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+
+        void schedule() {
+            mChoreographer.postFrameCallback(this);
+        }
+
+        public void doFrame(long frameTimeNanos) {
+            runQueue();
+        }
+    }
+
     private class IdleRunnable implements Runnable {
         Runnable mRunnable;
 
@@ -72,6 +118,9 @@ public class DeferredHandler {
     }
 
     public DeferredHandler() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mFrameScheduler = new FrameScheduler();
+        }
     }
 
     /** Schedule runnable to run after everything that's on the queue right now. */
@@ -79,9 +128,12 @@ public class DeferredHandler {
         post(runnable, 0);
     }
     public void post(Runnable runnable, int type) {
+        post(runnable, type, PRIORITY_DEFAULT);
+    }
+    public void post(Runnable runnable, int type, int priority) {
         synchronized (mQueue) {
-            mQueue.add(new Pair<Runnable, Integer>(runnable, type));
-            if (mQueue.size() == 1) {
+            mQueue.add(new Entry(runnable, type, priority));
+            if (!mScheduled) {
                 scheduleNextLocked();
             }
         }
@@ -97,16 +149,19 @@ public class DeferredHandler {
 
     public void cancelRunnable(Runnable runnable) {
         synchronized (mQueue) {
-            while (mQueue.remove(runnable)) { }
+            ListIterator<Entry> iter = mQueue.listIterator();
+            while (iter.hasNext()) {
+                if (iter.next().runnable == runnable) {
+                    iter.remove();
+                }
+            }
         }
     }
     public void cancelAllRunnablesOfType(int type) {
         synchronized (mQueue) {
-            ListIterator<Pair<Runnable, Integer>> iter = mQueue.listIterator();
-            Pair<Runnable, Integer> p;
+            ListIterator<Entry> iter = mQueue.listIterator();
             while (iter.hasNext()) {
-                p = iter.next();
-                if (p.second == type) {
+                if (iter.next().type == type) {
                     iter.remove();
                 }
             }
@@ -121,26 +176,84 @@ public class DeferredHandler {
 
     /** Runs all queued Runnables from the calling thread. */
     public void flush() {
-        LinkedList<Pair<Runnable, Integer>> queue = new LinkedList<Pair<Runnable, Integer>>();
+        LinkedList<Entry> queue = new LinkedList<Entry>();
         synchronized (mQueue) {
             queue.addAll(mQueue);
             mQueue.clear();
         }
-        for (Pair<Runnable, Integer> p : queue) {
-            p.first.run();
+        for (Entry e : queue) {
+            e.runnable.run();
+        }
+    }
+
+    /**
+     * Runs items off the head of the queue until the next one would go over the budget.
+     * At least one item runs per turn, and an idle runnable always ends the turn.
+     */
+    private void runQueue() {
+        final long start = System.nanoTime();
+        int ran = 0;
+        long budget = 0;
+        while (true) {
+            Entry e;
+            synchronized (mQueue) {
+                if (mQueue.isEmpty()) {
+                    break;
+                }
+                e = mQueue.getFirst();
+                if (ran > 0) {
+                    if (e.runnable instanceof IdleRunnable) {
+                        break;
+                    }
+                    final long elapsed = System.nanoTime() - start;
+                    if (elapsed + mAverageNanos[e.priority] > FRAME_BUDGET_NANOS[e.priority]) {
+                        break;
+                    }
+                }
+                mQueue.removeFirst();
+            }
+            if (ran == 0) {
+                budget = FRAME_BUDGET_NANOS[e.priority];
+            }
+
+            final long t = System.nanoTime();
+            e.runnable.run();
+            final long duration = System.nanoTime() - t;
+            ran++;
+            if (e.runnable instanceof IdleRunnable) {
+                break;
+            }
+            final long average = mAverageNanos[e.priority];
+            mAverageNanos[e.priority] = average == 0 ? duration : (3 * average + duration) / 4;
+        }
+        if (DEBUG_OVERRUNS && ran > 0) {
+            mTurns++;
+            final long elapsed = System.nanoTime() - start;
+            if (elapsed > budget) {
+                mOverruns++;
+                Log.d(TAG, "turn of " + ran + " items took " + elapsed / 1000 + "us, over its "
+                        + budget / 1000 + "us budget (" + mOverruns + " of " + mTurns
+                        + " turns over)");
+            }
+        }
+        synchronized (mQueue) {
+            mScheduled = false;
+            scheduleNextLocked();
         }
     }
 
     void scheduleNextLocked() {
         if (mQueue.size() > 0) {
-            Pair<Runnable, Integer> p = mQueue.getFirst();
-            Runnable peek = p.first;
+            mScheduled = true;
+            Entry e = mQueue.getFirst();
+            Runnable peek = e.runnable;
             if (peek instanceof IdleRunnable) {
                 mMessageQueue.addIdleHandler(mHandler);
+            } else if (mFrameScheduler != null) {
+                mFrameScheduler.schedule();
             } else {
                 mHandler.sendEmptyMessage(1);
             }
         }
     }
 }
-
@@ -31,10 +31,12 @@ import android.view.MotionEvent;
 import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
+import android.view.ViewTreeObserver;
 import android.view.inputmethod.InputMethodManager;
 
 import com.callmewill.launcher2.R;
 import com.callmewill.launcher2.entity.ShortcutInfo;
+import com.callmewill.launcher2.widget.DragLayer;
 import com.callmewill.launcher2.widget.DragView;
 
 import java.util.ArrayList;
@@ -57,6 +59,8 @@ public class DragController {
     private static final int VIBRATE_DURATION = 15;
 
     private static final boolean PROFILE_DRAWING_DURING_DRAG = false;
+    // Logs how many drop targets were tested per move event, at the end of each drag
+    private static final boolean PROFILE_DROP_TARGET_LOOKUP = false;
 
     private static final int SCROLL_OUTSIDE_ZONE = 0;
     private static final int SCROLL_WAITING_IN_ZONE = 1;
@@ -72,7 +76,6 @@ public class DragController {
     private final Vibrator mVibrator;
 
     // temporaries to avoid gc thrash
-    private Rect mRectTemp = new Rect();
     private final int[] mCoordinatesTemp = new int[2];
 
     /** Whether or not we're dragging. */
@@ -93,6 +96,10 @@ public class DragController {
 
     /** Who can receive drop events */
     private ArrayList<DropTarget> mDropTargets = new ArrayList<DropTarget>();
+    private final DropTargetIndex mDropTargetIndex = new DropTargetIndex();
+    private final DropTargetInvalidator mDropTargetInvalidator = new DropTargetInvalidator();
+    private int mDropTargetLookups;
+    private int mDropTargetProbes;
     private ArrayList<DragListener> mListeners = new ArrayList<DragListener>();
     private DropTarget mFlingToDeleteDropTarget;
 
@@ -122,6 +129,21 @@ public class DragController {
     protected int mFlingToDeleteThresholdVelocity;
     private VelocityTracker mVelocityTracker;
 
+    /**
+     * Marks the drop target rects stale when the DragLayer's views are laid out or scrolled
+     * during a drag.
+     */
+    private class DropTargetInvalidator implements ViewTreeObserver.OnGlobalLayoutListener,
+            ViewTreeObserver.OnScrollChangedListener {
+        public void onGlobalLayout() {
+            mDropTargetIndex.invalidate();
+        }
+
+        public void onScrollChanged() {
+            mDropTargetIndex.invalidate();
+        }
+    }
+
     /**
      * Interface to receive notifications when a drag starts or stops
      */
@@ -242,6 +264,7 @@ public class DragController {
         //在DragLayer的onInterceptTouchEvent()中根据这个值判断是否拦截MotionEvent  
         
         mDragging = true;
+        startTrackingDropTargets();
         //实例化DragObject，表示拖拽的对象  
         //封装了拖拽对象的信息  
         mDragObject = new DropTarget.DragObject();
@@ -363,6 +386,7 @@ public class DragController {
     private void endDrag() {
         if (mDragging) {
             mDragging = false;
+            stopTrackingDropTargets();
             clearScrollRunnable();
             boolean isDeferred = false;
             if (mDragObject.dragView != null) {
@@ -686,38 +710,69 @@ public class DragController {
     }
 
     private DropTarget findDropTarget(int x, int y, int[] dropCoordinates) {
-        final Rect r = mRectTemp;
+        final DropTargetIndex index = mDropTargetIndex;
+        if (index.isStale()) {
+            final DragLayer dragLayer = mLauncher.getDragLayer();
+            index.rebuild(mDropTargets, dragLayer.getWidth(), dragLayer.getHeight());
+        }
 
-        final ArrayList<DropTarget> dropTargets = mDropTargets;
-        final int count = dropTargets.size();
-        for (int i=count-1; i>=0; i--) {
-            DropTarget target = dropTargets.get(i);
-            if (!target.isDropEnabled())
-                continue;
+        final int entry = index.find(x, y);
+        mDropTargetLookups++;
+        mDropTargetProbes += index.getLastProbeCount();
 
-            target.getHitRect(r);
+        mDragObject.x = x;
+        mDragObject.y = y;
+        if (entry < 0) {
+            return null;
+        }
 
-            // Convert the hit rect to DragLayer coordinates
+        DropTarget target = index.getTarget(entry);
+        dropCoordinates[0] = index.getLocationX(entry);
+        dropCoordinates[1] = index.getLocationY(entry);
+        DropTarget delegate = target.getDropTargetDelegate(mDragObject);
+        if (delegate != null) {
+            target = delegate;
             target.getLocationInDragLayer(dropCoordinates);
-            r.offset(dropCoordinates[0] - target.getLeft(), dropCoordinates[1] - target.getTop());
-
-            mDragObject.x = x;
-            mDragObject.y = y;
-            if (r.contains(x, y)) {
-                DropTarget delegate = target.getDropTargetDelegate(mDragObject);
-                if (delegate != null) {
-                    target = delegate;
-                    target.getLocationInDragLayer(dropCoordinates);
-                }
+        }
 
-                // Make dropCoordinates relative to the DropTarget
-                dropCoordinates[0] = x - dropCoordinates[0];
-                dropCoordinates[1] = y - dropCoordinates[1];
+        // Make dropCoordinates relative to the DropTarget
+        dropCoordinates[0] = x - dropCoordinates[0];
+        dropCoordinates[1] = y - dropCoordinates[1];
 
-                return target;
-            }
+        return target;
+    }
+
+    private void startTrackingDropTargets() {
+        mDropTargetIndex.invalidate();
+        mDropTargetLookups = 0;
+        mDropTargetProbes = 0;
+        final ViewTreeObserver observer = mLauncher.getDragLayer().getViewTreeObserver();
+        if (observer.isAlive()) {
+            observer.addOnGlobalLayoutListener(mDropTargetInvalidator);
+            observer.addOnScrollChangedListener(mDropTargetInvalidator);
         }
-        return null;
+    }
+
+    private void stopTrackingDropTargets() {
+        final ViewTreeObserver observer = mLauncher.getDragLayer().getViewTreeObserver();
+        if (observer.isAlive()) {
+            observer.removeOnGlobalLayoutListener(mDropTargetInvalidator);
+            observer.removeOnScrollChangedListener(mDropTargetInvalidator);
+        }
+        if (PROFILE_DROP_TARGET_LOOKUP && mDropTargetLookups > 0) {
+            Log.d(TAG, "Tested " + mDropTargetProbes + " drop targets over "
+                    + mDropTargetLookups + " lookups ("
+                    + ((float) mDropTargetProbes / mDropTargetLookups) + " per move)");
+        }
+    }
+
+    /**
+     * Has the drop target rects worked out again on the next move event. Called by
+     * anything that moves a drop target without a layout or scroll, such as a
+     * translation or scale animation.
+     */
+    public void invalidateDropTargetBounds() {
+        mDropTargetIndex.invalidate();
     }
 
     public void setDragScoller(DragScroller scroller) {
@@ -747,6 +802,7 @@ public class DragController {
      */
     public void addDropTarget(DropTarget target) {
         mDropTargets.add(target);
+        mDropTargetIndex.invalidate();
     }
 
     /**
@@ -754,6 +810,7 @@ public class DragController {
      */
     public void removeDropTarget(DropTarget target) {
         mDropTargets.remove(target);
+        mDropTargetIndex.invalidate();
     }
 
     /**
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+
+/**
+ * The hit rects of the registered drop targets in DragLayer coordinates, bucketed on a
+ * coarse grid over the DragLayer so that finding the target under a touch only tests the
+ * targets overlapping its bucket. The rects are worked out again after {@link #invalidate}
+ * (layout, scroll, targets added or removed, an animation moving a target) and are reused
+ * for every move event until then.
+ *
+ * Only touched on the UI thread.
+ */
+final class DropTargetIndex {
+    private static final int BUCKETS_X = 4;
+    private static final int BUCKETS_Y = 4;
+
+    private DropTarget[] mTargets = new DropTarget[0];
+    private Rect[] mRects = new Rect[0];
+    // Where each target is in the DragLayer, for making the drop coordinates relative to it
+    private int[] mLocations = new int[0];
+    private int mCount;
+
+    // Entries overlapping each bucket, latest registered first, as that is the order
+    // overlapping targets win in
+    private final int[][] mBuckets = new int[BUCKETS_X * BUCKETS_Y][];
+    private final int[] mBucketSizes = new int[BUCKETS_X * BUCKETS_Y];
+    private int mWidth;
+    private int mHeight;
+
+    private boolean mStale = true;
+    private int mLastProbeCount;
+
+    private final int[] mTmpLocation = new int[2];
+
+    void invalidate() {
+        mStale = true;
+    }
+
+    boolean isStale() {
+        return mStale;
+    }
+
+    /**
+     * Works the rects out again for the targets, in the order they were registered in, on
+     * a DragLayer of the given size.
+     */
+    void rebuild(ArrayList<DropTarget> targets, int width, int height) {
+        final int count = targets.size();
+        if (mTargets.length < count) {
+            mTargets = new DropTarget[count];
+            mRects = new Rect[count];
+            mLocations = new int[count * 2];
+            for (int i = 0; i < count; i++) {
+                mRects[i] = new Rect();
+            }
+        }
+        for (int i = count; i < mCount; i++) {
+            mTargets[i] = null;
+        }
+        mCount = count;
+        mWidth = Math.max(width, 1);
+        mHeight = Math.max(height, 1);
+        for (int b = 0; b < mBucketSizes.length; b++) {
+            mBucketSizes[b] = 0;
+        }
+
+        for (int i = count - 1; i >= 0; i--) {
+            final DropTarget target = targets.get(i);
+            final Rect r = mRects[i];
+            final int[] loc = mTmpLocation;
+            mTargets[i] = target;
+
+            target.getHitRect(r);
+            // Convert the hit rect to DragLayer coordinates
+            target.getLocationInDragLayer(loc);
+            r.offset(loc[0] - target.getLeft(), loc[1] - target.getTop());
+            mLocations[i * 2] = loc[0];
+            mLocations[i * 2 + 1] = loc[1];
+
+            if (r.isEmpty() || r.right <= 0 || r.bottom <= 0 || r.left >= mWidth
+                    || r.top >= mHeight) {
+                continue;
+            }
+            final int fromX = bucketX(Math.max(r.left, 0));
+            final int toX = bucketX(Math.min(r.right, mWidth) - 1);
+            final int fromY = bucketY(Math.max(r.top, 0));
+            final int toY = bucketY(Math.min(r.bottom, mHeight) - 1);
+            for (int by = fromY; by <= toY; by++) {
+                for (int bx = fromX; bx <= toX; bx++) {
+                    addToBucket(by * BUCKETS_X + bx, i);
+                }
+            }
+        }
+        mStale = false;
+    }
+
+    private void addToBucket(int bucket, int entry) {
+        int[] entries = mBuckets[bucket];
+        final int size = mBucketSizes[bucket];
+        if (entries == null || entries.length == size) {
+            final int[] grown = new int[Math.max(4, size * 2)];
+            if (entries != null) {
+                System.arraycopy(entries, 0, grown, 0, size);
+            }
+            entries = mBuckets[bucket] = grown;
+        }
+        entries[size] = entry;
+        mBucketSizes[bucket] = size + 1;
+    }
+
+    private int bucketX(int x) {
+        return Math.min(x * BUCKETS_X / mWidth, BUCKETS_X - 1);
+    }
+
+    private int bucketY(int y) {
+        return Math.min(y * BUCKETS_Y / mHeight, BUCKETS_Y - 1);
+    }
+
+    /**
+     * Returns the entry of the enabled target whose rect contains the point, or -1. Points
+     * off the DragLayer fall back to testing every target.
+     */
+    int find(int x, int y) {
+        int probes = 0;
+        int found = -1;
+        if (x >= 0 && y >= 0 && x < mWidth && y < mHeight) {
+            final int bucket = bucketY(y) * BUCKETS_X + bucketX(x);
+            final int[] entries = mBuckets[bucket];
+            final int size = mBucketSizes[bucket];
+            for (int j = 0; j < size; j++) {
+                final int i = entries[j];
+                probes++;
+                if (mTargets[i].isDropEnabled() && mRects[i].contains(x, y)) {
+                    found = i;
+                    break;
+                }
+            }
+        } else {
+            for (int i = mCount - 1; i >= 0; i--) {
+                probes++;
+                if (mTargets[i].isDropEnabled() && mRects[i].contains(x, y)) {
+                    found = i;
+                    break;
+                }
+            }
+        }
+        mLastProbeCount = probes;
+        return found;
+    }
+
+    /** How many targets the last {@link #find} looked at. */
+    int getLastProbeCount() {
+        return mLastProbeCount;
+    }
+
+    DropTarget getTarget(int entry) {
+        return mTargets[entry];
+    }
+
+    int getLocationX(int entry) {
+        return mLocations[entry * 2];
+    }
+
+    int getLocationY(int entry) {
+        return mLocations[entry * 2 + 1];
+    }
+}
@@ -23,6 +23,9 @@ import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 
+import com.callmewill.launcher2.utils.AlphaBlur;
+import com.callmewill.launcher2.utils.PixelBufferCache;
+
 public class HolographicOutlineHelper {
     private final Paint mHolographicPaint = new Paint();
     private final Paint mBlurPaint = new Paint();
@@ -39,16 +42,49 @@ public class HolographicOutlineHelper {
     private static final BlurMaskFilter sExtraThickInnerBlurMaskFilter;
     private static final BlurMaskFilter sMediumInnerBlurMaskFilter;
 
+    // Blur sigmas for the outlines made on pixel arrays, indexed by thickness
+    private static final float[] sOuterBlurSigmas;
+    private static final float[] sBrightOutlineSigmas;
+    private static final float[] sInnerBlurSigmas;
+
     private static final int THICK = 0;
     private static final int MEDIUM = 1;
     private static final int EXTRA_THICK = 2;
 
+    private static final int CLIP_ALPHA_THRESHOLD = 188;
+
+    // Outlines up to this many pixels are made in the scratch buffers below, larger ones
+    // (widgets) with BlurMaskFilter
+    private static final int MAX_BUFFERED_PIXELS = 256 * 256;
+    private static final int BUFFER_PIXELS = 0;
+    private static final int BUFFER_SHAPE = 1;
+    private static final int BUFFER_GLOW = 2;
+    private static final int BUFFER_BLUR = 3;
+    private static final int BUFFER_TEMP = 4;
+    private static final PixelBufferCache sBuffers = new PixelBufferCache(5);
+
     static {
         final float scale = LauncherApplication.getScreenDensity();
 
         MIN_OUTER_BLUR_RADIUS = (int) (scale * 1.0f);
         MAX_OUTER_BLUR_RADIUS = (int) (scale * 12.0f);
 
+        sOuterBlurSigmas = new float[] {
+            AlphaBlur.radiusToSigma(scale * 6.0f),
+            AlphaBlur.radiusToSigma(scale * 2.0f),
+            AlphaBlur.radiusToSigma(scale * 12.0f)
+        };
+        sBrightOutlineSigmas = new float[] {
+            AlphaBlur.radiusToSigma(scale * 1.0f),
+            AlphaBlur.radiusToSigma(scale * 1.0f),
+            AlphaBlur.radiusToSigma(scale * 2.0f)
+        };
+        sInnerBlurSigmas = new float[] {
+            AlphaBlur.radiusToSigma(scale * 4.0f),
+            AlphaBlur.radiusToSigma(scale * 2.0f),
+            AlphaBlur.radiusToSigma(scale * 6.0f)
+        };
+
         sExtraThickOuterBlurMaskFilter = new BlurMaskFilter(scale * 12.0f, BlurMaskFilter.Blur.OUTER);
         sThickOuterBlurMaskFilter = new BlurMaskFilter(scale * 6.0f, BlurMaskFilter.Blur.OUTER);
         sMediumOuterBlurMaskFilter = new BlurMaskFilter(scale * 2.0f, BlurMaskFilter.Blur.OUTER);
@@ -100,21 +136,30 @@ public class HolographicOutlineHelper {
     }
     void applyExpensiveOutlineWithBlur(Bitmap srcDst, Canvas srcDstCanvas, int color,
             int outlineColor, boolean clipAlpha, int thickness) {
+        if (thickness < THICK || thickness > EXTRA_THICK) {
+            throw new RuntimeException("Invalid blur thickness");
+        }
+        final int width = srcDst.getWidth();
+        final int height = srcDst.getHeight();
+        final int count = width * height;
+        if (count <= MAX_BUFFERED_PIXELS) {
+            applyBufferedOutlineWithBlur(srcDst, width, height, color, outlineColor,
+                    clipAlpha, thickness);
+            return;
+        }
 
         // We start by removing most of the alpha channel so as to ignore shadows, and
         // other types of partial transparency when defining the shape of the object
         if (clipAlpha) {
-            int[] srcBuffer = new int[srcDst.getWidth() * srcDst.getHeight()];
-            srcDst.getPixels(srcBuffer,
-                    0, srcDst.getWidth(), 0, 0, srcDst.getWidth(), srcDst.getHeight());
-            for (int i = 0; i < srcBuffer.length; i++) {
+            int[] srcBuffer = new int[count];
+            srcDst.getPixels(srcBuffer, 0, width, 0, 0, width, height);
+            for (int i = 0; i < count; i++) {
                 final int alpha = srcBuffer[i] >>> 24;
-                if (alpha < 188) {
+                if (alpha < CLIP_ALPHA_THRESHOLD) {
                     srcBuffer[i] = 0;
                 }
             }
-            srcDst.setPixels(srcBuffer,
-                    0, srcDst.getWidth(), 0, 0, srcDst.getWidth(), srcDst.getHeight());
+            srcDst.setPixels(srcBuffer, 0, width, 0, 0, width, height);
         }
         Bitmap glowShape = srcDst.extractAlpha();
 
@@ -197,6 +242,42 @@ public class HolographicOutlineHelper {
         glowShape.recycle();
     }
 
+    /**
+     * The same outline as above, worked out on the alpha values in this thread's scratch
+     * buffers rather than in four intermediate alpha bitmaps.
+     */
+    private static void applyBufferedOutlineWithBlur(Bitmap srcDst, int width, int height,
+            int color, int outlineColor, boolean clipAlpha, int thickness) {
+        final int count = width * height;
+        final int[][] buffers = sBuffers.get(count);
+        final int[] pixels = buffers[BUFFER_PIXELS];
+        final int[] shape = buffers[BUFFER_SHAPE];
+        final int[] glow = buffers[BUFFER_GLOW];
+        final int[] blur = buffers[BUFFER_BLUR];
+        final int[] temp = buffers[BUFFER_TEMP];
+
+        srcDst.getPixels(pixels, 0, width, 0, 0, width, height);
+        AlphaBlur.extractAlpha(pixels, shape, count, clipAlpha ? CLIP_ALPHA_THRESHOLD : 0);
+
+        // the outer blur
+        AlphaBlur.gaussianBlur(shape, glow, temp, width, height, sOuterBlurSigmas[thickness]);
+        AlphaBlur.maskOut(glow, shape, count);
+
+        // the inner blur, masked to the inside of the shape
+        AlphaBlur.invert(shape, pixels, count);
+        AlphaBlur.gaussianBlur(pixels, blur, temp, width, height, sInnerBlurSigmas[thickness]);
+        AlphaBlur.maskIn(blur, shape, count);
+        AlphaBlur.union(glow, blur, count);
+
+        // the bright outline
+        AlphaBlur.gaussianBlur(shape, blur, temp, width, height,
+                sBrightOutlineSigmas[thickness]);
+        AlphaBlur.maskOut(blur, shape, count);
+
+        AlphaBlur.composite(pixels, glow, color, blur, outlineColor, count);
+        srcDst.setPixels(pixels, 0, width, 0, 0, width, height);
+    }
+
     public void applyExtraThickExpensiveOutlineWithBlur(Bitmap srcDst, Canvas srcDstCanvas, int color,
             int outlineColor) {
         applyExpensiveOutlineWithBlur(srcDst, srcDstCanvas, color, outlineColor, EXTRA_THICK);
@@ -16,6 +16,7 @@
 
 package com.callmewill.launcher2;
 
+import com.callmewill.launcher2.cache.PagedViewIconCache;
 import com.callmewill.launcher2.drawable.FastBitmapDrawable;
 
 import android.content.Context;
@@ -30,6 +31,7 @@ import android.widget.ImageView;
 public class HolographicViewHelper {
 
     private final Canvas mTempCanvas = new Canvas();
+    private final PagedViewIconCache mOutlineCache;
 
     private boolean mStatesUpdated;
     private int mHighlightColor;
@@ -37,6 +39,8 @@ public class HolographicViewHelper {
     public HolographicViewHelper(Context context) {
         Resources res = context.getResources();
         mHighlightColor = res.getColor(android.R.color.holo_blue_light);
+        mOutlineCache = ((LauncherApplication) context.getApplicationContext())
+                .getOutlineCache();
     }
 
     /**
@@ -87,10 +91,21 @@ public class HolographicViewHelper {
 
     /**
      * Creates a new press state image which is the old image with a blue overlay.
-     * Responsibility for the bitmap is transferred to the caller.
+     * The image is cached against the drawable's constant state (the search bar icons keep
+     * theirs across activity restarts), so it must not be drawn into or recycled.
      */
     private Bitmap createPressImage(ImageView v, Canvas canvas) {
         final Drawable d = v.getDrawable();
+        final Drawable.ConstantState state = d.getConstantState();
+        PagedViewIconCache.Key key = null;
+        if (state != null) {
+            key = new PagedViewIconCache.Key(null, PagedViewIconCache.Key.Type.PressedImageKey,
+                    state, d.getIntrinsicWidth(), d.getIntrinsicHeight(), mHighlightColor, 0);
+            final Bitmap cached = mOutlineCache.getOutline(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
         final Bitmap b = Bitmap.createBitmap(
                 d.getIntrinsicWidth(), d.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
 
@@ -101,6 +116,9 @@ public class HolographicViewHelper {
         canvas.drawColor(mHighlightColor, PorterDuff.Mode.SRC_IN);
         canvas.setBitmap(null);
 
+        if (key != null) {
+            mOutlineCache.addOutline(key, b);
+        }
         return b;
     }
 }
@@ -799,6 +799,8 @@ public final class Launcher extends Activity
         mPaused = true;
         mDragController.cancelDrag();
         mDragController.resetLastGestureUpTime();
+        // We may be killed any time from here on
+        mModel.flushDatabaseWrites();
     }
 
     @Override
@@ -2798,6 +2800,9 @@ public final class Launcher extends Activity
     @Override
     public void onTrimMemory(int level) {
         super.onTrimMemory(level);
+        mIconCache.trimMemory(level);
+        ((LauncherApplication) getApplication()).getWidgetPreviewCache().trimMemory(level);
+        ((LauncherApplication) getApplication()).getOutlineCache().trimMemory(level);
         if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
             mAppsCustomizeTabHost.onTrimMemory();
         }
@@ -3420,6 +3425,22 @@ public final class Launcher extends Activity
         sFolders.putAll(folders);
     }
 
+    /**
+     * Remove the views of items that were deleted from the database by someone else.
+     *
+     * Implementation of the method from LauncherModel.Callbacks.
+     */
+    public void bindItemsRemoved(ArrayList<ItemInfo> items) {
+        final HashSet<Long> ids = new HashSet<Long>();
+        for (ItemInfo item : items) {
+            ids.add(item.id);
+            if (item instanceof FolderInfo) {
+                sFolders.remove(item.id);
+            }
+        }
+        mWorkspace.removeItemsById(ids);
+    }
+
     /**
      * Add the views for a widget to the workspace.
      *
@@ -3909,6 +3930,7 @@ public final class Launcher extends Activity
         Log.d(TAG, "mSavedInstanceState=" + mSavedInstanceState);
         Log.d(TAG, "sFolders.size=" + sFolders.size());
         mModel.dumpState();
+        mIconCache.dumpState();
 
         if (mAppsCustomizeContent != null) {
             mAppsCustomizeContent.dumpState();
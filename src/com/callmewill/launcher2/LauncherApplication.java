@@ -28,6 +28,8 @@ import android.os.Handler;
 
 import com.callmewill.launcher2.R;
 import com.callmewill.launcher2.cache.IconCache;
+import com.callmewill.launcher2.cache.PagedViewIconCache;
+import com.callmewill.launcher2.cache.WidgetPreviewCache;
 import com.callmewill.launcher2.provider.LauncherProvider;
 import com.callmewill.launcher2.provider.LauncherSettings;
 import com.callmewill.launcher2.receiver.LauncherModel;
@@ -37,6 +39,8 @@ import java.lang.ref.WeakReference;
 public class LauncherApplication extends Application {
 	public LauncherModel mModel;
 	public IconCache mIconCache;
+	private WidgetPreviewCache mWidgetPreviewCache;
+	private PagedViewIconCache mOutlineCache;
 	private static boolean sIsScreenLarge;
 	private static float sScreenDensity;
 	private static int sLongPressTimeout = 300;
@@ -55,6 +59,8 @@ public class LauncherApplication extends Application {
 		sScreenDensity = getResources().getDisplayMetrics().density;
 
 		mIconCache = new IconCache(this);// 来设置了应用程序的图标的cache
+		mWidgetPreviewCache = new WidgetPreviewCache(this);
+		mOutlineCache = new PagedViewIconCache(this);
 		/*
 		 * LauncherModel主要用于加载桌面的图标、插件和文件夹，
 		 * 同时LaucherModel是一个广播接收器，在程序包发生改变、区域、或者配置文件发生改变时，
@@ -130,11 +136,9 @@ public class LauncherApplication extends Application {
 			new Handler()) {
 		@Override
 		public void onChange(boolean selfChange) {
-			// If the database has ever changed, then we really need to force a
-			// reload of the
-			// workspace on the next load
-			mModel.resetLoadedState(false, true);
-			mModel.startLoaderFromBackground();
+			// Our own writes are ignored, other changes are merged in or
+			// reload the workspace
+			mModel.onFavoritesChanged();
 		}
 	};
 
@@ -147,6 +151,15 @@ public class LauncherApplication extends Application {
 		return mIconCache;
 	}
 
+	public WidgetPreviewCache getWidgetPreviewCache() {
+		return mWidgetPreviewCache;
+	}
+
+	/** The glows and drag outlines shared by all the views. */
+	public PagedViewIconCache getOutlineCache() {
+		return mOutlineCache;
+	}
+
 	public LauncherModel getModel() {
 		return mModel;
 	}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Values made on demand and kept in a {@link Store}. A key missing from the store is made
+ * by one thread at a time: other threads missing on it meanwhile wait for that result
+ * instead of making it again. No lock is held while a value is being made.
+ *
+ * {@link #invalidate} takes values out of the store, and makes sure that values being made
+ * at that moment, from what may be stale data, are not put back in afterwards.
+ *
+ * Plain Java, so that it can be exercised off the device.
+ */
+public final class ComputeOnceCache<K, V> {
+    /** Where the values are kept. Must be safe to call from any thread. */
+    public interface Store<K, V> {
+        V get(K key);
+
+        void put(K key, V value);
+
+        /** Removes the values of the keys the filter accepts, or of every key if it is null. */
+        void removeAll(KeyFilter<K> filter);
+    }
+
+    public interface KeyFilter<K> {
+        boolean accept(K key);
+    }
+
+    public interface Maker<V> {
+        V make();
+    }
+
+    private final Store<K, V> mStore;
+    // Values being made right now
+    private final ConcurrentHashMap<K, FutureTask<V>> mPending =
+            new ConcurrentHashMap<K, FutureTask<V>>();
+    // Bumped by every invalidation, so that values made from older data are not stored.
+    // Puts into the store are checked against it under the same lock, so none can slip
+    // in between an invalidation and its removal.
+    private final Object mLock = new Object();
+    private int mGeneration;
+
+    public ComputeOnceCache(Store<K, V> store) {
+        mStore = store;
+    }
+
+    /**
+     * Returns the value stored for the key, making it with the maker if there is none.
+     * Exceptions thrown by the maker are rethrown to every caller waiting on it.
+     */
+    public V get(final K key, final Maker<V> maker) {
+        V value = mStore.get(key);
+        if (value != null) {
+            return value;
+        }
+
+        final int generation;
+        synchronized (mLock) {
+            generation = mGeneration;
+        }
+        final FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+            public V call() {
+                // Another thread may have finished this value after our miss above
+                V made = mStore.get(key);
+                if (made == null) {
+                    made = maker.make();
+                    synchronized (mLock) {
+                        if (generation == mGeneration) {
+                            mStore.put(key, made);
+                        }
+                    }
+                }
+                return made;
+            }
+        });
+        FutureTask<V> pending = mPending.putIfAbsent(key, task);
+        if (pending == null) {
+            pending = task;
+            try {
+                task.run();
+            } finally {
+                mPending.remove(key, task);
+            }
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return pending.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Removes the values of the keys the filter accepts, or of every key if it is null.
+     * Later misses on those keys make them again rather than wait for a value that was
+     * being made before.
+     */
+    public void invalidate(KeyFilter<K> filter) {
+        synchronized (mLock) {
+            mGeneration++;
+            if (filter == null) {
+                mPending.clear();
+            } else {
+                for (K key : mPending.keySet()) {
+                    if (filter.accept(key)) {
+                        mPending.remove(key);
+                    }
+                }
+            }
+            mStore.removeAll(filter);
+        }
+    }
+
+    public int getPendingCount() {
+        return mPending.size();
+    }
+}
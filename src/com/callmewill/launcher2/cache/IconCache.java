@@ -17,56 +17,124 @@
 package com.callmewill.launcher2.cache;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import android.app.ActivityManager;
 import android.content.ComponentName;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ComponentCallbacks2;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
 
 import com.callmewill.launcher2.LauncherApplication;
 import com.callmewill.launcher2.entity.ApplicationInfo;
+import com.callmewill.launcher2.entity.ItemInfo;
 import com.callmewill.launcher2.receiver.LauncherModel;
 import com.callmewill.launcher2.utils.Utilities;
 
 /**
  * Cache of application icons.  Icons can be made from any thread.
  * 缓存应用程序的图标，图标可以从任意线程中获取
+ *
+ * No lock is held while an icon is being made: a miss on one component only makes the
+ * callers asking for that same component wait, and each icon is made at most once.
  */
 public class IconCache {
-    @SuppressWarnings("unused")
     private static final String TAG = "Launcher.IconCache";
 
-    private static final int INITIAL_ICON_CACHE_CAPACITY = 50;//缓存图标初始容量
+    // Fraction of the memory class that the in-memory icons may use
+    private static final int MEMORY_CLASS_FRACTION = 8;
 
     private static class CacheEntry {
         public Bitmap icon;
         public String title;
     }
 
+    private static class PersistedLabel {
+        public final long lastUpdated;
+        public final String title;
+
+        PersistedLabel(long lastUpdated, String title) {
+            this.lastUpdated = lastUpdated;
+            this.title = title;
+        }
+    }
+
     private final Bitmap mDefaultIcon;
     private final LauncherApplication mContext;
     private final PackageManager mPackageManager;
-    private final HashMap<ComponentName, CacheEntry> mCache =
-            new HashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    private final LruCache<ComponentName, CacheEntry> mCache;
+    // Makes the entries missing from mCache, once each, and keeps entries made from stale
+    // data out of it after records are removed
+    private final ComputeOnceCache<ComponentName, CacheEntry> mEntries;
     private int mIconDpi;
 
+    // Persistent copy of mCache so that a cold start does not have to load every label and
+    // rasterize every icon again. Rows are only trusted while the package's lastUpdateTime,
+    // the icon dpi and the locale they were created with still match.
+    private final IconDB mIconDb;
+    private final PackageCaches.UpdateTimes mPackageUpdateTimes;
+
     public IconCache(LauncherApplication context) {
         ActivityManager activityManager =
                 (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
 
         mContext = context;
         mPackageManager = context.getPackageManager();
+        mPackageUpdateTimes = new PackageCaches.UpdateTimes(mPackageManager);
         mIconDpi = activityManager.getLauncherLargeIconDensity();//获得首选的图标大小的密度
 
+        // Entries are weighed by the bytes of their icon. Evicted entries are cheap to bring
+        // back, they are still in the persistent store.
+        final int maxBytes = activityManager.getMemoryClass() * 1024 * 1024
+                / MEMORY_CLASS_FRACTION;
+        mCache = new LruCache<ComponentName, CacheEntry>(maxBytes) {
+            @Override
+            protected int sizeOf(ComponentName key, CacheEntry entry) {
+                return entry.icon != null ? entry.icon.getRowBytes() * entry.icon.getHeight() : 0;
+            }
+        };
+        mEntries = new ComputeOnceCache<ComponentName, CacheEntry>(
+                new ComputeOnceCache.Store<ComponentName, CacheEntry>() {
+                    public CacheEntry get(ComponentName key) {
+                        return mCache.get(key);
+                    }
+
+                    public void put(ComponentName key, CacheEntry entry) {
+                        mCache.put(key, entry);
+                    }
+
+                    public void removeAll(ComputeOnceCache.KeyFilter<ComponentName> filter) {
+                        if (filter == null) {
+                            mCache.evictAll();
+                            return;
+                        }
+                        for (ComponentName cn : mCache.snapshot().keySet()) {
+                            if (filter.accept(cn)) {
+                                mCache.remove(cn);
+                            }
+                        }
+                    }
+                });
+
         // need to set mIconDpi before getting default icon
         mDefaultIcon = makeDefaultIcon();//设置默认图片
+        mIconDb = new IconDB(context);
     }
     
     /**
@@ -168,10 +236,12 @@ public class IconCache {
      * Remove any records for the supplied ComponentName.
      * 根据ComponetName删除任意图片缓存
      */
-    public void remove(ComponentName componentName) {
-        synchronized (mCache) {
-            mCache.remove(componentName);
-        }
+    public void remove(final ComponentName componentName) {
+        mEntries.invalidate(new ComputeOnceCache.KeyFilter<ComponentName>() {
+            public boolean accept(ComponentName cn) {
+                return componentName.equals(cn);
+            }
+        });
     }
 
     /**
@@ -179,8 +249,74 @@ public class IconCache {
      * 清楚图片缓存
      */
     public void flush() {
-        synchronized (mCache) {
-            mCache.clear();
+        mEntries.invalidate(null);
+    }
+
+    /**
+     * Remove the in-memory records of every component in the supplied package.
+     */
+    public void removePackage(final String packageName) {
+        mEntries.invalidate(new ComputeOnceCache.KeyFilter<ComponentName>() {
+            public boolean accept(ComponentName cn) {
+                return packageName.equals(cn.getPackageName());
+            }
+        });
+    }
+
+    /**
+     * Shrinks the cache according to a {@link ComponentCallbacks2} trim level.
+     */
+    public void trimMemory(int level) {
+        PackageCaches.trimMemory(mCache, level);
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    public void dumpState() {
+        Log.d(TAG, "mCache " + mCache + " size=" + mCache.size() + "/" + mCache.maxSize()
+                + " bytes pending=" + mEntries.getPendingCount());
+    }
+
+    /**
+     * Drops every in-memory and persisted record for the supplied package. Called when the
+     * package is added, updated or removed so its icons and labels are rebuilt on next use.
+     */
+    public void invalidatePackage(String packageName) {
+        removePackage(packageName);
+        mPackageUpdateTimes.forget(packageName);
+        mIconDb.deletePackage(packageName);
+    }
+
+    /**
+     * Fills in <em>labelCache</em> with the persisted labels of the supplied activities, so
+     * that sorting the all apps list does not have to load each label from its package.
+     */
+    public void loadPersistedLabels(List<ResolveInfo> apps,
+            HashMap<Object, CharSequence> labelCache) {
+        final HashMap<ComponentName, PersistedLabel> labels =
+                mIconDb.loadLabels(mIconDpi, getLocaleKey());
+        if (labels.isEmpty()) {
+            return;
+        }
+        for (ResolveInfo info : apps) {
+            final ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
+            final PersistedLabel label = labels.get(key);
+            if (label == null || labelCache.containsKey(key)) {
+                continue;
+            }
+            if (label.lastUpdated == mPackageUpdateTimes.get(key.getPackageName())) {
+                labelCache.put(key, label.title);
+            }
         }
     }
 
@@ -190,33 +326,32 @@ public class IconCache {
      */
     public void getTitleAndIcon(ApplicationInfo application, ResolveInfo info,
             HashMap<Object, CharSequence> labelCache) {
-        synchronized (mCache) {
-        	//创建一个图标缓存
-            CacheEntry entry = cacheLocked(application.componentName, info, labelCache);
-            //赋值程序标题
-            application.title = entry.title;
-            //赋值程序图标
-            application.iconBitmap = entry.icon;
-        }
+        //创建一个图标缓存
+        CacheEntry entry = getEntry(application.componentName, info, labelCache);
+        //赋值程序标题
+        application.title = entry.title;
+        application.updateTitleKey();
+        //赋值程序图标
+        application.iconBitmap = entry.icon;
     }
 
     /**
      * 从intent中获得程序图标 如果无法获得component则返回默认图标
+     * A miss reads the disk store or the package, so the UI thread should use the icons the
+     * loader already made (ShortcutInfo and ApplicationInfo hold them) instead.
      * @param intent
      * @return
      */
     public Bitmap getIcon(Intent intent) {
-        synchronized (mCache) {
-            final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
-            ComponentName component = intent.getComponent();
+        final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
+        ComponentName component = intent.getComponent();
 
-            if (resolveInfo == null || component == null) {
-                return mDefaultIcon;
-            }
-
-            CacheEntry entry = cacheLocked(component, resolveInfo, null);
-            return entry.icon;
+        if (resolveInfo == null || component == null) {
+            return mDefaultIcon;
         }
+
+        CacheEntry entry = getEntry(component, resolveInfo, null);
+        return entry.icon;
     }
 
     /**
@@ -228,20 +363,31 @@ public class IconCache {
      */
     public Bitmap getIcon(ComponentName component, ResolveInfo resolveInfo,
             HashMap<Object, CharSequence> labelCache) {
-        synchronized (mCache) {
-            if (resolveInfo == null || component == null) {
-                return null;
-            }
-
-            CacheEntry entry = cacheLocked(component, resolveInfo, labelCache);
-            return entry.icon;
+        if (resolveInfo == null || component == null) {
+            return null;
         }
+
+        CacheEntry entry = getEntry(component, resolveInfo, labelCache);
+        return entry.icon;
     }
 
     public boolean isDefaultIcon(Bitmap icon) {
         return mDefaultIcon == icon;
     }
 
+    /**
+     * Returns the cached entry for the component, making it if needed. Only one thread makes
+     * a given entry, the others asking for it at the same time wait for its result.
+     */
+    private CacheEntry getEntry(final ComponentName componentName, final ResolveInfo info,
+            final HashMap<Object, CharSequence> labelCache) {
+        return mEntries.get(componentName, new ComputeOnceCache.Maker<CacheEntry>() {
+            public CacheEntry make() {
+                return makeEntry(componentName, info, labelCache);
+            }
+        });
+    }
+
     /**
      * 创建一个图标缓存
      * @param componentName
@@ -249,52 +395,182 @@ public class IconCache {
      * @param labelCache
      * @return
      */
-    private CacheEntry cacheLocked(ComponentName componentName, ResolveInfo info,
+    private CacheEntry makeEntry(ComponentName componentName, ResolveInfo info,
             HashMap<Object, CharSequence> labelCache) {
-    	//通过componentName在集合中获取图标缓存
-        CacheEntry entry = mCache.get(componentName);
-        //如果缓存为空，则创建缓存
-        if (entry == null) {
-            entry = new CacheEntry();
-
-            mCache.put(componentName, entry);
-            //获得ComponentName 用它作为Key
-            ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
-            //如果标签缓存不为空，并且集合中有这个键。则从集合中获得应用的标题
-            if (labelCache != null && labelCache.containsKey(key)) {
-                entry.title = labelCache.get(key).toString();
-            } else {
-            	//否则 通过通过ResolveInfo获得程序名，作为标题
-                entry.title = info.loadLabel(mPackageManager).toString();
-                //如果标签集合不为空则将新的标签放入集合
-                if (labelCache != null) {
-                    labelCache.put(key, entry.title);
-                }
+        CacheEntry entry = new CacheEntry();
+
+        // Try the persistent store before going to the package
+        final long lastUpdated = mPackageUpdateTimes.get(componentName.getPackageName());
+        final String locale = getLocaleKey();
+        if (lastUpdated != PackageCaches.UNKNOWN_UPDATE_TIME
+                && mIconDb.load(componentName, lastUpdated, mIconDpi, locale, entry)) {
+            if (labelCache != null) {
+                labelCache.put(LauncherModel.getComponentNameFromResolveInfo(info),
+                        entry.title);
             }
-            //如果标题为空
-            if (entry.title == null) {
-            	//则从info中获得标题
-                entry.title = info.activityInfo.name;
+            return entry;
+        }
+        //获得ComponentName 用它作为Key
+        ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
+        //如果标签缓存不为空，并且集合中有这个键。则从集合中获得应用的标题
+        if (labelCache != null && labelCache.containsKey(key)) {
+            entry.title = labelCache.get(key).toString();
+        } else {
+        	//否则 通过通过ResolveInfo获得程序名，作为标题
+            entry.title = info.loadLabel(mPackageManager).toString();
+            //如果标签集合不为空则将新的标签放入集合
+            if (labelCache != null) {
+                labelCache.put(key, entry.title);
             }
-            //为entry获得图标
-            entry.icon = Utilities.createIconBitmap(
-                    getFullResIcon(info), mContext);
+        }
+        //如果标题为空
+        if (entry.title == null) {
+        	//则从info中获得标题
+            entry.title = info.activityInfo.name;
+        }
+        //为entry获得图标
+        entry.icon = Utilities.createIconBitmap(
+                getFullResIcon(info), mContext);
+
+        if (lastUpdated != PackageCaches.UNKNOWN_UPDATE_TIME) {
+            mIconDb.save(componentName, lastUpdated, mIconDpi, locale, entry);
         }
         return entry;
     }
 
+    /**
+     * Labels depend on the locale and, for some apps, on the mcc/mnc resource qualifiers.
+     */
+    private String getLocaleKey() {
+        final Configuration config = mContext.getResources().getConfiguration();
+        return config.locale + "," + config.mcc + "," + config.mnc;
+    }
+
     /**
      * 从所有缓存图标
      * @return
      */
     public HashMap<ComponentName,Bitmap> getAllIcons() {
-        synchronized (mCache) {
-            HashMap<ComponentName,Bitmap> set = new HashMap<ComponentName,Bitmap>();
-            for (ComponentName cn : mCache.keySet()) {
-                final CacheEntry e = mCache.get(cn);
-                set.put(cn, e.icon);
+        HashMap<ComponentName,Bitmap> set = new HashMap<ComponentName,Bitmap>();
+        for (Map.Entry<ComponentName, CacheEntry> e : mCache.snapshot().entrySet()) {
+            set.put(e.getKey(), e.getValue().icon);
+        }
+        return set;
+    }
+
+    /**
+     * On-disk store of icons and labels, keyed by component.
+     */
+    private static class IconDB extends PackageCaches.CacheDB {
+        private static final String DATABASE_NAME = "app_icons.db";
+        private static final int DATABASE_VERSION = 1;
+
+        private static final String TABLE_ICONS = "icons";
+        private static final String COMPONENT = "componentName";
+        private static final String LAST_UPDATED = "lastUpdated";
+        private static final String ICON_DPI = "iconDpi";
+        private static final String LOCALE = "locale";
+        private static final String LABEL = "label";
+        private static final String ICON = "icon";
+
+        IconDB(Context context) {
+            super(context, DATABASE_NAME, DATABASE_VERSION, TABLE_ICONS, TAG);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_ICONS + " (" +
+                    COMPONENT + " TEXT PRIMARY KEY," +
+                    PACKAGE + " TEXT NOT NULL," +
+                    LAST_UPDATED + " INTEGER NOT NULL," +
+                    ICON_DPI + " INTEGER NOT NULL," +
+                    LOCALE + " TEXT NOT NULL," +
+                    LABEL + " TEXT," +
+                    ICON + " BLOB" +
+                    ");");
+            db.execSQL("CREATE INDEX icons_package ON " + TABLE_ICONS + " (" + PACKAGE + ");");
+        }
+
+        boolean load(ComponentName component, long lastUpdated, int iconDpi, String locale,
+                CacheEntry entry) {
+            Cursor c = null;
+            try {
+                c = getReadableDatabase().query(TABLE_ICONS, new String[] { LABEL, ICON },
+                        COMPONENT + "=? AND " + LAST_UPDATED + "=? AND " + ICON_DPI + "=? AND "
+                                + LOCALE + "=?",
+                        new String[] { component.flattenToString(), Long.toString(lastUpdated),
+                                Integer.toString(iconDpi), locale },
+                        null, null, null);
+                if (!c.moveToFirst()) {
+                    return false;
+                }
+                final String title = c.getString(0);
+                final byte[] data = c.getBlob(1);
+                final Bitmap icon = data != null
+                        ? BitmapFactory.decodeByteArray(data, 0, data.length) : null;
+                if (title == null || icon == null) {
+                    return false;
+                }
+                entry.title = title;
+                entry.icon = icon;
+                return true;
+            } catch (SQLException e) {
+                Log.w(TAG, "Could not read persisted icon for " + component, e);
+                return false;
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+        }
+
+        void save(ComponentName component, long lastUpdated, int iconDpi, String locale,
+                CacheEntry entry) {
+            final byte[] data = entry.icon != null ? ItemInfo.flattenBitmap(entry.icon) : null;
+            if (data == null) {
+                return;
+            }
+            final ContentValues values = new ContentValues();
+            values.put(COMPONENT, component.flattenToString());
+            values.put(PACKAGE, component.getPackageName());
+            values.put(LAST_UPDATED, lastUpdated);
+            values.put(ICON_DPI, iconDpi);
+            values.put(LOCALE, locale);
+            values.put(LABEL, entry.title);
+            values.put(ICON, data);
+            save(values, "icon for " + component);
+        }
+
+        /**
+         * Returns the labels created with the given dpi and locale, keyed by component. Each
+         * value holds the lastUpdateTime the label was created with, for the caller to check.
+         */
+        HashMap<ComponentName, PersistedLabel> loadLabels(int iconDpi, String locale) {
+            final HashMap<ComponentName, PersistedLabel> labels =
+                    new HashMap<ComponentName, PersistedLabel>();
+            Cursor c = null;
+            try {
+                c = getReadableDatabase().query(TABLE_ICONS,
+                        new String[] { COMPONENT, LAST_UPDATED, LABEL },
+                        ICON_DPI + "=? AND " + LOCALE + "=?",
+                        new String[] { Integer.toString(iconDpi), locale },
+                        null, null, null);
+                while (c.moveToNext()) {
+                    final ComponentName cn = ComponentName.unflattenFromString(c.getString(0));
+                    final String label = c.getString(2);
+                    if (cn != null && label != null) {
+                        labels.put(cn, new PersistedLabel(c.getLong(1), label));
+                    }
+                }
+            } catch (SQLException e) {
+                Log.w(TAG, "Could not read persisted labels", e);
+                labels.clear();
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
             }
-            return set;
+            return labels;
         }
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.cache;
+
+import java.util.HashMap;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * What the caches of things made from packages (icons, widget previews, outlines) share:
+ * the memory trimming policy, the package versions their persisted rows are checked
+ * against, and the on-disk store those rows live in.
+ */
+final class PackageCaches {
+    /** The update time of a package the package manager does not know about. */
+    static final long UNKNOWN_UPDATE_TIME = -1;
+
+    private PackageCaches() {
+    }
+
+    /**
+     * Shrinks an in-memory cache according to a {@link ComponentCallbacks2} trim level.
+     */
+    static void trimMemory(LruCache<?, ?> cache, int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.trimToSize(cache.maxSize() / 4);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * The lastUpdateTime of packages, looked up once each. Persisted rows made from a
+     * package are only trusted while its lastUpdateTime still matches. Safe to use from
+     * any thread.
+     */
+    static final class UpdateTimes {
+        private final PackageManager mPackageManager;
+        private final HashMap<String, Long> mUpdateTimes = new HashMap<String, Long>();
+
+        UpdateTimes(PackageManager packageManager) {
+            mPackageManager = packageManager;
+        }
+
+        /**
+         * Returns the lastUpdateTime of the package, or {@link #UNKNOWN_UPDATE_TIME} if the
+         * package manager does not know about it (e.g. it lives on unmounted external
+         * storage).
+         */
+        long get(String packageName) {
+            Long lastUpdated;
+            synchronized (mUpdateTimes) {
+                lastUpdated = mUpdateTimes.get(packageName);
+            }
+            if (lastUpdated == null) {
+                // Don't hold the lock across the package manager call
+                try {
+                    lastUpdated = mPackageManager.getPackageInfo(packageName, 0).lastUpdateTime;
+                } catch (PackageManager.NameNotFoundException e) {
+                    lastUpdated = UNKNOWN_UPDATE_TIME;
+                }
+                synchronized (mUpdateTimes) {
+                    mUpdateTimes.put(packageName, lastUpdated);
+                }
+            }
+            return lastUpdated;
+        }
+
+        /** Looks the package up again next time, as it was added, updated or removed. */
+        void forget(String packageName) {
+            synchronized (mUpdateTimes) {
+                mUpdateTimes.remove(packageName);
+            }
+        }
+    }
+
+    /**
+     * An on-disk cache of one table, whose rows have a {@link #PACKAGE} column. It is only
+     * a cache: on any version change it starts over, and failed writes are just logged.
+     */
+    abstract static class CacheDB extends SQLiteOpenHelper {
+        static final String PACKAGE = "packageName";
+
+        private final String mTag;
+        private final String mTable;
+
+        CacheDB(Context context, String name, int version, String table, String tag) {
+            super(context, name, null, version);
+            mTable = table;
+            mTag = tag;
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // This is only a cache, so just start over
+            db.execSQL("DROP TABLE IF EXISTS " + mTable);
+            onCreate(db);
+        }
+
+        @Override
+        public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            onUpgrade(db, oldVersion, newVersion);
+        }
+
+        /** Writes the row, replacing the one with the same key. what is for the log. */
+        void save(ContentValues values, Object what) {
+            try {
+                getWritableDatabase().insertWithOnConflict(mTable, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            } catch (SQLException e) {
+                Log.w(mTag, "Could not persist " + what, e);
+            }
+        }
+
+        void deletePackage(String packageName) {
+            try {
+                getWritableDatabase().delete(mTable, PACKAGE + "=?",
+                        new String[] { packageName });
+            } catch (SQLException e) {
+                Log.w(mTag, "Could not delete persisted rows of " + packageName, e);
+            }
+        }
+    }
+}
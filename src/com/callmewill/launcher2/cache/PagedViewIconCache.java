@@ -16,84 +16,184 @@
 
 package com.callmewill.launcher2.cache;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 
 import com.callmewill.launcher2.entity.ApplicationInfo;
 
+import android.app.ActivityManager;
 import android.appwidget.AppWidgetProviderInfo;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.pm.ComponentInfo;
 import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
 
 /**
- * Simple cache mechanism for PagedView outlines.
- * 暂时工程为用到，可以删除。
+ * Simple cache mechanism for outlines: the pressed/focused glows of icons and buttons and
+ * the drag outlines of items. The bitmaps are shared by whoever asked for them, so they
+ * are never drawn into or recycled once cached.
  */
 public class PagedViewIconCache {
     public static class Key {
         public enum Type {
             ApplicationInfoKey,
             AppWidgetProviderInfoKey,
-            ResolveInfoKey
+            ResolveInfoKey,
+            GlowKey,
+            DragOutlineKey,
+            PressedImageKey
         }
         private final ComponentName mComponentName;
         private final Type mType;
+        // What the bitmap was drawn from (an icon bitmap, a drawable's constant state) and
+        // how, for the outlines that a component alone doesn't pin down. The source is only
+        // weakly held so that the cache, which weighs the outlines alone, doesn't keep the
+        // icons of removed or updated shortcuts alive; once it is collected the key matches
+        // nothing and its outline just waits to be evicted.
+        private final WeakReference<Object> mSource;
+        private final int mSourceHash;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mColor;
+        private final int mOutlineColor;
 
         public Key(ApplicationInfo info) {
-            mComponentName = info.componentName;
-            mType = Type.ApplicationInfoKey;
+            this(info.componentName, Type.ApplicationInfoKey, null, 0, 0, 0, 0);
         }
         public Key(ResolveInfo info) {
-            final ComponentInfo ci = info.activityInfo != null ? info.activityInfo :
-                info.serviceInfo;
-            mComponentName = new ComponentName(ci.packageName, ci.name);
-            mType = Type.ResolveInfoKey;
+            this(getComponentName(info), Type.ResolveInfoKey, null, 0, 0, 0, 0);
         }
         public Key(AppWidgetProviderInfo info) {
-            mComponentName = info.provider;
-            mType = Type.AppWidgetProviderInfoKey;
+            this(info.provider, Type.AppWidgetProviderInfoKey, null, 0, 0, 0, 0);
+        }
+        /**
+         * @param componentName the component the outline belongs to, or null if it belongs
+         *        to none (it is then never removed by {@link #removePackage})
+         */
+        public Key(ComponentName componentName, Type type, Object source, int width,
+                int height, int color, int outlineColor) {
+            mComponentName = componentName;
+            mType = type;
+            mSource = source != null ? new WeakReference<Object>(source) : null;
+            mSourceHash = System.identityHashCode(source);
+            mWidth = width;
+            mHeight = height;
+            mColor = color;
+            mOutlineColor = outlineColor;
         }
 
+        private static ComponentName getComponentName(ResolveInfo info) {
+            final ComponentInfo ci = info.activityInfo != null ? info.activityInfo :
+                info.serviceInfo;
+            return new ComponentName(ci.packageName, ci.name);
+        }
         private ComponentName getComponentName() {
             return mComponentName;
         }
         public boolean isKeyType(Type t) {
             return (mType == t);
         }
+        /** Whether the outline was drawn from a source that has since been collected. */
+        private boolean isSourceCleared() {
+            return mSource != null && mSource.get() == null;
+        }
+        private boolean sameSource(Key k) {
+            if (mSource == null || k.mSource == null) {
+                return mSource == k.mSource;
+            }
+            final Object source = mSource.get();
+            return source != null && source == k.mSource.get();
+        }
 
         @Override
         public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
             if (o instanceof Key) {
                 Key k = (Key) o;
-                return mComponentName.equals(k.mComponentName);
+                return mType == k.mType && mSourceHash == k.mSourceHash && sameSource(k)
+                        && (mComponentName == null ? k.mComponentName == null
+                                : mComponentName.equals(k.mComponentName))
+                        && mWidth == k.mWidth && mHeight == k.mHeight
+                        && mColor == k.mColor && mOutlineColor == k.mOutlineColor;
             }
             return super.equals(o);
         }
         @Override
         public int hashCode() {
-            return getComponentName().hashCode();
+            int result = mComponentName != null ? mComponentName.hashCode() : 0;
+            result = 31 * result + mType.hashCode();
+            result = 31 * result + mSourceHash;
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + mColor;
+            return 31 * result + mOutlineColor;
         }
     }
 
-    private final HashMap<Key, Bitmap> mIconOutlineCache = new HashMap<Key, Bitmap>();
+    // Fraction of the memory class that the outlines may use
+    private static final int MEMORY_CLASS_FRACTION = 16;
+
+    // Outlines are weighed by their bytes. Evicted outlines are not recycled since they may
+    // still be drawn, they are simply left to the GC.
+    private final LruCache<Key, Bitmap> mIconOutlineCache;
+
+    public PagedViewIconCache(Context context) {
+        this(((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE))
+                .getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_FRACTION);
+    }
+
+    public PagedViewIconCache(int maxBytes) {
+        mIconOutlineCache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap b) {
+                return b.getRowBytes() * b.getHeight();
+            }
+        };
+    }
 
     public void clear() {
-        for (Key key : mIconOutlineCache.keySet()) {
-            mIconOutlineCache.get(key).recycle();
+        mIconOutlineCache.evictAll();
+    }
+    /** Shrinks the cache according to a {@link ComponentCallbacks2} trim level. */
+    public void trimMemory(int level) {
+        for (Key key : mIconOutlineCache.snapshot().keySet()) {
+            if (key.isSourceCleared()) {
+                removeOutline(key);
+            }
         }
-        mIconOutlineCache.clear();
+        PackageCaches.trimMemory(mIconOutlineCache, level);
+    }
+    public int getHitCount() {
+        return mIconOutlineCache.hitCount();
+    }
+    public int getMissCount() {
+        return mIconOutlineCache.missCount();
+    }
+    public int getEvictionCount() {
+        return mIconOutlineCache.evictionCount();
     }
     private void retainAll(HashSet<Key> keysToKeep, Key.Type t) {
-        HashSet<Key> keysToRemove = new HashSet<Key>(mIconOutlineCache.keySet());
+        HashSet<Key> keysToRemove = new HashSet<Key>(mIconOutlineCache.snapshot().keySet());
         keysToRemove.removeAll(keysToKeep);
         for (Key key : keysToRemove) {
             if (key.isKeyType(t)) {
-                mIconOutlineCache.get(key).recycle();
-                mIconOutlineCache.remove(key);
+                removeOutline(key);
+            }
+        }
+    }
+    /** Removes all the keys that belong to the given package */
+    public void removePackage(String packageName) {
+        for (Key key : mIconOutlineCache.snapshot().keySet()) {
+            final ComponentName cn = key.getComponentName();
+            if (cn != null && packageName.equals(cn.getPackageName())) {
+                removeOutline(key);
             }
         }
     }
@@ -125,10 +225,7 @@ public class PagedViewIconCache {
         mIconOutlineCache.put(key, b);
     }
     public void removeOutline(Key key) {
-        if (mIconOutlineCache.containsKey(key)) {
-            mIconOutlineCache.get(key).recycle();
-            mIconOutlineCache.remove(key);
-        }
+        mIconOutlineCache.remove(key);
     }
     public Bitmap getOutline(Key key) {
         return mIconOutlineCache.get(key);
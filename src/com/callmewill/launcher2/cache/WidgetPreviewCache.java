@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.cache;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.callmewill.launcher2.LauncherApplication;
+import com.callmewill.launcher2.entity.ItemInfo;
+
+/**
+ * Cache of the previews shown in the widgets tab of the AppsCustomize pane, in memory
+ * and on disk. Previews are keyed by the widget provider or shortcut activity, the size
+ * they were made for, the package's lastUpdateTime and the screen density, so that a
+ * warm open of the tab doesn't load drawables from any other package.
+ *
+ * The bitmaps handed out are shared: callers must not recycle them. Only the
+ * getCached* methods are safe on the UI thread; the others may read the disk store or
+ * make the preview.
+ */
+public class WidgetPreviewCache {
+    private static final String TAG = "Launcher.WidgetPreviewCache";
+
+    // Fraction of the memory class that the in-memory previews may use
+    private static final int MEMORY_CLASS_FRACTION = 8;
+
+    /** Makes a preview on a cache miss. */
+    public interface PreviewGenerator {
+        Bitmap generatePreview();
+    }
+
+    private final int mDensityDpi;
+    private final LruCache<String, Bitmap> mCache;
+    private final PackageCaches.UpdateTimes mPackageUpdateTimes;
+    private final PreviewDB mPreviewDb;
+
+    public WidgetPreviewCache(LauncherApplication context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+
+        mPackageUpdateTimes = new PackageCaches.UpdateTimes(context.getPackageManager());
+        mDensityDpi = context.getResources().getDisplayMetrics().densityDpi;
+
+        final int maxBytes = activityManager.getMemoryClass() * 1024 * 1024
+                / MEMORY_CLASS_FRACTION;
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap preview) {
+                return preview.getRowBytes() * preview.getHeight();
+            }
+        };
+        mPreviewDb = new PreviewDB(context);
+    }
+
+    /**
+     * Returns the preview of a widget provider made for the given maximum size.
+     */
+    public Bitmap getWidgetPreview(ComponentName provider, int maxWidth, int maxHeight,
+            PreviewGenerator generator) {
+        return getPreview("Widget:" + provider.flattenToString(), provider.getPackageName(),
+                maxWidth, maxHeight, generator);
+    }
+
+    /**
+     * Returns the preview of a shortcut activity made for the given size.
+     */
+    public Bitmap getShortcutPreview(ComponentName activity, int width, int height,
+            PreviewGenerator generator) {
+        return getPreview("Shortcut:" + activity.flattenToString(), activity.getPackageName(),
+                width, height, generator);
+    }
+
+    /**
+     * Returns the preview of a widget provider if it is in memory, or null. Never reads
+     * the disk store.
+     */
+    public Bitmap getCachedWidgetPreview(ComponentName provider, int maxWidth, int maxHeight) {
+        return mCache.get(getKey("Widget:" + provider.flattenToString(), maxWidth, maxHeight));
+    }
+
+    /**
+     * Returns the preview of a shortcut activity if it is in memory, or null. Never reads
+     * the disk store.
+     */
+    public Bitmap getCachedShortcutPreview(ComponentName activity, int width, int height) {
+        return mCache.get(getKey("Shortcut:" + activity.flattenToString(), width, height));
+    }
+
+    private static String getKey(String name, int width, int height) {
+        return name + "/" + width + "x" + height;
+    }
+
+    private Bitmap getPreview(String name, String packageName, int width, int height,
+            PreviewGenerator generator) {
+        final String size = width + "x" + height;
+        final String key = getKey(name, width, height);
+        Bitmap preview = mCache.get(key);
+        if (preview != null) {
+            return preview;
+        }
+
+        // Try the persistent store before going to the package
+        final long lastUpdated = mPackageUpdateTimes.get(packageName);
+        if (lastUpdated != PackageCaches.UNKNOWN_UPDATE_TIME) {
+            preview = mPreviewDb.load(name, size, lastUpdated, mDensityDpi);
+        }
+        if (preview == null) {
+            preview = generator.generatePreview();
+            if (preview == null) {
+                return null;
+            }
+            if (lastUpdated != PackageCaches.UNKNOWN_UPDATE_TIME) {
+                mPreviewDb.save(name, packageName, size, lastUpdated, mDensityDpi, preview);
+            }
+        }
+        mCache.put(key, preview);
+        return preview;
+    }
+
+    /**
+     * Drops every in-memory and persisted preview of the supplied package. Called when the
+     * package is added, updated or removed so its previews are made again on next use.
+     */
+    public void invalidatePackage(String packageName) {
+        final String widgetPrefix = "Widget:" + packageName + "/";
+        final String shortcutPrefix = "Shortcut:" + packageName + "/";
+        for (String key : mCache.snapshot().keySet()) {
+            if (key.startsWith(widgetPrefix) || key.startsWith(shortcutPrefix)) {
+                mCache.remove(key);
+            }
+        }
+        mPackageUpdateTimes.forget(packageName);
+        mPreviewDb.deletePackage(packageName);
+    }
+
+    /**
+     * Shrinks the cache according to a {@link ComponentCallbacks2} trim level. The previews
+     * dropped here are still on disk.
+     */
+    public void trimMemory(int level) {
+        PackageCaches.trimMemory(mCache, level);
+    }
+
+    /**
+     * On-disk store of previews, keyed by component and size.
+     */
+    private static class PreviewDB extends PackageCaches.CacheDB {
+        private static final String DATABASE_NAME = "widget_previews.db";
+        private static final int DATABASE_VERSION = 1;
+
+        private static final String TABLE_PREVIEWS = "previews";
+        private static final String NAME = "name";
+        private static final String SIZE = "size";
+        private static final String LAST_UPDATED = "lastUpdated";
+        private static final String DENSITY = "density";
+        private static final String PREVIEW = "preview";
+
+        PreviewDB(Context context) {
+            super(context, DATABASE_NAME, DATABASE_VERSION, TABLE_PREVIEWS, TAG);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_PREVIEWS + " (" +
+                    NAME + " TEXT NOT NULL," +
+                    SIZE + " TEXT NOT NULL," +
+                    PACKAGE + " TEXT NOT NULL," +
+                    LAST_UPDATED + " INTEGER NOT NULL," +
+                    DENSITY + " INTEGER NOT NULL," +
+                    PREVIEW + " BLOB," +
+                    "PRIMARY KEY (" + NAME + ", " + SIZE + ")" +
+                    ");");
+            db.execSQL("CREATE INDEX previews_package ON " + TABLE_PREVIEWS +
+                    " (" + PACKAGE + ");");
+        }
+
+        Bitmap load(String name, String size, long lastUpdated, int density) {
+            Cursor c = null;
+            try {
+                c = getReadableDatabase().query(TABLE_PREVIEWS, new String[] { PREVIEW },
+                        NAME + "=? AND " + SIZE + "=? AND " + LAST_UPDATED + "=? AND "
+                                + DENSITY + "=?",
+                        new String[] { name, size, Long.toString(lastUpdated),
+                                Integer.toString(density) },
+                        null, null, null);
+                if (!c.moveToFirst()) {
+                    return null;
+                }
+                final byte[] data = c.getBlob(0);
+                return data != null ? BitmapFactory.decodeByteArray(data, 0, data.length) : null;
+            } catch (SQLException e) {
+                Log.w(TAG, "Could not read persisted preview for " + name, e);
+                return null;
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+        }
+
+        void save(String name, String packageName, String size, long lastUpdated, int density,
+                Bitmap preview) {
+            final byte[] data = ItemInfo.flattenBitmap(preview);
+            if (data == null) {
+                return;
+            }
+            final ContentValues values = new ContentValues();
+            values.put(NAME, name);
+            values.put(SIZE, size);
+            values.put(PACKAGE, packageName);
+            values.put(LAST_UPDATED, lastUpdated);
+            values.put(DENSITY, density);
+            values.put(PREVIEW, data);
+            save(values, "preview for " + name);
+        }
+    }
+}
@@ -84,6 +84,9 @@ public class ShortcutInfo extends ItemInfo {
         title = info.title.toString();
         intent = new Intent(info.intent);
         customIcon = false;
+        // The loader made this icon already. Taking it here keeps getIcon() from going to
+        // the IconCache, and maybe its disk store, on the UI thread.
+        mIcon = info.iconBitmap;
     }
 
     public void setIcon(Bitmap b) {
@@ -22,11 +22,14 @@ import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
@@ -42,6 +45,7 @@ import android.database.sqlite.SQLiteStatement;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.provider.Settings;
 import android.text.TextUtils;
@@ -67,6 +71,8 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LauncherProvider extends ContentProvider {
     private static final String TAG = "Launcher.LauncherProvider";
@@ -74,12 +80,13 @@ public class LauncherProvider extends ContentProvider {
 
     private static final String DATABASE_NAME = "launcher.db";
 
-    private static final int DATABASE_VERSION = 12;
+    private static final int DATABASE_VERSION = 13;
 
     static final String AUTHORITY = "com.callmewill.launcher2.settings";
 
     static final String TABLE_FAVORITES = "favorites";
     static final String PARAMETER_NOTIFY = "notify";
+    static final String PARAMETER_WRITER = "writer";
     static final String DB_CREATED_BUT_DEFAULT_WORKSPACE_NOT_LOADED =
             "DB_CREATED_BUT_DEFAULT_WORKSPACE_NOT_LOADED";
     public static final String DEFAULT_WORKSPACE_RESOURCE_ID =
@@ -97,8 +104,38 @@ public class LauncherProvider extends ContentProvider {
     public static final Uri CONTENT_APPWIDGET_RESET_URI =
             Uri.parse("content://" + AUTHORITY + "/appWidgetReset");
 
+    // Marks the writes that LauncherModel makes, which it already has in memory.
+    // Random per process, since the provider is exported.
+    private static final String MODEL_WRITER_TOKEN = UUID.randomUUID().toString();
+
     private DatabaseHelper mOpenHelper;
 
+    // Bumped by every write that didn't come from LauncherModel
+    private final AtomicLong mExternalGeneration = new AtomicLong();
+
+    /**
+     * Returns the uri marked as a write by LauncherModel, so that it doesn't count
+     * towards {@link #getExternalGeneration()}.
+     */
+    public static Uri asModelWrite(Uri uri) {
+        return uri.buildUpon().appendQueryParameter(PARAMETER_WRITER, MODEL_WRITER_TOKEN)
+                .build();
+    }
+
+    /**
+     * Returns a counter of the writes made by anyone but LauncherModel. If it hasn't
+     * moved, a change notification on the favorites was caused by the model itself.
+     */
+    public long getExternalGeneration() {
+        return mExternalGeneration.get();
+    }
+
+    private void noteWrite(Uri uri) {
+        if (!MODEL_WRITER_TOKEN.equals(uri.getQueryParameter(PARAMETER_WRITER))) {
+            mExternalGeneration.incrementAndGet();
+        }
+    }
+
     @Override
     public boolean onCreate() {
         mOpenHelper = new DatabaseHelper(getContext());
@@ -156,6 +193,7 @@ public class LauncherProvider extends ContentProvider {
         final long rowId = dbInsertAndCheck(mOpenHelper, db, args.table, null, initialValues);
         if (rowId <= 0) return null;
 
+        noteWrite(uri);
         uri = ContentUris.withAppendedId(uri, rowId);
         sendNotify(uri);
 
@@ -180,6 +218,7 @@ public class LauncherProvider extends ContentProvider {
             db.endTransaction();
         }
 
+        noteWrite(uri);
         sendNotify(uri);
         return values.length;
     }
@@ -190,7 +229,10 @@ public class LauncherProvider extends ContentProvider {
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int count = db.delete(args.table, args.where, args.args);
-        if (count > 0) sendNotify(uri);
+        if (count > 0) {
+            noteWrite(uri);
+            sendNotify(uri);
+        }
 
         return count;
     }
@@ -201,11 +243,32 @@ public class LauncherProvider extends ContentProvider {
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int count = db.update(args.table, values, args.where, args.args);
-        if (count > 0) sendNotify(uri);
+        if (count > 0) {
+            noteWrite(uri);
+            sendNotify(uri);
+        }
 
         return count;
     }
 
+    /**
+     * Applies the whole batch in one transaction. LauncherModel's write journal sends
+     * its operations to the NO_NOTIFICATION uris and notifies once itself.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     private void sendNotify(Uri uri) {
         String notify = uri.getQueryParameter(PARAMETER_NOTIFY);
         if (notify == null || "true".equals(notify)) {
@@ -306,6 +369,7 @@ public class LauncherProvider extends ContentProvider {
                     "uri TEXT," +
                     "displayMode INTEGER" +
                     ");");
+            createIndexes(db);
 
             // Database was just created, so wipe any previous widgets
             if (mAppWidgetHost != null) {
@@ -319,6 +383,26 @@ public class LauncherProvider extends ContentProvider {
             }
         }
 
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            super.onOpen(db);
+            // Let the UI thread read while the loader thread is writing
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && !db.isReadOnly()) {
+                db.enableWriteAheadLogging();
+            }
+        }
+
+        /**
+         * Indexes for the lookups the model does outside of the full workspace load:
+         * the items of a folder or screen, shortcutExists and the per-type filters.
+         */
+        private void createIndexes(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_container_screen ON favorites " +
+                    "(container, screen);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_intent ON favorites (intent);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_itemType ON favorites (itemType);");
+        }
+
         private void setFlagToLoadDefaultWorkspaceLater() {
             String spKey = LauncherApplication.getSharedPreferencesKey();
             SharedPreferences sp = mContext.getSharedPreferences(spKey, Context.MODE_PRIVATE);
@@ -516,6 +600,21 @@ public class LauncherProvider extends ContentProvider {
                 version = 12;
             }
 
+            if (version < 13) {
+                // Version 13 adds indexes on container/screen, intent and itemType
+                db.beginTransaction();
+                try {
+                    createIndexes(db);
+                    db.setTransactionSuccessful();
+                    version = 13;
+                } catch (SQLException ex) {
+                    // Old version remains, which means we wipe old data
+                    Log.e(TAG, ex.getMessage(), ex);
+                } finally {
+                    db.endTransaction();
+                }
+            }
+
             if (version != DATABASE_VERSION) {
                 Log.w(TAG, "Destroying all old data.");
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_FAVORITES);
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.receiver;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.callmewill.launcher2.entity.ItemInfo;
+import com.callmewill.launcher2.provider.LauncherProvider;
+import com.callmewill.launcher2.provider.LauncherSettings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Write-behind journal for the favorites table. LauncherModel queues its inserts,
+ * updates and deletes here instead of calling the ContentResolver once per item.
+ * Updates to the same item are merged, and the whole journal is committed as one
+ * {@link ContentResolver#applyBatch} (one SQLite transaction in LauncherProvider)
+ * a short time after the first write, with at most one change notification.
+ *
+ * Only touched from the thread of the handler it is given (the loader thread), except
+ * for the uncommitted inserts, which other threads read the table through.
+ */
+final class FavoritesWriteJournal {
+    private static final String TAG = "Launcher.FavoritesWriteJournal";
+
+    // How long a write may wait for others to join its batch
+    private static final int FLUSH_DELAY = 100;
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_UPDATE = 1;
+    private static final int OP_DELETE = 2;
+    private static final int OP_DELETE_WHERE = 3;
+
+    private static class Entry {
+        int op;
+        final long id;
+        ContentValues values;
+        final String where;
+        boolean cancelled;
+
+        Entry(int op, long id, ContentValues values, String where) {
+            this.op = op;
+            this.id = id;
+            this.values = values;
+            this.where = where;
+        }
+    }
+
+    private final Handler mHandler;
+    private final ArrayList<Entry> mEntries = new ArrayList<Entry>();
+    // The entry that later writes to an id can be merged into. Cleared by
+    // OP_DELETE_WHERE, which later writes must not be moved ahead of.
+    private final HashMap<Long, Entry> mMergeable = new HashMap<Long, Entry>();
+    private ContentResolver mResolver;
+    private boolean mNotify;
+    // Set when a flush has written something, until takeCommitted() is called
+    private boolean mCommitted;
+
+    // Items whose insert has been or is about to be queued but isn't committed yet, so
+    // that threads reading the table can take them into account
+    // < synchronized on itself, any thread >
+    private final HashMap<Long, ItemInfo> mUncommittedInserts = new HashMap<Long, ItemInfo>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    FavoritesWriteJournal(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Any thread. Called before handing the insert of the item to the handler's thread,
+     * so that it is visible to {@link #getUncommittedInserts} from then on.
+     */
+    void willInsert(ItemInfo item) {
+        synchronized (mUncommittedInserts) {
+            mUncommittedInserts.put(item.id, item);
+        }
+    }
+
+    /** Any thread. The item is being deleted, whether or not its insert was committed. */
+    void forgetInsert(long id) {
+        synchronized (mUncommittedInserts) {
+            mUncommittedInserts.remove(id);
+        }
+    }
+
+    /** Any thread. Adds the items whose insert hasn't been committed yet to the list. */
+    void getUncommittedInserts(ArrayList<ItemInfo> out) {
+        synchronized (mUncommittedInserts) {
+            out.addAll(mUncommittedInserts.values());
+        }
+    }
+
+    void insert(ContentResolver cr, long id, ContentValues values, boolean notify) {
+        final Entry entry = new Entry(OP_INSERT, id, new ContentValues(values), null);
+        append(cr, entry);
+        mMergeable.put(id, entry);
+        mNotify |= notify;
+    }
+
+    void update(ContentResolver cr, long id, ContentValues values) {
+        final Entry entry = mMergeable.get(id);
+        if (entry != null && (entry.op == OP_INSERT || entry.op == OP_UPDATE)) {
+            entry.values.putAll(values);
+            return;
+        }
+        final Entry update = new Entry(OP_UPDATE, id, new ContentValues(values), null);
+        append(cr, update);
+        mMergeable.put(id, update);
+    }
+
+    void delete(ContentResolver cr, long id) {
+        final Entry entry = mMergeable.remove(id);
+        if (entry != null && entry.op == OP_INSERT) {
+            // Never reached the database
+            entry.cancelled = true;
+            return;
+        }
+        if (entry != null && entry.op == OP_UPDATE) {
+            entry.op = OP_DELETE;
+            entry.values = null;
+            mMergeable.put(id, entry);
+            return;
+        }
+        final Entry delete = new Entry(OP_DELETE, id, null, null);
+        append(cr, delete);
+        mMergeable.put(id, delete);
+    }
+
+    void deleteWhere(ContentResolver cr, String where) {
+        append(cr, new Entry(OP_DELETE_WHERE, ItemInfo.NO_ID, null, where));
+        mMergeable.clear();
+    }
+
+    /**
+     * Commits everything queued so far. Called on the deadline, and by anything on
+     * the loader thread that is about to read the favorites table.
+     */
+    void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mEntries.isEmpty()) {
+            return;
+        }
+
+        final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(
+                mEntries.size());
+        final ArrayList<Long> inserted = new ArrayList<Long>();
+        for (Entry entry : mEntries) {
+            if (entry.op == OP_INSERT) {
+                inserted.add(entry.id);
+            }
+            if (!entry.cancelled) {
+                ops.add(toOperation(entry));
+            }
+        }
+        final boolean notify = mNotify;
+        final ContentResolver cr = mResolver;
+        mEntries.clear();
+        mMergeable.clear();
+        mNotify = false;
+
+        if (!ops.isEmpty()) {
+            mCommitted = true;
+            try {
+                cr.applyBatch(LauncherSettings.Favorites.CONTENT_URI.getAuthority(), ops);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Batch of " + ops.size() + " writes failed, applying one by one", e);
+                applyEach(cr, ops);
+            } catch (OperationApplicationException e) {
+                Log.w(TAG, "Batch of " + ops.size() + " writes failed, applying one by one", e);
+                applyEach(cr, ops);
+            }
+        }
+        synchronized (mUncommittedInserts) {
+            for (Long id : inserted) {
+                mUncommittedInserts.remove(id);
+            }
+        }
+        if (notify) {
+            cr.notifyChange(LauncherSettings.Favorites.CONTENT_URI, null);
+        }
+    }
+
+    /**
+     * Returns whether the favorites table has been written to since the last call, for
+     * things derived from it (the workspace snapshot) that need redoing when it changes.
+     */
+    boolean takeCommitted() {
+        final boolean committed = mCommitted;
+        mCommitted = false;
+        return committed;
+    }
+
+    private void append(ContentResolver cr, Entry entry) {
+        mResolver = cr;
+        if (mEntries.isEmpty()) {
+            mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY);
+        }
+        mEntries.add(entry);
+    }
+
+    /**
+     * Falls back to the old behaviour, so that one bad row (an insert that fails, say)
+     * doesn't take the rest of the batch down with it.
+     */
+    private static void applyEach(ContentResolver cr, ArrayList<ContentProviderOperation> ops) {
+        for (ContentProviderOperation op : ops) {
+            final ArrayList<ContentProviderOperation> single =
+                    new ArrayList<ContentProviderOperation>(1);
+            single.add(op);
+            try {
+                cr.applyBatch(LauncherSettings.Favorites.CONTENT_URI.getAuthority(), single);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Could not apply " + op, e);
+            } catch (OperationApplicationException e) {
+                Log.w(TAG, "Could not apply " + op, e);
+            }
+        }
+    }
+
+    private static ContentProviderOperation toOperation(Entry entry) {
+        switch (entry.op) {
+        case OP_INSERT:
+            return ContentProviderOperation
+                    .newInsert(LauncherProvider.asModelWrite(
+                            LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION))
+                    .withValues(entry.values).build();
+        case OP_UPDATE:
+            return ContentProviderOperation
+                    .newUpdate(LauncherProvider.asModelWrite(
+                            LauncherSettings.Favorites.getContentUri(entry.id, false)))
+                    .withValues(entry.values).build();
+        case OP_DELETE:
+            return ContentProviderOperation
+                    .newDelete(LauncherProvider.asModelWrite(
+                            LauncherSettings.Favorites.getContentUri(entry.id, false)))
+                    .build();
+        default:
+            return ContentProviderOperation
+                    .newDelete(LauncherProvider.asModelWrite(
+                            LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION))
+                    .withSelection(entry.where, null).build();
+        }
+    }
+}
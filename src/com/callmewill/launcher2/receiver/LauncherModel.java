@@ -37,7 +37,7 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.Uri;
+import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -45,6 +45,7 @@ import android.os.Parcelable;
 import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.callmewill.launcher2.AllAppsList;
@@ -56,18 +57,22 @@ import com.callmewill.launcher2.R;
 import com.callmewill.launcher2.InstallWidgetReceiver.WidgetMimeTypeHandlerData;
 import com.callmewill.launcher2.R.integer;
 import com.callmewill.launcher2.cache.IconCache;
+import com.callmewill.launcher2.cache.PagedViewIconCache;
+import com.callmewill.launcher2.cache.WidgetPreviewCache;
 import com.callmewill.launcher2.drawable.FastBitmapDrawable;
 import com.callmewill.launcher2.entity.ApplicationInfo;
 import com.callmewill.launcher2.entity.FolderInfo;
 import com.callmewill.launcher2.entity.ItemInfo;
 import com.callmewill.launcher2.entity.LauncherAppWidgetInfo;
 import com.callmewill.launcher2.entity.ShortcutInfo;
+import com.callmewill.launcher2.provider.LauncherProvider;
 import com.callmewill.launcher2.provider.LauncherSettings;
 import com.callmewill.launcher2.provider.LauncherSettings.Favorites;
 import com.callmewill.launcher2.utils.Utilities;
 
 import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -77,6 +82,14 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Maintains in-memory state of the Launcher. It is expected that there should
@@ -115,12 +128,47 @@ public class LauncherModel extends BroadcastReceiver {
 	private static final Handler sWorker = new Handler(
 			sWorkerThread.getLooper());
 
+	// Database writes queued by the worker thread and committed in batches.
+	// < only access in worker thread >
+	private static final FavoritesWriteJournal sDbWrites = new FavoritesWriteJournal(
+			sWorker);
+
+	// Pool that resolves the labels and icons of all apps in parallel while the
+	// loader thread binds them in order. Its threads go away when idle.
+	private static final int ICON_LOADER_THREADS = Math.max(1, Runtime
+			.getRuntime().availableProcessors());
+	private static final ThreadPoolExecutor sIconLoader = new ThreadPoolExecutor(
+			ICON_LOADER_THREADS, ICON_LOADER_THREADS, 1, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger mCount = new AtomicInteger(1);
+
+				public Thread newThread(final Runnable r) {
+					return new Thread(new Runnable() {
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "launcher-icon-loader-" + mCount.getAndIncrement());
+				}
+			});
+	static {
+		// allowCoreThreadTimeOut() is API 9. Before that the threads just stay.
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			sIconLoader.allowCoreThreadTimeOut(true);
+		}
+	}
+
 	// We start off with everything not loaded. After that, we assume that
 	// our monitoring of the package manager provides all updates and we never
 	// need to do a requery. These are only ever touched from the loader thread.
 	private boolean mWorkspaceLoaded;
 	private boolean mAllAppsLoaded;
 
+	// LauncherProvider's count of writes made by others, as of the last time
+	// the workspace model was brought in line with the database. Only touched
+	// from the loader thread.
+	private long mSyncedExternalGeneration = -1;
+
 	// When we are loading pages synchronously, we can't just post the binding
 	// of items on the side
 	// pages as this delays the rotation process. Instead, we wait for a
@@ -167,11 +215,50 @@ public class LauncherModel extends BroadcastReceiver {
 	// sBgDbIconCache is the set of ItemInfos that need to have their icons
 	// updated in the database
 	static final HashMap<Object, byte[]> sBgDbIconCache = new HashMap<Object, byte[]>();
+
+	// sBgPendingDbIcons is the set of ShortcutInfos, by id, whose icon blob has
+	// not been read from the database yet. loadWorkspace leaves the blobs out
+	// and bindWorkspace reads them a screen at a time, just before binding.
+	static final HashMap<Long, ShortcutInfo> sBgPendingDbIcons = new HashMap<Long, ShortcutInfo>();
 	// </ only access in worker thread >
 
+	// Everything loadWorkspace needs from the favorites table except the icon
+	// blobs, which are read lazily with ICON_PROJECTION.
+	private static final String[] WORKSPACE_PROJECTION = new String[] {
+			LauncherSettings.Favorites._ID, LauncherSettings.Favorites.INTENT,
+			LauncherSettings.Favorites.TITLE,
+			LauncherSettings.Favorites.ICON_TYPE,
+			LauncherSettings.Favorites.ICON_PACKAGE,
+			LauncherSettings.Favorites.ICON_RESOURCE,
+			LauncherSettings.Favorites.CONTAINER,
+			LauncherSettings.Favorites.ITEM_TYPE,
+			LauncherSettings.Favorites.APPWIDGET_ID,
+			LauncherSettings.Favorites.SCREEN, LauncherSettings.Favorites.CELLX,
+			LauncherSettings.Favorites.CELLY, LauncherSettings.Favorites.SPANX,
+			LauncherSettings.Favorites.SPANY };
+	private static final String[] ICON_PROJECTION = new String[] {
+			LauncherSettings.Favorites._ID, LauncherSettings.Favorites.ICON };
+	// Just the length of the icon blobs, which the workspace snapshot is
+	// checked against instead of the blobs themselves
+	private static final String[] ICON_LENGTH_PROJECTION = new String[] {
+			LauncherSettings.Favorites._ID,
+			"length(" + LauncherSettings.Favorites.ICON + ")" };
+
 	private IconCache mIconCache;
 	private Bitmap mDefaultIcon;
 
+	// The last bound workspace, used to put something on screen before the
+	// first database query on a cold start. Only read once per process.
+	private final WorkspaceSnapshot mWorkspaceSnapshot;
+	private boolean mWorkspaceSnapshotRead;
+	// Set when the bound workspace came from the database and the snapshot
+	// should be rewritten once it has been bound.
+	private boolean mSaveWorkspaceSnapshot;
+	// Set when the workspace has changed since the snapshot was written. The
+	// snapshot is brought up to date by flushDatabaseWrites().
+	// < only access in worker thread >
+	private boolean mWorkspaceSnapshotDirty;
+
 	private static int mCellCountX;
 	private static int mCellCountY;
 
@@ -188,6 +275,8 @@ public class LauncherModel extends BroadcastReceiver {
 
 		public void bindFolders(HashMap<Long, FolderInfo> folders);
 
+		public void bindItemsRemoved(ArrayList<ItemInfo> items);
+
 		public void finishBindingItems();
 
 		public void bindAppWidget(LauncherAppWidgetInfo info);
@@ -217,6 +306,7 @@ public class LauncherModel extends BroadcastReceiver {
 		mApp = app;
 		mBgAllAppsList = new AllAppsList(iconCache);
 		mIconCache = iconCache;
+		mWorkspaceSnapshot = new WorkspaceSnapshot(app);
 
 		mDefaultIcon = Utilities.createIconBitmap(
 				mIconCache.getFullResDefaultActivityIcon(), app);
@@ -238,9 +328,13 @@ public class LauncherModel extends BroadcastReceiver {
 	}
 
 	private void runOnMainThread(Runnable r, int type) {
+		runOnMainThread(r, type, DeferredHandler.PRIORITY_DEFAULT);
+	}
+
+	private void runOnMainThread(Runnable r, int type, int priority) {
 		if (sWorkerThread.getThreadId() == Process.myTid()) {
 			// If we are on the worker thread, post onto the main handler
-			mHandler.post(r);
+			mHandler.post(r, type, priority);
 		} else {
 			r.run();
 		}
@@ -382,15 +476,14 @@ public class LauncherModel extends BroadcastReceiver {
 			final ContentValues values, final ItemInfo item,
 			final String callingFunction) {
 		final long itemId = item.id;
-		final Uri uri = LauncherSettings.Favorites.getContentUri(itemId, false);
 		final ContentResolver cr = context.getContentResolver();
 
 		final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
 		Runnable r = new Runnable() {
 			public void run() {
-				cr.update(uri, values, null, null);
+				sDbWrites.update(cr, itemId, values);
 
-				// Lock on mBgLock *after* the db operation
+				// Lock on mBgLock *after* the db operation is queued
 				synchronized (sBgLock) {
 					checkItemInfoLocked(itemId, item, stackTrace);
 
@@ -438,6 +531,25 @@ public class LauncherModel extends BroadcastReceiver {
 		runOnWorkerThread(r);
 	}
 
+	/**
+	 * Commits the queued database writes now rather than on their deadline,
+	 * e.g. before the process may go away, and rewrites the workspace snapshot
+	 * if the workspace has changed since it was written.
+	 */
+	public void flushDatabaseWrites() {
+		runOnWorkerThread(new Runnable() {
+			public void run() {
+				sDbWrites.flush();
+				if (sDbWrites.takeCommitted()) {
+					mWorkspaceSnapshotDirty = true;
+				}
+				if (mWorkspaceSnapshotDirty) {
+					updateWorkspaceSnapshot();
+				}
+			}
+		});
+	}
+
 	/**
 	 * Move an item in the DB to a new <container, screen, cellX, cellY>
 	 */
@@ -534,15 +646,30 @@ public class LauncherModel extends BroadcastReceiver {
 	 */
 	static boolean shortcutExists(Context context, String title, Intent intent) {
 		final ContentResolver cr = context.getContentResolver();
+		final String uri = intent.toUri(0);
 		Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
 				new String[] { "title", "intent" }, "title=? and intent=?",
-				new String[] { title, intent.toUri(0) }, null);
+				new String[] { title, uri }, null);
 		boolean result = false;
 		try {
 			result = c.moveToFirst();
 		} finally {
 			c.close();
 		}
+		if (!result) {
+			// Shortcuts added a moment ago may still be waiting to be written
+			final ArrayList<ItemInfo> pending = new ArrayList<ItemInfo>();
+			sDbWrites.getUncommittedInserts(pending);
+			for (ItemInfo item : pending) {
+				if (item instanceof ShortcutInfo
+						&& item.title != null
+						&& title.equals(item.title.toString())
+						&& ((ShortcutInfo) item).intent != null
+						&& uri.equals(((ShortcutInfo) item).intent.toUri(0))) {
+					return true;
+				}
+			}
+		}
 		return result;
 	}
 
@@ -554,7 +681,8 @@ public class LauncherModel extends BroadcastReceiver {
 		ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
 		final ContentResolver cr = context.getContentResolver();
 		Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
-				new String[] { LauncherSettings.Favorites.ITEM_TYPE,
+				new String[] { LauncherSettings.Favorites._ID,
+						LauncherSettings.Favorites.ITEM_TYPE,
 						LauncherSettings.Favorites.CONTAINER,
 						LauncherSettings.Favorites.SCREEN,
 						LauncherSettings.Favorites.CELLX,
@@ -562,6 +690,8 @@ public class LauncherModel extends BroadcastReceiver {
 						LauncherSettings.Favorites.SPANX,
 						LauncherSettings.Favorites.SPANY }, null, null, null);
 
+		final int idIndex = c
+				.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
 		final int itemTypeIndex = c
 				.getColumnIndexOrThrow(LauncherSettings.Favorites.ITEM_TYPE);
 		final int containerIndex = c
@@ -577,8 +707,10 @@ public class LauncherModel extends BroadcastReceiver {
 		final int spanYIndex = c
 				.getColumnIndexOrThrow(LauncherSettings.Favorites.SPANY);
 
+		final HashSet<Long> ids = new HashSet<Long>();
 		try {
 			while (c.moveToNext()) {
+				ids.add(c.getLong(idIndex));
 				ItemInfo item = new ItemInfo();
 				item.cellX = c.getInt(cellXIndex);
 				item.cellY = c.getInt(cellYIndex);
@@ -596,6 +728,26 @@ public class LauncherModel extends BroadcastReceiver {
 			c.close();
 		}
 
+		// Items added a moment ago may still be waiting to be written, and
+		// their cells are just as taken
+		final ArrayList<ItemInfo> pending = new ArrayList<ItemInfo>();
+		sDbWrites.getUncommittedInserts(pending);
+		for (ItemInfo info : pending) {
+			if (ids.contains(info.id)) {
+				continue;
+			}
+			ItemInfo item = new ItemInfo();
+			item.cellX = info.cellX;
+			item.cellY = info.cellY;
+			item.spanX = info.spanX;
+			item.spanY = info.spanY;
+			item.container = info.container;
+			item.itemType = info.itemType;
+			item.screen = info.screen;
+
+			items.add(item);
+		}
+
 		return items;
 	}
 
@@ -679,11 +831,14 @@ public class LauncherModel extends BroadcastReceiver {
 		final ContentResolver cr = context.getContentResolver();
 		item.onAddToDatabase(values);
 
-		LauncherApplication app = (LauncherApplication) context
+		final LauncherApplication app = (LauncherApplication) context
 				.getApplicationContext();
 		item.id = app.getLauncherProvider().generateNewId();
 		values.put(LauncherSettings.Favorites._ID, item.id);
 		item.updateValuesWithCoordinates(values, item.cellX, item.cellY);
+		// Visible to readers of the table on this thread from now on, even
+		// though the insert itself waits in the journal
+		sDbWrites.willInsert(item);
 
 		final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
 
@@ -695,12 +850,9 @@ public class LauncherModel extends BroadcastReceiver {
 				Launcher.sDumpLogs.add(transaction);
 				Log.d(TAG, transaction);
 
-				cr.insert(
-						notify ? LauncherSettings.Favorites.CONTENT_URI
-								: LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
-						values);
+				sDbWrites.insert(cr, item.id, values, notify);
 
-				// Lock on mBgLock *after* the db operation
+				// Lock on mBgLock *after* the db operation is queued
 				synchronized (sBgLock) {
 					checkItemInfoLocked(item.id, item, null);
 					sBgItemsIdMap.put(item.id, item);
@@ -730,6 +882,15 @@ public class LauncherModel extends BroadcastReceiver {
 						break;
 					}
 				}
+
+				if (notify) {
+					// Added behind the Launcher's back (InstallShortcutReceiver).
+					// The change notification is our own and won't reload the
+					// workspace, so bind the item here.
+					final ArrayList<ItemInfo> added = new ArrayList<ItemInfo>();
+					added.add(item);
+					app.getModel().bindItemsAdded(added);
+				}
 			}
 		};
 		runOnWorkerThread(r);
@@ -772,8 +933,7 @@ public class LauncherModel extends BroadcastReceiver {
 	 */
 	public static void deleteItemFromDatabase(Context context, final ItemInfo item) {
 		final ContentResolver cr = context.getContentResolver();
-		final Uri uriToDelete = LauncherSettings.Favorites.getContentUri(
-				item.id, false);
+		sDbWrites.forgetInsert(item.id);
 
 		Runnable r = new Runnable() {
 			public void run() {
@@ -784,9 +944,9 @@ public class LauncherModel extends BroadcastReceiver {
 				Launcher.sDumpLogs.add(transaction);
 				Log.d(TAG, transaction);
 
-				cr.delete(uriToDelete, null, null);
+				sDbWrites.delete(cr, item.id);
 
-				// Lock on mBgLock *after* the db operation
+				// Lock on mBgLock *after* the db operation is queued
 				synchronized (sBgLock) {
 					switch (item.itemType) {
 					case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
@@ -827,12 +987,15 @@ public class LauncherModel extends BroadcastReceiver {
 	public static void deleteFolderContentsFromDatabase(Context context,
 			final FolderInfo info) {
 		final ContentResolver cr = context.getContentResolver();
+		sDbWrites.forgetInsert(info.id);
+		for (ItemInfo childInfo : info.contents) {
+			sDbWrites.forgetInsert(childInfo.id);
+		}
 
 		Runnable r = new Runnable() {
 			public void run() {
-				cr.delete(LauncherSettings.Favorites.getContentUri(info.id,
-						false), null, null);
-				// Lock on mBgLock *after* the db operation
+				sDbWrites.delete(cr, info.id);
+				// Lock on mBgLock *after* the db operation is queued
 				synchronized (sBgLock) {
 					sBgItemsIdMap.remove(info.id);
 					sBgFolders.remove(info.id);
@@ -840,11 +1003,9 @@ public class LauncherModel extends BroadcastReceiver {
 					sBgWorkspaceItems.remove(info);
 				}
 
-				cr.delete(
-						LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
-						LauncherSettings.Favorites.CONTAINER + "=" + info.id,
-						null);
-				// Lock on mBgLock *after* the db operation
+				sDbWrites.deleteWhere(cr, LauncherSettings.Favorites.CONTAINER
+						+ "=" + info.id);
+				// Lock on mBgLock *after* the db operation is queued
 				synchronized (sBgLock) {
 					for (ItemInfo childInfo : info.contents) {
 						sBgItemsIdMap.remove(childInfo.id);
@@ -927,6 +1088,9 @@ public class LauncherModel extends BroadcastReceiver {
 			enqueuePackageUpdated(new PackageUpdatedTask(
 					PackageUpdatedTask.OP_UNAVAILABLE, packages));
 		} else if (Intent.ACTION_LOCALE_CHANGED.equals(action)) {
+			// The sort keys of the bound apps were made for the old locale.
+			// They are left alone: the reload replaces the apps, with keys
+			// made for the new one.
 			// If we have changed locale we need to clear out the labels in all
 			// apps/workspace.
 			forceReload();
@@ -969,6 +1133,297 @@ public class LauncherModel extends BroadcastReceiver {
 		startLoaderFromBackground();
 	}
 
+	/**
+	 * Called when the favorites table has changed. Changes the model made
+	 * itself are already in memory and bound, so they are ignored. Changes
+	 * made by others are merged in row by row when they only add or remove
+	 * shortcuts, and reload the workspace otherwise.
+	 */
+	public void onFavoritesChanged() {
+		runOnWorkerThread(new Runnable() {
+			public void run() {
+				sDbWrites.flush();
+				final long generation = mApp.getLauncherProvider()
+						.getExternalGeneration();
+				if (generation == mSyncedExternalGeneration) {
+					return;
+				}
+				if (mWorkspaceLoaded && refreshWorkspaceItems()) {
+					mSyncedExternalGeneration = generation;
+					mWorkspaceSnapshotDirty = true;
+					return;
+				}
+
+				// If the database has ever changed, then we really need to
+				// force a reload of the workspace on the next load
+				runOnMainThread(new Runnable() {
+					public void run() {
+						resetLoadedState(false, true);
+						startLoaderFromBackground();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Brings the workspace model in line with the database, if the only
+	 * differences are shortcuts that were added or items that were removed.
+	 * Returns false, having changed nothing, for anything else: any other
+	 * change to a row the model knows (where it is, its title, intent or
+	 * icon) needs a reload.
+	 */
+	private boolean refreshWorkspaceItems() {
+		final Context context = mApp;
+		final PackageManager manager = context.getPackageManager();
+		final HashSet<Long> ids = new HashSet<Long>();
+		final ArrayList<ItemInfo> added = new ArrayList<ItemInfo>();
+
+		final Cursor c = context.getContentResolver().query(
+				LauncherSettings.Favorites.CONTENT_URI, null, null, null, null);
+		if (c == null) {
+			return false;
+		}
+		try {
+			final int idIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
+			final int intentIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.INTENT);
+			final int titleIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE);
+			final int iconTypeIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_TYPE);
+			final int iconIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON);
+			final int iconPackageIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_PACKAGE);
+			final int iconResourceIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_RESOURCE);
+			final int containerIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.CONTAINER);
+			final int itemTypeIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.ITEM_TYPE);
+			final int screenIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.SCREEN);
+			final int cellXIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.CELLX);
+			final int cellYIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.CELLY);
+			final int spanXIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.SPANX);
+			final int spanYIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.SPANY);
+			final int appWidgetIdIndex = c
+					.getColumnIndexOrThrow(LauncherSettings.Favorites.APPWIDGET_ID);
+
+			while (c.moveToNext()) {
+				final long id = c.getLong(idIndex);
+				final int itemType = c.getInt(itemTypeIndex);
+				final long container = c.getLong(containerIndex);
+				final int screen = c.getInt(screenIndex);
+				final int cellX = c.getInt(cellXIndex);
+				final int cellY = c.getInt(cellYIndex);
+				ids.add(id);
+
+				final ItemInfo known;
+				synchronized (sBgLock) {
+					known = sBgItemsIdMap.get(id);
+				}
+				if (known != null) {
+					if (known.itemType != itemType
+							|| known.container != container
+							|| known.screen != screen || known.cellX != cellX
+							|| known.cellY != cellY
+							|| known.spanX != c.getInt(spanXIndex)
+							|| known.spanY != c.getInt(spanYIndex)) {
+						// Moved or replaced by someone else
+						return false;
+					}
+					if (itemType == LauncherSettings.Favorites.ITEM_TYPE_FOLDER) {
+						if (!TextUtils.equals(known.title,
+								c.getString(titleIndex))) {
+							return false;
+						}
+						continue;
+					}
+					if (itemType == LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET) {
+						if (((LauncherAppWidgetInfo) known).appWidgetId != c
+								.getInt(appWidgetIdIndex)) {
+							return false;
+						}
+						continue;
+					}
+				}
+
+				if (itemType != LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
+						&& itemType != LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT) {
+					return false;
+				}
+				final Intent intent;
+				try {
+					intent = Intent.parseUri(c.getString(intentIndex), 0);
+				} catch (URISyntaxException e) {
+					return false;
+				}
+				final ShortcutInfo info;
+				if (itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+					info = getShortcutInfo(manager, intent, context, c,
+							iconIndex, titleIndex, null);
+				} else {
+					info = getShortcutInfo(c, context, iconTypeIndex,
+							iconPackageIndex, iconResourceIndex, iconIndex,
+							titleIndex);
+				}
+				if (info == null) {
+					return false;
+				}
+				info.intent = intent;
+				if (known != null) {
+					if (!sameShortcut((ShortcutInfo) known, info)) {
+						// Edited by someone else
+						return false;
+					}
+					continue;
+				}
+				info.id = id;
+				info.container = container;
+				info.screen = screen;
+				info.cellX = cellX;
+				info.cellY = cellY;
+				added.add(info);
+			}
+		} finally {
+			c.close();
+		}
+
+		final ArrayList<ItemInfo> removed = new ArrayList<ItemInfo>();
+		synchronized (sBgLock) {
+			for (ItemInfo item : added) {
+				if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+						&& item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT
+						&& !sBgFolders.containsKey(item.container)) {
+					// In a folder we don't know about
+					return false;
+				}
+			}
+
+			for (ItemInfo item : sBgItemsIdMap.values()) {
+				if (!ids.contains(item.id)) {
+					removed.add(item);
+				}
+			}
+			for (ItemInfo item : removed) {
+				sBgItemsIdMap.remove(item.id);
+				sBgWorkspaceItems.remove(item);
+				sBgAppWidgets.remove(item);
+				sBgFolders.remove(item.id);
+				sBgDbIconCache.remove(item);
+			}
+			for (ItemInfo item : added) {
+				sBgItemsIdMap.put(item.id, item);
+				if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+						|| item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+					sBgWorkspaceItems.add(item);
+				}
+			}
+		}
+		if (DEBUG_LOADERS) {
+			Log.d(TAG, "refreshed workspace: " + added.size() + " added, "
+					+ removed.size() + " removed");
+		}
+
+		if (!removed.isEmpty()) {
+			// Shortcuts taken out of folders that are still there have to
+			// leave the folders' contents too. Like the ones added to folders,
+			// that is done on the main thread, where the folders are bound.
+			final HashMap<ShortcutInfo, FolderInfo> folderItems = new HashMap<ShortcutInfo, FolderInfo>();
+			synchronized (sBgLock) {
+				for (ItemInfo item : removed) {
+					final FolderInfo folder = sBgFolders.get(item.container);
+					if (item instanceof ShortcutInfo && folder != null) {
+						folderItems.put((ShortcutInfo) item, folder);
+					}
+				}
+			}
+			runOnMainThread(new Runnable() {
+				public void run() {
+					for (ShortcutInfo item : folderItems.keySet()) {
+						folderItems.get(item).remove(item);
+					}
+					final Callbacks callbacks = mCallbacks != null ? mCallbacks
+							.get() : null;
+					if (callbacks != null) {
+						callbacks.bindItemsRemoved(removed);
+					}
+				}
+			});
+		}
+		bindItemsAdded(added);
+		return true;
+	}
+
+	/**
+	 * Returns whether a shortcut the model knows is still what its row in the
+	 * database loads as. Icons that are still to be read from the row can't
+	 * be out of date.
+	 */
+	private boolean sameShortcut(ShortcutInfo known, ShortcutInfo row) {
+		if (!TextUtils.equals(known.title, row.title)
+				|| !known.intent.toUri(0).equals(row.intent.toUri(0))
+				|| known.customIcon != row.customIcon) {
+			return false;
+		}
+		synchronized (sBgLock) {
+			if (sBgPendingDbIcons.containsKey(known.id)) {
+				return true;
+			}
+		}
+		return WorkspaceSnapshot.sameIcon(known.getIcon(mIconCache),
+				row.getIcon(mIconCache));
+	}
+
+	/**
+	 * Binds items that are already in the model but were added without the
+	 * Launcher knowing: shortcuts onto the workspace, or into their folders.
+	 * Loader thread only.
+	 */
+	void bindItemsAdded(ArrayList<ItemInfo> items) {
+		if (items.isEmpty()) {
+			return;
+		}
+		final ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
+		final HashMap<ShortcutInfo, FolderInfo> folderItems = new HashMap<ShortcutInfo, FolderInfo>();
+		synchronized (sBgLock) {
+			for (ItemInfo item : items) {
+				if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+						|| item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+					workspaceItems.add(item);
+				} else if (item instanceof ShortcutInfo
+						&& sBgFolders.containsKey(item.container)) {
+					folderItems.put((ShortcutInfo) item,
+							sBgFolders.get(item.container));
+				}
+			}
+		}
+
+		runOnMainThread(new Runnable() {
+			public void run() {
+				final Callbacks callbacks = mCallbacks != null ? mCallbacks
+						.get() : null;
+				if (callbacks == null) {
+					return;
+				}
+				if (!workspaceItems.isEmpty()) {
+					callbacks.bindItems(workspaceItems, 0,
+							workspaceItems.size());
+				}
+				for (ShortcutInfo item : folderItems.keySet()) {
+					folderItems.get(item).add(item);
+				}
+			}
+		});
+	}
+
 	public void resetLoadedState(boolean resetAllAppsLoaded,
 			boolean resetWorkspaceLoaded) {
 		synchronized (mLock) {
@@ -1052,7 +1507,8 @@ public class LauncherModel extends BroadcastReceiver {
 		// Post the remaining side pages to be loaded
 		if (!mDeferredBindRunnables.isEmpty()) {
 			for (final Runnable r : mDeferredBindRunnables) {
-				mHandler.post(r, MAIN_THREAD_BINDING_RUNNABLE);
+				mHandler.post(r, MAIN_THREAD_BINDING_RUNNABLE,
+						DeferredHandler.PRIORITY_LOW);
 			}
 			mDeferredBindRunnables.clear();
 		}
@@ -1116,6 +1572,15 @@ public class LauncherModel extends BroadcastReceiver {
 			}
 
 			if (!mWorkspaceLoaded) {
+				// On a cold start, bind the snapshot of the last workspace while
+				// the database is read. Binding is only finished (which unlocks
+				// the workspace) once the database has confirmed the snapshot.
+				BoundSnapshot snapshot = null;
+				if (!mWorkspaceSnapshotRead) {
+					mWorkspaceSnapshotRead = true;
+					snapshot = bindWorkspaceSnapshot();
+				}
+
 				loadWorkspace();
 				synchronized (LoaderTask.this) {
 					if (mStopped) {
@@ -1123,12 +1588,87 @@ public class LauncherModel extends BroadcastReceiver {
 					}
 					mWorkspaceLoaded = true;
 				}
+
+				if (snapshot != null && confirmWorkspaceSnapshot(snapshot)) {
+					return;
+				}
+				mSaveWorkspaceSnapshot = true;
 			}
 
 			// Bind the workspace
 			bindWorkspace(-1);
 		}
 
+		/**
+		 * Binds the workspace snapshot, if there is a usable one, without
+		 * finishing the bind. Returns what was bound, or null.
+		 */
+		private BoundSnapshot bindWorkspaceSnapshot() {
+			final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+			final HashMap<Long, Integer> iconLengths
+					= new HashMap<Long, Integer>();
+			final ArrayList<ItemInfo> items = mWorkspaceSnapshot.read(
+					mCellCountX, mCellCountY, iconLengths);
+			if (items == null) {
+				return null;
+			}
+			final BoundSnapshot snapshot = new BoundSnapshot(items, iconLengths);
+			synchronized (sBgLock) {
+				snapshot.installLocked();
+			}
+			if (DEBUG_LOADERS) {
+				Log.d(TAG, "read workspace snapshot of " + items.size()
+						+ " items in " + (SystemClock.uptimeMillis() - t) + "ms");
+			}
+			bindWorkspace(-1, false);
+			return snapshot;
+		}
+
+		/**
+		 * Checks the bound snapshot against what was just loaded from the
+		 * database. If they agree, the snapshot's items (which the views hold)
+		 * become the model again and the bind is finished; otherwise the caller
+		 * binds the database items from scratch.
+		 */
+		private boolean confirmWorkspaceSnapshot(BoundSnapshot snapshot) {
+			// The icons still in the database are compared by the length of
+			// their blobs, so they don't have to be read and decoded here
+			final HashMap<Long, Integer> iconLengths = loadIconLengths();
+			if (iconLengths == null) {
+				return false;
+			}
+
+			synchronized (sBgLock) {
+				if (!WorkspaceSnapshot.matches(snapshot.items,
+						snapshot.iconLengths, sBgItemsIdMap, iconLengths,
+						mIconCache)) {
+					if (DEBUG_LOADERS) {
+						Log.d(TAG, "workspace snapshot is stale, rebinding");
+					}
+					return false;
+				}
+				snapshot.installLocked();
+
+				// The snapshot's items already have the icons that were
+				// pending on the loaded ones. Only the blobs that are read to
+				// be re-saved (apps on external storage) are still wanted,
+				// now for the snapshot's items.
+				final ArrayList<ShortcutInfo> pending
+						= new ArrayList<ShortcutInfo>(sBgPendingDbIcons.values());
+				sBgPendingDbIcons.clear();
+				for (ShortcutInfo info : pending) {
+					final ItemInfo item = snapshot.itemsIdMap.get(info.id);
+					if (!info.usingFallbackIcon && item instanceof ShortcutInfo) {
+						sBgPendingDbIcons.put(item.id, (ShortcutInfo) item);
+					}
+				}
+			}
+			finishBindingWorkspace(mCallbacks.get(), SystemClock.uptimeMillis(),
+					null);
+			loadPendingIcons(snapshot.items, null);
+			return true;
+		}
+
 		private void waitForIdle() {
 			// Wait until the either we're stopped or the other threads are
 			// done.
@@ -1417,18 +1957,24 @@ public class LauncherModel extends BroadcastReceiver {
 			// Make sure the default workspace is loaded, if needed
 			mApp.getLauncherProvider().loadDefaultFavoritesIfNecessary(0);
 
+			// Read what we have written
+			sDbWrites.flush();
+			mSyncedExternalGeneration = mApp.getLauncherProvider()
+					.getExternalGeneration();
+
 			synchronized (sBgLock) {
 				sBgWorkspaceItems.clear();
 				sBgAppWidgets.clear();
 				sBgFolders.clear();
 				sBgItemsIdMap.clear();
 				sBgDbIconCache.clear();
+				sBgPendingDbIcons.clear();
 
 				final ArrayList<Long> itemsToRemove = new ArrayList<Long>();
 
 				final Cursor c = contentResolver.query(
-						LauncherSettings.Favorites.CONTENT_URI, null, null,
-						null, null);
+						LauncherSettings.Favorites.CONTENT_URI,
+						WORKSPACE_PROJECTION, null, null, null);
 
 				// +1 for the hotseat (it can be larger than the workspace)
 				// Load workspace in reverse order to ensure that latest items
@@ -1445,8 +1991,8 @@ public class LauncherModel extends BroadcastReceiver {
 							.getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE);
 					final int iconTypeIndex = c
 							.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_TYPE);
-					final int iconIndex = c
-							.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON);
+					// The icon blobs are not in the projection
+					final int iconIndex = -1;
 					final int iconPackageIndex = c
 							.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_PACKAGE);
 					final int iconResourceIndex = c
@@ -1548,11 +2094,20 @@ public class LauncherModel extends BroadcastReceiver {
 									}
 									sBgItemsIdMap.put(info.id, info);
 
-									// now that we've loaded everthing re-save
-									// it with the
-									// icon in case it disappears somehow.
-									queueIconToBeChecked(sBgDbIconCache, info,
-											c, iconIndex);
+									// The icon blob is read when the item's
+									// screen is bound: either to use it in
+									// place of the fallback icon, or to
+									// re-save the icon in case it disappears
+									// somehow.
+									if (info.usingFallbackIcon
+											|| (mAppsCanBeOnExternalStorage && !info.customIcon)) {
+										if (info.usingFallbackIcon
+												&& itemType == LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT
+												&& c.getInt(iconTypeIndex) == LauncherSettings.Favorites.ICON_TYPE_BITMAP) {
+											info.customIcon = true;
+										}
+										sBgPendingDbIcons.put(info.id, info);
+									}
 								} else {
 									// Failed to load the shortcut, probably
 									// because the
@@ -1564,9 +2119,9 @@ public class LauncherModel extends BroadcastReceiver {
 									id = c.getLong(idIndex);
 									Log.e(TAG, "Error loading shortcut " + id
 											+ ", removing it");
-									contentResolver.delete(
-											LauncherSettings.Favorites
-													.getContentUri(id, false),
+									contentResolver.delete(LauncherProvider
+											.asModelWrite(LauncherSettings.Favorites
+													.getContentUri(id, false)),
 											null, null);
 								}
 								break;
@@ -1674,8 +2229,10 @@ public class LauncherModel extends BroadcastReceiver {
 						}
 						// Don't notify content observers
 						try {
-							client.delete(LauncherSettings.Favorites
-									.getContentUri(id, false), null, null);
+							client.delete(LauncherProvider
+									.asModelWrite(LauncherSettings.Favorites
+											.getContentUri(id, false)), null,
+									null);
 						} catch (RemoteException e) {
 							Log.w(TAG, "Could not remove id = " + id);
 						}
@@ -1704,6 +2261,98 @@ public class LauncherModel extends BroadcastReceiver {
 			}
 		}
 
+		/**
+		 * Reads the icon blobs that loadWorkspace left out for the given items
+		 * and the contents of the given folders, in one query.
+		 */
+		private void loadPendingIcons(ArrayList<ItemInfo> items,
+				HashMap<Long, FolderInfo> folders) {
+			final HashMap<Long, ShortcutInfo> pending = new HashMap<Long, ShortcutInfo>();
+			synchronized (sBgLock) {
+				if (sBgPendingDbIcons.isEmpty()) {
+					return;
+				}
+				for (ItemInfo item : items) {
+					takePendingIconLocked(item, pending);
+				}
+				if (folders != null) {
+					for (FolderInfo folder : folders.values()) {
+						for (ShortcutInfo item : folder.contents) {
+							takePendingIconLocked(item, pending);
+						}
+					}
+				}
+			}
+			if (pending.isEmpty()) {
+				return;
+			}
+
+			final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+			final StringBuilder selection = new StringBuilder();
+			selection.append(LauncherSettings.Favorites._ID).append(" IN (");
+			boolean first = true;
+			for (long id : pending.keySet()) {
+				if (!first) {
+					selection.append(',');
+				}
+				selection.append(id);
+				first = false;
+			}
+			selection.append(')');
+
+			final Cursor c = mApp.getContentResolver().query(
+					LauncherSettings.Favorites.CONTENT_URI, ICON_PROJECTION,
+					selection.toString(), null, null);
+			if (c == null) {
+				return;
+			}
+			final HashMap<Object, byte[]> iconsToCheck = new HashMap<Object, byte[]>();
+			try {
+				final int idIndex = c
+						.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
+				final int iconIndex = c
+						.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON);
+				while (c.moveToNext()) {
+					final ShortcutInfo info = pending.get(c.getLong(idIndex));
+					if (info == null) {
+						continue;
+					}
+					if (info.usingFallbackIcon) {
+						// The db is the last place to look before the fallback
+						// icon that the item already has
+						final Bitmap icon = getIconFromCursor(c, iconIndex, mApp);
+						if (icon != null) {
+							info.setIcon(icon);
+							info.usingFallbackIcon = false;
+						} else {
+							info.customIcon = false;
+						}
+					} else {
+						queueIconToBeChecked(iconsToCheck, info, c, iconIndex);
+					}
+				}
+			} finally {
+				c.close();
+			}
+			synchronized (sBgLock) {
+				sBgDbIconCache.putAll(iconsToCheck);
+			}
+			if (DEBUG_LOADERS) {
+				Log.d(TAG, "loaded " + pending.size() + " icons in "
+						+ (SystemClock.uptimeMillis() - t) + "ms");
+			}
+		}
+
+		private void takePendingIconLocked(ItemInfo item,
+				HashMap<Long, ShortcutInfo> pending) {
+			if (item instanceof ShortcutInfo) {
+				final ShortcutInfo info = sBgPendingDbIcons.remove(item.id);
+				if (info != null) {
+					pending.put(info.id, info);
+				}
+			}
+		}
+
 		/**
 		 * Filters the set of items who are directly or indirectly (via another
 		 * container) on the specified screen.
@@ -1841,7 +2490,7 @@ public class LauncherModel extends BroadcastReceiver {
 				final ArrayList<ItemInfo> workspaceItems,
 				final ArrayList<LauncherAppWidgetInfo> appWidgets,
 				final HashMap<Long, FolderInfo> folders,
-				ArrayList<Runnable> deferredBindRunnables) {
+				ArrayList<Runnable> deferredBindRunnables, int priority) {
 
 			final boolean postOnMainThread = (deferredBindRunnables != null);
 
@@ -1864,7 +2513,7 @@ public class LauncherModel extends BroadcastReceiver {
 				if (postOnMainThread) {
 					deferredBindRunnables.add(r);
 				} else {
-					runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+					runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE, priority);
 				}
 			}
 
@@ -1881,7 +2530,7 @@ public class LauncherModel extends BroadcastReceiver {
 				if (postOnMainThread) {
 					deferredBindRunnables.add(r);
 				} else {
-					runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+					runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE, priority);
 				}
 			}
 
@@ -1900,7 +2549,7 @@ public class LauncherModel extends BroadcastReceiver {
 				if (postOnMainThread) {
 					deferredBindRunnables.add(r);
 				} else {
-					runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+					runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE, priority);
 				}
 			}
 		}
@@ -1909,6 +2558,10 @@ public class LauncherModel extends BroadcastReceiver {
 		 * Binds all loaded data to actual views on the main thread.
 		 */
 		private void bindWorkspace(int synchronizeBindPage) {
+			bindWorkspace(synchronizeBindPage, true);
+		}
+
+		private void bindWorkspace(int synchronizeBindPage, boolean finish) {
 			final long t = SystemClock.uptimeMillis();
 			Runnable r;
 
@@ -1969,11 +2622,14 @@ public class LauncherModel extends BroadcastReceiver {
 					}
 				}
 			};
-			runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+			runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE,
+					DeferredHandler.PRIORITY_HIGH);
 
 			// Load items on the current page
+			loadPendingIcons(currentWorkspaceItems, currentFolders);
 			bindWorkspaceItems(oldCallbacks, currentWorkspaceItems,
-					currentAppWidgets, currentFolders, null);
+					currentAppWidgets, currentFolders, null,
+					DeferredHandler.PRIORITY_HIGH);
 			if (isLoadingSynchronously) {
 				r = new Runnable() {
 					public void run() {
@@ -1983,19 +2639,33 @@ public class LauncherModel extends BroadcastReceiver {
 						}
 					}
 				};
-				runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+				runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE,
+						DeferredHandler.PRIORITY_HIGH);
 			}
 
 			// Load all the remaining pages (if we are loading synchronously, we
 			// want to defer this
 			// work until after the first render)
 			mDeferredBindRunnables.clear();
+			loadPendingIcons(otherWorkspaceItems, otherFolders);
 			bindWorkspaceItems(oldCallbacks, otherWorkspaceItems,
 					otherAppWidgets, otherFolders,
-					(isLoadingSynchronously ? mDeferredBindRunnables : null));
+					(isLoadingSynchronously ? mDeferredBindRunnables : null),
+					DeferredHandler.PRIORITY_LOW);
+
+			if (finish) {
+				finishBindingWorkspace(oldCallbacks, t,
+						isLoadingSynchronously ? mDeferredBindRunnables : null);
+			}
+		}
+
+		private void finishBindingWorkspace(final Callbacks oldCallbacks,
+				final long t, ArrayList<Runnable> deferredBindRunnables) {
+			final boolean saveSnapshot = mSaveWorkspaceSnapshot;
+			mSaveWorkspaceSnapshot = false;
 
 			// Tell the workspace that we're done binding items
-			r = new Runnable() {
+			final Runnable r = new Runnable() {
 				public void run() {
 					Callbacks callbacks = tryGetCallbacks(oldCallbacks);
 					if (callbacks != null) {
@@ -2012,12 +2682,21 @@ public class LauncherModel extends BroadcastReceiver {
 					}
 
 					mIsLoadingAndBindingWorkspace = false;
+
+					if (saveSnapshot) {
+						runOnWorkerThread(new Runnable() {
+							public void run() {
+								saveWorkspaceSnapshot();
+							}
+						});
+					}
 				}
 			};
-			if (isLoadingSynchronously) {
-				mDeferredBindRunnables.add(r);
+			if (deferredBindRunnables != null) {
+				deferredBindRunnables.add(r);
 			} else {
-				runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+				runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE,
+						DeferredHandler.PRIORITY_LOW);
 			}
 		}
 
@@ -2103,6 +2782,7 @@ public class LauncherModel extends BroadcastReceiver {
 			int startIndex;
 			int i = 0;
 			int batchSize = -1;
+			ArrayList<Future<ApplicationInfo>> pending = null;
 			while (i < N && !mStopped) {
 				if (i == 0) {
 					mBgAllAppsList.clear();
@@ -2134,6 +2814,9 @@ public class LauncherModel extends BroadcastReceiver {
 
 					final long sortTime = DEBUG_LOADERS ? SystemClock
 							.uptimeMillis() : 0;
+					// Labels persisted by the icon cache spare the comparator
+					// from loading them from each package
+					mIconCache.loadPersistedLabels(apps, mLabelCache);
 					Collections.sort(apps,
 							new LauncherModel.ShortcutNameComparator(
 									packageManager, mLabelCache));
@@ -2142,15 +2825,26 @@ public class LauncherModel extends BroadcastReceiver {
 								+ (SystemClock.uptimeMillis() - sortTime)
 								+ "ms");
 					}
+
+					// Fan the label and icon work of every app out to the icon
+					// loader pool, the batches below collect it in sorted order
+					pending = new ArrayList<Future<ApplicationInfo>>(N);
+					for (ResolveInfo app : apps) {
+						pending.add(sIconLoader.submit(makeApplicationInfoLoader(
+								packageManager, app)));
+					}
 				}
 
 				final long t2 = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
 
 				startIndex = i;
 				for (int j = 0; i < N && j < batchSize; j++) {
-					// This builds the icon bitmaps.
-					mBgAllAppsList.add(new ApplicationInfo(packageManager, apps
-							.get(i), mIconCache, mLabelCache));
+					// This waits for the icon bitmaps to be built.
+					final ApplicationInfo info = getLoadedApplicationInfo(pending
+							.get(i));
+					if (info != null) {
+						mBgAllAppsList.add(info);
+					}
 					i++;
 				}
 
@@ -2201,6 +2895,13 @@ public class LauncherModel extends BroadcastReceiver {
 				}
 			}
 
+			// We were stopped, don't leave the rest of the apps to the pool
+			if (pending != null) {
+				for (int k = i; k < N; k++) {
+					pending.get(k).cancel(false);
+				}
+			}
+
 			if (DEBUG_LOADERS) {
 				Log.d(TAG,
 						"cached all "
@@ -2213,6 +2914,53 @@ public class LauncherModel extends BroadcastReceiver {
 			}
 		}
 
+		/**
+		 * Returns a task building the ApplicationInfo of <em>app</em> on the icon
+		 * loader pool. The label, if already known, is handed over in a private
+		 * label cache since mLabelCache is only touched from the loader thread.
+		 */
+		private Callable<ApplicationInfo> makeApplicationInfoLoader(
+				final PackageManager packageManager, final ResolveInfo app) {
+			final HashMap<Object, CharSequence> labelCache = new HashMap<Object, CharSequence>(
+					1);
+			final ComponentName key = getComponentNameFromResolveInfo(app);
+			final CharSequence label = mLabelCache.get(key);
+			if (label != null) {
+				labelCache.put(key, label);
+			}
+			return new Callable<ApplicationInfo>() {
+				public ApplicationInfo call() {
+					return new ApplicationInfo(packageManager, app, mIconCache,
+							labelCache);
+				}
+			};
+		}
+
+		/**
+		 * Waits for an ApplicationInfo built by the icon loader pool. Returns null
+		 * if it could not be built.
+		 */
+		private ApplicationInfo getLoadedApplicationInfo(
+				Future<ApplicationInfo> future) {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return future.get();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} catch (ExecutionException e) {
+				Log.w(TAG, "Could not load app", e.getCause());
+				return null;
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
 		public void dumpState() {
 			synchronized (sBgLock) {
 				Log.d(TAG, "mLoaderTask.mContext=" + mContext);
@@ -2249,6 +2997,26 @@ public class LauncherModel extends BroadcastReceiver {
 
 			final String[] packages = mPackages;
 			final int N = packages.length;
+
+			// The icons and titles of the workspace's shortcuts may change
+			mWorkspaceSnapshotDirty = true;
+
+			// Drop the persisted icons, labels and widget previews of the changed
+			// packages. Packages on unmounted storage keep theirs, they are still valid
+			// once the media comes back.
+			if (mOp == OP_ADD || mOp == OP_UPDATE || mOp == OP_REMOVE) {
+				final WidgetPreviewCache previewCache = mApp.getWidgetPreviewCache();
+				for (int i = 0; i < N; i++) {
+					mIconCache.invalidatePackage(packages[i]);
+					previewCache.invalidatePackage(packages[i]);
+				}
+			}
+			// Glows and drag outlines are only kept in memory, so they go in every case
+			final PagedViewIconCache outlineCache = mApp.getOutlineCache();
+			for (int i = 0; i < N; i++) {
+				outlineCache.removePackage(packages[i]);
+			}
+
 			switch (mOp) {
 			case OP_ADD:
 				for (int i = 0; i < N; i++) {
@@ -2289,8 +3057,6 @@ public class LauncherModel extends BroadcastReceiver {
 			// We may be removing packages that have no associated launcher
 			// application, so we
 			// pass through the removed package names directly.
-			// NOTE: We flush the icon cache aggressively in removePackage()
-			// above.
 			final ArrayList<String> removedPackageNames = new ArrayList<String>();
 			if (mBgAllAppsList.removed.size() > 0) {
 				mBgAllAppsList.removed.clear();
@@ -2566,6 +3332,10 @@ public class LauncherModel extends BroadcastReceiver {
 							+ c.getString(c
 									.getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE)));
 		}
+		if (iconIndex < 0) {
+			// Not in the projection, see sBgPendingDbIcons
+			return null;
+		}
 		byte[] data = c.getBlob(iconIndex);
 		try {
 			return Utilities.createIconBitmap(
@@ -2749,6 +3519,108 @@ public class LauncherModel extends BroadcastReceiver {
 		}
 	}
 
+	/** Writes the current workspace to the snapshot. Worker thread only. */
+	private void saveWorkspaceSnapshot() {
+		final ArrayList<ItemInfo> items;
+		synchronized (sBgLock) {
+			items = new ArrayList<ItemInfo>(sBgItemsIdMap.values());
+		}
+		final HashMap<Long, Integer> iconLengths = loadIconLengths();
+		if (iconLengths == null) {
+			return;
+		}
+		mWorkspaceSnapshot.write(items, iconLengths, mIconCache, mCellCountX,
+				mCellCountY);
+		mWorkspaceSnapshotDirty = false;
+	}
+
+	/**
+	 * Returns the length of every icon blob in the favorites table, by id,
+	 * without reading the blobs. Null if the query failed.
+	 */
+	private HashMap<Long, Integer> loadIconLengths() {
+		final Cursor c = mApp.getContentResolver().query(
+				LauncherSettings.Favorites.CONTENT_URI, ICON_LENGTH_PROJECTION,
+				null, null, null);
+		if (c == null) {
+			return null;
+		}
+		final HashMap<Long, Integer> iconLengths = new HashMap<Long, Integer>();
+		try {
+			while (c.moveToNext()) {
+				iconLengths.put(c.getLong(0), c.isNull(1)
+						? WorkspaceSnapshot.NO_ICON_BLOB : c.getInt(1));
+			}
+		} finally {
+			c.close();
+		}
+		return iconLengths;
+	}
+
+	/**
+	 * Rewrites the snapshot after the workspace has changed. If the workspace
+	 * isn't loaded there is nothing to write it from, so it is dropped, and the
+	 * next load from the database writes it again. Worker thread only.
+	 */
+	private void updateWorkspaceSnapshot() {
+		if (mWorkspaceLoaded) {
+			saveWorkspaceSnapshot();
+		} else {
+			mWorkspaceSnapshot.delete();
+			mWorkspaceSnapshotDirty = false;
+		}
+	}
+
+	/**
+	 * The model built from a workspace snapshot. It is installed once to bind
+	 * it, and again (with the same objects) if the database agrees with it.
+	 */
+	private static class BoundSnapshot {
+		final ArrayList<ItemInfo> items;
+		final HashMap<Long, Integer> iconLengths;
+		final ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
+		final ArrayList<LauncherAppWidgetInfo> appWidgets = new ArrayList<LauncherAppWidgetInfo>();
+		final HashMap<Long, FolderInfo> folders = new HashMap<Long, FolderInfo>();
+		final HashMap<Long, ItemInfo> itemsIdMap = new HashMap<Long, ItemInfo>();
+
+		BoundSnapshot(ArrayList<ItemInfo> items,
+				HashMap<Long, Integer> iconLengths) {
+			this.items = items;
+			this.iconLengths = iconLengths;
+
+			// Folders first, so their contents have somewhere to go
+			for (ItemInfo item : items) {
+				if (item instanceof FolderInfo) {
+					folders.put(item.id, (FolderInfo) item);
+				}
+			}
+			for (ItemInfo item : items) {
+				itemsIdMap.put(item.id, item);
+				final boolean onWorkspace = item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+						|| item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT;
+				if (item instanceof LauncherAppWidgetInfo) {
+					appWidgets.add((LauncherAppWidgetInfo) item);
+				} else if (onWorkspace) {
+					workspaceItems.add(item);
+				} else if (item instanceof ShortcutInfo) {
+					findOrMakeFolder(folders, item.container).add(
+							(ShortcutInfo) item);
+				}
+			}
+		}
+
+		void installLocked() {
+			sBgWorkspaceItems.clear();
+			sBgAppWidgets.clear();
+			sBgFolders.clear();
+			sBgItemsIdMap.clear();
+			sBgWorkspaceItems.addAll(workspaceItems);
+			sBgAppWidgets.addAll(appWidgets);
+			sBgFolders.putAll(folders);
+			sBgItemsIdMap.putAll(itemsIdMap);
+		}
+	}
+
 	/**
 	 * Return an existing FolderInfo object if we have encountered this ID
 	 * previously, or make a new one.
@@ -2765,18 +3637,21 @@ public class LauncherModel extends BroadcastReceiver {
 		return folderInfo;
 	}
 
-	public static final Comparator<ApplicationInfo> getAppNameComparator() {
-		final Collator collator = Collator.getInstance();
-		return new Comparator<ApplicationInfo>() {
-			public final int compare(ApplicationInfo a, ApplicationInfo b) {
-				int result = collator.compare(a.title.toString(),
-						b.title.toString());
-				if (result == 0) {
-					result = a.componentName.compareTo(b.componentName);
-				}
-				return result;
+	private static final Comparator<ApplicationInfo> APP_NAME_COMPARATOR = new Comparator<ApplicationInfo>() {
+		public final int compare(ApplicationInfo a, ApplicationInfo b) {
+			// The keys are made with the title, so this is the same order as
+			// comparing the titles with a Collator. They are made on the
+			// loader thread before the apps are bound, and only read here.
+			int result = a.titleKey.compareTo(b.titleKey);
+			if (result == 0) {
+				result = a.componentName.compareTo(b.componentName);
 			}
-		};
+			return result;
+		}
+	};
+
+	public static final Comparator<ApplicationInfo> getAppNameComparator() {
+		return APP_NAME_COMPARATOR;
 	}
 
 	public static final Comparator<ApplicationInfo> APP_INSTALL_TIME_COMPARATOR = new Comparator<ApplicationInfo>() {
@@ -2822,6 +3697,9 @@ public class LauncherModel extends BroadcastReceiver {
 		private Collator mCollator;
 		private PackageManager mPackageManager;
 		private HashMap<Object, CharSequence> mLabelCache;
+		// Each label is loaded and turned into a key once, not once per
+		// comparison
+		private HashMap<Object, CollationKey> mKeyCache = new HashMap<Object, CollationKey>();
 
 		ShortcutNameComparator(PackageManager pm) {
 			mPackageManager = pm;
@@ -2837,26 +3715,26 @@ public class LauncherModel extends BroadcastReceiver {
 		}
 
 		public final int compare(ResolveInfo a, ResolveInfo b) {
-			CharSequence labelA, labelB;
-			ComponentName keyA = LauncherModel
-					.getComponentNameFromResolveInfo(a);
-			ComponentName keyB = LauncherModel
-					.getComponentNameFromResolveInfo(b);
-			if (mLabelCache.containsKey(keyA)) {
-				labelA = mLabelCache.get(keyA);
-			} else {
-				labelA = a.loadLabel(mPackageManager).toString();
+			return getKey(a).compareTo(getKey(b));
+		}
 
-				mLabelCache.put(keyA, labelA);
-			}
-			if (mLabelCache.containsKey(keyB)) {
-				labelB = mLabelCache.get(keyB);
-			} else {
-				labelB = b.loadLabel(mPackageManager).toString();
+		private CollationKey getKey(ResolveInfo info) {
+			ComponentName component = LauncherModel
+					.getComponentNameFromResolveInfo(info);
+			CollationKey key = mKeyCache.get(component);
+			if (key == null) {
+				CharSequence label;
+				if (mLabelCache.containsKey(component)) {
+					label = mLabelCache.get(component);
+				} else {
+					label = info.loadLabel(mPackageManager).toString();
 
-				mLabelCache.put(keyB, labelB);
+					mLabelCache.put(component, label);
+				}
+				key = mCollator.getCollationKey(label.toString());
+				mKeyCache.put(component, key);
 			}
-			return mCollator.compare(labelA, labelB);
+			return key;
 		}
 	};
 
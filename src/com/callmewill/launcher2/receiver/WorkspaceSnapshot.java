@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.receiver;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.callmewill.launcher2.cache.IconCache;
+import com.callmewill.launcher2.entity.FolderInfo;
+import com.callmewill.launcher2.entity.ItemInfo;
+import com.callmewill.launcher2.entity.LauncherAppWidgetInfo;
+import com.callmewill.launcher2.entity.ShortcutInfo;
+import com.callmewill.launcher2.provider.LauncherSettings;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A compact binary copy of the bound workspace: positions, titles, intents and the
+ * already scaled icons of every item. It is written once the workspace has been bound
+ * from the database, and memory-mapped on the next cold start so the loader can bind
+ * something right away, before it has run its query against LauncherProvider.
+ *
+ * The snapshot is only a hint. The loader always reads the database afterwards and
+ * checks the snapshot against it with {@link #matches}. Icons that come from a blob in
+ * the database are checked by the blob's length, which is stored with each shortcut, so
+ * the check doesn't have to read and decode the blobs.
+ */
+final class WorkspaceSnapshot {
+    private static final String TAG = "Launcher.WorkspaceSnapshot";
+
+    private static final String FILE_NAME = "workspace.snapshot";
+    private static final int MAGIC = 0x4C575331; // "LWS1"
+    private static final int VERSION = 2;
+
+    private static final int NO_STRING = -1;
+
+    /** The icon blob length of a shortcut without one. */
+    static final int NO_ICON_BLOB = -1;
+
+    private final File mFile;
+    private final Context mContext;
+
+    WorkspaceSnapshot(Context context) {
+        mContext = context;
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Returns the items in the snapshot, shortcuts inside folders included, or null if
+     * there is no usable snapshot for the current grid, density and locale. The icon
+     * blob lengths the shortcuts were written with are put in iconLengths, by id.
+     */
+    ArrayList<ItemInfo> read(int cellCountX, int cellCountY,
+            HashMap<Long, Integer> iconLengths) {
+        if (!mFile.exists()) {
+            return null;
+        }
+
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            final FileChannel channel = file.getChannel();
+            final MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+
+            if (in.getInt() != MAGIC || in.getInt() != VERSION
+                    || in.getInt() != cellCountX || in.getInt() != cellCountY
+                    || in.getInt() != getDensityDpi()
+                    || !getLocaleKey().equals(readString(in))) {
+                // Written for another configuration
+                delete();
+                return null;
+            }
+
+            final int count = in.getInt();
+            if (count < 0 || count > in.remaining()) {
+                throw new IllegalStateException("Bad item count " + count);
+            }
+            final ArrayList<ItemInfo> items = new ArrayList<ItemInfo>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(readItem(in, iconLengths));
+            }
+            return items;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read workspace snapshot", e);
+        } catch (BufferUnderflowException e) {
+            Log.w(TAG, "Truncated workspace snapshot", e);
+        } catch (URISyntaxException e) {
+            Log.w(TAG, "Bad intent in workspace snapshot", e);
+        } catch (RuntimeException e) {
+            // Anything else wrong with the file only means there is no snapshot
+            Log.w(TAG, "Corrupt workspace snapshot", e);
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        delete();
+        return null;
+    }
+
+    /**
+     * Replaces the snapshot with the given items. iconLengths are the lengths of the
+     * items' icon blobs in the database, by id. The file is written next to the old one
+     * and renamed over it so a reader never sees half a snapshot.
+     */
+    void write(ArrayList<ItemInfo> items, HashMap<Long, Integer> iconLengths,
+            IconCache iconCache, int cellCountX, int cellCountY) {
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(cellCountX);
+            out.writeInt(cellCountY);
+            out.writeInt(getDensityDpi());
+            writeString(out, getLocaleKey());
+            out.writeInt(items.size());
+            for (ItemInfo item : items) {
+                writeItem(out, item, iconLengths, iconCache);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                Log.w(TAG, "Could not replace workspace snapshot");
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write workspace snapshot", e);
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    void delete() {
+        mFile.delete();
+    }
+
+    /**
+     * Returns whether the items read from the snapshot describe exactly what was loaded
+     * from the database, icons included. The loaded shortcuts still on their fallback
+     * icon are waiting for their blob, so for those the blob lengths are compared
+     * (snapshotIconLengths from {@link #read}, loadedIconLengths from the database)
+     * instead of the icons.
+     */
+    static boolean matches(ArrayList<ItemInfo> snapshot,
+            HashMap<Long, Integer> snapshotIconLengths, HashMap<Long, ItemInfo> loaded,
+            HashMap<Long, Integer> loadedIconLengths, IconCache iconCache) {
+        if (snapshot.size() != loaded.size()) {
+            return false;
+        }
+        for (ItemInfo item : snapshot) {
+            final ItemInfo other = loaded.get(item.id);
+            if (other == null || other.getClass() != item.getClass()
+                    || other.itemType != item.itemType
+                    || other.container != item.container
+                    || other.screen != item.screen
+                    || other.cellX != item.cellX || other.cellY != item.cellY
+                    || other.spanX != item.spanX || other.spanY != item.spanY
+                    || !equals(other.title, item.title)) {
+                return false;
+            }
+            if (item instanceof ShortcutInfo) {
+                final ShortcutInfo shortcut = (ShortcutInfo) item;
+                final ShortcutInfo otherShortcut = (ShortcutInfo) other;
+                if (!shortcut.intent.toUri(0).equals(otherShortcut.intent.toUri(0))) {
+                    return false;
+                }
+                if (otherShortcut.usingFallbackIcon) {
+                    if (iconLength(snapshotIconLengths, item.id)
+                            != iconLength(loadedIconLengths, item.id)) {
+                        return false;
+                    }
+                } else if (shortcut.customIcon != otherShortcut.customIcon
+                        || !sameIcon(shortcut.getIcon(iconCache),
+                                otherShortcut.getIcon(iconCache))) {
+                    return false;
+                }
+            } else if (item instanceof LauncherAppWidgetInfo) {
+                final LauncherAppWidgetInfo widget = (LauncherAppWidgetInfo) item;
+                final LauncherAppWidgetInfo otherWidget = (LauncherAppWidgetInfo) other;
+                if (widget.appWidgetId != otherWidget.appWidgetId
+                        || !equals(widget.providerName, otherWidget.providerName)
+                        || widget.minSpanX != otherWidget.minSpanX
+                        || widget.minSpanY != otherWidget.minSpanY) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int iconLength(HashMap<Long, Integer> iconLengths, long id) {
+        final Integer length = iconLengths.get(id);
+        return length != null ? length : NO_ICON_BLOB;
+    }
+
+    private static boolean equals(CharSequence a, CharSequence b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.toString().equals(b.toString());
+    }
+
+    private static boolean equals(ComponentName a, ComponentName b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.equals(b);
+    }
+
+    static boolean sameIcon(Bitmap a, Bitmap b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a == b || a.sameAs(b);
+    }
+
+    private int getDensityDpi() {
+        return mContext.getResources().getDisplayMetrics().densityDpi;
+    }
+
+    private String getLocaleKey() {
+        final Configuration config = mContext.getResources().getConfiguration();
+        return config.locale + "," + config.mcc + "," + config.mnc;
+    }
+
+    private static void writeItem(DataOutputStream out, ItemInfo item,
+            HashMap<Long, Integer> iconLengths, IconCache iconCache) throws IOException {
+        out.writeInt(item.itemType);
+        out.writeLong(item.id);
+        out.writeLong(item.container);
+        out.writeInt(item.screen);
+        out.writeInt(item.cellX);
+        out.writeInt(item.cellY);
+        out.writeInt(item.spanX);
+        out.writeInt(item.spanY);
+        out.writeInt(item.minSpanX);
+        out.writeInt(item.minSpanY);
+        writeString(out, item.title != null ? item.title.toString() : null);
+
+        switch (item.itemType) {
+        case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+        case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+            final ShortcutInfo shortcut = (ShortcutInfo) item;
+            writeString(out, shortcut.intent.toUri(0));
+            out.writeBoolean(shortcut.customIcon);
+            out.writeBoolean(shortcut.usingFallbackIcon);
+            if (shortcut.iconResource != null) {
+                writeString(out, shortcut.iconResource.packageName);
+                writeString(out, shortcut.iconResource.resourceName);
+            } else {
+                writeString(out, null);
+                writeString(out, null);
+            }
+            writeIcon(out, shortcut.getIcon(iconCache));
+            out.writeInt(iconLength(iconLengths, item.id));
+            break;
+        case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+            final LauncherAppWidgetInfo widget = (LauncherAppWidgetInfo) item;
+            out.writeInt(widget.appWidgetId);
+            writeString(out, widget.providerName != null
+                    ? widget.providerName.flattenToString() : null);
+            break;
+        }
+    }
+
+    private static ItemInfo readItem(ByteBuffer in, HashMap<Long, Integer> iconLengths)
+            throws URISyntaxException {
+        final int itemType = in.getInt();
+        final long id = in.getLong();
+        final long container = in.getLong();
+        final int screen = in.getInt();
+        final int cellX = in.getInt();
+        final int cellY = in.getInt();
+        final int spanX = in.getInt();
+        final int spanY = in.getInt();
+        final int minSpanX = in.getInt();
+        final int minSpanY = in.getInt();
+        final String title = readString(in);
+
+        final ItemInfo item;
+        switch (itemType) {
+        case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+        case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+            final ShortcutInfo shortcut = new ShortcutInfo();
+            final String uri = readString(in);
+            if (uri == null) {
+                throw new IllegalStateException("Shortcut without an intent");
+            }
+            shortcut.intent = Intent.parseUri(uri, 0);
+            shortcut.customIcon = in.get() != 0;
+            shortcut.usingFallbackIcon = in.get() != 0;
+            final String iconPackage = readString(in);
+            final String iconResource = readString(in);
+            if (iconPackage != null) {
+                shortcut.iconResource = new Intent.ShortcutIconResource();
+                shortcut.iconResource.packageName = iconPackage;
+                shortcut.iconResource.resourceName = iconResource;
+            }
+            shortcut.setIcon(readIcon(in));
+            iconLengths.put(id, in.getInt());
+            item = shortcut;
+            break;
+        case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+            final int appWidgetId = in.getInt();
+            final String provider = readString(in);
+            final ComponentName providerName = provider != null
+                    ? ComponentName.unflattenFromString(provider) : null;
+            if (providerName == null) {
+                throw new IllegalStateException("Widget without a provider");
+            }
+            item = new LauncherAppWidgetInfo(appWidgetId, providerName);
+            break;
+        default:
+            item = new FolderInfo();
+            break;
+        }
+
+        item.itemType = itemType;
+        item.id = id;
+        item.container = container;
+        item.screen = screen;
+        item.cellX = cellX;
+        item.cellY = cellY;
+        item.spanX = spanX;
+        item.spanY = spanY;
+        item.minSpanX = minSpanX;
+        item.minSpanY = minSpanY;
+        item.title = title;
+        return item;
+    }
+
+    /**
+     * Icons are stored as raw ARGB_8888 pixels rather than PNG, so reading one back is a
+     * copy out of the mapped file instead of a decode.
+     */
+    private static void writeIcon(DataOutputStream out, Bitmap icon) throws IOException {
+        if (icon == null) {
+            out.writeInt(0);
+            out.writeInt(0);
+            return;
+        }
+        if (icon.getConfig() != Bitmap.Config.ARGB_8888) {
+            icon = icon.copy(Bitmap.Config.ARGB_8888, false);
+        }
+        final ByteBuffer pixels = ByteBuffer.allocate(icon.getRowBytes() * icon.getHeight());
+        icon.copyPixelsToBuffer(pixels);
+        out.writeInt(icon.getWidth());
+        out.writeInt(icon.getHeight());
+        out.write(pixels.array(), 0, pixels.position());
+    }
+
+    private static Bitmap readIcon(ByteBuffer in) {
+        final int width = in.getInt();
+        final int height = in.getInt();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        // Check before allocating, a corrupt size could ask for any amount of memory
+        if ((long) width * height * 4 > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final Bitmap icon = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final int byteCount = icon.getRowBytes() * height;
+        if (in.remaining() < byteCount) {
+            throw new BufferUnderflowException();
+        }
+        final ByteBuffer pixels = in.slice();
+        pixels.limit(byteCount);
+        icon.copyPixelsFromBuffer(pixels);
+        in.position(in.position() + byteCount);
+        return icon;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(NO_STRING);
+            return;
+        }
+        final byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        final int length = in.getInt();
+        if (length == NO_STRING) {
+            return null;
+        }
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalStateException("Bad string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.utils;
+
+/**
+ * Kernels for outlines and glows, on alpha masks that hold one value (0-255) per int so
+ * that they can be worked on in reused buffers. None of them allocate.
+ */
+public final class AlphaBlur {
+    private static final int BOX_PASSES = 3;
+
+    private AlphaBlur() {
+    }
+
+    /** Converts a blur radius to a Gaussian sigma the way Skia does for BlurMaskFilter. */
+    public static float radiusToSigma(float radius) {
+        return radius > 0 ? 0.57735f * radius + 0.5f : 0;
+    }
+
+    /**
+     * Copies the alpha channel of count ARGB pixels into alpha, dropping the values under
+     * threshold (shadows and other partial transparency).
+     */
+    public static void extractAlpha(int[] argb, int[] alpha, int count, int threshold) {
+        for (int i = 0; i < count; i++) {
+            final int a = argb[i] >>> 24;
+            alpha[i] = a < threshold ? 0 : a;
+        }
+    }
+
+    public static void invert(int[] src, int[] dst, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[i] = 255 - src[i];
+        }
+    }
+
+    /** Keeps dst where mask is transparent, like drawing mask with DST_OUT. */
+    public static void maskOut(int[] dst, int[] mask, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[i] = dst[i] * (255 - mask[i]) / 255;
+        }
+    }
+
+    /** Keeps dst where mask is opaque, like drawing mask with DST_IN. */
+    public static void maskIn(int[] dst, int[] mask, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[i] = dst[i] * mask[i] / 255;
+        }
+    }
+
+    /** Draws src over dst. */
+    public static void union(int[] dst, int[] src, int count) {
+        for (int i = 0; i < count; i++) {
+            final int d = dst[i];
+            dst[i] = d + src[i] - d * src[i] / 255;
+        }
+    }
+
+    /**
+     * Approximates a Gaussian blur with three box blurs, each run across then down. Pixels
+     * outside of the w x h mask count as transparent. src is left as it is.
+     */
+    public static void gaussianBlur(int[] src, int[] dst, int[] tmp, int w, int h,
+            float sigma) {
+        final int count = w * h;
+        if (sigma <= 0) {
+            System.arraycopy(src, 0, dst, 0, count);
+            return;
+        }
+
+        // Box widths whose combined variance is closest to sigma^2
+        final double variance = 12.0 * sigma * sigma;
+        int lower = (int) Math.sqrt(variance / BOX_PASSES + 1);
+        if (lower % 2 == 0) lower--;
+        final int lowerPasses = (int) Math.round((variance - BOX_PASSES * lower * lower
+                - 4 * BOX_PASSES * lower - 3 * BOX_PASSES) / (-4.0 * lower - 4));
+
+        int[] in = src;
+        for (int i = 0; i < BOX_PASSES; i++) {
+            final int width = i < lowerPasses ? lower : lower + 2;
+            final int r = (width - 1) / 2;
+            boxBlurHorizontal(in, tmp, w, h, r);
+            boxBlurVertical(tmp, dst, w, h, r);
+            in = dst;
+        }
+    }
+
+    public static void boxBlurHorizontal(int[] src, int[] dst, int w, int h, int r) {
+        final int div = 2 * r + 1;
+        final int half = div / 2;
+        for (int y = 0; y < h; y++) {
+            final int row = y * w;
+            int sum = 0;
+            for (int x = 0, end = Math.min(r, w - 1); x <= end; x++) {
+                sum += src[row + x];
+            }
+            for (int x = 0; x < w; x++) {
+                dst[row + x] = (sum + half) / div;
+                final int add = x + r + 1;
+                if (add < w) sum += src[row + add];
+                final int sub = x - r;
+                if (sub >= 0) sum -= src[row + sub];
+            }
+        }
+    }
+
+    public static void boxBlurVertical(int[] src, int[] dst, int w, int h, int r) {
+        final int div = 2 * r + 1;
+        final int half = div / 2;
+        for (int x = 0; x < w; x++) {
+            int sum = 0;
+            for (int y = 0, end = Math.min(r, h - 1); y <= end; y++) {
+                sum += src[y * w + x];
+            }
+            for (int y = 0; y < h; y++) {
+                dst[y * w + x] = (sum + half) / div;
+                final int add = y + r + 1;
+                if (add < h) sum += src[add * w + x];
+                final int sub = y - r;
+                if (sub >= 0) sum -= src[sub * w + x];
+            }
+        }
+    }
+
+    /**
+     * Writes the unpremultiplied ARGB pixels of outlineColor through outlineMask drawn over
+     * color through colorMask, as Bitmap.setPixels() wants them.
+     */
+    public static void composite(int[] argb, int[] colorMask, int color, int[] outlineMask,
+            int outlineColor, int count) {
+        final int ca = color >>> 24;
+        final int cr = (color >> 16) & 0xFF, cg = (color >> 8) & 0xFF, cb = color & 0xFF;
+        final int oa = outlineColor >>> 24;
+        final int or = (outlineColor >> 16) & 0xFF, og = (outlineColor >> 8) & 0xFF,
+                ob = outlineColor & 0xFF;
+        for (int i = 0; i < count; i++) {
+            final int top = oa * outlineMask[i] / 255;
+            final int bottom = ca * colorMask[i] / 255 * (255 - top) / 255;
+            final int a = top + bottom;
+            if (a == 0) {
+                argb[i] = 0;
+                continue;
+            }
+            final int r = (or * top + cr * bottom) / a;
+            final int g = (og * top + cg * bottom) / a;
+            final int b = (ob * top + cb * bottom) / a;
+            argb[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.utils;
+
+/**
+ * A per-thread set of int buffers for pixel work, grown as needed and kept between calls.
+ */
+public class PixelBufferCache extends WeakReferenceThreadLocal<int[][]> {
+    private final int mCount;
+
+    public PixelBufferCache(int count) {
+        mCount = count;
+    }
+
+    @Override
+    protected int[][] initialValue() {
+        return new int[mCount][];
+    }
+
+    /** Returns the buffers of the calling thread, each at least size long. */
+    public int[][] get(int size) {
+        final int[][] buffers = get();
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] == null || buffers[i].length < size) {
+                buffers[i] = new int[size];
+            }
+        }
+        return buffers;
+    }
+}
@@ -16,10 +16,10 @@
 
 package com.callmewill.launcher2.widget;
 
-import java.lang.ref.WeakReference;
+import java.text.CollationKey;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
 
 import android.animation.AnimatorSet;
@@ -48,10 +48,8 @@ import android.graphics.RectF;
 import android.graphics.Shader;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Process;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Gravity;
@@ -74,6 +72,7 @@ import com.callmewill.launcher2.LauncherApplication;
 import com.callmewill.launcher2.LauncherTransitionable;
 import com.callmewill.launcher2.R;
 import com.callmewill.launcher2.cache.IconCache;
+import com.callmewill.launcher2.cache.WidgetPreviewCache;
 import com.callmewill.launcher2.drawable.FastBitmapDrawable;
 import com.callmewill.launcher2.entity.ApplicationInfo;
 import com.callmewill.launcher2.entity.ItemInfo;
@@ -82,42 +81,29 @@ import com.callmewill.launcher2.entity.PendingAddShortcutInfo;
 import com.callmewill.launcher2.entity.PendingAddWidgetInfo;
 import com.callmewill.launcher2.provider.LauncherSettings;
 import com.callmewill.launcher2.receiver.LauncherModel;
+import com.callmewill.launcher2.utils.BitmapCache;
+import com.callmewill.launcher2.utils.CanvasCache;
 import com.callmewill.launcher2.utils.LauncherAnimUtils;
+import com.callmewill.launcher2.utils.PaintCache;
+import com.callmewill.launcher2.utils.RectCache;
 
 /**
- * A simple callback interface which also provides the results of the task.
- */
-interface AsyncTaskCallback {
-    void run(AppsCustomizeAsyncTask task, AsyncTaskPageData data);
-}
-
-/**
- * The data needed to perform either of the custom AsyncTasks.
+ * The data needed to load a page of widget previews in one go.
  */
 class AsyncTaskPageData {
-    enum Type {
-        LoadWidgetPreviewData
-    }
-
-    AsyncTaskPageData(int p, ArrayList<Object> l, ArrayList<Bitmap> si, AsyncTaskCallback bgR,
-            AsyncTaskCallback postR) {
+    AsyncTaskPageData(int p, ArrayList<Object> l, ArrayList<Bitmap> si) {
         page = p;
         items = l;
         sourceImages = si;
         generatedImages = new ArrayList<Bitmap>();
         maxImageWidth = maxImageHeight = -1;
-        doInBackgroundCallback = bgR;
-        postExecuteCallback = postR;
     }
-    AsyncTaskPageData(int p, ArrayList<Object> l, int cw, int ch, AsyncTaskCallback bgR,
-            AsyncTaskCallback postR) {
+    AsyncTaskPageData(int p, ArrayList<Object> l, int cw, int ch) {
         page = p;
         items = l;
         generatedImages = new ArrayList<Bitmap>();
         maxImageWidth = cw;
         maxImageHeight = ch;
-        doInBackgroundCallback = bgR;
-        postExecuteCallback = postR;
     }
     void cleanup(boolean cancelled) {
         // Clean up any references to source/generated bitmaps
@@ -130,11 +116,7 @@ class AsyncTaskPageData {
             sourceImages.clear();
         }
         if (generatedImages != null) {
-            if (cancelled) {
-                for (Bitmap b : generatedImages) {
-                    b.recycle();
-                }
-            }
+            // The previews belong to the WidgetPreviewCache, don't recycle them
             generatedImages.clear();
         }
     }
@@ -144,101 +126,6 @@ class AsyncTaskPageData {
     ArrayList<Bitmap> generatedImages;
     int maxImageWidth;
     int maxImageHeight;
-    AsyncTaskCallback doInBackgroundCallback;
-    AsyncTaskCallback postExecuteCallback;
-}
-
-/**
- * A generic template for an async task used in AppsCustomize.
- */
-class AppsCustomizeAsyncTask extends AsyncTask<AsyncTaskPageData, Void, AsyncTaskPageData> {
-    AppsCustomizeAsyncTask(int p, AsyncTaskPageData.Type ty) {
-        page = p;
-        threadPriority = Process.THREAD_PRIORITY_DEFAULT;
-        dataType = ty;
-    }
-    @Override
-    protected AsyncTaskPageData doInBackground(AsyncTaskPageData... params) {
-        if (params.length != 1) return null;
-        // Load each of the widget previews in the background
-        params[0].doInBackgroundCallback.run(this, params[0]);
-        return params[0];
-    }
-    @Override
-    protected void onPostExecute(AsyncTaskPageData result) {
-        // All the widget previews are loaded, so we can just callback to inflate the page
-        result.postExecuteCallback.run(this, result);
-    }
-
-    void setThreadPriority(int p) {
-        threadPriority = p;
-    }
-    void syncThreadPriority() {
-        Process.setThreadPriority(threadPriority);
-    }
-
-    // The page that this async task is associated with
-    AsyncTaskPageData.Type dataType;
-    int page;
-    int threadPriority;
-}
-
-abstract class WeakReferenceThreadLocal<T> {
-    private ThreadLocal<WeakReference<T>> mThreadLocal;
-    public WeakReferenceThreadLocal() {
-        mThreadLocal = new ThreadLocal<WeakReference<T>>();
-    }
-
-    abstract T initialValue();
-
-    public void set(T t) {
-        mThreadLocal.set(new WeakReference<T>(t));
-    }
-
-    public T get() {
-        WeakReference<T> reference = mThreadLocal.get();
-        T obj;
-        if (reference == null) {
-            obj = initialValue();
-            mThreadLocal.set(new WeakReference<T>(obj));
-            return obj;
-        } else {
-            obj = reference.get();
-            if (obj == null) {
-                obj = initialValue();
-                mThreadLocal.set(new WeakReference<T>(obj));
-            }
-            return obj;
-        }
-    }
-}
-
-class CanvasCache extends WeakReferenceThreadLocal<Canvas> {
-    @Override
-    protected Canvas initialValue() {
-        return new Canvas();
-    }
-}
-
-class PaintCache extends WeakReferenceThreadLocal<Paint> {
-    @Override
-    protected Paint initialValue() {
-        return null;
-    }
-}
-
-class BitmapCache extends WeakReferenceThreadLocal<Bitmap> {
-    @Override
-    protected Bitmap initialValue() {
-        return null;
-    }
-}
-
-class RectCache extends WeakReferenceThreadLocal<Rect> {
-    @Override
-    protected Rect initialValue() {
-        return new Rect();
-    }
 }
 
 /**
@@ -247,7 +134,7 @@ class RectCache extends WeakReferenceThreadLocal<Rect> {
 public class AppsCustomizePagedView extends PagedViewWithDraggableItems implements
         View.OnClickListener, View.OnKeyListener, DragSource,
         PagedViewIcon.PressedCallback, PagedViewWidget.ShortPressListener,
-        LauncherTransitionable {
+        LauncherTransitionable, WidgetPreviewLoader.Callbacks {
     static final String TAG = "AppsCustomizePagedView";
 
     /**
@@ -271,6 +158,19 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     // Content
     private ArrayList<ApplicationInfo> mApps;
     private ArrayList<Object> mWidgets;
+    // Icons and widget items taken off cleared pages, rebound by the next page sync
+    private final PagedViewRecycler mRecycler = new PagedViewRecycler();
+    // Keys into mApps: the sort key each app was inserted with (its title may change in
+    // place afterwards), and the components of each package
+    private HashMap<ComponentName, CollationKey> mAppSortKeys =
+            new HashMap<ComponentName, CollationKey>();
+    private HashMap<String, ArrayList<ComponentName>> mAppsByPackage =
+            new HashMap<String, ArrayList<ComponentName>>();
+    // Range of mApps, in its current indexes, that may differ from when the pages were
+    // last synced. Past the range, every app is the one that was there then, shifted by
+    // however many apps were added or removed in all.
+    private int mChangedAppsLow = Integer.MAX_VALUE;
+    private int mChangedAppsHigh = -1;
 
     // Cling
     private boolean mHasShownAllAppsCling;
@@ -280,6 +180,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     // Caching
     private Canvas mCanvas;
     private IconCache mIconCache;
+    private WidgetPreviewCache mWidgetPreviewCache;
 
     // Dimens
     private int mContentWidth;
@@ -303,8 +204,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     private DecelerateInterpolator mLeftScreenAlphaInterpolator = new DecelerateInterpolator(4);
 
     // Previews & outlines
-    ArrayList<AppsCustomizeAsyncTask> mRunningTasks;
-    private static final int sPageSleepDelay = 200;
+    private WidgetPreviewLoader mPreviewLoader;
 
     private Runnable mInflateWidgetRunnable = null;
     private Runnable mBindWidgetRunnable = null;
@@ -325,6 +225,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         new ArrayList<AsyncTaskPageData>();
     private ArrayList<Runnable> mDeferredPrepareLoadWidgetPreviewsTasks =
         new ArrayList<Runnable>();
+    private ArrayList<Runnable> mDeferredBindPreviews = new ArrayList<Runnable>();
 
     private Rect mTmpRect = new Rect();
 
@@ -346,8 +247,10 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         mApps = new ArrayList<ApplicationInfo>();
         mWidgets = new ArrayList<Object>();
         mIconCache = ((LauncherApplication) context.getApplicationContext()).getIconCache();
+        mWidgetPreviewCache = ((LauncherApplication) context.getApplicationContext())
+                .getWidgetPreviewCache();
         mCanvas = new Canvas();
-        mRunningTasks = new ArrayList<AppsCustomizeAsyncTask>();
+        mPreviewLoader = new WidgetPreviewLoader(this);
 
         // Save the default widget preview background
         Resources resources = context.getResources();
@@ -954,6 +857,10 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
             onSyncWidgetPageItems(d);
         }
         mDeferredSyncWidgetPageItems.clear();
+        for (Runnable r : mDeferredBindPreviews) {
+            r.run();
+        }
+        mDeferredBindPreviews.clear();
         for (Runnable r : mDeferredPrepareLoadWidgetPreviewsTasks) {
             r.run();
         }
@@ -1023,24 +930,23 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
                 mDirtyPageContent.set(i, true);
             }
         }
+        // Don't hold on to the views either
+        mRecycler.clear();
     }
 
     private void cancelAllTasks() {
-        // Clean up all the async tasks
-        Iterator<AppsCustomizeAsyncTask> iter = mRunningTasks.iterator();
-        while (iter.hasNext()) {
-            AppsCustomizeAsyncTask task = (AppsCustomizeAsyncTask) iter.next();
-            task.cancel(false);
-            iter.remove();
-            mDirtyPageContent.set(task.page, true);
+        // Drop all the previews that are still queued
+        for (int page : mPreviewLoader.cancelAll()) {
+            mDirtyPageContent.set(page, true);
 
             // We've already preallocated the views for the data to load into, so clear them as well
-            View v = getPageAt(task.page);
+            View v = getPageAt(page);
             if (v instanceof PagedViewGridLayout) {
                 ((PagedViewGridLayout) v).removeAllViewsOnPage();
             }
         }
         mDeferredSyncWidgetPageItems.clear();
+        mDeferredBindPreviews.clear();
         mDeferredPrepareLoadWidgetPreviewsTasks.clear();
     }
 
@@ -1056,18 +962,8 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         super.snapToPage(whichPage, delta, duration);
         updateCurrentTab(whichPage);
 
-        // Update the thread priorities given the direction lookahead
-        Iterator<AppsCustomizeAsyncTask> iter = mRunningTasks.iterator();
-        while (iter.hasNext()) {
-            AppsCustomizeAsyncTask task = (AppsCustomizeAsyncTask) iter.next();
-            int pageIndex = task.page;
-            if ((mNextPage > mCurrentPage && pageIndex >= mCurrentPage) ||
-                (mNextPage < mCurrentPage && pageIndex <= mCurrentPage)) {
-                task.setThreadPriority(getThreadPriorityForPage(pageIndex));
-            } else {
-                task.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
-            }
-        }
+        // Load the previews of the page we are snapping to first
+        updatePreviewLoadOrder();
     }
 
     private void updateCurrentTab(int currentPage) {
@@ -1096,6 +992,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         }
     }
     private void setupPage(PagedViewCellLayout layout) {
+        layout.setRecycler(mRecycler);
         layout.setCellCount(mCellCountX, mCellCountY);
         layout.setGap(mPageLayoutWidthGap, mPageLayoutHeightGap);
         layout.setPadding(mPageLayoutPaddingLeft, mPageLayoutPaddingTop,
@@ -1129,8 +1026,11 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         ArrayList<Bitmap> images = new ArrayList<Bitmap>();
         for (int i = startIndex; i < endIndex; ++i) {
             ApplicationInfo info = mApps.get(i);
-            PagedViewIcon icon = (PagedViewIcon) mLayoutInflater.inflate(
-                    R.layout.apps_customize_application, layout, false);
+            PagedViewIcon icon = mRecycler.getScrapIcon();
+            if (icon == null) {
+                icon = (PagedViewIcon) mLayoutInflater.inflate(
+                        R.layout.apps_customize_application, layout, false);
+            }
             icon.applyFromApplicationInfo(info, true, this);
             icon.setOnClickListener(this);
             icon.setOnLongClickListener(this);
@@ -1150,107 +1050,87 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     }
 
     /**
-     * A helper to return the priority for loading of the specified widget page.
+     * Orders the queued widget previews around the page we are on, or snapping to.
      */
-    private int getWidgetPageLoadPriority(int page) {
+    private void updatePreviewLoadOrder() {
         // If we are snapping to another page, use that index as the target page index
         int toPage = mCurrentPage;
         if (mNextPage > -1) {
             toPage = mNextPage;
         }
-
-        // We use the distance from the target page as an initial guess of priority, but if there
-        // are no pages of higher priority than the page specified, then bump up the priority of
-        // the specified page.
-        Iterator<AppsCustomizeAsyncTask> iter = mRunningTasks.iterator();
-        int minPageDiff = Integer.MAX_VALUE;
-        while (iter.hasNext()) {
-            AppsCustomizeAsyncTask task = (AppsCustomizeAsyncTask) iter.next();
-            minPageDiff = Math.abs(task.page - toPage);
-        }
-
-        int rawPageDiff = Math.abs(page - toPage);
-        return rawPageDiff - Math.min(rawPageDiff, minPageDiff);
+        mPreviewLoader.setTargetPage(toPage, Integer.signum(toPage - mCurrentPage));
     }
     /**
-     * Return the appropriate thread priority for loading for a given page (we give the current
-     * page much higher priority)
-     */
-    private int getThreadPriorityForPage(int page) {
-        // TODO-APPS_CUSTOMIZE: detect number of cores and set thread priorities accordingly below
-        int pageDiff = getWidgetPageLoadPriority(page);
-        if (pageDiff <= 0) {
-            return Process.THREAD_PRIORITY_LESS_FAVORABLE;
-        } else if (pageDiff <= 1) {
-            return Process.THREAD_PRIORITY_LOWEST;
-        } else {
-            return Process.THREAD_PRIORITY_LOWEST;
-        }
-    }
-    private int getSleepForPage(int page) {
-        int pageDiff = getWidgetPageLoadPriority(page);
-        return Math.max(0, pageDiff * sPageSleepDelay);
-    }
-    /**
-     * Creates and executes a new AsyncTask to load a page of widget previews.
+     * Queues the widget previews of a page on the preview loader.
      */
     private void prepareLoadWidgetPreviewsTask(int page, ArrayList<Object> widgets,
             int cellWidth, int cellHeight, int cellCountX) {
 
-        // Prune all tasks that are no longer needed
-        Iterator<AppsCustomizeAsyncTask> iter = mRunningTasks.iterator();
-        while (iter.hasNext()) {
-            AppsCustomizeAsyncTask task = (AppsCustomizeAsyncTask) iter.next();
-            int taskPage = task.page;
-            if (taskPage < getAssociatedLowerPageBound(mCurrentPage) ||
-                    taskPage > getAssociatedUpperPageBound(mCurrentPage)) {
-                task.cancel(false);
-                iter.remove();
-            } else {
-                task.setThreadPriority(getThreadPriorityForPage(taskPage));
-            }
+        // Prune all pages that are no longer needed
+        mPreviewLoader.cancelPagesOutside(getAssociatedLowerPageBound(mCurrentPage),
+                getAssociatedUpperPageBound(mCurrentPage));
+        updatePreviewLoadOrder();
+
+        int count = widgets.size();
+        ArrayList<WidgetPreviewLoader.Item> items =
+                new ArrayList<WidgetPreviewLoader.Item>(count);
+        for (int i = 0; i < count; ++i) {
+            items.add(new WidgetPreviewLoader.Item(page, i, widgets.get(i),
+                    cellWidth, cellHeight));
         }
+        mPreviewLoader.loadPage(page, items);
+    }
 
-        // We introduce a slight delay to order the loading of side pages so that we don't thrash
-        final int sleepMs = getSleepForPage(page);
-        AsyncTaskPageData pageData = new AsyncTaskPageData(page, widgets, cellWidth, cellHeight,
-            new AsyncTaskCallback() {
-                @Override
-                public void run(AppsCustomizeAsyncTask task, AsyncTaskPageData data) {
-                    try {
-                        try {
-                            Thread.sleep(sleepMs);
-                        } catch (Exception e) {}
-                        loadWidgetPreviewsInBackground(task, data);
-                    } finally {
-                        if (task.isCancelled()) {
-                            data.cleanup(true);
-                        }
-                    }
-                }
-            },
-            new AsyncTaskCallback() {
-                @Override
-                public void run(AppsCustomizeAsyncTask task, AsyncTaskPageData data) {
-                    mRunningTasks.remove(task);
-                    if (task.isCancelled()) return;
-                    // do cleanup inside onSyncWidgetPageItems
-                    onSyncWidgetPageItems(data);
+    @Override
+    public Bitmap loadPreview(WidgetPreviewLoader.Item item) {
+        return loadWidgetPreview(item.info, item.maxWidth, item.maxHeight, false);
+    }
+
+    @Override
+    public void bindPreview(final WidgetPreviewLoader.Item item, final Bitmap preview) {
+        if (mInTransition) {
+            mDeferredBindPreviews.add(new Runnable() {
+                public void run() {
+                    bindPreview(item, preview);
                 }
             });
+            return;
+        }
+        // While this was deferred the page may have been cancelled, or reloaded (which
+        // cancels the items of the old load)
+        if (item.cancelled || preview == null) {
+            return;
+        }
+        View page = getPageAt(item.page);
+        if (!(page instanceof PagedViewGridLayout)) {
+            return;
+        }
+        View widget = ((PagedViewGridLayout) page).getChildAt(item.index);
+        if (widget instanceof PagedViewWidget) {
+            ((PagedViewWidget) widget).applyPreview(new FastBitmapDrawable(preview),
+                    item.index);
+        }
+    }
 
-        // Ensure that the task is appropriately prioritized and runs in parallel
-        AppsCustomizeAsyncTask t = new AppsCustomizeAsyncTask(page,
-                AsyncTaskPageData.Type.LoadWidgetPreviewData);
-        t.setThreadPriority(getThreadPriorityForPage(page));
-        t.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, pageData);
-        mRunningTasks.add(t);
+    @Override
+    public void onPageLoaded(final int page) {
+        if (mInTransition) {
+            mDeferredBindPreviews.add(new Runnable() {
+                public void run() {
+                    onPageLoaded(page);
+                }
+            });
+            return;
+        }
+        ((PagedViewGridLayout) getPageAt(page)).createHardwareLayer();
+        invalidate();
     }
 
     /*
      * Widgets PagedView implementation
      */
     private void setupPage(PagedViewGridLayout layout) {
+        layout.setRecycler(mRecycler);
         layout.setPadding(mPageLayoutPaddingLeft, mPageLayoutPaddingTop,
                 mPageLayoutPaddingRight, mPageLayoutPaddingBottom);
 
@@ -1472,8 +1352,11 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         for (int i = 0; i < items.size(); ++i) {
             Object rawInfo = items.get(i);
             PendingAddItemInfo createItemInfo = null;
-            PagedViewWidget widget = (PagedViewWidget) mLayoutInflater.inflate(
-                    R.layout.apps_customize_widget, layout, false);
+            PagedViewWidget widget = mRecycler.getScrapWidget();
+            if (widget == null) {
+                widget = (PagedViewWidget) mLayoutInflater.inflate(
+                        R.layout.apps_customize_widget, layout, false);
+            }
             if (rawInfo instanceof AppWidgetProviderInfo) {
                 // Fill in the widget information
                 AppWidgetProviderInfo info = (AppWidgetProviderInfo) rawInfo;
@@ -1534,10 +1417,27 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
                     maxPreviewHeight = maxSize[1];
                 }
                 if (immediate) {
+                    // Only the previews already in memory are bound right away. The
+                    // others, even the ones on disk, come from the preview loader.
                     AsyncTaskPageData data = new AsyncTaskPageData(page, items,
-                            maxPreviewWidth, maxPreviewHeight, null, null);
-                    loadWidgetPreviewsInBackground(null, data);
+                            maxPreviewWidth, maxPreviewHeight);
+                    ArrayList<WidgetPreviewLoader.Item> missing =
+                            new ArrayList<WidgetPreviewLoader.Item>();
+                    for (int i = 0; i < items.size(); ++i) {
+                        Bitmap preview = loadWidgetPreview(items.get(i), maxPreviewWidth,
+                                maxPreviewHeight, true);
+                        data.generatedImages.add(preview);
+                        if (preview == null) {
+                            missing.add(new WidgetPreviewLoader.Item(page, i, items.get(i),
+                                    maxPreviewWidth, maxPreviewHeight));
+                        }
+                    }
                     onSyncWidgetPageItems(data);
+                    if (missing.isEmpty()) {
+                        mPreviewLoader.cancelPage(page);
+                    } else {
+                        mPreviewLoader.loadPage(page, missing);
+                    }
                 } else {
                     if (mInTransition) {
                         mDeferredPrepareLoadWidgetPreviewsTasks.add(this);
@@ -1549,46 +1449,51 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
             }
         });
     }
-    private void loadWidgetPreviewsInBackground(AppsCustomizeAsyncTask task,
-            AsyncTaskPageData data) {
-        // loadWidgetPreviewsInBackground can be called without a task to load a set of widget
-        // previews synchronously
-        if (task != null) {
-            // Ensure that this task starts running at the correct priority
-            task.syncThreadPriority();
-        }
-
-        // Load each of the widget/shortcut previews
-        ArrayList<Object> items = data.items;
-        ArrayList<Bitmap> images = data.generatedImages;
-        int count = items.size();
-        for (int i = 0; i < count; ++i) {
-            if (task != null) {
-                // Ensure we haven't been cancelled yet
-                if (task.isCancelled()) break;
-                // Before work on each item, ensure that this task is running at the correct
-                // priority
-                task.syncThreadPriority();
+    /**
+     * Returns the preview of a widget or shortcut. With cachedOnly, only a preview in
+     * memory is returned (or null), which is safe on the UI thread.
+     */
+    private Bitmap loadWidgetPreview(Object rawInfo, int maxImageWidth, int maxImageHeight,
+            boolean cachedOnly) {
+        if (rawInfo instanceof AppWidgetProviderInfo) {
+            final AppWidgetProviderInfo info = (AppWidgetProviderInfo) rawInfo;
+            final int[] cellSpans = Launcher.getSpanForWidget(mLauncher, info);
+
+            final int maxWidth = Math.min(maxImageWidth,
+                    mWidgetSpacingLayout.estimateCellWidth(cellSpans[0]));
+            final int maxHeight = Math.min(maxImageHeight,
+                    mWidgetSpacingLayout.estimateCellHeight(cellSpans[1]));
+            if (cachedOnly) {
+                return mWidgetPreviewCache.getCachedWidgetPreview(info.provider, maxWidth,
+                        maxHeight);
             }
-
-            Object rawInfo = items.get(i);
-            if (rawInfo instanceof AppWidgetProviderInfo) {
-                AppWidgetProviderInfo info = (AppWidgetProviderInfo) rawInfo;
-                int[] cellSpans = Launcher.getSpanForWidget(mLauncher, info);
-
-                int maxWidth = Math.min(data.maxImageWidth,
-                        mWidgetSpacingLayout.estimateCellWidth(cellSpans[0]));
-                int maxHeight = Math.min(data.maxImageHeight,
-                        mWidgetSpacingLayout.estimateCellHeight(cellSpans[1]));
-                Bitmap b = getWidgetPreview(info.provider, info.previewImage, info.icon,
-                        cellSpans[0], cellSpans[1], maxWidth, maxHeight);
-                images.add(b);
-            } else if (rawInfo instanceof ResolveInfo) {
-                // Fill in the shortcuts information
-                ResolveInfo info = (ResolveInfo) rawInfo;
-                images.add(getShortcutPreview(info, data.maxImageWidth, data.maxImageHeight));
+            return mWidgetPreviewCache.getWidgetPreview(info.provider, maxWidth,
+                    maxHeight, new WidgetPreviewCache.PreviewGenerator() {
+                        public Bitmap generatePreview() {
+                            return getWidgetPreview(info.provider, info.previewImage,
+                                    info.icon, cellSpans[0], cellSpans[1], maxWidth,
+                                    maxHeight);
+                        }
+                    });
+        } else if (rawInfo instanceof ResolveInfo) {
+            // Fill in the shortcuts information
+            final ResolveInfo info = (ResolveInfo) rawInfo;
+            final int maxWidth = maxImageWidth;
+            final int maxHeight = maxImageHeight;
+            final ComponentName activity =
+                    new ComponentName(info.activityInfo.packageName, info.activityInfo.name);
+            if (cachedOnly) {
+                return mWidgetPreviewCache.getCachedShortcutPreview(activity, maxWidth,
+                        maxHeight);
             }
+            return mWidgetPreviewCache.getShortcutPreview(activity, maxWidth,
+                    maxHeight, new WidgetPreviewCache.PreviewGenerator() {
+                        public Bitmap generatePreview() {
+                            return getShortcutPreview(info, maxWidth, maxHeight);
+                        }
+                    });
         }
+        return null;
     }
 
     private void onSyncWidgetPageItems(AsyncTaskPageData data) {
@@ -1604,22 +1509,15 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
             int count = items.size();
             for (int i = 0; i < count; ++i) {
                 PagedViewWidget widget = (PagedViewWidget) layout.getChildAt(i);
-                if (widget != null) {
-                    Bitmap preview = data.generatedImages.get(i);
+                Bitmap preview = data.generatedImages.get(i);
+                // Previews that weren't in memory are bound by the preview loader
+                if (widget != null && preview != null) {
                     widget.applyPreview(new FastBitmapDrawable(preview), i);
                 }
             }
 
             layout.createHardwareLayer();
             invalidate();
-
-            // Update all thread priorities
-            Iterator<AppsCustomizeAsyncTask> iter = mRunningTasks.iterator();
-            while (iter.hasNext()) {
-                AppsCustomizeAsyncTask task = (AppsCustomizeAsyncTask) iter.next();
-                int pageIndex = task.page;
-                task.setThreadPriority(getThreadPriorityForPage(pageIndex));
-            }
         } finally {
             data.cleanup(false);
         }
@@ -1627,6 +1525,10 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
     @Override
     public void syncPages() {
+        // Keep the items of the old pages for the new ones
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            ((Page) getChildAt(i)).removeAllViewsOnPage();
+        }
         removeAllViews();
         cancelAllTasks();
 
@@ -1810,6 +1712,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     @Override
     protected void onPageEndMoving() {
         super.onPageEndMoving();
+        updatePreviewLoadOrder();
         mForceDrawAllChildrenNextFrame = true;
         // We reset the save index when we change pages so that it will be recalculated on next
         // rotation
@@ -1844,80 +1747,183 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     public void setApps(ArrayList<ApplicationInfo> list) {
         mApps = list;
         Collections.sort(mApps, LauncherModel.getAppNameComparator());
+        mAppSortKeys.clear();
+        mAppsByPackage.clear();
+        for (ApplicationInfo info : mApps) {
+            indexApp(info);
+        }
+        resetChangedApps();
         updatePageCounts();
         invalidateOnDataChange();
     }
+    private void indexApp(ApplicationInfo info) {
+        mAppSortKeys.put(info.componentName, info.titleKey);
+        final String packageName = info.componentName.getPackageName();
+        ArrayList<ComponentName> components = mAppsByPackage.get(packageName);
+        if (components == null) {
+            components = new ArrayList<ComponentName>(1);
+            mAppsByPackage.put(packageName, components);
+        }
+        components.add(info.componentName);
+    }
+    private void unindexApp(ComponentName component) {
+        mAppSortKeys.remove(component);
+        final ArrayList<ComponentName> components =
+                mAppsByPackage.get(component.getPackageName());
+        if (components != null) {
+            components.remove(component);
+            if (components.isEmpty()) {
+                mAppsByPackage.remove(component.getPackageName());
+            }
+        }
+    }
+    /**
+     * Binary search of mApps by the keys the apps were inserted with. Returns the index of
+     * the app, or -(insertion point) - 1 like {@link Collections#binarySearch}.
+     */
+    private int findApp(CollationKey key, ComponentName component) {
+        int low = 0;
+        int high = mApps.size() - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final ComponentName midComponent = mApps.get(mid).componentName;
+            int result = mAppSortKeys.get(midComponent).compareTo(key);
+            if (result == 0) {
+                result = midComponent.compareTo(component);
+            }
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+    private void noteAppAdded(int index) {
+        if (mChangedAppsLow > mChangedAppsHigh) {
+            mChangedAppsLow = mChangedAppsHigh = index;
+            return;
+        }
+        // The apps from index on moved up one, the end of the range with them
+        mChangedAppsLow = Math.min(mChangedAppsLow, index);
+        mChangedAppsHigh = Math.max(mChangedAppsHigh + 1, index);
+    }
+    private void noteAppRemoved(int index) {
+        if (mChangedAppsLow > mChangedAppsHigh) {
+            mChangedAppsLow = mChangedAppsHigh = index;
+            return;
+        }
+        // The apps after index moved down one; the end of the range is kept, so at worst
+        // one app too many is counted as changed
+        mChangedAppsLow = Math.min(mChangedAppsLow, index);
+        mChangedAppsHigh = Math.max(mChangedAppsHigh, index);
+    }
+    private void resetChangedApps() {
+        mChangedAppsLow = Integer.MAX_VALUE;
+        mChangedAppsHigh = -1;
+    }
+    /**
+     * Adds the apps in place, in alphabetical order. An app whose component is already in
+     * the list is skipped, not replaced, even if its title changed: updateApps is what
+     * moves an app to its new place.
+     */
     private void addAppsWithoutInvalidate(ArrayList<ApplicationInfo> list) {
-        // We add it in place, in alphabetical order
         int count = list.size();
         for (int i = 0; i < count; ++i) {
             ApplicationInfo info = list.get(i);
-            int index = Collections.binarySearch(mApps, info, LauncherModel.getAppNameComparator());
+            if (mAppSortKeys.containsKey(info.componentName)) {
+                continue;
+            }
+            int index = findApp(info.titleKey, info.componentName);
             if (index < 0) {
-                mApps.add(-(index + 1), info);
+                index = -(index + 1);
+                mApps.add(index, info);
+                indexApp(info);
+                noteAppAdded(index);
             }
         }
     }
     public void addApps(ArrayList<ApplicationInfo> list) {
+        final int oldSize = mApps.size();
         addAppsWithoutInvalidate(list);
-        updatePageCounts();
-        invalidateOnDataChange();
+        invalidateChangedApps(oldSize);
     }
-    private int findAppByComponent(List<ApplicationInfo> list, ApplicationInfo item) {
-        ComponentName removeComponent = item.intent.getComponent();
-        int length = list.size();
-        for (int i = 0; i < length; ++i) {
-            ApplicationInfo info = list.get(i);
-            if (info.intent.getComponent().equals(removeComponent)) {
-                return i;
-            }
+    private void removeApp(ComponentName component) {
+        final CollationKey key = mAppSortKeys.get(component);
+        if (key == null) {
+            return;
         }
-        return -1;
-    }
-    private int findAppByPackage(List<ApplicationInfo> list, String packageName) {
-        int length = list.size();
-        for (int i = 0; i < length; ++i) {
-            ApplicationInfo info = list.get(i);
-            if (ItemInfo.getPackageName(info.intent).equals(packageName)) {
-                return i;
-            }
+        final int index = findApp(key, component);
+        if (index > -1) {
+            mApps.remove(index);
+            noteAppRemoved(index);
         }
-        return -1;
+        unindexApp(component);
     }
     private void removeAppsWithoutInvalidate(ArrayList<ApplicationInfo> list) {
         // loop through all the apps and remove apps that have the same component
         int length = list.size();
         for (int i = 0; i < length; ++i) {
-            ApplicationInfo info = list.get(i);
-            int removeIndex = findAppByComponent(mApps, info);
-            if (removeIndex > -1) {
-                mApps.remove(removeIndex);
-            }
+            removeApp(list.get(i).componentName);
         }
     }
     private void removeAppsWithPackageNameWithoutInvalidate(ArrayList<String> packageNames) {
         // loop through all the package names and remove apps that have the same package name
         for (String pn : packageNames) {
-            int removeIndex = findAppByPackage(mApps, pn);
-            while (removeIndex > -1) {
-                mApps.remove(removeIndex);
-                removeIndex = findAppByPackage(mApps, pn);
+            final ArrayList<ComponentName> components = mAppsByPackage.get(pn);
+            if (components != null) {
+                for (ComponentName component : new ArrayList<ComponentName>(components)) {
+                    removeApp(component);
+                }
             }
         }
     }
     public void removeApps(ArrayList<String> packageNames) {
+        final int oldSize = mApps.size();
         removeAppsWithPackageNameWithoutInvalidate(packageNames);
-        updatePageCounts();
-        invalidateOnDataChange();
+        invalidateChangedApps(oldSize);
     }
     public void updateApps(ArrayList<ApplicationInfo> list) {
         // We remove and re-add the updated applications list because it's properties may have
         // changed (ie. the title), and this will ensure that the items will be in their proper
         // place in the list.
+        final int oldSize = mApps.size();
         removeAppsWithoutInvalidate(list);
         addAppsWithoutInvalidate(list);
+        invalidateChangedApps(oldSize);
+    }
+    /**
+     * Re-syncs only the app pages that the changes since the last sync touched. Everything
+     * before the changed range is unchanged, and so is everything after it when as many
+     * apps were added as removed. Falls back to invalidating all the pages when the number
+     * of app pages changed.
+     */
+    private void invalidateChangedApps(int oldSize) {
+        final int low = mChangedAppsLow;
+        int high = mChangedAppsHigh;
+        resetChangedApps();
+        if (low > high) {
+            return;
+        }
+        final int oldNumAppsPages = mNumAppsPages;
         updatePageCounts();
-        invalidateOnDataChange();
+        if (!isDataReady() || mNumAppsPages != oldNumAppsPages) {
+            invalidateOnDataChange();
+            return;
+        }
+        if (mApps.size() != oldSize) {
+            high = Math.max(mApps.size(), oldSize) - 1;
+        }
+        final int numCells = mCellCountX * mCellCountY;
+        final int lastPage = Math.min(high / numCells, mNumAppsPages - 1);
+        for (int page = low / numCells; page <= lastPage; page++) {
+            // Pages that aren't loaded are synced when they are
+            if (page < mDirtyPageContent.size() && !mDirtyPageContent.get(page)) {
+                syncAppsPageItems(page, false);
+            }
+        }
     }
 
     public void reset() {
@@ -1945,6 +1951,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         // TODO: Dump information related to current list of Applications, Widgets, etc.
         ApplicationInfo.dumpApplicationInfoList(TAG, "mApps", mApps);
         dumpAppWidgetProviderInfoList(TAG, "mWidgets", mWidgets);
+        mPreviewLoader.dumpState();
     }
 
     private void dumpAppWidgetProviderInfoList(String tag, String label,
@@ -1992,7 +1999,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
     /*
      * We load an extra page on each side to prevent flashes from scrolling and loading of the
-     * widget previews in the background with the AsyncTasks.
+     * widget previews in the background on the preview loader.
      */
     final static int sLookBehindPageCount = 2;
     final static int sLookAheadPageCount = 2;
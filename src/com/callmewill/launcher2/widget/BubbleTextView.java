@@ -18,12 +18,15 @@ package com.callmewill.launcher2.widget;
 
 import com.callmewill.launcher2.CheckLongPressHelper;
 import com.callmewill.launcher2.HolographicOutlineHelper;
+import com.callmewill.launcher2.LauncherApplication;
 import com.callmewill.launcher2.cache.IconCache;
+import com.callmewill.launcher2.cache.PagedViewIconCache;
 import com.callmewill.launcher2.drawable.FastBitmapDrawable;
 import com.callmewill.launcher2.entity.ItemInfo;
 import com.callmewill.launcher2.entity.ShortcutInfo;
 import com.callmewill.launcher2.receiver.LauncherModel;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
@@ -55,6 +58,7 @@ public class BubbleTextView extends TextView {
     private int mPrevAlpha = -1;
 
     private final HolographicOutlineHelper mOutlineHelper = new HolographicOutlineHelper();
+    private PagedViewIconCache mOutlineCache;
     private final Canvas mTempCanvas = new Canvas();
     private final Rect mTempRect = new Rect();
     private boolean mDidInvalidateForPressedState;
@@ -88,6 +92,8 @@ public class BubbleTextView extends TextView {
     private void init() {
         mLongPressHelper = new CheckLongPressHelper(this);
         mBackground = getBackground();
+        mOutlineCache = ((LauncherApplication) getContext().getApplicationContext())
+                .getOutlineCache();
 
         final Resources res = getContext().getResources();
         mFocusedOutlineColor = mFocusedGlowColor = mPressedOutlineColor = mPressedGlowColor =
@@ -194,22 +200,55 @@ public class BubbleTextView extends TextView {
     }
 
     /**
-     * Returns a new bitmap to be used as the object outline, e.g. to visualize the drop location.
-     * Responsibility for the bitmap is transferred to the caller.
+     * Returns a bitmap to be used as the object outline, e.g. to visualize the drop location.
+     * The glow is only drawn from the icon, so it is shared by every icon of the same
+     * shortcut through the outline cache; it must not be drawn into or recycled.
      */
     private Bitmap createGlowingOutline(Canvas canvas, int outlineColor, int glowColor) {
         final int padding = HolographicOutlineHelper.MAX_OUTER_BLUR_RADIUS;
-        final Bitmap b = Bitmap.createBitmap(
-                getWidth() + padding, getHeight() + padding, Bitmap.Config.ARGB_8888);
+        final int width = getWidth() + padding;
+        final int height = getHeight() + padding;
+        final PagedViewIconCache.Key key = getGlowKey(width, height, outlineColor, glowColor);
+        if (key != null) {
+            final Bitmap cached = mOutlineCache.getOutline(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final Bitmap b = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
 
         canvas.setBitmap(b);
         drawWithPadding(canvas, padding);
         mOutlineHelper.applyExtraThickExpensiveOutlineWithBlur(b, canvas, glowColor, outlineColor);
         canvas.setBitmap(null);
 
+        if (key != null) {
+            mOutlineCache.addOutline(key, b);
+        }
         return b;
     }
 
+    /**
+     * Returns the key the glow of this icon is cached under, or null if it can't be cached
+     * (the shortcut has no component, or the view is scaled for an animation).
+     */
+    private PagedViewIconCache.Key getGlowKey(int width, int height, int outlineColor,
+            int glowColor) {
+        final Object tag = getTag();
+        if (!(tag instanceof ShortcutInfo) || getScaleX() != 1f || getScaleY() != 1f) {
+            return null;
+        }
+        final ShortcutInfo info = (ShortcutInfo) tag;
+        final ComponentName component = info.intent != null ? info.intent.getComponent() : null;
+        final Drawable icon = getCompoundDrawables()[1];
+        if (component == null || !(icon instanceof FastBitmapDrawable)) {
+            return null;
+        }
+        return new PagedViewIconCache.Key(component, PagedViewIconCache.Key.Type.GlowKey,
+                ((FastBitmapDrawable) icon).getBitmap(), width, height, glowColor, outlineColor);
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         // Call the superclass onTouchEvent first, because sometimes it changes the state to
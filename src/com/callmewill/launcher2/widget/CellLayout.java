@@ -28,6 +28,7 @@ import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.PorterDuff;
@@ -104,8 +105,8 @@ public class CellLayout extends ViewGroup {
 	private final int[] mTmpPoint = new int[2];
 	int[] mTempLocation = new int[2];
 
-	boolean[][] mOccupied;
-	boolean[][] mTmpOccupied;
+	GridOccupancy mOccupied;
+	GridOccupancy mTmpOccupied;
 	private boolean mLastDownOnOccupiedCell = false;
 
 	private OnTouchListener mInterceptTouchListener;
@@ -179,14 +180,54 @@ public class CellLayout extends ViewGroup {
 
 	private static final float REORDER_HINT_MAGNITUDE = 0.12f;
 	private static final int REORDER_ANIMATION_DURATION = 150;
+	// How many reorder attempts are remembered while the occupancy stays put
+	private static final int REORDER_CACHE_SIZE = 8;
 	private float mReorderHintAnimationMagnitude;
 
 	private ArrayList<View> mIntersectingViews = new ArrayList<View>();
 	private Rect mOccupiedRect = new Rect();
+
+	// Scratch state of the reorder solver, kept so that a drag over the layout
+	// doesn't allocate per probe. Sets of views are flags indexed by the view's
+	// slot in an ItemConfiguration. 重排求解用的临时状态，拖动时不再每次分配
+	private final ItemConfiguration mSwapSolution = new ItemConfiguration();
+	private final ItemConfiguration mNoShuffleSolution = new ItemConfiguration();
+	private boolean[] mIntersectingSlots = new boolean[0];
+	private boolean[] mMovingSlots = new boolean[0];
+	private GridOccupancy mBlockOccupied;
+	private final Rect mBlockRect = new Rect();
+	private final Rect mPushRect = new Rect();
+	private final Rect mCompleteRect = new Rect();
+	private final Rect mCandidateRect = new Rect();
+	private final Rect mDragRect = new Rect();
+	private final Rect mDropRegionRect = new Rect();
+	private final Rect mBestRect = new Rect();
+	private final Stack<Rect> mValidRegions = new Stack<Rect>();
+	private final int[] mSwapLocation = new int[2];
+	private final int[] mTargetDestination = new int[2];
+	private final int[] mNoShuffleLocation = new int[2];
+	private final int[] mNoShuffleSpan = new int[2];
+
+	// Outcomes of recent rearrangementExists calls, which only depend on where
+	// the children are. Valid while mOccupied keeps mReorderCacheGeneration.
+	private final ReorderAttempt[] mReorderCache = new ReorderAttempt[REORDER_CACHE_SIZE];
+	private int mReorderCacheSize;
+	private int mReorderCacheNext;
+	private GridOccupancy mReorderCacheOccupancy;
+	private int mReorderCacheGeneration;
+	private int mReorderCacheChildCount;
 	private int[] mDirectionVector = new int[2];
 	int[] mPreviousReorderDirection = new int[2];
 	private static final int INVALID_DIRECTION = -100;
 	private DropTarget.DragEnforcer mDragEnforcer;
+	// Set on the workspace pages and the hotseat, which keep their views in it
+	private ItemViewIndex mItemViewIndex;
+
+	// getMatrix() inverted, for mapping drag points into this page. Worked out
+	// again only when the matrix it came from is no longer the current one.
+	private final Matrix mInverseMatrix = new Matrix();
+	private final Matrix mInverseMatrixSource = new Matrix();
+	private boolean mInverseMatrixValid;
 
 	private final static PorterDuffXfermode sAddBlendMode = new PorterDuffXfermode(
 			PorterDuff.Mode.ADD);
@@ -229,8 +270,9 @@ public class CellLayout extends ViewGroup {
 		mCountX = LauncherModel.getCellCountX();
 		mCountY = LauncherModel.getCellCountY();
 
-		mOccupied = new boolean[mCountX][mCountY];
-		mTmpOccupied = new boolean[mCountX][mCountY];
+		mOccupied = new GridOccupancy(mCountX, mCountY);
+		mTmpOccupied = new GridOccupancy(mCountX, mCountY);
+		mBlockOccupied = new GridOccupancy(mCountX, mCountY);
 		mPreviousReorderDirection[0] = INVALID_DIRECTION;
 		mPreviousReorderDirection[1] = INVALID_DIRECTION;
 
@@ -394,8 +436,9 @@ public class CellLayout extends ViewGroup {
 	public void setGridSize(int x, int y) {
 		mCountX = x;
 		mCountY = y;
-		mOccupied = new boolean[mCountX][mCountY];
-		mTmpOccupied = new boolean[mCountX][mCountY];
+		mOccupied = new GridOccupancy(mCountX, mCountY);
+		mTmpOccupied = new GridOccupancy(mCountX, mCountY);
+		mBlockOccupied = new GridOccupancy(mCountX, mCountY);
 		mTempRectStack.clear();
 		requestLayout();
 	}
@@ -544,7 +587,7 @@ public class CellLayout extends ViewGroup {
 			cd.setBounds(0, 0, mCellWidth, mCellHeight);
 			for (int i = 0; i < mCountX; i++) {
 				for (int j = 0; j < mCountY; j++) {
-					if (mOccupied[i][j]) {
+					if (mOccupied.get(i, j)) {
 						cellToPoint(i, j, pt);
 						canvas.save();
 						canvas.translate(pt[0], pt[1]);
@@ -682,6 +725,16 @@ public class CellLayout extends ViewGroup {
 		mIsHotseat = isHotseat;
 	}
 
+	void setItemViewIndex(ItemViewIndex index) {
+		mItemViewIndex = index;
+	}
+
+	private void removeFromItemViewIndex(View view) {
+		if (mItemViewIndex != null) {
+			mItemViewIndex.remove(view);
+		}
+	}
+
 	public boolean addViewToCellLayout(View child, int index, int childId,
 			LayoutParams params, boolean markCells) {
 		final LayoutParams lp = params;
@@ -730,6 +783,9 @@ public class CellLayout extends ViewGroup {
 	@Override
 	public void removeAllViews() {
 		clearOccupiedCells();
+		if (mItemViewIndex != null) {
+			mItemViewIndex.removeAll(mShortcutsAndWidgets);
+		}
 		mShortcutsAndWidgets.removeAllViews();
 	}
 
@@ -737,29 +793,36 @@ public class CellLayout extends ViewGroup {
 	public void removeAllViewsInLayout() {
 		if (mShortcutsAndWidgets.getChildCount() > 0) {
 			clearOccupiedCells();
+			if (mItemViewIndex != null) {
+				mItemViewIndex.removeAll(mShortcutsAndWidgets);
+			}
 			mShortcutsAndWidgets.removeAllViewsInLayout();
 		}
 	}
 
 	public void removeViewWithoutMarkingCells(View view) {
+		removeFromItemViewIndex(view);
 		mShortcutsAndWidgets.removeView(view);
 	}
 
 	@Override
 	public void removeView(View view) {
 		markCellsAsUnoccupiedForView(view);
+		removeFromItemViewIndex(view);
 		mShortcutsAndWidgets.removeView(view);
 	}
 
 	@Override
 	public void removeViewAt(int index) {
 		markCellsAsUnoccupiedForView(mShortcutsAndWidgets.getChildAt(index));
+		removeFromItemViewIndex(mShortcutsAndWidgets.getChildAt(index));
 		mShortcutsAndWidgets.removeViewAt(index);
 	}
 
 	@Override
 	public void removeViewInLayout(View view) {
 		markCellsAsUnoccupiedForView(view);
+		removeFromItemViewIndex(view);
 		mShortcutsAndWidgets.removeViewInLayout(view);
 	}
 
@@ -767,6 +830,7 @@ public class CellLayout extends ViewGroup {
 	public void removeViews(int start, int count) {
 		for (int i = start; i < start + count; i++) {
 			markCellsAsUnoccupiedForView(mShortcutsAndWidgets.getChildAt(i));
+			removeFromItemViewIndex(mShortcutsAndWidgets.getChildAt(i));
 		}
 		mShortcutsAndWidgets.removeViews(start, count);
 	}
@@ -775,6 +839,7 @@ public class CellLayout extends ViewGroup {
 	public void removeViewsInLayout(int start, int count) {
 		for (int i = start; i < start + count; i++) {
 			markCellsAsUnoccupiedForView(mShortcutsAndWidgets.getChildAt(i));
+			removeFromItemViewIndex(mShortcutsAndWidgets.getChildAt(i));
 		}
 		mShortcutsAndWidgets.removeViewsInLayout(start, count);
 	}
@@ -1221,6 +1286,20 @@ public class CellLayout extends ViewGroup {
 		}
 	}
 
+	/**
+	 * 返回getMatrix()的逆矩阵。只在本页的变换（缩放、平移、旋转）改变后才重新求逆，
+	 * 拖动时每次移动都可以直接使用。返回的对象属于CellLayout，调用者不能修改。
+	 */
+	Matrix getInverseMatrix() {
+		final Matrix matrix = getMatrix();
+		if (!mInverseMatrixValid || !matrix.equals(mInverseMatrixSource)) {
+			mInverseMatrixSource.set(matrix);
+			matrix.invert(mInverseMatrix);
+			mInverseMatrixValid = true;
+		}
+		return mInverseMatrix;
+	}
+
 	public ShortcutAndWidgetContainer getShortcutsAndWidgets() {
 		if (getChildCount() > 0) {
 			return (ShortcutAndWidgetContainer) getChildAt(0);
@@ -1236,7 +1315,7 @@ public class CellLayout extends ViewGroup {
 			int cellY, int duration, int delay, boolean permanent,
 			boolean adjustOccupied) {
 		ShortcutAndWidgetContainer clc = getShortcutsAndWidgets();
-		boolean[][] occupied = mOccupied;
+		GridOccupancy occupied = mOccupied;
 		if (!permanent) {
 			occupied = mTmpOccupied;
 		}
@@ -1254,8 +1333,8 @@ public class CellLayout extends ViewGroup {
 			final int oldX = lp.x;
 			final int oldY = lp.y;
 			if (adjustOccupied) {
-				occupied[lp.cellX][lp.cellY] = false;
-				occupied[cellX][cellY] = true;
+				occupied.set(lp.cellX, lp.cellY, false);
+				occupied.set(cellX, cellY, true);
 			}
 			lp.isLockedToGrid = true;
 			if (permanent) {
@@ -1568,7 +1647,7 @@ public class CellLayout extends ViewGroup {
 	 */
 	int[] findNearestArea(int pixelX, int pixelY, int minSpanX, int minSpanY,
 			int spanX, int spanY, View ignoreView, boolean ignoreOccupied,
-			int[] result, int[] resultSpan, boolean[][] occupied) {
+			int[] result, int[] resultSpan, GridOccupancy occupied) {
 		lazyInitTempRectStack();
 		// mark space take by ignoreView as available (method checks if
 		// ignoreView is null)
@@ -1587,9 +1666,11 @@ public class CellLayout extends ViewGroup {
 		// Keep track of best-scoring drop area
 		// 追踪最佳拖放区域
 		final int[] bestXY = result != null ? result : new int[2];
-		double bestDistance = Double.MAX_VALUE;
-		final Rect bestRect = new Rect(-1, -1, -1, -1);
-		final Stack<Rect> validRegions = new Stack<Rect>();
+		// Squared distances, which order the candidates the same way
+		long bestDistance = Long.MAX_VALUE;
+		final Rect bestRect = mBestRect;
+		bestRect.set(-1, -1, -1, -1);
+		final Stack<Rect> validRegions = mValidRegions;
 
 		final int countX = mCountX;
 		final int countY = mCountY;
@@ -1603,26 +1684,18 @@ public class CellLayout extends ViewGroup {
 		// 开始循环遍历
 		// y轴
 		for (int y = 0; y < countY - (minSpanY - 1); y++) {
-			inner:
+			// First, let's see where in this row the minimum size fits
+			// 这一行中能放下最小尺寸的起始列
+			final long origins = ignoreOccupied ? occupied.vacantOrigins(y,
+					minSpanX, minSpanY) : 0;
 			// x轴
 			for (int x = 0; x < countX - (minSpanX - 1); x++) {
 				int ySize = -1;
 				int xSize = -1;
 				if (ignoreOccupied) {
-					// First, let's see if this thing fits anywhere
-					// 如果这个东西适合任何位置
-					for (int i = 0; i < minSpanX; i++) {
-						for (int j = 0; j < minSpanY; j++) {
-							// 根据目标的大小,判断固定范围内是否
-							if (occupied[x + i][y + j]) {
-								Log.i("ddv", "occupied[x + i][y + j]:"
-										+ occupied[x + i][y + j]);
-								Log.i("ddv", "[x + i]" + (x + i) + "[y + j]:"
-										+ (y + j));
-								// 如果此格被占用则返回到x轴的循环
-								continue inner;
-							}
-						}
+					if ((origins & (1L << x)) == 0) {
+						// 如果此格被占用则返回到x轴的循环
+						continue;
 					}
 					// 将空间最小宽高赋给xSize，ySize
 					xSize = minSpanX;
@@ -1638,23 +1711,19 @@ public class CellLayout extends ViewGroup {
 					boolean hitMaxY = ySize >= spanY;
 					while (!(hitMaxX && hitMaxY)) {
 						if (incX && !hitMaxX) {
-							for (int j = 0; j < ySize; j++) {
-								if (x + xSize > countX - 1
-										|| occupied[x + xSize][y + j]) {
-									// We can't move out horizontally
-									hitMaxX = true;
-								}
+							if (!occupied.isRegionVacant(x + xSize, y, 1,
+									ySize, null)) {
+								// We can't move out horizontally
+								hitMaxX = true;
 							}
 							if (!hitMaxX) {
 								xSize++;
 							}
 						} else if (!hitMaxY) {
-							for (int i = 0; i < xSize; i++) {
-								if (y + ySize > countY - 1
-										|| occupied[x + i][y + ySize]) {
-									// We can't move out vertically
-									hitMaxY = true;
-								}
+							if (!occupied.isRegionVacant(x, y + ySize, xSize,
+									1, null)) {
+								// We can't move out vertically
+								hitMaxY = true;
 							}
 							if (!hitMaxY) {
 								ySize++;
@@ -1691,8 +1760,9 @@ public class CellLayout extends ViewGroup {
 					}
 				}
 				validRegions.push(currentRect);
-				double distance = Math.sqrt(Math.pow(cellXY[0] - pixelX, 2)
-						+ Math.pow(cellXY[1] - pixelY, 2));
+				final long dx = cellXY[0] - pixelX;
+				final long dy = cellXY[1] - pixelY;
+				final long distance = dx * dx + dy * dy;
 
 				if ((distance <= bestDistance && !contained)
 						|| currentRect.contains(bestRect)) {
@@ -1711,7 +1781,7 @@ public class CellLayout extends ViewGroup {
 		markCellsAsOccupiedForView(ignoreView, occupied);
 
 		// Return -1, -1 if no suitable location found
-		if (bestDistance == Double.MAX_VALUE) {
+		if (bestDistance == Long.MAX_VALUE) {
 			bestXY[0] = -1;
 			bestXY[1] = -1;
 		}
@@ -1744,7 +1814,7 @@ public class CellLayout extends ViewGroup {
 	 *            The array which represents which cells in the CellLayout are
 	 *            occupied
 	 * @param blockOccupied
-	 *            The array which represents which cells in the specified block
+	 *            The grid which represents which cells in the specified block
 	 *            (cellX, cellY, spanX, spanY) are occupied. This is used when
 	 *            try to move a group of views.
 	 * @param result
@@ -1754,30 +1824,32 @@ public class CellLayout extends ViewGroup {
 	 *         nearest the requested location.
 	 */
 	private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY,
-			int[] direction, boolean[][] occupied, boolean blockOccupied[][],
-			int[] result) {
+			int[] direction, GridOccupancy occupied,
+			GridOccupancy blockOccupied, int[] result) {
 		// Keep track of best-scoring drop area
 		final int[] bestXY = result != null ? result : new int[2];
-		float bestDistance = Float.MAX_VALUE;
+		// Squared grid distances, which order the candidates the same way
+		int bestDistance = Integer.MAX_VALUE;
 		int bestDirectionScore = Integer.MIN_VALUE;
 
 		final int countX = mCountX;
 		final int countY = mCountY;
 
 		for (int y = 0; y < countY - (spanY - 1); y++) {
-			inner: for (int x = 0; x < countX - (spanX - 1); x++) {
+			// Without a block every cell of the span has to be free, which the
+			// whole row can be checked for at once
+			final long origins = blockOccupied == null ? occupied
+					.vacantOrigins(y, spanX, spanY) : 0;
+			for (int x = 0; x < countX - (spanX - 1); x++) {
 				// First, let's see if this thing fits anywhere
-				for (int i = 0; i < spanX; i++) {
-					for (int j = 0; j < spanY; j++) {
-						if (occupied[x + i][y + j]
-								&& (blockOccupied == null || blockOccupied[i][j])) {
-							continue inner;
-						}
-					}
+				if (blockOccupied == null ? (origins & (1L << x)) == 0
+						: !occupied.isRegionVacant(x, y, spanX, spanY,
+								blockOccupied)) {
+					continue;
 				}
 
-				float distance = (float) Math.sqrt((x - cellX) * (x - cellX)
-						+ (y - cellY) * (y - cellY));
+				int distance = (x - cellX) * (x - cellX) + (y - cellY)
+						* (y - cellY);
 				int[] curDirection = mTmpPoint;
 				computeDirectionVector(x - cellX, y - cellY, curDirection);
 				// The direction score is just the dot product of the two
@@ -1789,8 +1861,8 @@ public class CellLayout extends ViewGroup {
 				boolean directionMatches = direction[0] == curDirection[0]
 						&& direction[0] == curDirection[0];
 				if ((directionMatches || !exactDirectionOnly)
-						&& Float.compare(distance, bestDistance) < 0
-						|| (Float.compare(distance, bestDistance) == 0 && curDirectionScore > bestDirectionScore)) {
+						&& distance < bestDistance
+						|| (distance == bestDistance && curDirectionScore > bestDirectionScore)) {
 					bestDistance = distance;
 					bestDirectionScore = curDirectionScore;
 					bestXY[0] = x;
@@ -1800,7 +1872,7 @@ public class CellLayout extends ViewGroup {
 		}
 
 		// Return -1, -1 if no suitable location found
-		if (bestDistance == Float.MAX_VALUE) {
+		if (bestDistance == Integer.MAX_VALUE) {
 			bestXY[0] = -1;
 			bestXY[1] = -1;
 		}
@@ -1808,13 +1880,13 @@ public class CellLayout extends ViewGroup {
 	}
 
 	private int[] findNearestAreaInDirection(int cellX, int cellY, int spanX,
-			int spanY, int[] direction, boolean[][] occupied,
-			boolean blockOccupied[][], int[] result) {
+			int spanY, int[] direction, GridOccupancy occupied,
+			GridOccupancy blockOccupied, int[] result) {
 		// Keep track of best-scoring drop area
 		final int[] bestXY = result != null ? result : new int[2];
 		bestXY[0] = -1;
 		bestXY[1] = -1;
-		float bestDistance = Float.MAX_VALUE;
+		int bestDistance = Integer.MAX_VALUE;
 
 		// We use this to march in a single direction
 		if ((direction[0] != 0 && direction[1] != 0)
@@ -1826,19 +1898,10 @@ public class CellLayout extends ViewGroup {
 		int x = cellX + direction[0];
 		int y = cellY + direction[1];
 		while (x >= 0 && x + spanX <= mCountX && y >= 0 && y + spanY <= mCountY) {
-			boolean fail = false;
-			for (int i = 0; i < spanX; i++) {
-				for (int j = 0; j < spanY; j++) {
-					if (occupied[x + i][y + j]
-							&& (blockOccupied == null || blockOccupied[i][j])) {
-						fail = true;
-					}
-				}
-			}
-			if (!fail) {
-				float distance = (float) Math.sqrt((x - cellX) * (x - cellX)
-						+ (y - cellY) * (y - cellY));
-				if (Float.compare(distance, bestDistance) < 0) {
+			if (occupied.isRegionVacant(x, y, spanX, spanY, blockOccupied)) {
+				int distance = (x - cellX) * (x - cellX) + (y - cellY)
+						* (y - cellY);
+				if (distance < bestDistance) {
 					bestDistance = distance;
 					bestXY[0] = x;
 					bestXY[1] = y;
@@ -1850,24 +1913,26 @@ public class CellLayout extends ViewGroup {
 		return bestXY;
 	}
 
-	private boolean addViewToTempLocation(View v,
+	private boolean addViewToTempLocation(int slot,
 			Rect rectOccupiedByPotentialDrop, int[] direction,
 			ItemConfiguration currentState) {
-		CellAndSpan c = currentState.map.get(v);
+		final ItemConfiguration c = currentState;
 		boolean success = false;
-		markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, false);
+		markCellsForView(c.x[slot], c.y[slot], c.spanX[slot], c.spanY[slot],
+				mTmpOccupied, false);
 		markCellsForRect(rectOccupiedByPotentialDrop, mTmpOccupied, true);
 
-		findNearestArea(c.x, c.y, c.spanX, c.spanY, direction, mTmpOccupied,
-				null, mTempLocation);
+		findNearestArea(c.x[slot], c.y[slot], c.spanX[slot], c.spanY[slot],
+				direction, mTmpOccupied, null, mTempLocation);
 
 		if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
-			c.x = mTempLocation[0];
-			c.y = mTempLocation[1];
+			c.x[slot] = mTempLocation[0];
+			c.y[slot] = mTempLocation[1];
 			success = true;
 
 		}
-		markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, true);
+		markCellsForView(c.x[slot], c.y[slot], c.spanX[slot], c.spanY[slot],
+				mTmpOccupied, true);
 		return success;
 	}
 
@@ -1877,14 +1942,15 @@ public class CellLayout extends ViewGroup {
 	// the current
 	// set of views. This is performed iteratively, giving a cascading push
 	// behaviour.
-	private boolean addViewInDirection(ArrayList<View> views,
-			Rect boundingRect, int[] direction, boolean[][] occupied,
-			View dragView, ItemConfiguration currentState) {
+	private boolean addViewInDirection(boolean[] views, Rect boundingRect,
+			int[] direction, GridOccupancy occupied, int dragSlot,
+			ItemConfiguration currentState) {
 		boolean found = false;
 
-		int childCount = mShortcutsAndWidgets.getChildCount();
-		Rect r0 = new Rect(boundingRect);
-		Rect r1 = new Rect();
+		final ItemConfiguration c = currentState;
+		final Rect r0 = mPushRect;
+		final Rect r1 = mCandidateRect;
+		r0.set(boundingRect);
 
 		// First, we consider the rect of the views that we are trying to
 		// translate
@@ -1907,16 +1973,14 @@ public class CellLayout extends ViewGroup {
 		// Now we see which views, if any, are being overlapped by shifting the
 		// current group
 		// of views in the desired direction.
-		for (int i = 0; i < childCount; i++) {
+		for (int i = 0; i < c.count; i++) {
 			// We don't need to worry about views already in our group, or the
 			// current drag view.
-			View child = mShortcutsAndWidgets.getChildAt(i);
-			if (views.contains(child) || child == dragView)
+			if (views[i] || i == dragSlot)
 				continue;
-			CellAndSpan c = currentState.map.get(child);
 
-			LayoutParams lp = (LayoutParams) child.getLayoutParams();
-			r1.set(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+			LayoutParams lp = (LayoutParams) c.views[i].getLayoutParams();
+			r1.set(c.x[i], c.y[i], c.x[i] + c.spanX[i], c.y[i] + c.spanY[i]);
 			if (Rect.intersects(r0, r1)) {
 				if (!lp.canReorder) {
 					return false;
@@ -1924,10 +1988,10 @@ public class CellLayout extends ViewGroup {
 				// First we verify that the view in question is at the border of
 				// the extents
 				// of the block of items we are pushing
-				if ((direction[0] < 0 && c.x == r0.left)
-						|| (direction[0] > 0 && c.x == r0.right - 1)
-						|| (direction[1] < 0 && c.y == r0.top)
-						|| (direction[1] > 0 && c.y == r0.bottom - 1)) {
+				if ((direction[0] < 0 && c.x[i] == r0.left)
+						|| (direction[0] > 0 && c.x[i] == r0.right - 1)
+						|| (direction[1] < 0 && c.y[i] == r0.top)
+						|| (direction[1] > 0 && c.y[i] == r0.bottom - 1)) {
 					boolean pushed = false;
 					// Since the bounding rect is a coarse description of the
 					// region (there can
@@ -1935,20 +1999,17 @@ public class CellLayout extends ViewGroup {
 					// verify that a solid
 					// piece is intersecting. This ensures that interlocking is
 					// possible.
-					for (int x = c.x; x < c.x + c.spanX; x++) {
-						for (int y = c.y; y < c.y + c.spanY; y++) {
-							if (occupied[x - deltaX][y - deltaY]) {
+					search: for (int x = r1.left; x < r1.right; x++) {
+						for (int y = r1.top; y < r1.bottom; y++) {
+							if (occupied.get(x - deltaX, y - deltaY)) {
 								pushed = true;
-								break;
+								break search;
 							}
-							if (pushed)
-								break;
 						}
 					}
 					if (pushed) {
-						views.add(child);
-						boundingRect.union(c.x, c.y, c.x + c.spanX, c.y
-								+ c.spanY);
+						views[i] = true;
+						boundingRect.union(r1);
 						found = true;
 					}
 				}
@@ -1957,10 +2018,11 @@ public class CellLayout extends ViewGroup {
 		return found;
 	}
 
-	private void completeSetOfViewsToMove(ArrayList<View> views,
-			Rect boundingRect, int[] direction, boolean[][] occupied,
-			View dragView, ItemConfiguration currentState) {
-		Rect r0 = new Rect(boundingRect);
+	private void completeSetOfViewsToMove(boolean[] views, Rect boundingRect,
+			int[] direction, GridOccupancy occupied, int dragSlot,
+			ItemConfiguration currentState) {
+		final Rect r0 = mCompleteRect;
+		r0.set(boundingRect);
 		int minRuns = 0;
 
 		// The first thing we do is to reduce the bounding rect to first or last
@@ -1988,57 +2050,65 @@ public class CellLayout extends ViewGroup {
 		// further runs execute based on whether the intersecting views /
 		// bounding rect need
 		// to be expanded to include other views that will be pushed.
-		while (addViewInDirection(views, r0, direction, mTmpOccupied, dragView,
+		while (addViewInDirection(views, r0, direction, mTmpOccupied, dragSlot,
 				currentState) || minRuns > 0) {
 			minRuns--;
 		}
 		boundingRect.union(r0);
 	}
 
-	private boolean addViewsToTempLocation(ArrayList<View> views,
+	private boolean addViewsToTempLocation(boolean[] views,
 			Rect rectOccupiedByPotentialDrop, int[] direction, boolean push,
-			View dragView, ItemConfiguration currentState) {
-		if (views.size() == 0)
-			return true;
-
-		boolean success = false;
-		Rect boundingRect = null;
+			int dragSlot, ItemConfiguration currentState) {
+		final ItemConfiguration c = currentState;
+		final boolean[] moving = mMovingSlots;
+		final Rect boundingRect = mBlockRect;
+		boolean empty = true;
 		// We construct a rect which represents the entire group of views passed
-		// in
-		for (View v : views) {
-			CellAndSpan c = currentState.map.get(v);
-			if (boundingRect == null) {
-				boundingRect = new Rect(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+		// in, and copy the group as pushing may add to it
+		for (int i = 0; i < c.count; i++) {
+			moving[i] = views[i];
+			if (!views[i])
+				continue;
+			if (empty) {
+				boundingRect.set(c.x[i], c.y[i], c.x[i] + c.spanX[i], c.y[i]
+						+ c.spanY[i]);
+				empty = false;
 			} else {
-				boundingRect.union(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+				boundingRect.union(c.x[i], c.y[i], c.x[i] + c.spanX[i], c.y[i]
+						+ c.spanY[i]);
 			}
 		}
+		if (empty)
+			return true;
 
-		@SuppressWarnings("unchecked")
-		ArrayList<View> dup = (ArrayList<View>) views.clone();
+		boolean success = false;
 		if (push) {
-			completeSetOfViewsToMove(dup, boundingRect, direction,
-					mTmpOccupied, dragView, currentState);
+			completeSetOfViewsToMove(moving, boundingRect, direction,
+					mTmpOccupied, dragSlot, currentState);
 		}
 
 		// Mark the occupied state as false for the group of views we want to
 		// move.
-		for (View v : dup) {
-			CellAndSpan c = currentState.map.get(v);
-			markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, false);
+		for (int i = 0; i < c.count; i++) {
+			if (moving[i]) {
+				markCellsForView(c.x[i], c.y[i], c.spanX[i], c.spanY[i],
+						mTmpOccupied, false);
+			}
 		}
 
-		boolean[][] blockOccupied = new boolean[boundingRect.width()][boundingRect
-				.height()];
+		final GridOccupancy blockOccupied = mBlockOccupied;
+		blockOccupied.clear();
 		int top = boundingRect.top;
 		int left = boundingRect.left;
 		// We mark more precisely which parts of the bounding rect are truly
 		// occupied, allowing
 		// for interlocking.
-		for (View v : dup) {
-			CellAndSpan c = currentState.map.get(v);
-			markCellsForView(c.x - left, c.y - top, c.spanX, c.spanY,
-					blockOccupied, true);
+		for (int i = 0; i < c.count; i++) {
+			if (moving[i]) {
+				blockOccupied.markCells(c.x[i] - left, c.y[i] - top,
+						c.spanX[i], c.spanY[i], true);
+			}
 		}
 
 		markCellsForRect(rectOccupiedByPotentialDrop, mTmpOccupied, true);
@@ -2058,24 +2128,28 @@ public class CellLayout extends ViewGroup {
 		if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
 			int deltaX = mTempLocation[0] - boundingRect.left;
 			int deltaY = mTempLocation[1] - boundingRect.top;
-			for (View v : dup) {
-				CellAndSpan c = currentState.map.get(v);
-				c.x += deltaX;
-				c.y += deltaY;
+			for (int i = 0; i < c.count; i++) {
+				if (moving[i]) {
+					c.x[i] += deltaX;
+					c.y[i] += deltaY;
+				}
 			}
 			success = true;
 		}
 
 		// In either case, we set the occupied array as marked for the location
 		// of the views
-		for (View v : dup) {
-			CellAndSpan c = currentState.map.get(v);
-			markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, true);
+		for (int i = 0; i < c.count; i++) {
+			if (moving[i]) {
+				markCellsForView(c.x[i], c.y[i], c.spanX[i], c.spanY[i],
+						mTmpOccupied, true);
+			}
 		}
 		return success;
 	}
 
-	private void markCellsForRect(Rect r, boolean[][] occupied, boolean value) {
+	private void markCellsForRect(Rect r, GridOccupancy occupied,
+			boolean value) {
 		markCellsForView(r.left, r.top, r.width(), r.height(), occupied, value);
 	}
 
@@ -2084,8 +2158,8 @@ public class CellLayout extends ViewGroup {
 	// to push items in each of the cardinal directions, in an order based on
 	// the direction vector
 	// passed.
-	private boolean attemptPushInDirection(ArrayList<View> intersectingViews,
-			Rect occupied, int[] direction, View ignoreView,
+	private boolean attemptPushInDirection(boolean[] intersectingViews,
+			Rect occupied, int[] direction, int ignoreView,
 			ItemConfiguration solution) {
 		if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
 			// If the direction vector has two non-zero components, we try
@@ -2181,6 +2255,56 @@ public class CellLayout extends ViewGroup {
 		return false;
 	}
 
+	/**
+	 * Like {@link #rearrangementExists}, but reuses the outcome of an earlier
+	 * attempt at the same cell, span, direction and drag view if no child has
+	 * moved since. Hovering keeps asking for the same few attempts.
+	 * 悬停时会重复求解同样的位置，这里直接使用之前的结果
+	 */
+	private boolean rearrangementExistsCached(int cellX, int cellY, int spanX,
+			int spanY, int[] direction, View ignoreView,
+			ItemConfiguration solution) {
+		if (mReorderCacheOccupancy != mOccupied
+				|| mReorderCacheGeneration != mOccupied.getGeneration()
+				|| mReorderCacheChildCount != solution.count) {
+			clearReorderCache();
+			mReorderCacheOccupancy = mOccupied;
+			mReorderCacheGeneration = mOccupied.getGeneration();
+			mReorderCacheChildCount = solution.count;
+		}
+
+		for (int i = 0; i < mReorderCacheSize; i++) {
+			final ReorderAttempt a = mReorderCache[i];
+			if (a.matches(cellX, cellY, spanX, spanY, direction, ignoreView)) {
+				a.copyTo(solution, direction);
+				return a.success;
+			}
+		}
+
+		ReorderAttempt a = mReorderCache[mReorderCacheNext];
+		if (a == null) {
+			a = mReorderCache[mReorderCacheNext] = new ReorderAttempt();
+		}
+		a.set(cellX, cellY, spanX, spanY, direction, ignoreView);
+		a.success = rearrangementExists(cellX, cellY, spanX, spanY, direction,
+				ignoreView, solution);
+		a.copyFrom(solution, direction);
+		if (mReorderCacheSize < REORDER_CACHE_SIZE) {
+			mReorderCacheSize++;
+		}
+		mReorderCacheNext = (mReorderCacheNext + 1) % REORDER_CACHE_SIZE;
+		return a.success;
+	}
+
+	private void clearReorderCache() {
+		for (int i = 0; i < mReorderCacheSize; i++) {
+			mReorderCache[i].dragView = null;
+		}
+		mReorderCacheSize = 0;
+		mReorderCacheNext = 0;
+		mReorderCacheOccupancy = null;
+	}
+
 	private boolean rearrangementExists(int cellX, int cellY, int spanX,
 			int spanY, int[] direction, View ignoreView,
 			ItemConfiguration solution) {
@@ -2188,30 +2312,29 @@ public class CellLayout extends ViewGroup {
 		if (cellX < 0 || cellY < 0)
 			return false;
 
-		mIntersectingViews.clear();
-		mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
+		final ItemConfiguration c = solution;
+		final boolean[] intersecting = mIntersectingSlots;
+		final Rect r0 = mOccupiedRect;
+		final Rect r1 = mCandidateRect;
+		r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
 
 		// Mark the desired location of the view currently being dragged.
-		if (ignoreView != null) {
-			CellAndSpan c = solution.map.get(ignoreView);
-			if (c != null) {
-				c.x = cellX;
-				c.y = cellY;
-			}
-		}
-		Rect r0 = new Rect(cellX, cellY, cellX + spanX, cellY + spanY);
-		Rect r1 = new Rect();
-		for (View child : solution.map.keySet()) {
-			if (child == ignoreView)
+		final int dragSlot = c.indexOf(ignoreView);
+		if (dragSlot >= 0) {
+			c.x[dragSlot] = cellX;
+			c.y[dragSlot] = cellY;
+		}
+		for (int i = 0; i < c.count; i++) {
+			intersecting[i] = false;
+			if (i == dragSlot)
 				continue;
-			CellAndSpan c = solution.map.get(child);
-			LayoutParams lp = (LayoutParams) child.getLayoutParams();
-			r1.set(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+			LayoutParams lp = (LayoutParams) c.views[i].getLayoutParams();
+			r1.set(c.x[i], c.y[i], c.x[i] + c.spanX[i], c.y[i] + c.spanY[i]);
 			if (Rect.intersects(r0, r1)) {
 				if (!lp.canReorder) {
 					return false;
 				}
-				mIntersectingViews.add(child);
+				intersecting[i] = true;
 			}
 		}
 
@@ -2220,21 +2343,22 @@ public class CellLayout extends ViewGroup {
 		// we try to find a solution such that no displaced item travels through
 		// another item
 		// without also displacing that item.
-		if (attemptPushInDirection(mIntersectingViews, mOccupiedRect,
-				direction, ignoreView, solution)) {
+		if (attemptPushInDirection(intersecting, r0, direction, dragSlot,
+				solution)) {
 			return true;
 		}
 
 		// Next we try moving the views as a block, but without requiring the
 		// push mechanic.
-		if (addViewsToTempLocation(mIntersectingViews, mOccupiedRect,
-				direction, false, ignoreView, solution)) {
+		if (addViewsToTempLocation(intersecting, r0, direction, false,
+				dragSlot, solution)) {
 			return true;
 		}
 
 		// Ok, they couldn't move as a block, let's move them individually
-		for (View v : mIntersectingViews) {
-			if (!addViewToTempLocation(v, mOccupiedRect, direction, solution)) {
+		for (int i = 0; i < c.count; i++) {
+			if (intersecting[i]
+					&& !addViewToTempLocation(i, r0, direction, solution)) {
 				return false;
 			}
 		}
@@ -2246,112 +2370,103 @@ public class CellLayout extends ViewGroup {
 	 * vector between the provided point and the provided cell
 	 */
 	private void computeDirectionVector(float deltaX, float deltaY, int[] result) {
-		double angle = Math.atan(((float) deltaY) / deltaX);
+		// |cos(angle)| > 0.5 is 3 * dx^2 > dy^2, and |sin(angle)| > 0.5 is
+		// 3 * dy^2 > dx^2, so there is no need for the angle itself
+		final float dx2 = deltaX * deltaX;
+		final float dy2 = deltaY * deltaY;
 
 		result[0] = 0;
 		result[1] = 0;
-		if (Math.abs(Math.cos(angle)) > 0.5f) {
+		if (3 * dx2 > dy2) {
 			result[0] = (int) Math.signum(deltaX);
 		}
-		if (Math.abs(Math.sin(angle)) > 0.5f) {
+		if (3 * dy2 > dx2) {
 			result[1] = (int) Math.signum(deltaY);
 		}
 	}
 
-	private void copyOccupiedArray(boolean[][] occupied) {
-		for (int i = 0; i < mCountX; i++) {
-			for (int j = 0; j < mCountY; j++) {
-				occupied[i][j] = mOccupied[i][j];
-			}
-		}
-	}
-
 	ItemConfiguration simpleSwap(int pixelX, int pixelY, int minSpanX,
 			int minSpanY, int spanX, int spanY, int[] direction, View dragView,
 			boolean decX, ItemConfiguration solution) {
-		// Copy the current state into the solution. This solution will be
-		// manipulated as necessary.
-		copyCurrentStateToSolution(solution, false);
-		// Copy the current occupied array into the temporary occupied array.
-		// This array will be
-		// manipulated as necessary to find a solution.
-		copyOccupiedArray(mTmpOccupied);
-
-		// We find the nearest cell into which we would place the dragged item,
-		// assuming there's
-		// nothing in its way.
-		int result[] = new int[2];
-		result = findNearestArea(pixelX, pixelY, spanX, spanY, result);
-
-		boolean success = false;
-		// First we try the exact nearest position of the item being dragged,
-		// we will then want to try to move this around to other neighbouring
-		// positions
-		success = rearrangementExists(result[0], result[1], spanX, spanY,
-				direction, dragView, solution);
+		final int[] result = mSwapLocation;
+		while (true) {
+			// Copy the current state into the solution. This solution will be
+			// manipulated as necessary.
+			copyCurrentStateToSolution(solution, false);
+			// Copy the current occupied array into the temporary occupied
+			// array. This array will be
+			// manipulated as necessary to find a solution.
+			mTmpOccupied.copyFrom(mOccupied);
+
+			// We find the nearest cell into which we would place the dragged
+			// item, assuming there's
+			// nothing in its way.
+			findNearestArea(pixelX, pixelY, spanX, spanY, result);
+
+			// First we try the exact nearest position of the item being
+			// dragged, we will then want to try to move this around to other
+			// neighbouring positions
+			if (rearrangementExistsCached(result[0], result[1], spanX, spanY,
+					direction, dragView, solution)) {
+				solution.isSolution = true;
+				solution.dragViewX = result[0];
+				solution.dragViewY = result[1];
+				solution.dragViewSpanX = spanX;
+				solution.dragViewSpanY = spanY;
+				return solution;
+			}
 
-		if (!success) {
 			// We try shrinking the widget down to size in an alternating
 			// pattern, shrink 1 in
 			// x, then 1 in y etc.
 			if (spanX > minSpanX && (minSpanY == spanY || decX)) {
-				return simpleSwap(pixelX, pixelY, minSpanX, minSpanY,
-						spanX - 1, spanY, direction, dragView, false, solution);
+				spanX--;
+				decX = false;
 			} else if (spanY > minSpanY) {
-				return simpleSwap(pixelX, pixelY, minSpanX, minSpanY, spanX,
-						spanY - 1, direction, dragView, true, solution);
+				spanY--;
+				decX = true;
+			} else {
+				solution.isSolution = false;
+				return solution;
 			}
-			solution.isSolution = false;
-		} else {
-			solution.isSolution = true;
-			solution.dragViewX = result[0];
-			solution.dragViewY = result[1];
-			solution.dragViewSpanX = spanX;
-			solution.dragViewSpanY = spanY;
 		}
-		return solution;
 	}
 
 	private void copyCurrentStateToSolution(ItemConfiguration solution,
 			boolean temp) {
 		int childCount = mShortcutsAndWidgets.getChildCount();
+		solution.reset(childCount);
+		if (mIntersectingSlots.length < childCount) {
+			mIntersectingSlots = new boolean[childCount];
+			mMovingSlots = new boolean[childCount];
+		}
 		for (int i = 0; i < childCount; i++) {
 			View child = mShortcutsAndWidgets.getChildAt(i);
 			LayoutParams lp = (LayoutParams) child.getLayoutParams();
-			CellAndSpan c;
-			if (temp) {
-				c = new CellAndSpan(lp.tmpCellX, lp.tmpCellY, lp.cellHSpan,
-						lp.cellVSpan);
-			} else {
-				c = new CellAndSpan(lp.cellX, lp.cellY, lp.cellHSpan,
-						lp.cellVSpan);
-			}
-			solution.map.put(child, c);
+			solution.views[i] = child;
+			solution.x[i] = temp ? lp.tmpCellX : lp.cellX;
+			solution.y[i] = temp ? lp.tmpCellY : lp.cellY;
+			solution.spanX[i] = lp.cellHSpan;
+			solution.spanY[i] = lp.cellVSpan;
 		}
 	}
 
 	private void copySolutionToTempState(ItemConfiguration solution,
 			View dragView) {
-		for (int i = 0; i < mCountX; i++) {
-			for (int j = 0; j < mCountY; j++) {
-				mTmpOccupied[i][j] = false;
-			}
-		}
+		mTmpOccupied.clear();
 
-		int childCount = mShortcutsAndWidgets.getChildCount();
-		for (int i = 0; i < childCount; i++) {
-			View child = mShortcutsAndWidgets.getChildAt(i);
+		final ItemConfiguration c = solution;
+		for (int i = 0; i < c.count; i++) {
+			View child = c.views[i];
 			if (child == dragView)
 				continue;
 			LayoutParams lp = (LayoutParams) child.getLayoutParams();
-			CellAndSpan c = solution.map.get(child);
-			if (c != null) {
-				lp.tmpCellX = c.x;
-				lp.tmpCellY = c.y;
-				lp.cellHSpan = c.spanX;
-				lp.cellVSpan = c.spanY;
-				markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, true);
-			}
+			lp.tmpCellX = c.x[i];
+			lp.tmpCellY = c.y[i];
+			lp.cellHSpan = c.spanX[i];
+			lp.cellVSpan = c.spanY[i];
+			markCellsForView(c.x[i], c.y[i], c.spanX[i], c.spanY[i],
+					mTmpOccupied, true);
 		}
 		markCellsForView(solution.dragViewX, solution.dragViewY,
 				solution.dragViewSpanX, solution.dragViewSpanY, mTmpOccupied,
@@ -2361,25 +2476,18 @@ public class CellLayout extends ViewGroup {
 	private void animateItemsToSolution(ItemConfiguration solution,
 			View dragView, boolean commitDragView) {
 
-		boolean[][] occupied = DESTRUCTIVE_REORDER ? mOccupied : mTmpOccupied;
-		for (int i = 0; i < mCountX; i++) {
-			for (int j = 0; j < mCountY; j++) {
-				occupied[i][j] = false;
-			}
-		}
+		GridOccupancy occupied = DESTRUCTIVE_REORDER ? mOccupied : mTmpOccupied;
+		occupied.clear();
 
-		int childCount = mShortcutsAndWidgets.getChildCount();
-		for (int i = 0; i < childCount; i++) {
-			View child = mShortcutsAndWidgets.getChildAt(i);
+		final ItemConfiguration c = solution;
+		for (int i = 0; i < c.count; i++) {
+			View child = c.views[i];
 			if (child == dragView)
 				continue;
-			CellAndSpan c = solution.map.get(child);
-			if (c != null) {
-				animateChildToPosition(child, c.x, c.y,
-						REORDER_ANIMATION_DURATION, 0, DESTRUCTIVE_REORDER,
-						false);
-				markCellsForView(c.x, c.y, c.spanX, c.spanY, occupied, true);
-			}
+			animateChildToPosition(child, c.x[i], c.y[i],
+					REORDER_ANIMATION_DURATION, 0, DESTRUCTIVE_REORDER, false);
+			markCellsForView(c.x[i], c.y[i], c.spanX[i], c.spanY[i], occupied,
+					true);
 		}
 		if (commitDragView) {
 			markCellsForView(solution.dragViewX, solution.dragViewY,
@@ -2391,18 +2499,15 @@ public class CellLayout extends ViewGroup {
 	// This method starts or changes the reorder hint animations
 	private void beginOrAdjustHintAnimations(ItemConfiguration solution,
 			View dragView, int delay) {
-		int childCount = mShortcutsAndWidgets.getChildCount();
-		for (int i = 0; i < childCount; i++) {
-			View child = mShortcutsAndWidgets.getChildAt(i);
+		final ItemConfiguration c = solution;
+		for (int i = 0; i < c.count; i++) {
+			View child = c.views[i];
 			if (child == dragView)
 				continue;
-			CellAndSpan c = solution.map.get(child);
 			LayoutParams lp = (LayoutParams) child.getLayoutParams();
-			if (c != null) {
-				ReorderHintAnimation rha = new ReorderHintAnimation(child,
-						lp.cellX, lp.cellY, c.x, c.y, c.spanX, c.spanY);
-				rha.animate();
-			}
+			ReorderHintAnimation rha = new ReorderHintAnimation(child,
+					lp.cellX, lp.cellY, c.x[i], c.y[i], c.spanX[i], c.spanY[i]);
+			rha.animate();
 		}
 	}
 
@@ -2533,11 +2638,7 @@ public class CellLayout extends ViewGroup {
 	}
 
 	private void commitTempPlacement() {
-		for (int i = 0; i < mCountX; i++) {
-			for (int j = 0; j < mCountY; j++) {
-				mOccupied[i][j] = mTmpOccupied[i][j];
-			}
-		}
+		mOccupied.copyFrom(mTmpOccupied);
 		int childCount = mShortcutsAndWidgets.getChildCount();
 		for (int i = 0; i < childCount; i++) {
 			View child = mShortcutsAndWidgets.getChildAt(i);
@@ -2573,8 +2674,8 @@ public class CellLayout extends ViewGroup {
 	ItemConfiguration findConfigurationNoShuffle(int pixelX, int pixelY,
 			int minSpanX, int minSpanY, int spanX, int spanY, View dragView,
 			ItemConfiguration solution) {
-		int[] result = new int[2];
-		int[] resultSpan = new int[2];
+		final int[] result = mNoShuffleLocation;
+		final int[] resultSpan = mNoShuffleSpan;
 		findNearestVacantArea(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY,
 				null, result, resultSpan);
 		if (result[0] >= 0 && result[1] >= 0) {
@@ -2626,18 +2727,18 @@ public class CellLayout extends ViewGroup {
 	private void getDirectionVectorForDrop(int dragViewCenterX,
 			int dragViewCenterY, int spanX, int spanY, View dragView,
 			int[] resultDirection) {
-		int[] targetDestination = new int[2];
+		final int[] targetDestination = mTargetDestination;
 
 		findNearestArea(dragViewCenterX, dragViewCenterY, spanX, spanY,
 				targetDestination);
-		Rect dragRect = new Rect();
+		final Rect dragRect = mDragRect;
 		//创建相应矩形
 		regionToRect(targetDestination[0], targetDestination[1], spanX, spanY,
 				dragRect);
 		dragRect.offset(dragViewCenterX - dragRect.centerX(), dragViewCenterY
 				- dragRect.centerY());
 
-		Rect dropRegionRect = new Rect();
+		final Rect dropRegionRect = mDropRegionRect;
 		//设定边界矩形，记录相交的View
 		getViewsIntersectingRegion(targetDestination[0], targetDestination[1],
 				spanX, spanY, dragView, dropRegionRect, mIntersectingViews);
@@ -2694,8 +2795,9 @@ public class CellLayout extends ViewGroup {
 		//清空集合
 		intersectingViews.clear();
 		//创建比较的矩形r0为原型
-		Rect r0 = new Rect(cellX, cellY, cellX + spanX, cellY + spanY);
-		Rect r1 = new Rect();
+		final Rect r0 = mOccupiedRect;
+		r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+		final Rect r1 = mCandidateRect;
 		//获得当前mShortcutsAndWidgets中子控件的数量
 		final int count = mShortcutsAndWidgets.getChildCount();
 		//循环比较
@@ -2760,7 +2862,7 @@ public class CellLayout extends ViewGroup {
 		// layout
 		ItemConfiguration swapSolution = simpleSwap(pixelXY[0], pixelXY[1],
 				spanX, spanY, spanX, spanY, direction, dragView, true,
-				new ItemConfiguration());
+				mSwapSolution);
 
 		setUseTempCoords(true);
 		if (swapSolution != null && swapSolution.isSolution) {
@@ -2841,12 +2943,12 @@ public class CellLayout extends ViewGroup {
 
 		ItemConfiguration swapSolution = simpleSwap(pixelX, pixelY, minSpanX,
 				minSpanY, spanX, spanY, mDirectionVector, dragView, true,
-				new ItemConfiguration());
+				mSwapSolution);
 
 		// We attempt the approach which doesn't shuffle views at all
 		ItemConfiguration noShuffleSolution = findConfigurationNoShuffle(
 				pixelX, pixelY, minSpanX, minSpanY, spanX, spanY, dragView,
-				new ItemConfiguration());
+				mNoShuffleSolution);
 
 		ItemConfiguration finalSolution = null;
 		if (swapSolution.isSolution
@@ -2913,36 +3015,108 @@ public class CellLayout extends ViewGroup {
 	}
 
 	/**
-	 * 类中有HashMap<View, CellAndSpan> map。用来存放View对应的格子和跨度信息
-	 * 
+	 * 一种摆放方案：按子View在mShortcutsAndWidgets中的下标（slot）保存其格子和跨度。
+	 * 数组只在子View变多时才重新分配，所以同一个对象可以在每次探测中重复使用。
+	 *
 	 * @author Administrator
-	 * 
+	 *
 	 */
-	private class ItemConfiguration {
-		HashMap<View, CellAndSpan> map = new HashMap<View, CellAndSpan>();
+	private static class ItemConfiguration {
+		View[] views = new View[0];
+		int[] x = new int[0];
+		int[] y = new int[0];
+		int[] spanX = new int[0];
+		int[] spanY = new int[0];
+		int count;
 		boolean isSolution = false;
 		int dragViewX, dragViewY, dragViewSpanX, dragViewSpanY;
 
+		void reset(int childCount) {
+			if (views.length < childCount) {
+				views = new View[childCount];
+				x = new int[childCount];
+				y = new int[childCount];
+				spanX = new int[childCount];
+				spanY = new int[childCount];
+			} else if (count > childCount) {
+				// Don't hold on to views that are gone
+				Arrays.fill(views, childCount, count, null);
+			}
+			count = childCount;
+			isSolution = false;
+		}
+
+		int indexOf(View v) {
+			for (int i = 0; i < count; i++) {
+				if (views[i] == v) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
 		int area() {
 			return dragViewSpanX * dragViewSpanY;
 		}
 	}
 
 	/**
-	 * 用来存放位置和跨度
-	 * 
-	 * @author Administrator
-	 * 
+	 * 一次rearrangementExists的输入和结果：成功时每个slot的位置，以及方向向量最后的值
 	 */
-	private class CellAndSpan {
-		int x, y;
-		int spanX, spanY;
-
-		public CellAndSpan(int x, int y, int spanX, int spanY) {
-			this.x = x;
-			this.y = y;
+	private static class ReorderAttempt {
+		int cellX, cellY, spanX, spanY;
+		int directionX, directionY;
+		View dragView;
+		boolean success;
+		int[] x = new int[0];
+		int[] y = new int[0];
+		int resultDirectionX, resultDirectionY;
+
+		void set(int cellX, int cellY, int spanX, int spanY, int[] direction,
+				View dragView) {
+			this.cellX = cellX;
+			this.cellY = cellY;
 			this.spanX = spanX;
 			this.spanY = spanY;
+			directionX = direction[0];
+			directionY = direction[1];
+			this.dragView = dragView;
+		}
+
+		boolean matches(int cellX, int cellY, int spanX, int spanY,
+				int[] direction, View dragView) {
+			return this.cellX == cellX && this.cellY == cellY
+					&& this.spanX == spanX && this.spanY == spanY
+					&& directionX == direction[0]
+					&& directionY == direction[1]
+					&& this.dragView == dragView;
+		}
+
+		/** Records the outcome, once the solver has run on solution. */
+		void copyFrom(ItemConfiguration solution, int[] direction) {
+			// The solver may leave the direction changed, so keep that too
+			resultDirectionX = direction[0];
+			resultDirectionY = direction[1];
+			if (!success) {
+				return;
+			}
+			if (x.length < solution.count) {
+				x = new int[solution.count];
+				y = new int[solution.count];
+			}
+			System.arraycopy(solution.x, 0, x, 0, solution.count);
+			System.arraycopy(solution.y, 0, y, 0, solution.count);
+		}
+
+		/** Replays the outcome onto solution, filled from the same children. */
+		void copyTo(ItemConfiguration solution, int[] direction) {
+			direction[0] = resultDirectionX;
+			direction[1] = resultDirectionY;
+			if (!success) {
+				return;
+			}
+			System.arraycopy(x, 0, solution.x, 0, solution.count);
+			System.arraycopy(y, 0, solution.y, 0, solution.count);
 		}
 	}
 
@@ -3105,7 +3279,7 @@ public class CellLayout extends ViewGroup {
 	 */
 	boolean findCellForSpanThatIntersectsIgnoring(int[] cellXY, int spanX,
 			int spanY, int intersectX, int intersectY, View ignoreView,
-			boolean occupied[][]) {
+			GridOccupancy occupied) {
 		// mark space take by ignoreView as available (method checks if
 		// ignoreView is null)
 		markCellsAsUnoccupiedForView(ignoreView, occupied);
@@ -3131,25 +3305,18 @@ public class CellLayout extends ViewGroup {
 						+ (spanY == 1 ? 1 : 0));
 			}
 
-			for (int y = startY; y < endY && !foundCell; y++) {
-				inner: for (int x = startX; x < endX; x++) {
-					for (int i = 0; i < spanX; i++) {
-						for (int j = 0; j < spanY; j++) {
-							if (occupied[x + i][y + j]) {
-								// small optimization: we can skip to after the
-								// column we just found
-								// an occupied cell
-								x += i;
-								continue inner;
-							}
-						}
-					}
+			// The columns in [startX, endX)
+			final long range = endX > startX ? GridOccupancy.lowBits(endX)
+					& ~GridOccupancy.lowBits(startX) : 0;
+			for (int y = startY; y < endY && !foundCell && range != 0; y++) {
+				final long origins = occupied.vacantOrigins(y, spanX, spanY)
+						& range;
+				if (origins != 0) {
 					if (cellXY != null) {
-						cellXY[0] = x;
+						cellXY[0] = Long.numberOfTrailingZeros(origins);
 						cellXY[1] = y;
 					}
 					foundCell = true;
-					break;
 				}
 			}
 			if (intersectX == -1 && intersectY == -1) {
@@ -3200,6 +3367,7 @@ public class CellLayout extends ViewGroup {
 				% mDragOutlineAnims.length;
 		revertTempState();
 		setIsDragOverlapping(false);
+		clearReorderCache();
 	}
 
 	/**
@@ -3333,28 +3501,28 @@ public class CellLayout extends ViewGroup {
 	 */
 	public boolean getVacantCell(int[] vacant, int spanX, int spanY) {
 
-		return findVacantCell(vacant, spanX, spanY, mCountX, mCountY, mOccupied);
+		return findVacantCell(vacant, spanX, spanY, mOccupied);
 	}
 
 	public static boolean findVacantCell(int[] vacant, int spanX, int spanY,
 			int xCount, int yCount, boolean[][] occupied) {
+		final GridOccupancy grid = new GridOccupancy(xCount, yCount);
+		for (int x = 0; x < xCount; x++) {
+			for (int y = 0; y < yCount; y++) {
+				grid.set(x, y, occupied[x][y]);
+			}
+		}
+		return findVacantCell(vacant, spanX, spanY, grid);
+	}
 
-		for (int y = 0; y < yCount; y++) {
-			for (int x = 0; x < xCount; x++) {
-				boolean available = !occupied[x][y];
-				out: for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
-					for (int j = y; j < y + spanY - 1 && y < yCount; j++) {
-						available = available && !occupied[i][j];
-						if (!available)
-							break out;
-					}
-				}
-
-				if (available) {
-					vacant[0] = x;
-					vacant[1] = y;
-					return true;
-				}
+	static boolean findVacantCell(int[] vacant, int spanX, int spanY,
+			GridOccupancy occupied) {
+		for (int y = 0; y < occupied.countY; y++) {
+			final long origins = occupied.vacantOrigins(y, spanX, spanY);
+			if (origins != 0) {
+				vacant[0] = Long.numberOfTrailingZeros(origins);
+				vacant[1] = y;
+				return true;
 			}
 		}
 
@@ -3362,11 +3530,7 @@ public class CellLayout extends ViewGroup {
 	}
 
 	private void clearOccupiedCells() {
-		for (int x = 0; x < mCountX; x++) {
-			for (int y = 0; y < mCountY; y++) {
-				mOccupied[x][y] = false;
-			}
-		}
+		mOccupied.clear();
 	}
 
 	public void onMove(View view, int newCellX, int newCellY, int newSpanX,
@@ -3380,7 +3544,7 @@ public class CellLayout extends ViewGroup {
 		markCellsAsOccupiedForView(view, mOccupied);
 	}
 
-	public void markCellsAsOccupiedForView(View view, boolean[][] occupied) {
+	void markCellsAsOccupiedForView(View view, GridOccupancy occupied) {
 		if (view == null || view.getParent() != mShortcutsAndWidgets)
 			return;
 		LayoutParams lp = (LayoutParams) view.getLayoutParams();
@@ -3402,7 +3566,7 @@ public class CellLayout extends ViewGroup {
 	 * 
 	 * @param view
 	 */
-	public void markCellsAsUnoccupiedForView(View view, boolean occupied[][]) {
+	void markCellsAsUnoccupiedForView(View view, GridOccupancy occupied) {
 		if (view == null || view.getParent() != mShortcutsAndWidgets)
 			return;
 		LayoutParams lp = (LayoutParams) view.getLayoutParams();
@@ -3422,18 +3586,12 @@ public class CellLayout extends ViewGroup {
 	 * @param spanY
 	 *            view的跨度y
 	 * @param occupied
-	 *            填入的是全局boolean类型的二维数组
+	 *            填入的是全局的格子占用状态
 	 * @param value
 	 */
 	private void markCellsForView(int cellX, int cellY, int spanX, int spanY,
-			boolean[][] occupied, boolean value) {
-		if (cellX < 0 || cellY < 0)
-			return;
-		for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-			for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-				occupied[x][y] = value;
-			}
-		}
+			GridOccupancy occupied, boolean value) {
+		occupied.markCells(cellX, cellY, spanX, spanY, value);
 	}
 
 	public int getDesiredWidth() {
@@ -3448,7 +3606,7 @@ public class CellLayout extends ViewGroup {
 
 	public boolean isOccupied(int x, int y) {
 		if (x < mCountX && y < mCountY) {
-			return mOccupied[x][y];
+			return mOccupied.get(x, y);
 		} else {
 			throw new RuntimeException(
 					"Position exceeds the bound of this CellLayout");
@@ -20,6 +20,7 @@ import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.animation.ObjectAnimator;
 import android.animation.PropertyValuesHolder;
+import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.PointF;
@@ -435,6 +436,16 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
         mState = STATE_SMALL;
     }
 
+    // The folder is a drop target, and scaling it doesn't cause a layout
+    private final ValueAnimator.AnimatorUpdateListener mInvalidateDropTargetBounds =
+            new ValueAnimator.AnimatorUpdateListener() {
+        public void onAnimationUpdate(ValueAnimator animation) {
+            if (mDragController != null) {
+                mDragController.invalidateDropTargetBounds();
+            }
+        }
+    };
+
     public void animateOpen() {
         positionAndSizeAsIcon();
 
@@ -465,6 +476,7 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
                 setFocusOnFirstChild();
             }
         });
+        oa.addUpdateListener(mInvalidateDropTargetBounds);
         oa.setDuration(mExpandDuration);
         setLayerType(LAYER_TYPE_HARDWARE, null);
         buildLayer();
@@ -518,6 +530,7 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
                 mState = STATE_ANIMATING;
             }
         });
+        oa.addUpdateListener(mInvalidateDropTargetBounds);
         oa.setDuration(mExpandDuration);
         setLayerType(LAYER_TYPE_HARDWARE, null);
         buildLayer();
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.widget;
+
+import java.util.Arrays;
+
+/**
+ * Which cells of a {@link CellLayout} are taken, as one bit per cell: row y is the
+ * word mRows[y], and column x is bit x of it. A span of a row is then tested with a
+ * single mask instead of cell by cell. 格子占用状态，每行一个long，第x列对应第x位。
+ */
+final class GridOccupancy {
+	/** The widest grid a row word can hold. */
+	static final int MAX_COUNT_X = Long.SIZE;
+
+	final int countX;
+	final int countY;
+	private final long[] mRows;
+	// The bits of the columns that exist
+	private final long mRowMask;
+	// Goes up on every change, so that results worked out from the grid can
+	// tell whether they still apply
+	private int mGeneration;
+
+	GridOccupancy(int countX, int countY) {
+		if (countX < 0 || countX > MAX_COUNT_X || countY < 0) {
+			throw new IllegalArgumentException("Grid of " + countX + "x"
+					+ countY + " cells is not supported");
+		}
+		this.countX = countX;
+		this.countY = countY;
+		mRows = new long[countY];
+		mRowMask = lowBits(countX);
+	}
+
+	/** Returns a word with the low n bits set. */
+	static long lowBits(int n) {
+		return n >= Long.SIZE ? -1L : (1L << n) - 1;
+	}
+
+	int getGeneration() {
+		return mGeneration;
+	}
+
+	boolean get(int x, int y) {
+		return (mRows[y] & (1L << x)) != 0;
+	}
+
+	void set(int x, int y, boolean value) {
+		mGeneration++;
+		if (value) {
+			mRows[y] |= 1L << x;
+		} else {
+			mRows[y] &= ~(1L << x);
+		}
+	}
+
+	/**
+	 * Marks a rectangle of cells. Like the old loops over the boolean arrays, the
+	 * part of the rectangle past the right or bottom edge is left out, and a
+	 * rectangle starting at a negative cell is ignored.
+	 */
+	void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
+		if (cellX < 0 || cellY < 0 || cellX >= countX || spanX <= 0) {
+			return;
+		}
+		mGeneration++;
+		final long bits = lowBits(Math.min(spanX, countX - cellX)) << cellX;
+		final int endY = Math.min(cellY + spanY, countY);
+		for (int y = cellY; y < endY; y++) {
+			if (value) {
+				mRows[y] |= bits;
+			} else {
+				mRows[y] &= ~bits;
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the given rectangle lies inside the grid and none of its cells
+	 * are taken. If block is not null, only the cells set in it (relative to the top
+	 * left of the rectangle) are looked at: this is how a group of views with holes
+	 * in it is fitted.
+	 */
+	boolean isRegionVacant(int x, int y, int spanX, int spanY,
+			GridOccupancy block) {
+		if (x < 0 || y < 0 || spanX <= 0 || spanY <= 0 || x + spanX > countX
+				|| y + spanY > countY) {
+			return false;
+		}
+		final long spanMask = lowBits(spanX);
+		for (int j = 0; j < spanY; j++) {
+			final long mask = block == null ? spanMask : block.mRows[j]
+					& spanMask;
+			if (((mRows[y + j] >>> x) & mask) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the columns x at which a spanX by spanY rectangle with its top at row y
+	 * fits without going past the grid or over a taken cell, as bit x of the result.
+	 */
+	long vacantOrigins(int y, int spanX, int spanY) {
+		if (y < 0 || spanX <= 0 || spanY <= 0 || y + spanY > countY
+				|| spanX > countX) {
+			return 0;
+		}
+		long taken = 0;
+		for (int j = y; j < y + spanY; j++) {
+			taken |= mRows[j];
+		}
+		final long free = ~taken & mRowMask;
+		// Keep the columns that are followed by spanX - 1 more free ones
+		long origins = free;
+		for (int i = 1; i < spanX && origins != 0; i++) {
+			origins &= free >>> i;
+		}
+		return origins;
+	}
+
+	void clear() {
+		mGeneration++;
+		Arrays.fill(mRows, 0);
+	}
+
+	void copyFrom(GridOccupancy other) {
+		mGeneration++;
+		System.arraycopy(other.mRows, 0, mRows, 0, mRows.length);
+	}
+}
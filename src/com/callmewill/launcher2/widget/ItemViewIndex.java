@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.widget;
+
+import android.content.ComponentName;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.callmewill.launcher2.entity.FolderInfo;
+import com.callmewill.launcher2.entity.ItemInfo;
+import com.callmewill.launcher2.entity.LauncherAppWidgetInfo;
+import com.callmewill.launcher2.entity.ShortcutInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The views bound on the workspace pages and the hotseat, by the id of their item and by the
+ * package of the app they launch or the widget they host, so that looking up an item or
+ * handling a package change only touches the views concerned rather than every child of
+ * every page. Kept up to date by {@link Workspace#addInScreen} and the removeView methods of
+ * {@link CellLayout}.
+ *
+ * Only touched on the UI thread.
+ */
+final class ItemViewIndex {
+    private final HashMap<Long, View> mViewsById = new HashMap<Long, View>();
+    // Views added before their item was written to the database, and so had no id yet. They
+    // are moved to mViewsById the next time an id is looked up.
+    private final ArrayList<View> mUnsavedViews = new ArrayList<View>();
+    private final HashMap<String, ArrayList<View>> mViewsByPackage =
+            new HashMap<String, ArrayList<View>>();
+    private final ArrayList<View> mFolderIcons = new ArrayList<View>();
+    private final ArrayList<Folder> mFolders = new ArrayList<Folder>();
+
+    void add(View view) {
+        // A view that is moved is removed from its old CellLayout first, but don't rely on it
+        remove(view);
+
+        if (view instanceof Folder) {
+            mFolders.add((Folder) view);
+            return;
+        }
+        final Object tag = view.getTag();
+        if (!(tag instanceof ItemInfo)) {
+            return;
+        }
+        final ItemInfo info = (ItemInfo) tag;
+        if (info.id == ItemInfo.NO_ID) {
+            mUnsavedViews.add(view);
+        } else {
+            mViewsById.put(info.id, view);
+        }
+        if (info instanceof FolderInfo) {
+            mFolderIcons.add(view);
+        }
+        final String packageName = getPackageName(info);
+        if (packageName != null) {
+            ArrayList<View> views = mViewsByPackage.get(packageName);
+            if (views == null) {
+                views = new ArrayList<View>(1);
+                mViewsByPackage.put(packageName, views);
+            }
+            views.add(view);
+        }
+    }
+
+    void remove(View view) {
+        if (view instanceof Folder) {
+            mFolders.remove(view);
+            return;
+        }
+        final Object tag = view.getTag();
+        if (!(tag instanceof ItemInfo)) {
+            return;
+        }
+        final ItemInfo info = (ItemInfo) tag;
+        if (!mUnsavedViews.isEmpty()) {
+            mUnsavedViews.remove(view);
+        }
+        if (info.id != ItemInfo.NO_ID && mViewsById.get(info.id) == view) {
+            mViewsById.remove(info.id);
+        }
+        if (info instanceof FolderInfo) {
+            mFolderIcons.remove(view);
+        }
+        final String packageName = getPackageName(info);
+        if (packageName != null) {
+            final ArrayList<View> views = mViewsByPackage.get(packageName);
+            if (views != null && views.remove(view) && views.isEmpty()) {
+                mViewsByPackage.remove(packageName);
+            }
+        }
+    }
+
+    /** Removes all the children of the container, which is going away or being cleared. */
+    void removeAll(ViewGroup container) {
+        final int count = container.getChildCount();
+        for (int i = 0; i < count; i++) {
+            remove(container.getChildAt(i));
+        }
+    }
+
+    /** Returns the view bound to the item with the given id, or null. */
+    View getView(long id) {
+        for (int i = mUnsavedViews.size() - 1; i >= 0; i--) {
+            final View view = mUnsavedViews.get(i);
+            final Object tag = view.getTag();
+            if (tag instanceof ItemInfo && ((ItemInfo) tag).id != ItemInfo.NO_ID) {
+                mUnsavedViews.remove(i);
+                mViewsById.put(((ItemInfo) tag).id, view);
+            }
+        }
+        return mViewsById.get(id);
+    }
+
+    /**
+     * Returns the shortcuts launching a component of the package and the widgets it provides,
+     * or null if there are none. The list belongs to the index.
+     */
+    ArrayList<View> getViewsForPackage(String packageName) {
+        return mViewsByPackage.get(packageName);
+    }
+
+    /** The folder icons, whose contents can hold items of any package. */
+    ArrayList<View> getFolderIcons() {
+        return mFolderIcons;
+    }
+
+    ArrayList<Folder> getFolders() {
+        return mFolders;
+    }
+
+    private static String getPackageName(ItemInfo info) {
+        ComponentName name = null;
+        if (info instanceof ShortcutInfo) {
+            final ShortcutInfo shortcut = (ShortcutInfo) info;
+            if (shortcut.intent != null) {
+                name = shortcut.intent.getComponent();
+            }
+        } else if (info instanceof LauncherAppWidgetInfo) {
+            name = ((LauncherAppWidgetInfo) info).providerName;
+        }
+        return name != null ? name.getPackageName() : null;
+    }
+}
@@ -50,6 +50,7 @@ public class PagedViewCellLayout extends ViewGroup implements Page {
     private int mHeightGap;
     private int mMaxGap;
     protected PagedViewCellLayoutChildren mChildren;
+    private PagedViewRecycler mRecycler;
 
     public PagedViewCellLayout(Context context) {
         this(context, null);
@@ -134,8 +135,18 @@ public class PagedViewCellLayout extends ViewGroup implements Page {
         return false;
     }
 
+    /** Sets where the children go when the page is cleared, so they can be reused. */
+    void setRecycler(PagedViewRecycler recycler) {
+        mRecycler = recycler;
+    }
+
     @Override
     public void removeAllViewsOnPage() {
+        if (mRecycler != null) {
+            for (int i = mChildren.getChildCount() - 1; i >= 0; i--) {
+                mRecycler.addScrap(mChildren.getChildAt(i));
+            }
+        }
         mChildren.removeAllViews();
         destroyHardwareLayers();
     }
@@ -32,6 +32,7 @@ public class PagedViewGridLayout extends GridLayout implements Page {
     private int mCellCountX;
     private int mCellCountY;
     private Runnable mOnLayoutListener;
+    private PagedViewRecycler mRecycler;
 
     public PagedViewGridLayout(Context context, int cellCountX, int cellCountY) {
         super(context, null, 0);
@@ -107,8 +108,18 @@ public class PagedViewGridLayout extends GridLayout implements Page {
         setLayerType(LAYER_TYPE_HARDWARE, null);
     }
 
+    /** Sets where the children go when the page is cleared, so they can be reused. */
+    void setRecycler(PagedViewRecycler recycler) {
+        mRecycler = recycler;
+    }
+
     @Override
     public void removeAllViewsOnPage() {
+        if (mRecycler != null) {
+            for (int i = getChildCount() - 1; i >= 0; i--) {
+                mRecycler.addScrap(getChildAt(i));
+            }
+        }
         removeAllViews();
         mOnLayoutListener = null;
         destroyHardwareLayer();
@@ -64,6 +64,16 @@ public class PagedViewIcon extends TextView {
         setTag(info);
     }
 
+    /**
+     * Clears the press feedback left on an icon before it is rebound to another app.
+     */
+    void prepareForReuse() {
+        mLockDrawableState = false;
+        mPressedCallback = null;
+        setPressed(false);
+        setAlpha(1f);
+    }
+
     public void lockDrawableState() {
         mLockDrawableState = true;
     }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.widget;
+
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * Scrap views taken off the pages of the AppsCustomize pane. Pages hand their
+ * PagedViewIcons and PagedViewWidgets here when they are cleared, and the next
+ * sync rebinds them instead of inflating new ones.
+ */
+class PagedViewRecycler {
+    // Enough for the pages on either side of the current one
+    private static final int MAX_SCRAP_ICONS = 96;
+    private static final int MAX_SCRAP_WIDGETS = 24;
+
+    private final ArrayList<PagedViewIcon> mScrapIcons = new ArrayList<PagedViewIcon>();
+    private final ArrayList<PagedViewWidget> mScrapWidgets = new ArrayList<PagedViewWidget>();
+
+    /**
+     * Keeps a view that is about to be removed from its page. It is only reset when it
+     * is taken out again, after it has been detached (which is when a widget item lets
+     * go of its preview).
+     */
+    void addScrap(View v) {
+        if (v instanceof PagedViewIcon) {
+            if (mScrapIcons.size() < MAX_SCRAP_ICONS) {
+                mScrapIcons.add((PagedViewIcon) v);
+            }
+        } else if (v instanceof PagedViewWidget) {
+            if (mScrapWidgets.size() < MAX_SCRAP_WIDGETS) {
+                mScrapWidgets.add((PagedViewWidget) v);
+            }
+        }
+    }
+
+    /** Returns a scrap icon to rebind, or null if there is none. */
+    PagedViewIcon getScrapIcon() {
+        final int size = mScrapIcons.size();
+        if (size == 0) {
+            return null;
+        }
+        final PagedViewIcon icon = mScrapIcons.remove(size - 1);
+        icon.prepareForReuse();
+        return icon;
+    }
+
+    /** Returns a scrap widget to rebind, or null if there is none. */
+    PagedViewWidget getScrapWidget() {
+        final int size = mScrapWidgets.size();
+        if (size == 0) {
+            return null;
+        }
+        final PagedViewWidget widget = mScrapWidgets.remove(size - 1);
+        widget.prepareForReuse();
+        return widget;
+    }
+
+    void clear() {
+        mScrapIcons.clear();
+        mScrapWidgets.clear();
+    }
+}
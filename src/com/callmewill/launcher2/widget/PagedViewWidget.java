@@ -89,12 +89,10 @@ public class PagedViewWidget extends LinearLayout {
         super.onDetachedFromWindow();
 
         if (sDeletePreviewsWhenDetachedFromWindow) {
+            // The preview bitmap is shared with the WidgetPreviewCache, so it is only let go
+            // of here, not recycled
             final ImageView image = (ImageView) findViewById(R.id.widget_preview);
             if (image != null) {
-                FastBitmapDrawable preview = (FastBitmapDrawable) image.getDrawable();
-                if (preview != null && preview.getBitmap() != null) {
-                    preview.getBitmap().recycle();
-                }
                 image.setImageDrawable(null);
             }
         }
@@ -131,6 +129,25 @@ public class PagedViewWidget extends LinearLayout {
         }
     }
 
+    /**
+     * Drops the preview and listener of a widget item before it is rebound to another
+     * widget or shortcut.
+     */
+    void prepareForReuse() {
+        removeShortPressCallback();
+        mShortPressListener = null;
+        mShortPressTriggered = false;
+        setPressed(false);
+        final ImageView image = (ImageView) findViewById(R.id.widget_preview);
+        if (image != null) {
+            // Still set if previews were kept on detach (during a drag); the bitmap
+            // belongs to whoever kept it
+            image.setImageDrawable(null);
+            image.setPadding(mOriginalImagePadding.left, mOriginalImagePadding.top,
+                    mOriginalImagePadding.right, mOriginalImagePadding.bottom);
+        }
+    }
+
     public int[] getPreviewSize() {
         final ImageView i = (ImageView) findViewById(R.id.widget_preview);
         int[] maxSize = new int[2];
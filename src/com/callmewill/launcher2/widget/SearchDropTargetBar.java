@@ -19,6 +19,7 @@ package com.callmewill.launcher2.widget;
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.animation.ObjectAnimator;
+import android.animation.ValueAnimator;
 import android.content.Context;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
@@ -56,6 +57,7 @@ public class SearchDropTargetBar extends FrameLayout implements DragController.D
     private View mDropTargetBar;
     private ButtonDropTarget mInfoDropTarget;
     private ButtonDropTarget mDeleteDropTarget;
+    private DragController mDragController;
     private int mBarHeight;
     private boolean mDeferOnDragEnd = false;
 
@@ -71,6 +73,7 @@ public class SearchDropTargetBar extends FrameLayout implements DragController.D
     }
 
     public void setup(Launcher launcher, DragController dragController) {
+        mDragController = dragController;
         dragController.addDragListener(this);
         dragController.addDragListener(mInfoDropTarget);
         dragController.addDragListener(mDeleteDropTarget);
@@ -130,6 +133,14 @@ public class SearchDropTargetBar extends FrameLayout implements DragController.D
         }
         setupAnimation(mDropTargetBarAnim, mDropTargetBar);
         setupAnimation(mQSBSearchBarAnim, mQSBSearchBar);
+        // The drop targets move with the bar without a layout
+        mDropTargetBarAnim.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            public void onAnimationUpdate(ValueAnimator animation) {
+                if (mDragController != null) {
+                    mDragController.invalidateDropTargetBounds();
+                }
+            }
+        });
     }
 
     public void finishAnimations() {
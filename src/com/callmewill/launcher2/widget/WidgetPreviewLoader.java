@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.widget;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the previews of the widgets tab one item at a time on a small pool of its own.
+ * Each idle loader thread takes the queued item closest to the page being scrolled to
+ * (pages past it in the scroll direction win ties), so a fling re-orders what is left
+ * without restarting anything, and cancelling a page just drops its items.
+ *
+ * Everything but {@link Callbacks#loadPreview} is called on the main thread.
+ *
+ * How long pages take to load is kept track of, and printed by {@link #dumpState}.
+ */
+class WidgetPreviewLoader {
+    private static final String TAG = "Launcher.WidgetPreviewLoader";
+
+    // Leave a core for the UI thread
+    private static final int LOADER_THREADS = Math.max(1,
+            Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            LOADER_THREADS, LOADER_THREADS, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "launcher-preview-loader-" + mCount.getAndIncrement());
+                }
+            });
+    static {
+        // allowCoreThreadTimeOut() is API 9. Before that the threads just stay.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    interface Callbacks {
+        /** Makes the preview of an item. Called on a loader thread. */
+        Bitmap loadPreview(Item item);
+        /** Puts a loaded preview on its page. */
+        void bindPreview(Item item, Bitmap preview);
+        /** Called once every preview of a page has been bound. */
+        void onPageLoaded(int page);
+    }
+
+    /**
+     * The preview of one widget or shortcut on a page.
+     */
+    static class Item {
+        final int page;
+        final int index;
+        final Object info;
+        final int maxWidth;
+        final int maxHeight;
+        // Set when the page is cancelled; the loader thread may be making it already
+        volatile boolean cancelled;
+
+        Item(int page, int index, Object info, int maxWidth, int maxHeight) {
+            this.page = page;
+            this.index = index;
+            this.info = info;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+        }
+    }
+
+    /** The items of a page that have not been bound yet. */
+    private static class PageLoad {
+        final ArrayList<Item> items;
+        final long startTime = SystemClock.uptimeMillis();
+        long firstPreviewTime;
+        // Time the loader threads spent making the previews bound so far
+        long loadMillis;
+        int remaining;
+
+        PageLoad(ArrayList<Item> items) {
+            this.items = items;
+            remaining = items.size();
+        }
+    }
+
+    private final Callbacks mCallbacks;
+    private final Handler mHandler = new Handler();
+    private final SparseArray<PageLoad> mPages = new SparseArray<PageLoad>();
+
+    // Guarded by mQueue
+    private final ArrayList<Item> mQueue = new ArrayList<Item>();
+    private int mTargetPage;
+    private int mDirection;
+    private int mActiveWorkers;
+
+    // Totals over the pages that finished loading, for dumpState()
+    private int mPagesLoaded;
+    private int mPreviewsLoaded;
+    private long mFirstPreviewMillis;
+    private long mPageMillis;
+    private long mLoadMillis;
+
+    private final Runnable mWorker = new Runnable() {
+        public void run() {
+            boolean drained = false;
+            try {
+                Item item;
+                while ((item = takeNext()) != null) {
+                    if (item.cancelled) continue;
+                    final Item loaded = item;
+                    final long start = SystemClock.uptimeMillis();
+                    Bitmap preview = null;
+                    try {
+                        preview = mCallbacks.loadPreview(loaded);
+                    } catch (RuntimeException e) {
+                        // A broken package only costs its own preview
+                        Log.w(TAG, "Could not load the preview of " + loaded.info, e);
+                    }
+                    final Bitmap result = preview;
+                    final long loadMillis = SystemClock.uptimeMillis() - start;
+                    mHandler.post(new Runnable() {
+                        public void run() {
+                            deliver(loaded, result, loadMillis);
+                        }
+                    });
+                }
+                drained = true;
+            } finally {
+                // takeNext() only counts this worker out when the queue is empty
+                if (!drained) {
+                    synchronized (mQueue) {
+                        mActiveWorkers--;
+                    }
+                }
+            }
+        }
+    };
+
+    WidgetPreviewLoader(Callbacks callbacks) {
+        mCallbacks = callbacks;
+    }
+
+    /**
+     * Sets the page that items are ordered around, and the direction the pages are
+     * scrolling in (-1, 0 or 1). Applies to everything still queued.
+     */
+    void setTargetPage(int page, int direction) {
+        synchronized (mQueue) {
+            mTargetPage = page;
+            mDirection = direction;
+        }
+    }
+
+    /** Queues the previews of a page, replacing any that are still queued for it. */
+    void loadPage(int page, ArrayList<Item> items) {
+        cancelPage(page);
+        if (items.isEmpty()) {
+            return;
+        }
+        mPages.put(page, new PageLoad(items));
+        synchronized (mQueue) {
+            mQueue.addAll(items);
+            while (mActiveWorkers < LOADER_THREADS && mActiveWorkers < mQueue.size()) {
+                mActiveWorkers++;
+                sExecutor.execute(mWorker);
+            }
+        }
+    }
+
+    boolean isLoading(int page) {
+        return mPages.get(page) != null;
+    }
+
+    void cancelPage(int page) {
+        final PageLoad load = mPages.get(page);
+        if (load == null) {
+            return;
+        }
+        mPages.remove(page);
+        for (Item item : load.items) {
+            item.cancelled = true;
+        }
+        synchronized (mQueue) {
+            mQueue.removeAll(load.items);
+        }
+    }
+
+    /** Cancels the pages outside of [lower, upper]. */
+    void cancelPagesOutside(int lower, int upper) {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            final int page = mPages.keyAt(i);
+            if (page < lower || page > upper) {
+                cancelPage(page);
+            }
+        }
+    }
+
+    /** Cancels every page, and returns the ones that had not finished loading. */
+    ArrayList<Integer> cancelAll() {
+        final ArrayList<Integer> pages = new ArrayList<Integer>(mPages.size());
+        for (int i = 0; i < mPages.size(); i++) {
+            pages.add(mPages.keyAt(i));
+        }
+        for (int page : pages) {
+            cancelPage(page);
+        }
+        return pages;
+    }
+
+    private Item takeNext() {
+        synchronized (mQueue) {
+            final int count = mQueue.size();
+            if (count == 0) {
+                mActiveWorkers--;
+                return null;
+            }
+            int best = 0;
+            int bestRank = rankLocked(mQueue.get(0));
+            for (int i = 1; i < count; i++) {
+                final int rank = rankLocked(mQueue.get(i));
+                if (rank < bestRank) {
+                    best = i;
+                    bestRank = rank;
+                }
+            }
+            return mQueue.remove(best);
+        }
+    }
+
+    /**
+     * Lower goes first: by distance from the target page, then pages ahead of the
+     * scroll before those behind it, then by position on the page.
+     */
+    private int rankLocked(Item item) {
+        final int offset = item.page - mTargetPage;
+        final boolean behind = mDirection != 0 && offset != 0
+                && (offset < 0) == (mDirection > 0);
+        return ((Math.abs(offset) * 2 + (behind ? 1 : 0)) << 16) + item.index;
+    }
+
+    private void deliver(Item item, Bitmap preview, long loadMillis) {
+        if (item.cancelled) {
+            return;
+        }
+        final PageLoad load = mPages.get(item.page);
+        if (load == null) {
+            return;
+        }
+        if (load.firstPreviewTime == 0) {
+            load.firstPreviewTime = SystemClock.uptimeMillis();
+        }
+        load.loadMillis += loadMillis;
+        mCallbacks.bindPreview(item, preview);
+        if (--load.remaining == 0) {
+            mPages.remove(item.page);
+            mPagesLoaded++;
+            mPreviewsLoaded += load.items.size();
+            mFirstPreviewMillis += load.firstPreviewTime - load.startTime;
+            mPageMillis += SystemClock.uptimeMillis() - load.startTime;
+            mLoadMillis += load.loadMillis;
+            mCallbacks.onPageLoaded(item.page);
+        }
+    }
+
+    /** Logs the average time to the first and to the last preview of a page. */
+    void dumpState() {
+        if (mPagesLoaded == 0) {
+            Log.d(TAG, "no pages loaded");
+            return;
+        }
+        Log.d(TAG, mPagesLoaded + " pages loaded: first preview after "
+                + mFirstPreviewMillis / mPagesLoaded + "ms, all after "
+                + mPageMillis / mPagesLoaded + "ms on average; "
+                + mLoadMillis / mPreviewsLoaded + "ms of loader time per preview");
+    }
+}
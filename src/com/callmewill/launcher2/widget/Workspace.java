@@ -74,6 +74,8 @@ import com.callmewill.launcher2.OnAlarmListener;
 import com.callmewill.launcher2.R;
 import com.callmewill.launcher2.SpringLoadedDragController;
 import com.callmewill.launcher2.cache.IconCache;
+import com.callmewill.launcher2.cache.PagedViewIconCache;
+import com.callmewill.launcher2.drawable.FastBitmapDrawable;
 import com.callmewill.launcher2.entity.ApplicationInfo;
 import com.callmewill.launcher2.entity.FolderInfo;
 import com.callmewill.launcher2.entity.ItemInfo;
@@ -164,6 +166,7 @@ public class Workspace extends SmoothPagedView
 
     private Launcher mLauncher;
     private IconCache mIconCache;
+    private PagedViewIconCache mOutlineCache;
     private DragController mDragController;
 
     // These are temporary variables to prevent having to allocate a new object just to
@@ -174,6 +177,10 @@ public class Workspace extends SmoothPagedView
     private float[] mTempDragCoordinates = new float[2];
     private float[] mTempCellLayoutCenterCoordinates = new float[2];
     private float[] mTempDragBottomRightCoordinates = new float[2];
+    private float[] mTempTouchCoordinates = new float[2];
+
+    // The views on the pages and in the hotseat by item id and package
+    private final ItemViewIndex mItemViewIndex = new ItemViewIndex();
     private Matrix mTempInverseMatrix = new Matrix();
 
     private SpringLoadedDragController mSpringLoadedDragController;
@@ -440,6 +447,7 @@ public class Workspace extends SmoothPagedView
         Launcher.setScreen(mCurrentPage);
         LauncherApplication app = (LauncherApplication)context.getApplicationContext();
         mIconCache = app.getIconCache();
+        mOutlineCache = app.getOutlineCache();
         setWillNotDraw(false);
         setChildrenDrawnWithCacheEnabled(true);
 
@@ -475,10 +483,14 @@ public class Workspace extends SmoothPagedView
         cl.setClickable(true);
         cl.setContentDescription(getContext().getString(
                 R.string.workspace_description_format, getChildCount()));
+        cl.setItemViewIndex(mItemViewIndex);
     }
 
     @Override
     public void onChildViewRemoved(View parent, View child) {
+        CellLayout cl = ((CellLayout) child);
+        mItemViewIndex.removeAll(cl.getShortcutsAndWidgets());
+        cl.setItemViewIndex(null);
     }
 
     protected boolean shouldDrawChild(View child) {
@@ -598,6 +610,8 @@ public class Workspace extends SmoothPagedView
             // outside of the defined grid
             // maybe we should be deleting these items from the LauncherModel?
             Log.w(TAG, "Failed to add to item at (" + lp.cellX + "," + lp.cellY + ") to CellLayout");
+        } else {
+            mItemViewIndex.add(child);
         }
 
         if (!(child instanceof Folder)) {
@@ -1602,8 +1616,8 @@ public class Workspace extends SmoothPagedView
         int[] size = estimateItemSize(info.spanX, info.spanY, info, false);
 
         // The outline is used to visualize where the item will land if dropped
-        mDragOutline = createDragOutline(b, canvas, DRAG_BITMAP_PADDING, size[0],
-                size[1], clipAlpha);
+        mDragOutline = createDragOutline(info.componentName, b, canvas, DRAG_BITMAP_PADDING,
+                size[0], size[1], clipAlpha);
     }
 
     public void exitWidgetResizeMode() {
@@ -1905,32 +1919,78 @@ public class Workspace extends SmoothPagedView
     }
 
     /**
-     * Returns a new bitmap to be used as the object outline, e.g. to visualize the drop location.
-     * Responsibility for the bitmap is transferred to the caller.
-     * 为调用者创建一个新的轮廓位图。如可视化的放置位置
+     * Returns a bitmap to be used as the object outline, e.g. to visualize the drop location.
+     * Outlines of app and shortcut icons are cached, so the bitmap must not be drawn into or
+     * recycled.
+     * 为调用者创建一个轮廓位图。如可视化的放置位置
      */
     private Bitmap createDragOutline(View v, Canvas canvas, int padding) {
     	//设置线的颜色
         final int outlineColor = getResources().getColor(android.R.color.black);
+        final int width = v.getWidth() + padding;
+        final int height = v.getHeight() + padding;
+        final PagedViewIconCache.Key key = getIconOutlineKey(v, width, height, outlineColor);
+        if (key != null) {
+            final Bitmap cached = mOutlineCache.getOutline(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
         //创建外框
-        final Bitmap b = Bitmap.createBitmap(
-                v.getWidth() + padding, v.getHeight() + padding, Bitmap.Config.ARGB_8888);
+        final Bitmap b = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         canvas.setBitmap(b);
         //绘制View至画布
         drawDragView(v, canvas, padding, true);
         mOutlineHelper.applyMediumExpensiveOutlineWithBlur(b, canvas, outlineColor, outlineColor);
         canvas.setBitmap(null);
+        if (key != null) {
+            mOutlineCache.addOutline(key, b);
+        }
         return b;
     }
 
     /**
-     * Returns a new bitmap to be used as the object outline, e.g. to visualize the drop location.
-     * Responsibility for the bitmap is transferred to the caller.
-     * 返回一个新的位图用来作为目标的轮廓，如可视化的放置位置
+     * Returns the key the drag outline of an app or shortcut icon is cached under, or null if
+     * v is anything else. Such an outline is drawn from the icon bitmap alone.
+     */
+    private PagedViewIconCache.Key getIconOutlineKey(View v, int width, int height,
+            int outlineColor) {
+        if (!(v instanceof TextView)) {
+            return null;
+        }
+        final Drawable d = ((TextView) v).getCompoundDrawables()[1];
+        if (!(d instanceof FastBitmapDrawable)) {
+            return null;
+        }
+        final Object tag = v.getTag();
+        ComponentName component = null;
+        if (tag instanceof ApplicationInfo) {
+            component = ((ApplicationInfo) tag).componentName;
+        } else if (tag instanceof ShortcutInfo && ((ShortcutInfo) tag).intent != null) {
+            component = ((ShortcutInfo) tag).intent.getComponent();
+        }
+        if (component == null) {
+            return null;
+        }
+        return new PagedViewIconCache.Key(component, PagedViewIconCache.Key.Type.DragOutlineKey,
+                ((FastBitmapDrawable) d).getBitmap(), width, height, outlineColor, outlineColor);
+    }
+
+    /**
+     * Returns a bitmap to be used as the object outline, e.g. to visualize the drop location.
+     * The outline is cached for the component, so it must not be drawn into or recycled.
+     * 返回一个位图用来作为目标的轮廓，如可视化的放置位置
      */
-    private Bitmap createDragOutline(Bitmap orig, Canvas canvas, int padding, int w, int h,
-            boolean clipAlpha) {
+    private Bitmap createDragOutline(ComponentName component, Bitmap orig, Canvas canvas,
+            int padding, int w, int h, boolean clipAlpha) {
         final int outlineColor = getResources().getColor(android.R.color.holo_blue_light);
+        final PagedViewIconCache.Key key = new PagedViewIconCache.Key(component,
+                PagedViewIconCache.Key.Type.DragOutlineKey, null, w, h, outlineColor,
+                outlineColor);
+        final Bitmap cached = mOutlineCache.getOutline(key);
+        if (cached != null) {
+            return cached;
+        }
         final Bitmap b = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
         canvas.setBitmap(b);
 
@@ -1949,6 +2009,7 @@ public class Workspace extends SmoothPagedView
                 clipAlpha);
         canvas.setBitmap(null);
 
+        mOutlineCache.addOutline(key, b);
         return b;
     }
 
@@ -2669,8 +2730,12 @@ public class Workspace extends SmoothPagedView
     */
    void mapPointFromSelfToChild(View v, float[] xy, Matrix cachedInverseMatrix) {
        if (cachedInverseMatrix == null) {
-           v.getMatrix().invert(mTempInverseMatrix);
-           cachedInverseMatrix = mTempInverseMatrix;
+           if (v instanceof CellLayout) {
+               cachedInverseMatrix = ((CellLayout) v).getInverseMatrix();
+           } else {
+               v.getMatrix().invert(mTempInverseMatrix);
+               cachedInverseMatrix = mTempInverseMatrix;
+           }
        }
        int scrollX = getScrollX();
        if (mNextPage != INVALID_PAGE) {
@@ -2761,20 +2826,25 @@ public class Workspace extends SmoothPagedView
      */
     private CellLayout findMatchingPageForDragOver(
             DragView dragView, float originX, float originY, boolean exact) {
-        // We loop through all the screens (ie CellLayouts) and see which ones overlap
-        // with the item being dragged and then choose the one that's closest to the touch point
-        final int screenCount = getChildCount();
+        // We loop through the screens (ie CellLayouts) that are on screen and see which ones
+        // overlap with the item being dragged and then choose the one that's closest to the
+        // touch point. Pages that aren't visible can't be under the touch point, and the
+        // nearest visible page is always closer than they are.
+        getVisiblePages(mTempVisiblePagesRange);
+        final int leftScreen = mTempVisiblePagesRange[0];
+        final int rightScreen = mTempVisiblePagesRange[1];
         CellLayout bestMatchingScreen = null;
         float smallestDistSoFar = Float.MAX_VALUE;
+        final float[] touchXy = mTempTouchCoordinates;
 
-        for (int i = 0; i < screenCount; i++) {
+        for (int i = leftScreen; i <= rightScreen && i >= 0; i++) {
             CellLayout cl = (CellLayout) getChildAt(i);
 
-            final float[] touchXy = {originX, originY};
+            touchXy[0] = originX;
+            touchXy[1] = originY;
             // Transform the touch coordinates to the CellLayout's local coordinates
             // If the touch point is within the bounds of the cell layout, we can return immediately
-            cl.getMatrix().invert(mTempInverseMatrix);
-            mapPointFromSelfToChild(cl, touchXy, mTempInverseMatrix);
+            mapPointFromSelfToChild(cl, touchXy, cl.getInverseMatrix());
 
             if (touchXy[0] >= 0 && touchXy[0] <= cl.getWidth() &&
                     touchXy[1] >= 0 && touchXy[1] <= cl.getHeight()) {
@@ -3456,6 +3526,9 @@ public class Workspace extends SmoothPagedView
     public void setup(DragController dragController) {
         mSpringLoadedDragController = new SpringLoadedDragController(mLauncher);
         mDragController = dragController;
+        if (mLauncher.getHotseat() != null) {
+            mLauncher.getHotseat().getLayout().setItemViewIndex(mItemViewIndex);
+        }
 
         // hardware layers on children are enabled on startup, but should be disabled until
         // needed
@@ -3697,24 +3770,23 @@ public class Workspace extends SmoothPagedView
     }
 
     public Folder getFolderForTag(Object tag) {
-        ArrayList<ShortcutAndWidgetContainer> childrenLayouts =
-                getAllShortcutAndWidgetContainers();
-        for (ShortcutAndWidgetContainer layout: childrenLayouts) {
-            int count = layout.getChildCount();
-            for (int i = 0; i < count; i++) {
-                View child = layout.getChildAt(i);
-                if (child instanceof Folder) {
-                    Folder f = (Folder) child;
-                    if (f.getInfo() == tag && f.getInfo().opened) {
-                        return f;
-                    }
-                }
+        ArrayList<Folder> folders = mItemViewIndex.getFolders();
+        int count = folders.size();
+        for (int i = 0; i < count; i++) {
+            Folder f = folders.get(i);
+            if (f.getInfo() == tag && f.getInfo().opened) {
+                return f;
             }
         }
         return null;
     }
 
     public View getViewForTag(Object tag) {
+        if (tag instanceof ItemInfo && ((ItemInfo) tag).id != ItemInfo.NO_ID) {
+            View child = mItemViewIndex.getView(((ItemInfo) tag).id);
+            return (child != null && child.getTag() == tag) ? child : null;
+        }
+        // Only items have views in the index
         ArrayList<ShortcutAndWidgetContainer> childrenLayouts =
                 getAllShortcutAndWidgetContainers();
         for (ShortcutAndWidgetContainer layout: childrenLayouts) {
@@ -3747,84 +3819,55 @@ public class Workspace extends SmoothPagedView
         final HashSet<String> packageNames = new HashSet<String>();
         packageNames.addAll(packages);
 
-        ArrayList<CellLayout> cellLayouts = getWorkspaceAndHotseatCellLayouts();
-        for (final CellLayout layoutParent: cellLayouts) {
-            final ViewGroup layout = layoutParent.getShortcutsAndWidgets();
-
-            // Avoid ANRs by treating each screen separately
-            post(new Runnable() {
-                public void run() {
-                    final ArrayList<View> childrenToRemove = new ArrayList<View>();
-                    childrenToRemove.clear();
-
-                    int childCount = layout.getChildCount();
+        post(new Runnable() {
+            public void run() {
+                final ArrayList<View> childrenToRemove = new ArrayList<View>();
+
+                // Only the shortcuts and widgets of these packages are looked at, rather than
+                // every view on every screen
+                for (String packageName : packageNames) {
+                    final ArrayList<View> views = mItemViewIndex.getViewsForPackage(packageName);
+                    if (views == null) {
+                        continue;
+                    }
+                    int childCount = views.size();
                     for (int j = 0; j < childCount; j++) {
-                        final View view = layout.getChildAt(j);
-                        Object tag = view.getTag();
-
-                        if (tag instanceof ShortcutInfo) {
-                            final ShortcutInfo info = (ShortcutInfo) tag;
-                            final Intent intent = info.intent;
-                            final ComponentName name = intent.getComponent();
-
-                            if (name != null) {
-                                if (packageNames.contains(name.getPackageName())) {
-                                    LauncherModel.deleteItemFromDatabase(mLauncher, info);
-                                    childrenToRemove.add(view);
-                                }
-                            }
-                        } else if (tag instanceof FolderInfo) {
-                            final FolderInfo info = (FolderInfo) tag;
-                            final ArrayList<ShortcutInfo> contents = info.contents;
-                            final int contentsCount = contents.size();
-                            final ArrayList<ShortcutInfo> appsToRemoveFromFolder =
-                                    new ArrayList<ShortcutInfo>();
-
-                            for (int k = 0; k < contentsCount; k++) {
-                                final ShortcutInfo appInfo = contents.get(k);
-                                final Intent intent = appInfo.intent;
-                                final ComponentName name = intent.getComponent();
-
-                                if (name != null) {
-                                    if (packageNames.contains(name.getPackageName())) {
-                                        appsToRemoveFromFolder.add(appInfo);
-                                    }
-                                }
-                            }
-                            for (ShortcutInfo item: appsToRemoveFromFolder) {
-                                info.remove(item);
-                                LauncherModel.deleteItemFromDatabase(mLauncher, item);
-                            }
-                        } else if (tag instanceof LauncherAppWidgetInfo) {
-                            final LauncherAppWidgetInfo info = (LauncherAppWidgetInfo) tag;
-                            final ComponentName provider = info.providerName;
-                            if (provider != null) {
-                                if (packageNames.contains(provider.getPackageName())) {
-                                    LauncherModel.deleteItemFromDatabase(mLauncher, info);
-                                    childrenToRemove.add(view);
-                                }
-                            }
-                        }
+                        final View view = views.get(j);
+                        LauncherModel.deleteItemFromDatabase(mLauncher, (ItemInfo) view.getTag());
+                        childrenToRemove.add(view);
                     }
+                }
 
-                    childCount = childrenToRemove.size();
-                    for (int j = 0; j < childCount; j++) {
-                        View child = childrenToRemove.get(j);
-                        // Note: We can not remove the view directly from CellLayoutChildren as this
-                        // does not re-mark the spaces as unoccupied.
-                        layoutParent.removeViewInLayout(child);
-                        if (child instanceof DropTarget) {
-                            mDragController.removeDropTarget((DropTarget)child);
+                // Folders can hold shortcuts of any package
+                final ArrayList<View> folderIcons = mItemViewIndex.getFolderIcons();
+                int folderCount = folderIcons.size();
+                for (int j = 0; j < folderCount; j++) {
+                    final FolderInfo info = (FolderInfo) folderIcons.get(j).getTag();
+                    final ArrayList<ShortcutInfo> contents = info.contents;
+                    final int contentsCount = contents.size();
+                    final ArrayList<ShortcutInfo> appsToRemoveFromFolder =
+                            new ArrayList<ShortcutInfo>();
+
+                    for (int k = 0; k < contentsCount; k++) {
+                        final ShortcutInfo appInfo = contents.get(k);
+                        final Intent intent = appInfo.intent;
+                        final ComponentName name = intent.getComponent();
+
+                        if (name != null) {
+                            if (packageNames.contains(name.getPackageName())) {
+                                appsToRemoveFromFolder.add(appInfo);
+                            }
                         }
                     }
-
-                    if (childCount > 0) {
-                        layout.requestLayout();
-                        layout.invalidate();
+                    for (ShortcutInfo item: appsToRemoveFromFolder) {
+                        info.remove(item);
+                        LauncherModel.deleteItemFromDatabase(mLauncher, item);
                     }
                 }
-            });
-        }
+
+                removeItemViews(childrenToRemove);
+            }
+        });
 
         // Clean up new-apps animation list
         final Context context = getContext();
@@ -3865,12 +3908,75 @@ public class Workspace extends SmoothPagedView
         });
     }
 
+    /**
+     * Removes the views of the given items, and the given items from their folders. Unlike
+     * {@link #removeItems(ArrayList)} this leaves the database alone, the items are already
+     * gone from it.
+     */
+    public void removeItemsById(final HashSet<Long> ids) {
+        final ArrayList<View> childrenToRemove = new ArrayList<View>();
+        for (Long id : ids) {
+            final View view = mItemViewIndex.getView(id);
+            if (view != null) {
+                childrenToRemove.add(view);
+            }
+        }
+
+        final ArrayList<View> folderIcons = mItemViewIndex.getFolderIcons();
+        int folderCount = folderIcons.size();
+        for (int j = 0; j < folderCount; j++) {
+            final FolderInfo info = (FolderInfo) folderIcons.get(j).getTag();
+            if (ids.contains(info.id)) {
+                continue;
+            }
+            final ArrayList<ShortcutInfo> appsToRemoveFromFolder =
+                    new ArrayList<ShortcutInfo>();
+            for (ShortcutInfo item : info.contents) {
+                if (ids.contains(item.id)) {
+                    appsToRemoveFromFolder.add(item);
+                }
+            }
+            for (ShortcutInfo item: appsToRemoveFromFolder) {
+                info.remove(item);
+            }
+        }
+
+        removeItemViews(childrenToRemove);
+    }
+
+    private void removeItemViews(ArrayList<View> childrenToRemove) {
+        int childCount = childrenToRemove.size();
+        for (int j = 0; j < childCount; j++) {
+            View child = childrenToRemove.get(j);
+            final ViewGroup layout = (ViewGroup) child.getParent();
+            if (layout == null) {
+                continue;
+            }
+            final CellLayout layoutParent = (CellLayout) layout.getParent();
+            // Note: We can not remove the view directly from CellLayoutChildren as this
+            // does not re-mark the spaces as unoccupied.
+            layoutParent.removeViewInLayout(child);
+            if (child instanceof DropTarget) {
+                mDragController.removeDropTarget((DropTarget)child);
+            }
+            layout.requestLayout();
+            layout.invalidate();
+        }
+    }
+
     public void updateShortcuts(ArrayList<ApplicationInfo> apps) {
-        ArrayList<ShortcutAndWidgetContainer> childrenLayouts = getAllShortcutAndWidgetContainers();
-        for (ShortcutAndWidgetContainer layout: childrenLayouts) {
-            int childCount = layout.getChildCount();
+        final int appCount = apps.size();
+        for (int k = 0; k < appCount; k++) {
+            ApplicationInfo app = apps.get(k);
+            // Only shortcuts into the app's own package can launch it
+            final ArrayList<View> views =
+                    mItemViewIndex.getViewsForPackage(app.componentName.getPackageName());
+            if (views == null) {
+                continue;
+            }
+            int childCount = views.size();
             for (int j = 0; j < childCount; j++) {
-                final View view = layout.getChildAt(j);
+                final View view = views.get(j);
                 Object tag = view.getTag();
                 if (tag instanceof ShortcutInfo) {
                     ShortcutInfo info = (ShortcutInfo) tag;
@@ -3880,17 +3986,19 @@ public class Workspace extends SmoothPagedView
                     final Intent intent = info.intent;
                     final ComponentName name = intent.getComponent();
                     if (info.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION &&
-                            Intent.ACTION_MAIN.equals(intent.getAction()) && name != null) {
-                        final int appCount = apps.size();
-                        for (int k = 0; k < appCount; k++) {
-                            ApplicationInfo app = apps.get(k);
-                            if (app.componentName.equals(name)) {
-                                BubbleTextView shortcut = (BubbleTextView) view;
-                                info.updateIcon(mIconCache);
-                                info.title = app.title.toString();
-                                shortcut.applyFromShortcutInfo(info, mIconCache);
-                            }
+                            Intent.ACTION_MAIN.equals(intent.getAction()) &&
+                            app.componentName.equals(name)) {
+                        BubbleTextView shortcut = (BubbleTextView) view;
+                        // The worker made the app's new icon, so don't go to the
+                        // IconCache (and maybe its disk store) for it on the UI thread
+                        if (app.iconBitmap != null) {
+                            info.setIcon(app.iconBitmap);
+                            info.usingFallbackIcon = mIconCache.isDefaultIcon(app.iconBitmap);
+                        } else {
+                            info.updateIcon(mIconCache);
                         }
+                        info.title = app.title.toString();
+                        shortcut.applyFromShortcutInfo(info, mIconCache);
                     }
                 }
             }
@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Loading, updating and removing 1,000 apps with the component and package indexes of
+ * {@link AllAppsList}, against the linear scans it did before. Runs on a plain JVM:
+ *
+ *   javac -encoding UTF-8 -d /tmp/t \
+ *       tests/src/com/callmewill/launcher2/AllAppsListBenchmark.java
+ *   java -cp /tmp/t com.callmewill.launcher2.AllAppsListBenchmark
+ *
+ * AllAppsList needs the package manager and ApplicationInfo needs android.content, neither
+ * of which runs off the device, so both versions of its add, removePackage and
+ * updatePackage are transcribed here over stand-ins: a component with the equals and
+ * hashCode of ComponentName, and the activity names a package manager query returns. The
+ * icon cache calls are left out. After every step the two versions are checked to hold the
+ * same data, added, modified and removed apps. Exits with status 1 if a check fails.
+ */
+public class AllAppsListBenchmark {
+    private static final int APPS = 1000;
+    private static final int ROUNDS = 20;
+
+    private static int sFailures;
+
+    /** Stands in for ComponentName. */
+    private static final class Component {
+        final String packageName;
+        final String className;
+
+        Component(String packageName, String className) {
+            this.packageName = packageName;
+            this.className = className;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Component)) {
+                return false;
+            }
+            final Component other = (Component) o;
+            return packageName.equals(other.packageName) && className.equals(other.className);
+        }
+
+        @Override
+        public int hashCode() {
+            return packageName.hashCode() + className.hashCode();
+        }
+    }
+
+    /** Stands in for ApplicationInfo. */
+    private static final class App {
+        final Component componentName;
+
+        App(Component componentName) {
+            this.componentName = componentName;
+        }
+    }
+
+    private abstract static class Apps {
+        final ArrayList<App> data = new ArrayList<App>();
+        final ArrayList<App> added = new ArrayList<App>();
+        final ArrayList<App> removed = new ArrayList<App>();
+        final ArrayList<App> modified = new ArrayList<App>();
+
+        abstract void add(App info);
+
+        abstract void removePackage(String packageName);
+
+        /** activities are the class names the package manager now has for the package. */
+        abstract void updatePackage(String packageName, List<String> activities);
+    }
+
+    /** AllAppsList before the indexes. */
+    private static class LinearApps extends Apps {
+        void add(App info) {
+            if (findActivity(data, info.componentName)) {
+                return;
+            }
+            data.add(info);
+            added.add(info);
+        }
+
+        void removePackage(String packageName) {
+            for (int i = data.size() - 1; i >= 0; i--) {
+                final App info = data.get(i);
+                if (packageName.equals(info.componentName.packageName)) {
+                    removed.add(info);
+                    data.remove(i);
+                }
+            }
+        }
+
+        void updatePackage(String packageName, List<String> activities) {
+            if (activities.size() > 0) {
+                for (int i = data.size() - 1; i >= 0; i--) {
+                    final App info = data.get(i);
+                    final Component component = info.componentName;
+                    if (packageName.equals(component.packageName)
+                            && !activities.contains(component.className)) {
+                        removed.add(info);
+                        data.remove(i);
+                    }
+                }
+                for (String activity : activities) {
+                    final App info = findApplicationInfo(packageName, activity);
+                    if (info == null) {
+                        add(new App(new Component(packageName, activity)));
+                    } else {
+                        modified.add(info);
+                    }
+                }
+            } else {
+                removePackage(packageName);
+            }
+        }
+
+        private static boolean findActivity(ArrayList<App> apps, Component component) {
+            final int N = apps.size();
+            for (int i = 0; i < N; i++) {
+                if (apps.get(i).componentName.equals(component)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private App findApplicationInfo(String packageName, String className) {
+            for (App info : data) {
+                final Component component = info.componentName;
+                if (packageName.equals(component.packageName)
+                        && className.equals(component.className)) {
+                    return info;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** AllAppsList with its component and package indexes. */
+    private static class IndexedApps extends Apps {
+        private final HashMap<Component, App> mComponentIndex = new HashMap<Component, App>();
+        private final HashMap<String, ArrayList<App>> mPackageIndex =
+                new HashMap<String, ArrayList<App>>();
+
+        void add(App info) {
+            if (mComponentIndex.containsKey(info.componentName)) {
+                return;
+            }
+            data.add(info);
+            added.add(info);
+
+            mComponentIndex.put(info.componentName, info);
+            final String packageName = info.componentName.packageName;
+            ArrayList<App> apps = mPackageIndex.get(packageName);
+            if (apps == null) {
+                apps = new ArrayList<App>(1);
+                mPackageIndex.put(packageName, apps);
+            }
+            apps.add(info);
+        }
+
+        void removePackage(String packageName) {
+            final ArrayList<App> apps = mPackageIndex.get(packageName);
+            if (apps != null) {
+                removed.addAll(apps);
+                removeAll(new ArrayList<App>(apps));
+            }
+        }
+
+        void updatePackage(String packageName, List<String> activities) {
+            final ArrayList<App> apps = mPackageIndex.get(packageName);
+            if (activities.size() > 0) {
+                if (apps != null) {
+                    final HashSet<String> classNames = new HashSet<String>(activities);
+                    final ArrayList<App> gone = new ArrayList<App>();
+                    for (App info : apps) {
+                        if (!classNames.contains(info.componentName.className)) {
+                            removed.add(info);
+                            gone.add(info);
+                        }
+                    }
+                    removeAll(gone);
+                }
+                for (String activity : activities) {
+                    final Component component = new Component(packageName, activity);
+                    final App info = mComponentIndex.get(component);
+                    if (info == null) {
+                        add(new App(component));
+                    } else {
+                        modified.add(info);
+                    }
+                }
+            } else if (apps != null) {
+                removed.addAll(apps);
+                removeAll(new ArrayList<App>(apps));
+            }
+        }
+
+        private void removeAll(ArrayList<App> apps) {
+            if (apps.isEmpty()) {
+                return;
+            }
+            if (apps.size() == 1) {
+                data.remove(apps.get(0));
+            } else {
+                final HashSet<App> gone = new HashSet<App>(apps);
+                final int N = data.size();
+                int kept = 0;
+                for (int i = 0; i < N; i++) {
+                    final App info = data.get(i);
+                    if (!gone.contains(info)) {
+                        data.set(kept++, info);
+                    }
+                }
+                for (int i = N - 1; i >= kept; i--) {
+                    data.remove(i);
+                }
+            }
+
+            for (App info : apps) {
+                mComponentIndex.remove(info.componentName);
+                final String packageName = info.componentName.packageName;
+                final ArrayList<App> packageApps = mPackageIndex.get(packageName);
+                if (packageApps != null) {
+                    packageApps.remove(info);
+                    if (packageApps.isEmpty()) {
+                        mPackageIndex.remove(packageName);
+                    }
+                }
+            }
+        }
+    }
+
+    /** What the package manager has: the activities of each package, in query order. */
+    private static class Packages {
+        final ArrayList<String> names = new ArrayList<String>();
+        final HashMap<String, ArrayList<String>> activities =
+                new HashMap<String, ArrayList<String>>();
+    }
+
+    public static void main(String[] args) {
+        final Random random = new Random(1);
+        final Packages installed = makePackages(random);
+        final Packages updated = updatePackages(installed, random);
+
+        // Every round on new lists; the first rounds warm up
+        final long[] linearNanos = new long[3];
+        final long[] indexedNanos = new long[3];
+        for (int round = 0; round < ROUNDS; round++) {
+            final boolean timed = round >= ROUNDS / 2;
+            final LinearApps linear = new LinearApps();
+            final IndexedApps indexed = new IndexedApps();
+            runSteps(linear, installed, updated, timed ? linearNanos : new long[3]);
+            runSteps(indexed, installed, updated, timed ? indexedNanos : new long[3]);
+            if (round == 0) {
+                checkSteps(installed, updated);
+            }
+        }
+
+        final int timedRounds = ROUNDS - ROUNDS / 2;
+        System.out.println(APPS + " apps in " + installed.names.size() + " packages");
+        System.out.println("step                 linear ms   indexed ms   speedup");
+        final String[] steps = { "add all", "update every package", "remove every package" };
+        for (int i = 0; i < steps.length; i++) {
+            final double linear = linearNanos[i] / 1e6 / timedRounds;
+            final double indexed = indexedNanos[i] / 1e6 / timedRounds;
+            System.out.println(String.format("%-20s %10.2f %12.2f %8.1fx", steps[i], linear,
+                    indexed, linear / indexed));
+        }
+
+        if (sFailures > 0) {
+            System.out.println(sFailures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    /** Loads every app, updates every package, then removes them all, timing each step. */
+    private static void runSteps(Apps apps, Packages installed, Packages updated,
+            long[] nanos) {
+        long start = System.nanoTime();
+        addAll(apps, installed);
+        nanos[0] += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        updateAll(apps, updated);
+        nanos[1] += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (String packageName : updated.names) {
+            apps.removePackage(packageName);
+        }
+        nanos[2] += System.nanoTime() - start;
+    }
+
+    /** Runs the steps on both versions side by side, comparing them after each one. */
+    private static void checkSteps(Packages installed, Packages updated) {
+        final LinearApps linear = new LinearApps();
+        final IndexedApps indexed = new IndexedApps();
+
+        addAll(linear, installed);
+        addAll(indexed, installed);
+        check(linear.data.size() == APPS, "loaded " + linear.data.size() + " apps");
+        // Loading the same apps again adds nothing
+        addAll(linear, installed);
+        addAll(indexed, installed);
+        compare(linear, indexed, "add");
+
+        updateAll(linear, updated);
+        updateAll(indexed, updated);
+        check(!linear.removed.isEmpty() && !linear.modified.isEmpty(),
+                "the update removed or modified nothing");
+        compare(linear, indexed, "update");
+
+        for (String packageName : updated.names) {
+            linear.removePackage(packageName);
+            indexed.removePackage(packageName);
+        }
+        check(linear.data.isEmpty(), linear.data.size() + " apps left after removing all");
+        compare(linear, indexed, "remove");
+    }
+
+    private static void addAll(Apps apps, Packages packages) {
+        for (String packageName : packages.names) {
+            for (String activity : packages.activities.get(packageName)) {
+                apps.add(new App(new Component(packageName, activity)));
+            }
+        }
+    }
+
+    private static void updateAll(Apps apps, Packages packages) {
+        for (String packageName : packages.names) {
+            apps.updatePackage(packageName, packages.activities.get(packageName));
+        }
+    }
+
+    /**
+     * data, added and modified have to be the same, in the same order. Removed apps are
+     * only reported as a set: the old loops found them back to front.
+     */
+    private static void compare(Apps linear, Apps indexed, String step) {
+        check(components(linear.data).equals(components(indexed.data)), step + ": data");
+        check(components(linear.added).equals(components(indexed.added)), step + ": added");
+        check(components(linear.modified).equals(components(indexed.modified)),
+                step + ": modified");
+        check(new HashSet<String>(components(linear.removed)).equals(
+                new HashSet<String>(components(indexed.removed)))
+                && linear.removed.size() == indexed.removed.size(), step + ": removed");
+    }
+
+    private static ArrayList<String> components(ArrayList<App> apps) {
+        final ArrayList<String> components = new ArrayList<String>(apps.size());
+        for (App app : apps) {
+            components.add(app.componentName.packageName + "/" + app.componentName.className);
+        }
+        return components;
+    }
+
+    /** APPS activities in packages of one to four, as on a phone with many apps. */
+    private static Packages makePackages(Random random) {
+        final Packages packages = new Packages();
+        int apps = 0;
+        for (int p = 0; apps < APPS; p++) {
+            final String packageName = "com.example.app" + p;
+            final int count = Math.min(APPS - apps, random.nextInt(10) < 8 ? 1
+                    : 2 + random.nextInt(3));
+            final ArrayList<String> activities = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                activities.add(packageName + ".Activity" + i);
+            }
+            packages.names.add(packageName);
+            packages.activities.put(packageName, activities);
+            apps += count;
+        }
+        return packages;
+    }
+
+    /**
+     * The same packages after an update: most unchanged, some with an activity taken out
+     * or a new one, and some with none left.
+     */
+    private static Packages updatePackages(Packages installed, Random random) {
+        final Packages packages = new Packages();
+        for (String packageName : installed.names) {
+            final ArrayList<String> activities =
+                    new ArrayList<String>(installed.activities.get(packageName));
+            final int change = random.nextInt(20);
+            if (change == 0) {
+                activities.clear();
+            } else if (change == 1 && activities.size() > 1) {
+                activities.remove(random.nextInt(activities.size()));
+            } else if (change == 2) {
+                activities.add(packageName + ".Added");
+            }
+            packages.names.add(packageName);
+            packages.activities.put(packageName, activities);
+        }
+        return packages;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            sFailures++;
+            System.out.println("FAILED: " + message);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Multi-threaded stress test of {@link ComputeOnceCache}, the compute-once map behind
+ * IconCache. Runs on a plain JVM:
+ *
+ *   javac -encoding UTF-8 -d /tmp/t \
+ *       src/com/callmewill/launcher2/cache/ComputeOnceCache.java \
+ *       tests/src/com/callmewill/launcher2/cache/ComputeOnceCacheStressTest.java
+ *   java -cp /tmp/t com.callmewill.launcher2.cache.ComputeOnceCacheStressTest
+ *
+ * Exits with status 1 if any check fails.
+ */
+public class ComputeOnceCacheStressTest {
+    private static final int THREADS = 16;
+    private static final int KEYS = 64;
+    private static final int ROUNDS = 50;
+
+    private static int sFailures;
+
+    /** A made value, and the version of the data it was made from. */
+    private static class Value {
+        final int key;
+        final int version;
+
+        Value(int key, int version) {
+            this.key = key;
+            this.version = version;
+        }
+    }
+
+    private static class MapStore implements ComputeOnceCache.Store<Integer, Value> {
+        final ConcurrentHashMap<Integer, Value> map = new ConcurrentHashMap<Integer, Value>();
+
+        public Value get(Integer key) {
+            return map.get(key);
+        }
+
+        public void put(Integer key, Value value) {
+            map.put(key, value);
+        }
+
+        public void removeAll(ComputeOnceCache.KeyFilter<Integer> filter) {
+            for (Integer key : map.keySet()) {
+                if (filter == null || filter.accept(key)) {
+                    map.remove(key);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        testEachValueMadeOnce();
+        testNoStaleValueAfterInvalidate();
+        testMakerExceptionReachesEveryCaller();
+        if (sFailures > 0) {
+            System.out.println(sFailures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    /**
+     * Every thread asks for every key at the same moment. Each key must be made exactly
+     * once, and every caller must get that one value.
+     */
+    private static void testEachValueMadeOnce() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            final MapStore store = new MapStore();
+            final ComputeOnceCache<Integer, Value> cache =
+                    new ComputeOnceCache<Integer, Value>(store);
+            final AtomicInteger[] makes = new AtomicInteger[KEYS];
+            for (int k = 0; k < KEYS; k++) {
+                makes[k] = new AtomicInteger();
+            }
+            final Value[][] seen = new Value[THREADS][KEYS];
+            final CyclicBarrier start = new CyclicBarrier(THREADS);
+
+            final Thread[] threads = new Thread[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                threads[t] = new Thread() {
+                    public void run() {
+                        await(start);
+                        for (int i = 0; i < KEYS; i++) {
+                            // Threads walk the keys from different places so that they collide
+                            final int key = (i + thread * 7) % KEYS;
+                            seen[thread][key] = cache.get(key,
+                                    new ComputeOnceCache.Maker<Value>() {
+                                        public Value make() {
+                                            makes[key].incrementAndGet();
+                                            Thread.yield();
+                                            return new Value(key, 0);
+                                        }
+                                    });
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            join(threads);
+
+            for (int k = 0; k < KEYS; k++) {
+                check(makes[k].get() == 1, "key " + k + " made " + makes[k].get() + " times");
+                for (int t = 1; t < THREADS; t++) {
+                    check(seen[t][k] == seen[0][k], "threads got different values for " + k);
+                }
+            }
+            check(cache.getPendingCount() == 0, "pending values left behind");
+        }
+    }
+
+    /**
+     * Values are made from versioned data while another thread changes the data of some or
+     * all keys and invalidates them. Once everything has stopped, every stored value must
+     * have been made from the current version of its key's data.
+     */
+    private static void testNoStaleValueAfterInvalidate() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            final MapStore store = new MapStore();
+            final ComputeOnceCache<Integer, Value> cache =
+                    new ComputeOnceCache<Integer, Value>(store);
+            final AtomicIntegerArray versions = new AtomicIntegerArray(KEYS);
+            final AtomicBoolean stop = new AtomicBoolean();
+
+            final Thread[] threads = new Thread[THREADS];
+            for (int t = 0; t < THREADS - 1; t++) {
+                threads[t] = new Thread() {
+                    public void run() {
+                        int i = 0;
+                        while (!stop.get()) {
+                            final int key = i++ % KEYS;
+                            cache.get(key, new ComputeOnceCache.Maker<Value>() {
+                                public Value make() {
+                                    final int v = versions.get(key);
+                                    Thread.yield();
+                                    return new Value(key, v);
+                                }
+                            });
+                        }
+                    }
+                };
+            }
+            threads[THREADS - 1] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 200; i++) {
+                        if (i % 3 == 0) {
+                            for (int k = 0; k < KEYS; k++) {
+                                versions.incrementAndGet(k);
+                            }
+                            cache.invalidate(null);
+                        } else {
+                            // Only the keys of one parity change
+                            final int parity = i % 3 - 1;
+                            for (int k = parity; k < KEYS; k += 2) {
+                                versions.incrementAndGet(k);
+                            }
+                            cache.invalidate(new ComputeOnceCache.KeyFilter<Integer>() {
+                                public boolean accept(Integer key) {
+                                    return key % 2 == parity;
+                                }
+                            });
+                        }
+                        Thread.yield();
+                    }
+                    stop.set(true);
+                }
+            };
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            join(threads);
+
+            for (Map.Entry<Integer, Value> e : store.map.entrySet()) {
+                final int key = e.getKey();
+                check(e.getValue().version == versions.get(key), "stale value for " + key
+                        + ": version " + e.getValue().version + " of " + versions.get(key));
+            }
+            check(cache.getPendingCount() == 0, "pending values left behind");
+        }
+
+        // The race itself, made deterministic: a value whose making straddles an
+        // invalidation must not be stored
+        final MapStore store = new MapStore();
+        final ComputeOnceCache<Integer, Value> cache = new ComputeOnceCache<Integer, Value>(store);
+        cache.get(1, new ComputeOnceCache.Maker<Value>() {
+            public Value make() {
+                cache.invalidate(null);
+                return new Value(1, 0);
+            }
+        });
+        check(store.get(1) == null, "value made across an invalidation was stored");
+    }
+
+    /** A maker that throws fails every caller waiting on it, and nothing is stored. */
+    private static void testMakerExceptionReachesEveryCaller() throws Exception {
+        final MapStore store = new MapStore();
+        final ComputeOnceCache<Integer, Value> cache = new ComputeOnceCache<Integer, Value>(store);
+        final AtomicInteger failures = new AtomicInteger();
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        final Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    await(start);
+                    try {
+                        cache.get(0, new ComputeOnceCache.Maker<Value>() {
+                            public Value make() {
+                                Thread.yield();
+                                throw new IllegalStateException("broken");
+                            }
+                        });
+                    } catch (IllegalStateException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        join(threads);
+        check(failures.get() == THREADS, "only " + failures.get() + " callers saw the failure");
+        check(store.get(0) == null, "value stored after a failure");
+        check(cache.getPendingCount() == 0, "failed value left pending");
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void join(Thread[] threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            sFailures++;
+            System.out.println("FAILED: " + message);
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * The lookups the model makes on a 5,000 row favorites table, answered by scanning the table
+ * the way SQLite had to before version 13, and through the indexes LauncherProvider now
+ * creates (favorites_container_screen, favorites_intent and favorites_itemType). Runs on a
+ * plain JVM:
+ *
+ *   javac -encoding UTF-8 -d /tmp/t \
+ *       tests/src/com/callmewill/launcher2/provider/FavoritesQueryBenchmark.java
+ *   java -cp /tmp/t com.callmewill.launcher2.provider.FavoritesQueryBenchmark
+ *
+ * SQLiteDatabase does not run off the device, so the table and its indexes are stood in for
+ * by what SQLite keeps on disk: the rows in rowid order, and per index the key columns and
+ * rowid of every row in key order. A scan reads every row and tests the WHERE clause; an
+ * index lookup seeks to the first matching key, then seeks each match's rowid in the table.
+ * Page cache misses, which make a real scan worse, are not modelled. Every indexed answer is
+ * checked against the scan. Exits with status 1 if a check fails.
+ */
+public class FavoritesQueryBenchmark {
+    private static final int ROWS = 5000;
+    private static final int SCREENS = 5;
+    private static final int FOLDERS = 400;
+    // The folders are the first rows
+    private static final long FOLDERS_FIRST_ID = 1;
+
+    private static final int CONTAINER_DESKTOP = -100;
+    private static final int CONTAINER_HOTSEAT = -101;
+    private static final int ITEM_TYPE_APPLICATION = 0;
+    private static final int ITEM_TYPE_SHORTCUT = 1;
+    private static final int ITEM_TYPE_FOLDER = 2;
+    private static final int ITEM_TYPE_APPWIDGET = 4;
+
+    private static final long WARMUP_NANOS = 200 * 1000 * 1000L;
+    private static final long RUN_NANOS = 500 * 1000 * 1000L;
+
+    private static int sFailures;
+    // Written by the timed loops so that the JIT can't drop their work
+    private static long sSink;
+
+    /** A favorites row, with the columns the lookups read. */
+    private static class Row {
+        long id;
+        String title;
+        String intent;
+        long container;
+        int screen;
+        int itemType;
+    }
+
+    /** What a query matches, tested against every row by a scan. */
+    private interface Where {
+        boolean matches(Row row);
+    }
+
+    /** The rows in rowid order, as the table's B-tree keeps them. */
+    private static class Table {
+        final Row[] rows;
+        final long[] ids;
+
+        Table(Row[] rows) {
+            this.rows = rows;
+            ids = new long[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                ids[i] = rows[i].id;
+            }
+        }
+
+        Row seek(long id) {
+            return rows[Arrays.binarySearch(ids, id)];
+        }
+
+        ArrayList<Row> scan(Where where) {
+            final ArrayList<Row> result = new ArrayList<Row>();
+            for (Row row : rows) {
+                if (where.matches(row)) {
+                    result.add(row);
+                }
+            }
+            return result;
+        }
+    }
+
+    /** The key of an index entry: its columns, compared in order. */
+    private interface Key {
+        Object[] values(Row row);
+
+        /** Compares the first columns of the row's key with key. */
+        int compare(Row row, Object[] key, int columns);
+    }
+
+    /** An index: the rowid of every row, in the order of its key columns and then rowid. */
+    private static class Index {
+        final Table table;
+        final Key key;
+        final long[] rowids;
+        final Row[] entries;
+
+        Index(Table table, final Key key, final int columns) {
+            this.table = table;
+            this.key = key;
+            entries = table.rows.clone();
+            Arrays.sort(entries, new Comparator<Row>() {
+                public int compare(Row a, Row b) {
+                    final int c = key.compare(a, key.values(b), columns);
+                    return c != 0 ? c : compareLongs(a.id, b.id);
+                }
+            });
+            rowids = new long[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                rowids[i] = entries[i].id;
+            }
+        }
+
+        /** The rows whose first probe.length key columns equal probe, tested against where. */
+        ArrayList<Row> lookup(Object[] probe, Where where) {
+            int low = 0;
+            int high = entries.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (key.compare(entries[mid], probe, probe.length) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            final ArrayList<Row> result = new ArrayList<Row>();
+            for (int i = low; i < entries.length
+                    && key.compare(entries[i], probe, probe.length) == 0; i++) {
+                final Row row = table.seek(rowids[i]);
+                if (where.matches(row)) {
+                    result.add(row);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final Key CONTAINER_SCREEN = new Key() {
+        public Object[] values(Row row) {
+            return new Object[] { row.container, row.screen };
+        }
+
+        public int compare(Row row, Object[] key, int columns) {
+            final int c = compareLongs(row.container, (Long) key[0]);
+            if (c != 0 || columns < 2) {
+                return c;
+            }
+            return compareLongs(row.screen, (Integer) key[1]);
+        }
+    };
+
+    private static final Key INTENT = new Key() {
+        public Object[] values(Row row) {
+            return new Object[] { row.intent };
+        }
+
+        public int compare(Row row, Object[] key, int columns) {
+            return row.intent.compareTo((String) key[0]);
+        }
+    };
+
+    private static final Key ITEM_TYPE = new Key() {
+        public Object[] values(Row row) {
+            return new Object[] { row.itemType };
+        }
+
+        public int compare(Row row, Object[] key, int columns) {
+            return compareLongs(row.itemType, (Integer) key[0]);
+        }
+    };
+
+    public static void main(String[] args) {
+        final Random random = new Random(1);
+        final Table table = new Table(makeRows(random));
+        final Index containerScreen = new Index(table, CONTAINER_SCREEN, 2);
+        final Index intent = new Index(table, INTENT, 1);
+        final Index itemType = new Index(table, ITEM_TYPE, 1);
+
+        // Probes taken from the table, so that every lookup finds something
+        final Row[] probes = new Row[256];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = table.rows[random.nextInt(ROWS)];
+        }
+        final long[] folders = new long[64];
+        for (int i = 0; i < folders.length; i++) {
+            folders[i] = FOLDERS_FIRST_ID + random.nextInt(FOLDERS);
+        }
+
+        System.out.println(ROWS + " rows");
+        System.out.println("lookup                       scan us/query   index us/query   speedup");
+
+        // LauncherModel.shortcutExists: title=? and intent=?
+        final Query shortcutExists = new Query() {
+            public ArrayList<Row> scan(int i) {
+                return table.scan(titleAndIntent(probes[i % probes.length]));
+            }
+
+            public ArrayList<Row> index(int i) {
+                final Row probe = probes[i % probes.length];
+                return intent.lookup(new Object[] { probe.intent }, titleAndIntent(probe));
+            }
+        };
+        compare("shortcutExists", shortcutExists, probes.length);
+
+        // The contents of a folder: container=?, as deleteFolderContentsFromDatabase deletes
+        final Query folderContents = new Query() {
+            public ArrayList<Row> scan(int i) {
+                return table.scan(inContainer(folders[i % folders.length]));
+            }
+
+            public ArrayList<Row> index(int i) {
+                final long folder = folders[i % folders.length];
+                return containerScreen.lookup(new Object[] { folder }, inContainer(folder));
+            }
+        };
+        compare("folder contents", folderContents, folders.length);
+
+        // The items of one desktop screen: container=-100 and screen=?
+        final Query screenItems = new Query() {
+            public ArrayList<Row> scan(int i) {
+                return table.scan(onScreen(i % SCREENS));
+            }
+
+            public ArrayList<Row> index(int i) {
+                final int screen = i % SCREENS;
+                return containerScreen.lookup(new Object[] { (long) CONTAINER_DESKTOP, screen },
+                        onScreen(screen));
+            }
+        };
+        compare("desktop screen items", screenItems, SCREENS);
+
+        // The widgets: itemType=4
+        final Query widgets = new Query() {
+            public ArrayList<Row> scan(int i) {
+                return table.scan(ofType(ITEM_TYPE_APPWIDGET));
+            }
+
+            public ArrayList<Row> index(int i) {
+                return itemType.lookup(new Object[] { ITEM_TYPE_APPWIDGET },
+                        ofType(ITEM_TYPE_APPWIDGET));
+            }
+        };
+        compare("widgets", widgets, 1);
+
+        if (sFailures > 0) {
+            System.out.println(sFailures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    private interface Query {
+        ArrayList<Row> scan(int i);
+
+        ArrayList<Row> index(int i);
+    }
+
+    /** Checks that both ways find the same rows for every probe, then times them. */
+    private static void compare(String name, final Query query, int probes) {
+        for (int i = 0; i < probes; i++) {
+            final ArrayList<Row> scanned = query.scan(i);
+            final ArrayList<Row> indexed = query.index(i);
+            check(!scanned.isEmpty(), name + " probe " + i + " found nothing");
+            check(sameRows(scanned, indexed), name + " probe " + i + ": the index found "
+                    + indexed.size() + " rows, the scan " + scanned.size());
+        }
+
+        final double scan = time(new Runnable() {
+            int mNext;
+
+            public void run() {
+                sSink += query.scan(mNext++).size();
+            }
+        });
+        final double index = time(new Runnable() {
+            int mNext;
+
+            public void run() {
+                sSink += query.index(mNext++).size();
+            }
+        });
+        System.out.println(String.format("%-28s %13.2f %16.2f %8.0fx", name, scan / 1000,
+                index / 1000, scan / index));
+    }
+
+    private static boolean sameRows(ArrayList<Row> a, ArrayList<Row> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        // The scan finds rows in rowid order, and so does an index lookup of equal keys
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Where titleAndIntent(final Row probe) {
+        return new Where() {
+            public boolean matches(Row row) {
+                return probe.title.equals(row.title) && probe.intent.equals(row.intent);
+            }
+        };
+    }
+
+    private static Where inContainer(final long container) {
+        return new Where() {
+            public boolean matches(Row row) {
+                return row.container == container;
+            }
+        };
+    }
+
+    private static Where onScreen(final int screen) {
+        return new Where() {
+            public boolean matches(Row row) {
+                return row.container == CONTAINER_DESKTOP && row.screen == screen;
+            }
+        };
+    }
+
+    private static Where ofType(final int itemType) {
+        return new Where() {
+            public boolean matches(Row row) {
+                return row.itemType == itemType;
+            }
+        };
+    }
+
+    /**
+     * A workspace grown to ROWS rows: FOLDERS folders spread over the desktop screens, a few
+     * widgets and shortcuts next to them, and everything else inside the folders. Titles
+     * and intents repeat now and then, as the same app can be added more than once.
+     */
+    private static Row[] makeRows(Random random) {
+        final Row[] rows = new Row[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            final Row row = new Row();
+            row.id = i + FOLDERS_FIRST_ID;
+            if (i < FOLDERS) {
+                row.itemType = ITEM_TYPE_FOLDER;
+                row.container = CONTAINER_DESKTOP;
+                row.screen = random.nextInt(SCREENS);
+                row.title = "Folder " + i;
+                row.intent = "";
+            } else {
+                final int app = random.nextInt(ROWS * 3 / 4);
+                final int kind = random.nextInt(100);
+                row.itemType = kind < 2 ? ITEM_TYPE_APPWIDGET
+                        : kind < 20 ? ITEM_TYPE_SHORTCUT : ITEM_TYPE_APPLICATION;
+                if (kind < 8) {
+                    row.container = kind < 6 ? CONTAINER_DESKTOP : CONTAINER_HOTSEAT;
+                    row.screen = random.nextInt(SCREENS);
+                } else {
+                    row.container = FOLDERS_FIRST_ID + random.nextInt(FOLDERS);
+                    row.screen = 0;
+                }
+                row.title = "App " + app;
+                row.intent = row.itemType == ITEM_TYPE_APPWIDGET ? ""
+                        : "#Intent;action=android.intent.action.MAIN;"
+                        + "category=android.intent.category.LAUNCHER;launchFlags=0x10200000;"
+                        + "component=com.example.app" + app + "/.MainActivity;end";
+            }
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    /** Returns the nanoseconds per run of r, after warming it up. */
+    private static double time(Runnable r) {
+        run(r, WARMUP_NANOS, new long[1]);
+        final long[] runs = new long[1];
+        final long nanos = run(r, RUN_NANOS, runs);
+        return (double) nanos / runs[0];
+    }
+
+    private static long run(Runnable r, long budget, long[] runs) {
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 64; i++) {
+                r.run();
+            }
+            runs[0] += 64;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget);
+        return elapsed;
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : a == b ? 0 : 1;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            sFailures++;
+            System.out.println("FAILED: " + message);
+        }
+    }
+}
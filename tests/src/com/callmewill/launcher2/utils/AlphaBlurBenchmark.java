@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.utils;
+
+import java.util.Random;
+
+/**
+ * Benchmark of {@link AlphaBlur} at the sizes HolographicOutlineHelper works on, icons and
+ * widgets, and a check of gaussianBlur's output. Runs on a plain JVM:
+ *
+ *   javac -encoding UTF-8 -d /tmp/t \
+ *       src/com/callmewill/launcher2/utils/AlphaBlur.java \
+ *       tests/src/com/callmewill/launcher2/utils/AlphaBlurBenchmark.java
+ *   java -cp /tmp/t com.callmewill.launcher2.utils.AlphaBlurBenchmark
+ *
+ * gaussianBlur must match the same three box blurs done in doubles to within its rounding,
+ * and stay close to a true Gaussian; how far it is from the latter is printed with each
+ * timing. Exits with status 1 if a check fails.
+ */
+public class AlphaBlurBenchmark {
+    // Icons at mdpi to xxhdpi with the outline padding, then widget previews
+    private static final int[][] SIZES = {
+        { 56, 56 }, { 80, 80 }, { 104, 104 }, { 320, 240 }, { 480, 480 },
+    };
+    // The blur radii of HolographicOutlineHelper, at scale 1 and 2
+    private static final float[] RADII = { 1, 2, 4, 6, 12, 24 };
+
+    // On 0-255 masks. Each of the six passes rounds once.
+    private static final int MAX_ROUNDING_ERROR = 3;
+    // Three box passes are not a true Gaussian: they are off the most with radii of a pixel
+    // or two, where the boxes are 1-3 pixels wide, and on masks not much wider than the blur.
+    private static final int MAX_GAUSSIAN_ERROR = 16;
+
+    private static final long WARMUP_NANOS = 200 * 1000 * 1000L;
+    private static final long RUN_NANOS = 500 * 1000 * 1000L;
+
+    private static int sFailures;
+    // Written by the timed loops so that the JIT can't drop their work
+    private static int sSink;
+
+    public static void main(String[] args) {
+        System.out.println("size       op              radius     us/op   gaussian max/mean");
+        for (int[] size : SIZES) {
+            final int w = size[0], h = size[1];
+            final int count = w * h;
+            final int[] argb = makeIcon(w, h);
+            final int[] alpha = new int[count];
+            final int[] dst = new int[count];
+            final int[] tmp = new int[count];
+
+            final double extract = time(new Runnable() {
+                public void run() {
+                    AlphaBlur.extractAlpha(argb, alpha, count, 0);
+                    sSink += alpha[count / 2];
+                }
+            });
+            System.out.println(String.format("%-10s %-15s %6s %9.1f", w + "x" + h,
+                    "extractAlpha", "-", extract));
+
+            AlphaBlur.extractAlpha(argb, alpha, count, 0);
+            for (float radius : RADII) {
+                final float sigma = AlphaBlur.radiusToSigma(radius);
+                final double blur = time(new Runnable() {
+                    public void run() {
+                        AlphaBlur.gaussianBlur(alpha, dst, tmp, w, h, sigma);
+                        sSink += dst[count / 2];
+                    }
+                });
+
+                final String name = w + "x" + h + " radius " + radius;
+                final double[] boxes = referenceBoxBlur(alpha, w, h, sigma);
+                check(maxError(boxes, dst) <= MAX_ROUNDING_ERROR, name + " is off the box"
+                        + " blurs by " + maxError(boxes, dst));
+                final double[] gaussian = referenceGaussianBlur(alpha, w, h, sigma);
+                final int gaussianError = maxError(gaussian, dst);
+                check(gaussianError <= MAX_GAUSSIAN_ERROR, name + " is off the Gaussian by "
+                        + gaussianError);
+                System.out.println(String.format("%-10s %-15s %6s %9.1f %7d/%.2f",
+                        w + "x" + h, "gaussianBlur", radius, blur, gaussianError,
+                        meanError(gaussian, dst)));
+            }
+        }
+
+        if (sFailures > 0) {
+            System.out.println(sFailures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    /**
+     * An opaque rounded square with antialiased edges, a drop shadow under it and some noise
+     * inside, roughly what an app icon looks like.
+     */
+    private static int[] makeIcon(int w, int h) {
+        final Random random = new Random(w * 31 + h);
+        final int[] argb = new int[w * h];
+        final float cx = w / 2f, cy = h / 2f;
+        final float half = Math.min(w, h) * 0.35f;
+        final float corner = half * 0.3f;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                // Distance outside of the rounded square, negative inside
+                final float dx = Math.max(Math.abs(x + 0.5f - cx) - (half - corner), 0);
+                final float dy = Math.max(Math.abs(y + 0.5f - cy) - (half - corner), 0);
+                final float d = (float) Math.sqrt(dx * dx + dy * dy) - corner;
+                int a;
+                if (d < -1) {
+                    a = 255 - random.nextInt(8);
+                } else if (d < 1) {
+                    a = (int) ((1 - d) / 2 * 255);
+                } else {
+                    a = (int) Math.max(0, 40 - d * 8);
+                }
+                argb[y * w + x] = (a << 24) | (random.nextInt() & 0xFFFFFF);
+            }
+        }
+        return argb;
+    }
+
+    /** Returns the microseconds per run of r, after warming it up. */
+    private static double time(Runnable r) {
+        run(r, WARMUP_NANOS);
+        final long[] runs = new long[1];
+        final long nanos = run(r, RUN_NANOS, runs);
+        return nanos / 1000.0 / runs[0];
+    }
+
+    private static long run(Runnable r, long budget) {
+        return run(r, budget, new long[1]);
+    }
+
+    private static long run(Runnable r, long budget, long[] runs) {
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 16; i++) {
+                r.run();
+            }
+            runs[0] += 16;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget);
+        return elapsed;
+    }
+
+    private static int maxError(double[] reference, int[] values) {
+        int max = 0;
+        for (int i = 0; i < reference.length; i++) {
+            max = Math.max(max, (int) Math.abs(Math.round(reference[i]) - values[i]));
+        }
+        return max;
+    }
+
+    private static double meanError(double[] reference, int[] values) {
+        double total = 0;
+        for (int i = 0; i < reference.length; i++) {
+            total += Math.abs(reference[i] - values[i]);
+        }
+        return total / reference.length;
+    }
+
+    /**
+     * The box blurs gaussianBlur picks for sigma, done naively and in doubles, so that the
+     * only difference left is its rounding.
+     */
+    private static double[] referenceBoxBlur(int[] src, int w, int h, float sigma) {
+        double[] blurred = new double[w * h];
+        for (int i = 0; i < blurred.length; i++) {
+            blurred[i] = src[i];
+        }
+        final double variance = 12.0 * sigma * sigma;
+        int lower = (int) Math.sqrt(variance / 3 + 1);
+        if (lower % 2 == 0) lower--;
+        final int lowerPasses = (int) Math.round((variance - 3 * lower * lower - 12 * lower - 9)
+                / (-4.0 * lower - 4));
+        for (int pass = 0; pass < 3; pass++) {
+            final int width = pass < lowerPasses ? lower : lower + 2;
+            final double[] kernel = new double[width];
+            for (int i = 0; i < width; i++) {
+                kernel[i] = 1.0 / width;
+            }
+            blurred = convolve(convolve(blurred, w, h, kernel, true), w, h, kernel, false);
+        }
+        return blurred;
+    }
+
+    /**
+     * A true Gaussian blur, with a kernel out to 4 sigma. Like gaussianBlur, it treats the
+     * pixels outside of the mask as transparent.
+     */
+    private static double[] referenceGaussianBlur(int[] src, int w, int h, float sigma) {
+        final int r = (int) Math.ceil(4 * sigma);
+        final double[] kernel = new double[2 * r + 1];
+        double total = 0;
+        for (int i = -r; i <= r; i++) {
+            kernel[i + r] = Math.exp(-i * i / (2.0 * sigma * sigma));
+            total += kernel[i + r];
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= total;
+        }
+        final double[] in = new double[w * h];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = src[i];
+        }
+        return convolve(convolve(in, w, h, kernel, true), w, h, kernel, false);
+    }
+
+    /** Convolves src with the odd-sized, centered kernel, across or down. */
+    private static double[] convolve(double[] src, int w, int h, double[] kernel,
+            boolean across) {
+        final int r = kernel.length / 2;
+        final double[] dst = new double[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                final int pos = across ? x : y;
+                final int size = across ? w : h;
+                final int step = across ? 1 : w;
+                double sum = 0;
+                for (int i = Math.max(-r, -pos), end = Math.min(r, size - 1 - pos); i <= end;
+                        i++) {
+                    sum += kernel[i + r] * src[y * w + x + i * step];
+                }
+                dst[y * w + x] = sum;
+            }
+        }
+        return dst;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            sFailures++;
+            System.out.println("FAILED: " + message);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How icon rendering scales with the number of icon loader threads, with the per-thread
+ * contexts Utilities draws through ({@link WeakReferenceThreadLocal}) against the single
+ * context under the class lock that it used before. Runs on a plain JVM:
+ *
+ *   javac -encoding UTF-8 -d /tmp/t \
+ *       src/com/callmewill/launcher2/utils/WeakReferenceThreadLocal.java \
+ *       tests/src/com/callmewill/launcher2/utils/UtilitiesScalingBenchmark.java
+ *   java -cp /tmp/t com.callmewill.launcher2.utils.UtilitiesScalingBenchmark
+ *
+ * android.graphics does not run off the device, so the canvas draw is stood in for by
+ * scaling an icon's pixels into a texture in plain Java, through a scratch context (the
+ * canvas, bounds and offset of Utilities) of the same shape. Every rendered icon is
+ * checked against the one rendered alone on a single thread. Exits with status 1 if a
+ * check fails.
+ */
+public class UtilitiesScalingBenchmark {
+    private static final int SOURCE_SIZE = 96;
+    private static final int TEXTURE_SIZE = 72;
+    private static final int ICONS = 2000;
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static int sFailures;
+
+    /** What a thread draws with: the canvas, old bounds and offset of Utilities. */
+    private static class RenderContext {
+        final int[] row = new int[TEXTURE_SIZE];
+        final int[] bounds = new int[4];
+        final int[] offset = new int[2];
+    }
+
+    private interface Renderer {
+        int[] render(int[] source);
+    }
+
+    /** Before: one context, and every draw holds the class lock. */
+    private static class SharedRenderer implements Renderer {
+        private final RenderContext mContext = new RenderContext();
+
+        public int[] render(int[] source) {
+            synchronized (SharedRenderer.class) {
+                return draw(source, mContext);
+            }
+        }
+    }
+
+    /** After: each thread draws with its own context. */
+    private static class PerThreadRenderer implements Renderer {
+        private final WeakReferenceThreadLocal<RenderContext> mContext =
+                new WeakReferenceThreadLocal<RenderContext>() {
+            @Override
+            protected RenderContext initialValue() {
+                return new RenderContext();
+            }
+        };
+
+        public int[] render(int[] source) {
+            return draw(source, mContext.get());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        checkThreadLocal();
+
+        final int[][] sources = new int[64][];
+        final int[][] expected = new int[sources.length][];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = makeIcon(i);
+            expected[i] = draw(sources[i], new RenderContext());
+        }
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println(cores + " cores, " + ICONS + " icons per run");
+        System.out.println("threads   shared lock icons/ms   per-thread icons/ms   speedup");
+        double sharedOne = 0, perThreadOne = 0;
+        for (int threads = 1; threads <= Math.max(8, cores); threads *= 2) {
+            final double shared = run(new SharedRenderer(), threads, sources, expected);
+            final double perThread = run(new PerThreadRenderer(), threads, sources, expected);
+            if (threads == 1) {
+                sharedOne = shared;
+                perThreadOne = perThread;
+            }
+            System.out.println(String.format("%7d %24.1f %21.1f   %.2fx / %.2fx", threads,
+                    shared, perThread, shared / sharedOne, perThread / perThreadOne));
+        }
+
+        if (sFailures > 0) {
+            System.out.println(sFailures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    /** Each thread gets an instance of its own, and the same one every time. */
+    private static void checkThreadLocal() throws InterruptedException {
+        final WeakReferenceThreadLocal<RenderContext> local =
+                new WeakReferenceThreadLocal<RenderContext>() {
+            @Override
+            protected RenderContext initialValue() {
+                return new RenderContext();
+            }
+        };
+        final RenderContext mine = local.get();
+        check(local.get() == mine, "a thread got two contexts");
+        final RenderContext[] other = new RenderContext[1];
+        final Thread thread = new Thread() {
+            public void run() {
+                other[0] = local.get();
+            }
+        };
+        thread.start();
+        thread.join();
+        check(other[0] != null && other[0] != mine, "two threads shared a context");
+    }
+
+    /**
+     * Renders ICONS icons split over the threads, after a few warm-up rounds, checks them
+     * and returns icons per millisecond.
+     */
+    private static double run(final Renderer renderer, int threads, final int[][] sources,
+            final int[][] expected) throws Exception {
+        double rate = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            final AtomicInteger next = new AtomicInteger();
+            final AtomicInteger wrong = new AtomicInteger();
+            final CyclicBarrier start = new CyclicBarrier(threads + 1);
+            final Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread() {
+                    public void run() {
+                        await(start);
+                        int i;
+                        while ((i = next.getAndIncrement()) < ICONS) {
+                            final int icon = i % sources.length;
+                            if (!Arrays.equals(renderer.render(sources[icon]), expected[icon])) {
+                                wrong.incrementAndGet();
+                            }
+                        }
+                    }
+                };
+                workers[t].start();
+            }
+            await(start);
+            final long startTime = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            rate = ICONS / ((System.nanoTime() - startTime) / 1e6);
+            check(wrong.get() == 0, wrong.get() + " icons rendered wrong with " + threads
+                    + " threads by " + renderer.getClass().getSimpleName());
+        }
+        return rate;
+    }
+
+    /**
+     * Scales the source into the middle of a new texture with bilinear filtering, going
+     * through the context the way Utilities.createIconBitmap goes through its canvas and
+     * bounds.
+     */
+    private static int[] draw(int[] source, RenderContext context) {
+        final int[] texture = new int[TEXTURE_SIZE * TEXTURE_SIZE];
+        final int[] bounds = context.bounds;
+        final int[] offset = context.offset;
+        final int size = TEXTURE_SIZE * 2 / 3;
+        offset[0] = (TEXTURE_SIZE - size) / 2;
+        offset[1] = (TEXTURE_SIZE - size) / 2;
+        bounds[0] = offset[0];
+        bounds[1] = offset[1];
+        bounds[2] = offset[0] + size;
+        bounds[3] = offset[1] + size;
+
+        final int[] row = context.row;
+        final float scale = (float) (SOURCE_SIZE - 1) / (size - 1);
+        for (int y = bounds[1]; y < bounds[3]; y++) {
+            final float sy = (y - bounds[1]) * scale;
+            final int y0 = (int) sy;
+            final int y1 = Math.min(y0 + 1, SOURCE_SIZE - 1);
+            final float fy = sy - y0;
+            for (int x = bounds[0]; x < bounds[2]; x++) {
+                final float sx = (x - bounds[0]) * scale;
+                final int x0 = (int) sx;
+                final int x1 = Math.min(x0 + 1, SOURCE_SIZE - 1);
+                final float fx = sx - x0;
+                int pixel = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    final float top = lerp(channel(source[y0 * SOURCE_SIZE + x0], shift),
+                            channel(source[y0 * SOURCE_SIZE + x1], shift), fx);
+                    final float bottom = lerp(channel(source[y1 * SOURCE_SIZE + x0], shift),
+                            channel(source[y1 * SOURCE_SIZE + x1], shift), fx);
+                    pixel |= Math.round(lerp(top, bottom, fy)) << shift;
+                }
+                row[x] = pixel;
+            }
+            System.arraycopy(row, bounds[0], texture, y * TEXTURE_SIZE + bounds[0], size);
+        }
+        return texture;
+    }
+
+    private static int channel(int argb, int shift) {
+        return (argb >>> shift) & 0xFF;
+    }
+
+    private static float lerp(float a, float b, float f) {
+        return a + (b - a) * f;
+    }
+
+    /** A disc of varying color, different for every seed. */
+    private static int[] makeIcon(int seed) {
+        final int[] argb = new int[SOURCE_SIZE * SOURCE_SIZE];
+        final float c = SOURCE_SIZE / 2f;
+        for (int y = 0; y < SOURCE_SIZE; y++) {
+            for (int x = 0; x < SOURCE_SIZE; x++) {
+                final float d = (float) Math.hypot(x - c, y - c);
+                final int a = d < c - 2 ? 255 : d < c ? (int) ((c - d) * 127) : 0;
+                argb[y * SOURCE_SIZE + x] = (a << 24) | (((x * 3 + seed * 17) & 0xFF) << 16)
+                        | (((y * 5 + seed * 29) & 0xFF) << 8) | ((seed * 41) & 0xFF);
+            }
+        }
+        return argb;
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            sFailures++;
+            System.out.println("FAILED: " + message);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.widget;
+
+import java.util.Random;
+
+/**
+ * Checks {@link GridOccupancy} against the boolean[x][y] loops CellLayout used before, and
+ * times both. Runs on a plain JVM:
+ *
+ *   javac -encoding UTF-8 -d /tmp/t \
+ *       src/com/callmewill/launcher2/widget/GridOccupancy.java \
+ *       tests/src/com/callmewill/launcher2/widget/GridOccupancyBenchmark.java
+ *   java -cp /tmp/t com.callmewill.launcher2.widget.GridOccupancyBenchmark
+ *
+ * Exits with status 1 if a check fails.
+ */
+public class GridOccupancyBenchmark {
+	// The usual workspace and hotseat, a large tablet grid, and the widest one a row holds
+	private static final int[][] SIZES = {
+		{ 4, 4 }, { 8, 8 }, { 16, 12 }, { GridOccupancy.MAX_COUNT_X, 16 },
+	};
+
+	private static final long WARMUP_NANOS = 200 * 1000 * 1000L;
+	private static final long RUN_NANOS = 500 * 1000 * 1000L;
+
+	private static int sFailures;
+	// Written by the timed loops so that the JIT can't drop their work
+	private static long sSink;
+
+	public static void main(String[] args) {
+		checkEdges();
+		checkRandomGrids();
+
+		System.out.println("size     op                bits ns/op  boolean[][] ns/op");
+		for (int[] size : SIZES) {
+			timeGrid(size[0], size[1]);
+		}
+
+		if (sFailures > 0) {
+			System.out.println(sFailures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	private static void checkEdges() {
+		// A span as wide as the grid fits at column 0 only, and only if the row is empty
+		for (int countX : new int[] { 1, 4, 63, 64 }) {
+			final GridOccupancy grid = new GridOccupancy(countX, 2);
+			check(grid.vacantOrigins(0, countX, 1) == 1, countX + " wide: full-width span");
+			check(grid.vacantOrigins(0, countX, 2) == 1, countX + " wide: full-width block");
+			check(grid.vacantOrigins(0, countX + 1, 1) == 0, countX + " wide: too wide");
+			check(grid.isRegionVacant(0, 0, countX, 2, null), countX + " wide: whole grid");
+			check(!grid.isRegionVacant(1, 0, countX, 1, null), countX + " wide: past the edge");
+
+			grid.set(countX - 1, 1, true);
+			check(grid.vacantOrigins(0, countX, 1) == 1, countX + " wide: free top row");
+			check(grid.vacantOrigins(0, countX, 2) == 0, countX + " wide: last cell taken");
+			check(grid.vacantOrigins(1, 1, 1) == GridOccupancy.lowBits(countX - 1),
+					countX + " wide: all but the last column");
+			check(!grid.isRegionVacant(0, 0, countX, 2, null), countX + " wide: last cell");
+		}
+
+		// On a 64 wide grid the top bit is a real column, and must not be sign-extended
+		final GridOccupancy grid = new GridOccupancy(64, 1);
+		check(grid.vacantOrigins(0, 1, 1) == -1L, "64 wide: every column is an origin");
+		check(grid.vacantOrigins(0, 2, 1) == Long.MAX_VALUE, "64 wide: span of 2");
+		grid.set(63, 0, true);
+		check(grid.vacantOrigins(0, 1, 1) == Long.MAX_VALUE, "64 wide: last column taken");
+		check(grid.isRegionVacant(0, 0, 63, 1, null), "64 wide: all but the last");
+		check(!grid.isRegionVacant(62, 0, 2, 1, null), "64 wide: over the last");
+		grid.markCells(60, 0, 10, 1, false);
+		check(!grid.get(63, 0), "64 wide: markCells clips at the right edge");
+		grid.markCells(0, 0, 64, 1, true);
+		check(grid.vacantOrigins(0, 1, 1) == 0, "64 wide: row filled");
+
+		check(new GridOccupancy(8, 4).vacantOrigins(2, 1, 3) == 0, "span past the bottom");
+		try {
+			new GridOccupancy(GridOccupancy.MAX_COUNT_X + 1, 1);
+			check(false, "65 wide grid was accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	/** Random grids, random queries, compared against the boolean loops. */
+	private static void checkRandomGrids() {
+		final Random random = new Random(1);
+		for (int round = 0; round < 2000; round++) {
+			final int countX = 1 + random.nextInt(GridOccupancy.MAX_COUNT_X);
+			final int countY = 1 + random.nextInt(12);
+			final GridOccupancy grid = new GridOccupancy(countX, countY);
+			final boolean[][] occupied = new boolean[countX][countY];
+			fill(grid, occupied, random, random.nextFloat());
+
+			for (int q = 0; q < 20; q++) {
+				final int spanX = 1 + random.nextInt(countX + 1);
+				final int spanY = 1 + random.nextInt(countY + 1);
+				final int y = random.nextInt(countY);
+				final String name = countX + "x" + countY + " span " + spanX + "x" + spanY;
+				check(grid.vacantOrigins(y, spanX, spanY)
+						== vacantOrigins(occupied, y, spanX, spanY), name + " origins at " + y);
+				final int x = random.nextInt(countX);
+				check(grid.isRegionVacant(x, y, spanX, spanY, null)
+						== isRegionVacant(occupied, x, y, spanX, spanY),
+						name + " vacant at " + x + "," + y);
+			}
+		}
+	}
+
+	private static void timeGrid(final int countX, final int countY) {
+		final Random random = new Random(countX * 31 + countY);
+		final GridOccupancy grid = new GridOccupancy(countX, countY);
+		final boolean[][] occupied = new boolean[countX][countY];
+		fill(grid, occupied, random, 0.3f);
+		final String size = countX + "x" + countY;
+
+		// What findCellForSpan does: look for every place a 2x2 widget fits
+		final double bitsOrigins = time(new Runnable() {
+			public void run() {
+				for (int y = 0; y < countY; y++) {
+					sSink += grid.vacantOrigins(y, 2, 2);
+				}
+			}
+		});
+		final double loopOrigins = time(new Runnable() {
+			public void run() {
+				for (int y = 0; y < countY; y++) {
+					sSink += vacantOrigins(occupied, y, 2, 2);
+				}
+			}
+		});
+		print(size, "vacantOrigins 2x2", bitsOrigins, loopOrigins);
+
+		final double bitsVacant = time(new Runnable() {
+			public void run() {
+				for (int y = 0; y + 2 <= countY; y++) {
+					for (int x = 0; x + 2 <= countX; x++) {
+						if (grid.isRegionVacant(x, y, 2, 2, null)) sSink++;
+					}
+				}
+			}
+		});
+		final double loopVacant = time(new Runnable() {
+			public void run() {
+				for (int y = 0; y + 2 <= countY; y++) {
+					for (int x = 0; x + 2 <= countX; x++) {
+						if (isRegionVacant(occupied, x, y, 2, 2)) sSink++;
+					}
+				}
+			}
+		});
+		print(size, "isRegionVacant 2x2", bitsVacant, loopVacant);
+	}
+
+	private static void fill(GridOccupancy grid, boolean[][] occupied, Random random,
+			float density) {
+		for (int x = 0; x < occupied.length; x++) {
+			for (int y = 0; y < occupied[x].length; y++) {
+				final boolean taken = random.nextFloat() < density;
+				occupied[x][y] = taken;
+				grid.set(x, y, taken);
+			}
+		}
+	}
+
+	/** The old loop: every column the span fits at, checked cell by cell. */
+	private static long vacantOrigins(boolean[][] occupied, int y, int spanX, int spanY) {
+		long origins = 0;
+		for (int x = 0; x + spanX <= occupied.length; x++) {
+			if (isRegionVacant(occupied, x, y, spanX, spanY)) {
+				origins |= 1L << x;
+			}
+		}
+		return origins;
+	}
+
+	private static boolean isRegionVacant(boolean[][] occupied, int x, int y, int spanX,
+			int spanY) {
+		if (x < 0 || y < 0 || x + spanX > occupied.length
+				|| y + spanY > occupied[0].length) {
+			return false;
+		}
+		for (int i = x; i < x + spanX; i++) {
+			for (int j = y; j < y + spanY; j++) {
+				if (occupied[i][j]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Returns the nanoseconds per run of r, after warming it up. */
+	private static double time(Runnable r) {
+		run(r, WARMUP_NANOS, new long[1]);
+		final long[] runs = new long[1];
+		final long nanos = run(r, RUN_NANOS, runs);
+		return (double) nanos / runs[0];
+	}
+
+	private static long run(Runnable r, long budget, long[] runs) {
+		final long start = System.nanoTime();
+		long elapsed;
+		do {
+			for (int i = 0; i < 64; i++) {
+				r.run();
+			}
+			runs[0] += 64;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < budget);
+		return elapsed;
+	}
+
+	private static void print(String size, String op, double bits, double loop) {
+		System.out.println(String.format("%-8s %-18s %9.1f %18.1f", size, op, bits, loop));
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			sFailures++;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
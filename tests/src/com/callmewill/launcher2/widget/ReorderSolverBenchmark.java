@@ -0,0 +1,1355 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.callmewill.launcher2.widget;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Stack;
+
+/**
+ * Replays drag paths over synthetic grids through the reorder solver of {@link CellLayout},
+ * and reports the solver time and the bytes allocated per probe. Runs on a plain JVM:
+ *
+ *   javac -encoding UTF-8 -d /tmp/t src/com/callmewill/launcher2/widget/GridOccupancy.java \
+ *       tests/src/com/callmewill/launcher2/widget/ReorderSolverBenchmark.java
+ *   java -cp /tmp/t com.callmewill.launcher2.widget.ReorderSolverBenchmark
+ *
+ * CellLayout is a View and does not run off the device, so what createArea does on every
+ * drag-over probe (the direction vector, simpleSwap with rearrangementExists and the push
+ * helpers, findConfigurationNoShuffle, and copying the solution to the temp state) is
+ * transcribed here over stand-ins: an Item for a child view and its LayoutParams, and a
+ * Rect with the semantics of android.graphics.Rect. ItemConfiguration and ReorderAttempt are
+ * transcribed as they are, and GridOccupancy is the real one. The hint animations are left
+ * out.
+ *
+ * A drag path is what the touch samples of a finger moving between cells and hovering at
+ * each would be, one probe per sample, as the reorder alarm would run them. Every solution is
+ * checked to keep the items inside the grid and apart, and the ones that can't be reordered
+ * in place. Once warmed up, replaying a path must not allocate; allocations are counted with
+ * the HotSpot per-thread counter, and not at all on a JVM without one. HotSpot's escape
+ * analysis removes short-lived objects that ART would allocate, such as the iterator over
+ * the valid regions in findNearestArea, so a zero here only says the solver state itself is
+ * reused. Exits with status 1 if a check fails.
+ */
+public class ReorderSolverBenchmark {
+	private static final int CELL_WIDTH = 80;
+	private static final int CELL_HEIGHT = 100;
+	// Touch samples per cell the finger crosses, and while it hovers over a cell
+	private static final int SAMPLES_PER_CELL = 6;
+	private static final int HOVER_SAMPLES = 12;
+	private static final int PATHS = 8;
+	private static final int WAYPOINTS = 6;
+
+	private static final long WARMUP_NANOS = 500 * 1000 * 1000L;
+	private static final long RUN_NANOS = 1000 * 1000 * 1000L;
+
+	private static int sFailures;
+	// Written by the timed loops so that the JIT can't drop their work
+	private static long sSink;
+
+	/** A synthetic page, filled at random but the same on every run. */
+	private static final class Grid {
+		final String name;
+		final int countX;
+		final int countY;
+		// Fraction of the cells covered by items
+		final float density;
+		// Fraction of the items that are 2x2 widgets, and that can't be reordered
+		final float widgets;
+		final float pinned;
+
+		Grid(String name, int countX, int countY, float density, float widgets,
+				float pinned) {
+			this.name = name;
+			this.countX = countX;
+			this.countY = countY;
+			this.density = density;
+			this.widgets = widgets;
+			this.pinned = pinned;
+		}
+	}
+
+	private static final Grid[] GRIDS = {
+		new Grid("4x4 icons", 4, 4, 0.75f, 0f, 0f),
+		new Grid("4x4 mixed", 4, 4, 0.7f, 0.3f, 0f),
+		new Grid("5x5 mixed", 5, 5, 0.7f, 0.2f, 0.05f),
+		new Grid("8x8 tablet", 8, 8, 0.6f, 0.2f, 0.05f),
+	};
+
+	public static void main(String[] args) {
+		final Allocations allocations = Allocations.create();
+		if (allocations == null) {
+			System.out.println("no thread allocation counter, allocations not measured");
+		}
+
+		System.out.println("grid         drag  probes/replay  solved   us/probe  bytes/probe");
+		for (Grid grid : GRIDS) {
+			replay(grid, 1, allocations);
+			if (grid.widgets > 0) {
+				replay(grid, 2, allocations);
+			}
+		}
+
+		if (sFailures > 0) {
+			System.out.println(sFailures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/** Replays the paths of a span x span item dragged over the grid. */
+	private static void replay(Grid grid, int span, Allocations allocations) {
+		final Random random = new Random(grid.name.hashCode() * 31 + span);
+		final Layout layout = new Layout(grid.countX, grid.countY);
+		fill(layout, grid, random);
+		final Item dragView = pickDragView(layout, span, random);
+		if (dragView == null) {
+			System.out.println(String.format("%-12s %dx%d  no item to drag", grid.name, span,
+					span));
+			return;
+		}
+		layout.prepareChildForDrag(dragView);
+		final int[][] paths = new int[PATHS][];
+		for (int i = 0; i < PATHS; i++) {
+			paths[i] = recordPath(layout, dragView, random);
+		}
+
+		// Once with the checks, then timed
+		int probes = 0;
+		int solved = 0;
+		for (int[] path : paths) {
+			for (int i = 0; i < path.length; i += 2) {
+				probes++;
+				if (layout.probe(path[i], path[i + 1], dragView) != null) {
+					solved++;
+					checkSolution(layout, dragView, grid.name);
+				}
+			}
+		}
+		final Runnable run = new Runnable() {
+			public void run() {
+				for (int[] path : paths) {
+					for (int i = 0; i < path.length; i += 2) {
+						if (layout.probe(path[i], path[i + 1], dragView) != null) {
+							sSink += layout.mResult[0];
+						}
+					}
+				}
+			}
+		};
+		final double nanosPerProbe = time(run) / probes;
+
+		String bytes = "n/a";
+		if (allocations != null) {
+			final long before = allocations.get();
+			run.run();
+			final long allocated = allocations.get() - before;
+			bytes = String.format("%.1f", (double) allocated / probes);
+			check(allocated == 0, grid.name + ", " + span + "x" + span + " drag: "
+					+ allocated + " bytes allocated over " + probes + " probes");
+		}
+		System.out.println(String.format("%-12s %dx%d  %13d  %5.0f%%  %9.2f  %11s",
+				grid.name, span, span, probes, 100f * solved / probes,
+				nanosPerProbe / 1000, bytes));
+	}
+
+	/**
+	 * Places random items until the grid is covered to its density. If it has widgets, the
+	 * first item is one, so that there is always a widget to drag.
+	 */
+	private static void fill(Layout layout, Grid grid, Random random) {
+		final int cells = grid.countX * grid.countY;
+		int covered = 0;
+		for (int attempt = 0; attempt < cells * 8 && covered < cells * grid.density;
+				attempt++) {
+			final boolean first = covered == 0;
+			final int span = (first && grid.widgets > 0) || random.nextFloat() < grid.widgets
+					? 2 : 1;
+			final int x = random.nextInt(grid.countX - span + 1);
+			final int y = random.nextInt(grid.countY - span + 1);
+			if (!layout.mOccupied.isRegionVacant(x, y, span, span, null)) {
+				continue;
+			}
+			final Item item = new Item(x, y, span, span);
+			item.canReorder = first || random.nextFloat() >= grid.pinned;
+			layout.addView(item);
+			covered += span * span;
+		}
+	}
+
+	private static Item pickDragView(Layout layout, int span, Random random) {
+		final ArrayList<Item> candidates = new ArrayList<Item>();
+		for (Item item : layout.mChildren) {
+			if (item.cellHSpan == span && item.cellVSpan == span && item.canReorder) {
+				candidates.add(item);
+			}
+		}
+		return candidates.isEmpty() ? null
+				: candidates.get(random.nextInt(candidates.size()));
+	}
+
+	/**
+	 * Records the pixel positions of the center of dragView as a finger takes it from its
+	 * cell through random cells, hovering at each. Returns x, y pairs.
+	 */
+	private static int[] recordPath(Layout layout, Item dragView, Random random) {
+		final ArrayList<Integer> samples = new ArrayList<Integer>();
+		final int[] from = new int[2];
+		final int[] to = new int[2];
+		layout.regionToCenterPoint(dragView.cellX, dragView.cellY, dragView.cellHSpan,
+				dragView.cellVSpan, from);
+		for (int w = 0; w < WAYPOINTS; w++) {
+			layout.regionToCenterPoint(
+					random.nextInt(layout.mCountX - dragView.cellHSpan + 1),
+					random.nextInt(layout.mCountY - dragView.cellVSpan + 1),
+					dragView.cellHSpan, dragView.cellVSpan, to);
+			final float cells = Math.max(Math.abs(to[0] - from[0]) / (float) CELL_WIDTH,
+					Math.abs(to[1] - from[1]) / (float) CELL_HEIGHT);
+			final int steps = Math.max(1, Math.round(cells * SAMPLES_PER_CELL));
+			for (int s = 1; s <= steps; s++) {
+				// A finger is never quite on the line
+				samples.add(from[0] + (to[0] - from[0]) * s / steps + random.nextInt(9) - 4);
+				samples.add(from[1] + (to[1] - from[1]) * s / steps + random.nextInt(9) - 4);
+			}
+			for (int s = 0; s < HOVER_SAMPLES; s++) {
+				samples.add(to[0] + random.nextInt(5) - 2);
+				samples.add(to[1] + random.nextInt(5) - 2);
+			}
+			from[0] = to[0];
+			from[1] = to[1];
+		}
+		final int[] path = new int[samples.size()];
+		for (int i = 0; i < path.length; i++) {
+			path[i] = samples.get(i);
+		}
+		return path;
+	}
+
+	/**
+	 * The temp positions the probe left behind must keep every item inside the grid and
+	 * apart, with the dragged item where the solution put it.
+	 */
+	private static void checkSolution(Layout layout, Item dragView, String name) {
+		final GridOccupancy taken = new GridOccupancy(layout.mCountX, layout.mCountY);
+		final int[] result = layout.mResult;
+		final int[] span = layout.mResultSpan;
+		check(taken.isRegionVacant(result[0], result[1], span[0], span[1], null),
+				name + ": drop at " + result[0] + "," + result[1] + " is off the grid");
+		taken.markCells(result[0], result[1], span[0], span[1], true);
+		for (Item item : layout.mChildren) {
+			if (item == dragView) {
+				continue;
+			}
+			final String what = name + ": item from " + item.cellX + "," + item.cellY;
+			check(item.canReorder
+					|| (item.tmpCellX == item.cellX && item.tmpCellY == item.cellY),
+					what + " can't be reordered but was moved");
+			if (!taken.isRegionVacant(item.tmpCellX, item.tmpCellY, item.cellHSpan,
+					item.cellVSpan, null)) {
+				check(false, what + " overlaps or is off the grid at " + item.tmpCellX
+						+ "," + item.tmpCellY);
+				return;
+			}
+			taken.markCells(item.tmpCellX, item.tmpCellY, item.cellHSpan, item.cellVSpan,
+					true);
+		}
+	}
+
+	/** Stands in for a child view and its CellLayout.LayoutParams. */
+	private static final class Item {
+		int cellX;
+		int cellY;
+		int tmpCellX;
+		int tmpCellY;
+		int cellHSpan;
+		int cellVSpan;
+		boolean canReorder = true;
+
+		Item(int cellX, int cellY, int spanX, int spanY) {
+			this.cellX = tmpCellX = cellX;
+			this.cellY = tmpCellY = cellY;
+			cellHSpan = spanX;
+			cellVSpan = spanY;
+		}
+	}
+
+	/** Stands in for android.graphics.Rect, with the same empty rect semantics. */
+	private static final class Rect {
+		int left;
+		int top;
+		int right;
+		int bottom;
+
+		void set(int left, int top, int right, int bottom) {
+			this.left = left;
+			this.top = top;
+			this.right = right;
+			this.bottom = bottom;
+		}
+
+		void set(Rect r) {
+			set(r.left, r.top, r.right, r.bottom);
+		}
+
+		int width() {
+			return right - left;
+		}
+
+		int height() {
+			return bottom - top;
+		}
+
+		int centerX() {
+			return (left + right) >> 1;
+		}
+
+		int centerY() {
+			return (top + bottom) >> 1;
+		}
+
+		void offset(int dx, int dy) {
+			left += dx;
+			top += dy;
+			right += dx;
+			bottom += dy;
+		}
+
+		boolean contains(Rect r) {
+			return left < right && top < bottom && left <= r.left && top <= r.top
+					&& right >= r.right && bottom >= r.bottom;
+		}
+
+		void union(Rect r) {
+			union(r.left, r.top, r.right, r.bottom);
+		}
+
+		void union(int left, int top, int right, int bottom) {
+			if (left < right && top < bottom) {
+				if (this.left < this.right && this.top < this.bottom) {
+					this.left = Math.min(this.left, left);
+					this.top = Math.min(this.top, top);
+					this.right = Math.max(this.right, right);
+					this.bottom = Math.max(this.bottom, bottom);
+				} else {
+					set(left, top, right, bottom);
+				}
+			}
+		}
+
+		static boolean intersects(Rect a, Rect b) {
+			return a.left < b.right && b.left < a.right && a.top < b.bottom
+					&& b.top < a.bottom;
+		}
+	}
+
+	/**
+	 * The reorder solver of CellLayout, transcribed with its scratch state. Methods and
+	 * fields keep their names there.
+	 */
+	private static final class Layout {
+		private static final int REORDER_CACHE_SIZE = 8;
+
+		final int mCountX;
+		final int mCountY;
+		final ArrayList<Item> mChildren = new ArrayList<Item>();
+		final GridOccupancy mOccupied;
+		final GridOccupancy mTmpOccupied;
+		final int[] mResult = new int[2];
+		final int[] mResultSpan = new int[2];
+
+		private final ArrayList<Item> mIntersectingViews = new ArrayList<Item>();
+		private final Rect mOccupiedRect = new Rect();
+		private final ItemConfiguration mSwapSolution = new ItemConfiguration();
+		private final ItemConfiguration mNoShuffleSolution = new ItemConfiguration();
+		private boolean[] mIntersectingSlots = new boolean[0];
+		private boolean[] mMovingSlots = new boolean[0];
+		private final GridOccupancy mBlockOccupied;
+		private final Rect mBlockRect = new Rect();
+		private final Rect mPushRect = new Rect();
+		private final Rect mCompleteRect = new Rect();
+		private final Rect mCandidateRect = new Rect();
+		private final Rect mDragRect = new Rect();
+		private final Rect mDropRegionRect = new Rect();
+		private final Rect mBestRect = new Rect();
+		private final Stack<Rect> mValidRegions = new Stack<Rect>();
+		private final Stack<Rect> mTempRectStack = new Stack<Rect>();
+		private final int[] mSwapLocation = new int[2];
+		private final int[] mTargetDestination = new int[2];
+		private final int[] mNoShuffleLocation = new int[2];
+		private final int[] mNoShuffleSpan = new int[2];
+		private final int[] mTempLocation = new int[2];
+		private final int[] mTmpXY = new int[2];
+		private final int[] mTmpPoint = new int[2];
+		private final int[] mDirectionVector = new int[2];
+
+		private final ReorderAttempt[] mReorderCache = new ReorderAttempt[REORDER_CACHE_SIZE];
+		private int mReorderCacheSize;
+		private int mReorderCacheNext;
+		private GridOccupancy mReorderCacheOccupancy;
+		private int mReorderCacheGeneration;
+		private int mReorderCacheChildCount;
+
+		Layout(int countX, int countY) {
+			mCountX = countX;
+			mCountY = countY;
+			mOccupied = new GridOccupancy(countX, countY);
+			mTmpOccupied = new GridOccupancy(countX, countY);
+			mBlockOccupied = new GridOccupancy(countX, countY);
+		}
+
+		void addView(Item item) {
+			mChildren.add(item);
+			markCellsForView(item.cellX, item.cellY, item.cellHSpan, item.cellVSpan,
+					mOccupied, true);
+		}
+
+		void prepareChildForDrag(Item child) {
+			markCellsForView(child.cellX, child.cellY, child.cellHSpan, child.cellVSpan,
+					mOccupied, false);
+		}
+
+		/**
+		 * What createArea does in MODE_DRAG_OVER, up to the animations. Returns the
+		 * solution it settled on, or null.
+		 */
+		ItemConfiguration probe(int pixelX, int pixelY, Item dragView) {
+			final int spanX = dragView.cellHSpan;
+			final int spanY = dragView.cellVSpan;
+			final int[] result = mResult;
+			final int[] resultSpan = mResultSpan;
+			findNearestArea(pixelX, pixelY, spanX, spanY, result);
+			getDirectionVectorForDrop(pixelX, pixelY, spanX, spanY, dragView,
+					mDirectionVector);
+
+			ItemConfiguration swapSolution = simpleSwap(pixelX, pixelY, spanX, spanY,
+					spanX, spanY, mDirectionVector, dragView, true, mSwapSolution);
+			ItemConfiguration noShuffleSolution = findConfigurationNoShuffle(pixelX,
+					pixelY, spanX, spanY, spanX, spanY, dragView, mNoShuffleSolution);
+
+			ItemConfiguration finalSolution = null;
+			if (swapSolution.isSolution
+					&& swapSolution.area() >= noShuffleSolution.area()) {
+				finalSolution = swapSolution;
+			} else if (noShuffleSolution.isSolution) {
+				finalSolution = noShuffleSolution;
+			}
+			if (finalSolution != null) {
+				result[0] = finalSolution.dragViewX;
+				result[1] = finalSolution.dragViewY;
+				resultSpan[0] = finalSolution.dragViewSpanX;
+				resultSpan[1] = finalSolution.dragViewSpanY;
+				copySolutionToTempState(finalSolution, dragView);
+			} else {
+				result[0] = result[1] = resultSpan[0] = resultSpan[1] = -1;
+			}
+			return finalSolution;
+		}
+
+		void regionToCenterPoint(int cellX, int cellY, int spanX, int spanY, int[] result) {
+			result[0] = cellX * CELL_WIDTH + spanX * CELL_WIDTH / 2;
+			result[1] = cellY * CELL_HEIGHT + spanY * CELL_HEIGHT / 2;
+		}
+
+		private void cellToCenterPoint(int cellX, int cellY, int[] result) {
+			regionToCenterPoint(cellX, cellY, 1, 1, result);
+		}
+
+		private void regionToRect(int cellX, int cellY, int spanX, int spanY, Rect result) {
+			final int left = cellX * CELL_WIDTH;
+			final int top = cellY * CELL_HEIGHT;
+			result.set(left, top, left + spanX * CELL_WIDTH, top + spanY * CELL_HEIGHT);
+		}
+
+		private int[] findNearestArea(int pixelX, int pixelY, int spanX, int spanY,
+				int[] result) {
+			return findNearestArea(pixelX, pixelY, spanX, spanY, spanX, spanY, false,
+					result, null, mOccupied);
+		}
+
+		private void lazyInitTempRectStack() {
+			if (mTempRectStack.isEmpty()) {
+				for (int i = 0; i < mCountX * mCountY; i++) {
+					mTempRectStack.push(new Rect());
+				}
+			}
+		}
+
+		private void recycleTempRects(Stack<Rect> used) {
+			while (!used.isEmpty()) {
+				mTempRectStack.push(used.pop());
+			}
+		}
+
+		// The ignoreView of CellLayout is always null on these paths, so it is left out
+		private int[] findNearestArea(int pixelX, int pixelY, int minSpanX, int minSpanY,
+				int spanX, int spanY, boolean ignoreOccupied, int[] result,
+				int[] resultSpan, GridOccupancy occupied) {
+			lazyInitTempRectStack();
+			pixelX -= CELL_WIDTH * (spanX - 1) / 2f;
+			pixelY -= CELL_HEIGHT * (spanY - 1) / 2f;
+
+			final int[] bestXY = result != null ? result : new int[2];
+			long bestDistance = Long.MAX_VALUE;
+			final Rect bestRect = mBestRect;
+			bestRect.set(-1, -1, -1, -1);
+			final Stack<Rect> validRegions = mValidRegions;
+
+			final int countX = mCountX;
+			final int countY = mCountY;
+			if (minSpanX <= 0 || minSpanY <= 0 || spanX <= 0 || spanY <= 0
+					|| spanX < minSpanX || spanY < minSpanY) {
+				return bestXY;
+			}
+
+			for (int y = 0; y < countY - (minSpanY - 1); y++) {
+				final long origins = ignoreOccupied ? occupied.vacantOrigins(y,
+						minSpanX, minSpanY) : 0;
+				for (int x = 0; x < countX - (minSpanX - 1); x++) {
+					int ySize = -1;
+					int xSize = -1;
+					if (ignoreOccupied) {
+						if ((origins & (1L << x)) == 0) {
+							continue;
+						}
+						xSize = minSpanX;
+						ySize = minSpanY;
+
+						boolean incX = true;
+						boolean hitMaxX = xSize >= spanX;
+						boolean hitMaxY = ySize >= spanY;
+						while (!(hitMaxX && hitMaxY)) {
+							if (incX && !hitMaxX) {
+								if (!occupied.isRegionVacant(x + xSize, y, 1, ySize, null)) {
+									hitMaxX = true;
+								}
+								if (!hitMaxX) {
+									xSize++;
+								}
+							} else if (!hitMaxY) {
+								if (!occupied.isRegionVacant(x, y + ySize, xSize, 1, null)) {
+									hitMaxY = true;
+								}
+								if (!hitMaxY) {
+									ySize++;
+								}
+							}
+							hitMaxX |= xSize >= spanX;
+							hitMaxY |= ySize >= spanY;
+							incX = !incX;
+						}
+					}
+					final int[] cellXY = mTmpXY;
+					cellToCenterPoint(x, y, cellXY);
+
+					Rect currentRect = mTempRectStack.pop();
+					currentRect.set(x, y, x + xSize, y + ySize);
+					boolean contained = false;
+					for (Rect r : validRegions) {
+						if (r.contains(currentRect)) {
+							contained = true;
+							break;
+						}
+					}
+					validRegions.push(currentRect);
+					final long dx = cellXY[0] - pixelX;
+					final long dy = cellXY[1] - pixelY;
+					final long distance = dx * dx + dy * dy;
+
+					if ((distance <= bestDistance && !contained)
+							|| currentRect.contains(bestRect)) {
+						bestDistance = distance;
+						bestXY[0] = x;
+						bestXY[1] = y;
+						if (resultSpan != null) {
+							resultSpan[0] = xSize;
+							resultSpan[1] = ySize;
+						}
+						bestRect.set(currentRect);
+					}
+				}
+			}
+
+			if (bestDistance == Long.MAX_VALUE) {
+				bestXY[0] = -1;
+				bestXY[1] = -1;
+			}
+			recycleTempRects(validRegions);
+			return bestXY;
+		}
+
+		private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY,
+				int[] direction, GridOccupancy occupied, GridOccupancy blockOccupied,
+				int[] result) {
+			final int[] bestXY = result != null ? result : new int[2];
+			int bestDistance = Integer.MAX_VALUE;
+			int bestDirectionScore = Integer.MIN_VALUE;
+
+			final int countX = mCountX;
+			final int countY = mCountY;
+
+			for (int y = 0; y < countY - (spanY - 1); y++) {
+				final long origins = blockOccupied == null ? occupied.vacantOrigins(y,
+						spanX, spanY) : 0;
+				for (int x = 0; x < countX - (spanX - 1); x++) {
+					if (blockOccupied == null ? (origins & (1L << x)) == 0
+							: !occupied.isRegionVacant(x, y, spanX, spanY, blockOccupied)) {
+						continue;
+					}
+
+					int distance = (x - cellX) * (x - cellX) + (y - cellY) * (y - cellY);
+					int[] curDirection = mTmpPoint;
+					computeDirectionVector(x - cellX, y - cellY, curDirection);
+					int curDirectionScore = direction[0] * curDirection[0]
+							+ direction[1] * curDirection[1];
+					boolean exactDirectionOnly = false;
+					boolean directionMatches = direction[0] == curDirection[0]
+							&& direction[0] == curDirection[0];
+					if ((directionMatches || !exactDirectionOnly)
+							&& distance < bestDistance
+							|| (distance == bestDistance
+									&& curDirectionScore > bestDirectionScore)) {
+						bestDistance = distance;
+						bestDirectionScore = curDirectionScore;
+						bestXY[0] = x;
+						bestXY[1] = y;
+					}
+				}
+			}
+
+			if (bestDistance == Integer.MAX_VALUE) {
+				bestXY[0] = -1;
+				bestXY[1] = -1;
+			}
+			return bestXY;
+		}
+
+		private int[] findNearestAreaInDirection(int cellX, int cellY, int spanX,
+				int spanY, int[] direction, GridOccupancy occupied,
+				GridOccupancy blockOccupied, int[] result) {
+			final int[] bestXY = result != null ? result : new int[2];
+			bestXY[0] = -1;
+			bestXY[1] = -1;
+			int bestDistance = Integer.MAX_VALUE;
+
+			if ((direction[0] != 0 && direction[1] != 0)
+					|| (direction[0] == 0 && direction[1] == 0)) {
+				return bestXY;
+			}
+
+			int x = cellX + direction[0];
+			int y = cellY + direction[1];
+			while (x >= 0 && x + spanX <= mCountX && y >= 0 && y + spanY <= mCountY) {
+				if (occupied.isRegionVacant(x, y, spanX, spanY, blockOccupied)) {
+					int distance = (x - cellX) * (x - cellX) + (y - cellY) * (y - cellY);
+					if (distance < bestDistance) {
+						bestDistance = distance;
+						bestXY[0] = x;
+						bestXY[1] = y;
+					}
+				}
+				x += direction[0];
+				y += direction[1];
+			}
+			return bestXY;
+		}
+
+		private boolean addViewToTempLocation(int slot, Rect rectOccupiedByPotentialDrop,
+				int[] direction, ItemConfiguration currentState) {
+			final ItemConfiguration c = currentState;
+			boolean success = false;
+			markCellsForView(c.x[slot], c.y[slot], c.spanX[slot], c.spanY[slot],
+					mTmpOccupied, false);
+			markCellsForRect(rectOccupiedByPotentialDrop, mTmpOccupied, true);
+
+			findNearestArea(c.x[slot], c.y[slot], c.spanX[slot], c.spanY[slot],
+					direction, mTmpOccupied, null, mTempLocation);
+
+			if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+				c.x[slot] = mTempLocation[0];
+				c.y[slot] = mTempLocation[1];
+				success = true;
+			}
+			markCellsForView(c.x[slot], c.y[slot], c.spanX[slot], c.spanY[slot],
+					mTmpOccupied, true);
+			return success;
+		}
+
+		private boolean addViewInDirection(boolean[] views, Rect boundingRect,
+				int[] direction, GridOccupancy occupied, int dragSlot,
+				ItemConfiguration currentState) {
+			boolean found = false;
+
+			final ItemConfiguration c = currentState;
+			final Rect r0 = mPushRect;
+			final Rect r1 = mCandidateRect;
+			r0.set(boundingRect);
+
+			int deltaX = 0;
+			int deltaY = 0;
+			if (direction[1] < 0) {
+				r0.set(r0.left, r0.top - 1, r0.right, r0.bottom - 1);
+				deltaY = -1;
+			} else if (direction[1] > 0) {
+				r0.set(r0.left, r0.top + 1, r0.right, r0.bottom + 1);
+				deltaY = 1;
+			} else if (direction[0] < 0) {
+				r0.set(r0.left - 1, r0.top, r0.right - 1, r0.bottom);
+				deltaX = -1;
+			} else if (direction[0] > 0) {
+				r0.set(r0.left + 1, r0.top, r0.right + 1, r0.bottom);
+				deltaX = 1;
+			}
+
+			for (int i = 0; i < c.count; i++) {
+				if (views[i] || i == dragSlot)
+					continue;
+
+				Item lp = c.views[i];
+				r1.set(c.x[i], c.y[i], c.x[i] + c.spanX[i], c.y[i] + c.spanY[i]);
+				if (Rect.intersects(r0, r1)) {
+					if (!lp.canReorder) {
+						return false;
+					}
+					if ((direction[0] < 0 && c.x[i] == r0.left)
+							|| (direction[0] > 0 && c.x[i] == r0.right - 1)
+							|| (direction[1] < 0 && c.y[i] == r0.top)
+							|| (direction[1] > 0 && c.y[i] == r0.bottom - 1)) {
+						boolean pushed = false;
+						search: for (int x = r1.left; x < r1.right; x++) {
+							for (int y = r1.top; y < r1.bottom; y++) {
+								if (occupied.get(x - deltaX, y - deltaY)) {
+									pushed = true;
+									break search;
+								}
+							}
+						}
+						if (pushed) {
+							views[i] = true;
+							boundingRect.union(r1);
+							found = true;
+						}
+					}
+				}
+			}
+			return found;
+		}
+
+		private void completeSetOfViewsToMove(boolean[] views, Rect boundingRect,
+				int[] direction, GridOccupancy occupied, int dragSlot,
+				ItemConfiguration currentState) {
+			final Rect r0 = mCompleteRect;
+			r0.set(boundingRect);
+			int minRuns = 0;
+
+			if (direction[1] < 0) {
+				r0.set(r0.left, r0.bottom - 1, r0.right, r0.bottom);
+			} else if (direction[1] > 0) {
+				r0.set(r0.left, r0.top, r0.right, r0.top + 1);
+			} else if (direction[0] < 0) {
+				r0.set(r0.right - 1, r0.top, r0.right, r0.bottom);
+			} else if (direction[0] > 0) {
+				r0.set(r0.left, r0.top, r0.left + 1, r0.bottom);
+			}
+
+			minRuns = Math.max(Math.abs(boundingRect.width() - r0.width()),
+					Math.abs(boundingRect.height() - r0.height())) + 1;
+
+			while (addViewInDirection(views, r0, direction, mTmpOccupied, dragSlot,
+					currentState) || minRuns > 0) {
+				minRuns--;
+			}
+			boundingRect.union(r0);
+		}
+
+		private boolean addViewsToTempLocation(boolean[] views,
+				Rect rectOccupiedByPotentialDrop, int[] direction, boolean push,
+				int dragSlot, ItemConfiguration currentState) {
+			final ItemConfiguration c = currentState;
+			final boolean[] moving = mMovingSlots;
+			final Rect boundingRect = mBlockRect;
+			boolean empty = true;
+			for (int i = 0; i < c.count; i++) {
+				moving[i] = views[i];
+				if (!views[i])
+					continue;
+				if (empty) {
+					boundingRect.set(c.x[i], c.y[i], c.x[i] + c.spanX[i],
+							c.y[i] + c.spanY[i]);
+					empty = false;
+				} else {
+					boundingRect.union(c.x[i], c.y[i], c.x[i] + c.spanX[i],
+							c.y[i] + c.spanY[i]);
+				}
+			}
+			if (empty)
+				return true;
+
+			boolean success = false;
+			if (push) {
+				completeSetOfViewsToMove(moving, boundingRect, direction, mTmpOccupied,
+						dragSlot, currentState);
+			}
+
+			for (int i = 0; i < c.count; i++) {
+				if (moving[i]) {
+					markCellsForView(c.x[i], c.y[i], c.spanX[i], c.spanY[i],
+							mTmpOccupied, false);
+				}
+			}
+
+			final GridOccupancy blockOccupied = mBlockOccupied;
+			blockOccupied.clear();
+			int top = boundingRect.top;
+			int left = boundingRect.left;
+			for (int i = 0; i < c.count; i++) {
+				if (moving[i]) {
+					blockOccupied.markCells(c.x[i] - left, c.y[i] - top, c.spanX[i],
+							c.spanY[i], true);
+				}
+			}
+
+			markCellsForRect(rectOccupiedByPotentialDrop, mTmpOccupied, true);
+
+			if (push) {
+				findNearestAreaInDirection(boundingRect.left, boundingRect.top,
+						boundingRect.width(), boundingRect.height(), direction,
+						mTmpOccupied, blockOccupied, mTempLocation);
+			} else {
+				findNearestArea(boundingRect.left, boundingRect.top,
+						boundingRect.width(), boundingRect.height(), direction,
+						mTmpOccupied, blockOccupied, mTempLocation);
+			}
+
+			if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+				int deltaX = mTempLocation[0] - boundingRect.left;
+				int deltaY = mTempLocation[1] - boundingRect.top;
+				for (int i = 0; i < c.count; i++) {
+					if (moving[i]) {
+						c.x[i] += deltaX;
+						c.y[i] += deltaY;
+					}
+				}
+				success = true;
+			}
+
+			for (int i = 0; i < c.count; i++) {
+				if (moving[i]) {
+					markCellsForView(c.x[i], c.y[i], c.spanX[i], c.spanY[i],
+							mTmpOccupied, true);
+				}
+			}
+			return success;
+		}
+
+		private void markCellsForRect(Rect r, GridOccupancy occupied, boolean value) {
+			markCellsForView(r.left, r.top, r.width(), r.height(), occupied, value);
+		}
+
+		private boolean attemptPushInDirection(boolean[] intersectingViews, Rect occupied,
+				int[] direction, int ignoreView, ItemConfiguration solution) {
+			if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
+				int temp = direction[1];
+				direction[1] = 0;
+				if (addViewsToTempLocation(intersectingViews, occupied, direction, true,
+						ignoreView, solution)) {
+					return true;
+				}
+				direction[1] = temp;
+				temp = direction[0];
+				direction[0] = 0;
+				if (addViewsToTempLocation(intersectingViews, occupied, direction, true,
+						ignoreView, solution)) {
+					return true;
+				}
+				direction[0] = temp;
+
+				direction[0] *= -1;
+				direction[1] *= -1;
+				temp = direction[1];
+				direction[1] = 0;
+				if (addViewsToTempLocation(intersectingViews, occupied, direction, true,
+						ignoreView, solution)) {
+					return true;
+				}
+
+				direction[1] = temp;
+				temp = direction[0];
+				direction[0] = 0;
+				if (addViewsToTempLocation(intersectingViews, occupied, direction, true,
+						ignoreView, solution)) {
+					return true;
+				}
+				direction[0] = temp;
+				direction[0] *= -1;
+				direction[1] *= -1;
+			} else {
+				if (addViewsToTempLocation(intersectingViews, occupied, direction, true,
+						ignoreView, solution)) {
+					return true;
+				}
+
+				direction[0] *= -1;
+				direction[1] *= -1;
+				if (addViewsToTempLocation(intersectingViews, occupied, direction, true,
+						ignoreView, solution)) {
+					return true;
+				}
+				direction[0] *= -1;
+				direction[1] *= -1;
+
+				int temp = direction[1];
+				direction[1] = direction[0];
+				direction[0] = temp;
+				if (addViewsToTempLocation(intersectingViews, occupied, direction, true,
+						ignoreView, solution)) {
+					return true;
+				}
+
+				direction[0] *= -1;
+				direction[1] *= -1;
+				if (addViewsToTempLocation(intersectingViews, occupied, direction, true,
+						ignoreView, solution)) {
+					return true;
+				}
+				direction[0] *= -1;
+				direction[1] *= -1;
+
+				temp = direction[1];
+				direction[1] = direction[0];
+				direction[0] = temp;
+			}
+			return false;
+		}
+
+		private boolean rearrangementExistsCached(int cellX, int cellY, int spanX,
+				int spanY, int[] direction, Item ignoreView, ItemConfiguration solution) {
+			if (mReorderCacheOccupancy != mOccupied
+					|| mReorderCacheGeneration != mOccupied.getGeneration()
+					|| mReorderCacheChildCount != solution.count) {
+				clearReorderCache();
+				mReorderCacheOccupancy = mOccupied;
+				mReorderCacheGeneration = mOccupied.getGeneration();
+				mReorderCacheChildCount = solution.count;
+			}
+
+			for (int i = 0; i < mReorderCacheSize; i++) {
+				final ReorderAttempt a = mReorderCache[i];
+				if (a.matches(cellX, cellY, spanX, spanY, direction, ignoreView)) {
+					a.copyTo(solution, direction);
+					return a.success;
+				}
+			}
+
+			ReorderAttempt a = mReorderCache[mReorderCacheNext];
+			if (a == null) {
+				a = mReorderCache[mReorderCacheNext] = new ReorderAttempt();
+			}
+			a.set(cellX, cellY, spanX, spanY, direction, ignoreView);
+			a.success = rearrangementExists(cellX, cellY, spanX, spanY, direction,
+					ignoreView, solution);
+			a.copyFrom(solution, direction);
+			if (mReorderCacheSize < REORDER_CACHE_SIZE) {
+				mReorderCacheSize++;
+			}
+			mReorderCacheNext = (mReorderCacheNext + 1) % REORDER_CACHE_SIZE;
+			return a.success;
+		}
+
+		private void clearReorderCache() {
+			for (int i = 0; i < mReorderCacheSize; i++) {
+				mReorderCache[i].dragView = null;
+			}
+			mReorderCacheSize = 0;
+			mReorderCacheNext = 0;
+			mReorderCacheOccupancy = null;
+		}
+
+		private boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY,
+				int[] direction, Item ignoreView, ItemConfiguration solution) {
+			if (cellX < 0 || cellY < 0)
+				return false;
+
+			final ItemConfiguration c = solution;
+			final boolean[] intersecting = mIntersectingSlots;
+			final Rect r0 = mOccupiedRect;
+			final Rect r1 = mCandidateRect;
+			r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+
+			final int dragSlot = c.indexOf(ignoreView);
+			if (dragSlot >= 0) {
+				c.x[dragSlot] = cellX;
+				c.y[dragSlot] = cellY;
+			}
+			for (int i = 0; i < c.count; i++) {
+				intersecting[i] = false;
+				if (i == dragSlot)
+					continue;
+				Item lp = c.views[i];
+				r1.set(c.x[i], c.y[i], c.x[i] + c.spanX[i], c.y[i] + c.spanY[i]);
+				if (Rect.intersects(r0, r1)) {
+					if (!lp.canReorder) {
+						return false;
+					}
+					intersecting[i] = true;
+				}
+			}
+
+			if (attemptPushInDirection(intersecting, r0, direction, dragSlot, solution)) {
+				return true;
+			}
+
+			if (addViewsToTempLocation(intersecting, r0, direction, false, dragSlot,
+					solution)) {
+				return true;
+			}
+
+			for (int i = 0; i < c.count; i++) {
+				if (intersecting[i] && !addViewToTempLocation(i, r0, direction, solution)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void computeDirectionVector(float deltaX, float deltaY, int[] result) {
+			final float dx2 = deltaX * deltaX;
+			final float dy2 = deltaY * deltaY;
+
+			result[0] = 0;
+			result[1] = 0;
+			if (3 * dx2 > dy2) {
+				result[0] = (int) Math.signum(deltaX);
+			}
+			if (3 * dy2 > dx2) {
+				result[1] = (int) Math.signum(deltaY);
+			}
+		}
+
+		ItemConfiguration simpleSwap(int pixelX, int pixelY, int minSpanX, int minSpanY,
+				int spanX, int spanY, int[] direction, Item dragView, boolean decX,
+				ItemConfiguration solution) {
+			final int[] result = mSwapLocation;
+			while (true) {
+				copyCurrentStateToSolution(solution, false);
+				mTmpOccupied.copyFrom(mOccupied);
+
+				findNearestArea(pixelX, pixelY, spanX, spanY, result);
+
+				if (rearrangementExistsCached(result[0], result[1], spanX, spanY,
+						direction, dragView, solution)) {
+					solution.isSolution = true;
+					solution.dragViewX = result[0];
+					solution.dragViewY = result[1];
+					solution.dragViewSpanX = spanX;
+					solution.dragViewSpanY = spanY;
+					return solution;
+				}
+
+				if (spanX > minSpanX && (minSpanY == spanY || decX)) {
+					spanX--;
+					decX = false;
+				} else if (spanY > minSpanY) {
+					spanY--;
+					decX = true;
+				} else {
+					solution.isSolution = false;
+					return solution;
+				}
+			}
+		}
+
+		private void copyCurrentStateToSolution(ItemConfiguration solution, boolean temp) {
+			int childCount = mChildren.size();
+			solution.reset(childCount);
+			if (mIntersectingSlots.length < childCount) {
+				mIntersectingSlots = new boolean[childCount];
+				mMovingSlots = new boolean[childCount];
+			}
+			for (int i = 0; i < childCount; i++) {
+				Item lp = mChildren.get(i);
+				solution.views[i] = lp;
+				solution.x[i] = temp ? lp.tmpCellX : lp.cellX;
+				solution.y[i] = temp ? lp.tmpCellY : lp.cellY;
+				solution.spanX[i] = lp.cellHSpan;
+				solution.spanY[i] = lp.cellVSpan;
+			}
+		}
+
+		private void copySolutionToTempState(ItemConfiguration solution, Item dragView) {
+			mTmpOccupied.clear();
+
+			final ItemConfiguration c = solution;
+			for (int i = 0; i < c.count; i++) {
+				Item lp = c.views[i];
+				if (lp == dragView)
+					continue;
+				lp.tmpCellX = c.x[i];
+				lp.tmpCellY = c.y[i];
+				lp.cellHSpan = c.spanX[i];
+				lp.cellVSpan = c.spanY[i];
+				markCellsForView(c.x[i], c.y[i], c.spanX[i], c.spanY[i], mTmpOccupied,
+						true);
+			}
+			markCellsForView(solution.dragViewX, solution.dragViewY,
+					solution.dragViewSpanX, solution.dragViewSpanY, mTmpOccupied, true);
+		}
+
+		ItemConfiguration findConfigurationNoShuffle(int pixelX, int pixelY, int minSpanX,
+				int minSpanY, int spanX, int spanY, Item dragView,
+				ItemConfiguration solution) {
+			final int[] result = mNoShuffleLocation;
+			final int[] resultSpan = mNoShuffleSpan;
+			findNearestArea(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY, true,
+					result, resultSpan, mOccupied);
+			if (result[0] >= 0 && result[1] >= 0) {
+				copyCurrentStateToSolution(solution, false);
+				solution.dragViewX = result[0];
+				solution.dragViewY = result[1];
+				solution.dragViewSpanX = resultSpan[0];
+				solution.dragViewSpanY = resultSpan[1];
+				solution.isSolution = true;
+			} else {
+				solution.isSolution = false;
+			}
+			return solution;
+		}
+
+		private void getDirectionVectorForDrop(int dragViewCenterX, int dragViewCenterY,
+				int spanX, int spanY, Item dragView, int[] resultDirection) {
+			final int[] targetDestination = mTargetDestination;
+
+			findNearestArea(dragViewCenterX, dragViewCenterY, spanX, spanY,
+					targetDestination);
+			final Rect dragRect = mDragRect;
+			regionToRect(targetDestination[0], targetDestination[1], spanX, spanY,
+					dragRect);
+			dragRect.offset(dragViewCenterX - dragRect.centerX(),
+					dragViewCenterY - dragRect.centerY());
+
+			final Rect dropRegionRect = mDropRegionRect;
+			getViewsIntersectingRegion(targetDestination[0], targetDestination[1], spanX,
+					spanY, dragView, dropRegionRect, mIntersectingViews);
+
+			int dropRegionSpanX = dropRegionRect.width();
+			int dropRegionSpanY = dropRegionRect.height();
+
+			regionToRect(dropRegionRect.left, dropRegionRect.top, dropRegionRect.width(),
+					dropRegionRect.height(), dropRegionRect);
+
+			int deltaX = (dropRegionRect.centerX() - dragViewCenterX) / spanX;
+			int deltaY = (dropRegionRect.centerY() - dragViewCenterY) / spanY;
+
+			if (dropRegionSpanX == mCountX || spanX == mCountX) {
+				deltaX = 0;
+			}
+			if (dropRegionSpanY == mCountY || spanY == mCountY) {
+				deltaY = 0;
+			}
+
+			if (deltaX == 0 && deltaY == 0) {
+				resultDirection[0] = 1;
+				resultDirection[1] = 0;
+			} else {
+				computeDirectionVector(deltaX, deltaY, resultDirection);
+			}
+		}
+
+		private void getViewsIntersectingRegion(int cellX, int cellY, int spanX, int spanY,
+				Item dragView, Rect boundingRect, ArrayList<Item> intersectingViews) {
+			if (boundingRect != null) {
+				boundingRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
+			}
+			intersectingViews.clear();
+			final Rect r0 = mOccupiedRect;
+			r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+			final Rect r1 = mCandidateRect;
+			final int count = mChildren.size();
+			for (int i = 0; i < count; i++) {
+				Item child = mChildren.get(i);
+				if (child == dragView)
+					continue;
+				r1.set(child.cellX, child.cellY, child.cellX + child.cellHSpan,
+						child.cellY + child.cellVSpan);
+				if (Rect.intersects(r0, r1)) {
+					intersectingViews.add(child);
+					if (boundingRect != null) {
+						boundingRect.union(r1);
+					}
+				}
+			}
+		}
+
+		private void markCellsForView(int cellX, int cellY, int spanX, int spanY,
+				GridOccupancy occupied, boolean value) {
+			occupied.markCells(cellX, cellY, spanX, spanY, value);
+		}
+	}
+
+	/** CellLayout.ItemConfiguration, over Items. */
+	private static class ItemConfiguration {
+		Item[] views = new Item[0];
+		int[] x = new int[0];
+		int[] y = new int[0];
+		int[] spanX = new int[0];
+		int[] spanY = new int[0];
+		int count;
+		boolean isSolution = false;
+		int dragViewX, dragViewY, dragViewSpanX, dragViewSpanY;
+
+		void reset(int childCount) {
+			if (views.length < childCount) {
+				views = new Item[childCount];
+				x = new int[childCount];
+				y = new int[childCount];
+				spanX = new int[childCount];
+				spanY = new int[childCount];
+			} else if (count > childCount) {
+				Arrays.fill(views, childCount, count, null);
+			}
+			count = childCount;
+			isSolution = false;
+		}
+
+		int indexOf(Item v) {
+			for (int i = 0; i < count; i++) {
+				if (views[i] == v) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		int area() {
+			return dragViewSpanX * dragViewSpanY;
+		}
+	}
+
+	/** CellLayout.ReorderAttempt, over Items. */
+	private static class ReorderAttempt {
+		int cellX, cellY, spanX, spanY;
+		int directionX, directionY;
+		Item dragView;
+		boolean success;
+		int[] x = new int[0];
+		int[] y = new int[0];
+		int resultDirectionX, resultDirectionY;
+
+		void set(int cellX, int cellY, int spanX, int spanY, int[] direction,
+				Item dragView) {
+			this.cellX = cellX;
+			this.cellY = cellY;
+			this.spanX = spanX;
+			this.spanY = spanY;
+			directionX = direction[0];
+			directionY = direction[1];
+			this.dragView = dragView;
+		}
+
+		boolean matches(int cellX, int cellY, int spanX, int spanY, int[] direction,
+				Item dragView) {
+			return this.cellX == cellX && this.cellY == cellY && this.spanX == spanX
+					&& this.spanY == spanY && directionX == direction[0]
+					&& directionY == direction[1] && this.dragView == dragView;
+		}
+
+		void copyFrom(ItemConfiguration solution, int[] direction) {
+			resultDirectionX = direction[0];
+			resultDirectionY = direction[1];
+			if (!success) {
+				return;
+			}
+			if (x.length < solution.count) {
+				x = new int[solution.count];
+				y = new int[solution.count];
+			}
+			System.arraycopy(solution.x, 0, x, 0, solution.count);
+			System.arraycopy(solution.y, 0, y, 0, solution.count);
+		}
+
+		void copyTo(ItemConfiguration solution, int[] direction) {
+			direction[0] = resultDirectionX;
+			direction[1] = resultDirectionY;
+			if (!success) {
+				return;
+			}
+			System.arraycopy(x, 0, solution.x, 0, solution.count);
+			System.arraycopy(y, 0, solution.y, 0, solution.count);
+		}
+	}
+
+	/** The bytes the current thread has allocated, from the HotSpot management bean. */
+	private static final class Allocations {
+		private final com.sun.management.ThreadMXBean mBean;
+		private final long mThreadId = Thread.currentThread().getId();
+
+		private Allocations(com.sun.management.ThreadMXBean bean) {
+			mBean = bean;
+		}
+
+		/** Returns null if the JVM can't count allocations per thread. */
+		static Allocations create() {
+			try {
+				final java.lang.management.ThreadMXBean bean =
+						ManagementFactory.getThreadMXBean();
+				if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+					return null;
+				}
+				final com.sun.management.ThreadMXBean sunBean =
+						(com.sun.management.ThreadMXBean) bean;
+				if (!sunBean.isThreadAllocatedMemorySupported()) {
+					return null;
+				}
+				sunBean.setThreadAllocatedMemoryEnabled(true);
+				return new Allocations(sunBean);
+			} catch (LinkageError e) {
+				return null;
+			}
+		}
+
+		long get() {
+			return mBean.getThreadAllocatedBytes(mThreadId);
+		}
+	}
+
+	/** Returns the nanoseconds per run of r, after warming it up. */
+	private static double time(Runnable r) {
+		run(r, WARMUP_NANOS, new long[1]);
+		final long[] runs = new long[1];
+		final long nanos = run(r, RUN_NANOS, runs);
+		return (double) nanos / runs[0];
+	}
+
+	private static long run(Runnable r, long budget, long[] runs) {
+		final long start = System.nanoTime();
+		long elapsed;
+		do {
+			r.run();
+			runs[0]++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < budget);
+		return elapsed;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			sFailures++;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}